@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helenus.data.node.AbstractNode;
+import com.helenus.data.node.Node;
+
+/**
+ * Cost of parsing the addresses of the nodes, and of creating a {@link Node}.
+ * <p>
+ * Creating a node resolves its address, including the reverse lookup of the
+ * host name: the result depends on the resolver of the machine.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AddressBenchmark {
+    private String ipAndPort = "127.0.0.1:9160";
+    private String urlAndPort = "http://www.example.org:9160";
+
+    @Benchmark
+    public boolean matchIp() {
+        return AbstractNode.matchIp(ipAndPort);
+    }
+
+    @Benchmark
+    public boolean matchUrl() {
+        return AbstractNode.matchUrl(urlAndPort);
+    }
+
+    @Benchmark
+    public String[] splitAddress() {
+        return AbstractNode.splitAddress(ipAndPort);
+    }
+
+    @Benchmark
+    public String[] splitUrl() {
+        return AbstractNode.splitAddress(urlAndPort);
+    }
+
+    @Benchmark
+    public Node newNode() {
+        return new Node(ipAndPort);
+    }
+}
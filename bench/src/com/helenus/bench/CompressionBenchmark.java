@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.bench;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.buffer.PooledBuffer;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.FrameCodec;
+import com.helenus.protocol.Lz4Compressor;
+import com.helenus.protocol.Opcode;
+
+/**
+ * CPU cost of the LZ4 compression of the frames, and bytes saved on the wire,
+ * for JSON documents and for random, incompressible, data.
+ * <p>
+ * The <tt>frameBytes</tt> counter is the size of an encoded frame, to be
+ * compared with the one of <tt>encodeUncompressed</tt> for the same payload.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompressionBenchmark {
+    @Param({ "json", "random" })
+    private String payload;
+
+    @Param({ "1024", "65536" })
+    private int size;
+
+    private final Lz4Compressor lz4 = new Lz4Compressor();
+    private BufferPool pool;
+    private Frame frame;
+    private ByteBuffer compressed;
+
+    /**
+     * The bytes written on the wire for a frame.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wire {
+        public long frameBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            frameBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        final byte[] body = new byte[size];
+
+        if ("json".equals(payload)) {
+            final StringBuilder json = new StringBuilder();
+            final Random random = new Random(42);
+
+            while (json.length() < size) {
+                json.append("{\"id\": ").append(random.nextInt(100000)).append(", \"name\": \"user")
+                        .append(random.nextInt(1000)).append("\", \"active\": ").append(random.nextBoolean())
+                        .append(", \"tags\": [\"cassandra\", \"helenus\"]},");
+            }
+
+            System.arraycopy(json.toString().getBytes(Charset.forName("UTF-8")), 0, body, 0, size);
+        } else {
+            new Random(42).nextBytes(body);
+        }
+
+        pool = new BufferPool(false);
+        frame = new Frame(Opcode.QUERY, ByteBuffer.wrap(body));
+        compressed = ByteBuffer.allocate(lz4.maxCompressedLength(size));
+        lz4.compress(ByteBuffer.wrap(body), compressed);
+        compressed.flip();
+    }
+
+    @Benchmark
+    public int encodeUncompressed(final Wire wire) {
+        final PooledBuffer encoded = FrameCodec.encode(frame, 1, pool);
+        final int length = encoded.buffer().remaining();
+
+        wire.frameBytes = length;
+        encoded.release();
+
+        return length;
+    }
+
+    @Benchmark
+    public int encodeCompressed(final Wire wire) {
+        final PooledBuffer encoded = FrameCodec.encode(frame, 1, pool, lz4);
+        final int length = encoded.buffer().remaining();
+
+        wire.frameBytes = length;
+        encoded.release();
+
+        return length;
+    }
+
+    @Benchmark
+    public int decompress() throws ProtocolException {
+        final PooledBuffer decompressed = pool.allocate(size);
+
+        lz4.decompress(compressed.duplicate(), decompressed.buffer());
+
+        final int length = decompressed.buffer().position();
+        decompressed.release();
+
+        return length;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helenus.configuration.Configuration;
+
+/**
+ * Cost of cloning a {@link Configuration}.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConfigurationBenchmark {
+
+    @Param({ "3", "64" })
+    private int nodes;
+
+    private Configuration configuration;
+
+    @Setup
+    public void setUp() {
+        configuration = new Configuration();
+        configuration.setRpcPort(9160);
+        configuration.setClusterName("Benchmark cluster");
+        configuration.setKeyspace("Keyspace");
+
+        for (int i = 0; i < nodes; i++) {
+            configuration.addNode("127.0.0." + (i + 1));
+            configuration.addToken("127.0.0." + (i + 1), Integer.toString(i));
+        }
+    }
+
+    @Benchmark
+    public Configuration cloneConfiguration() {
+        return configuration.clone();
+    }
+
+    @Benchmark
+    public boolean cloneAndCompare() {
+        return configuration.clone().equals(configuration);
+    }
+}
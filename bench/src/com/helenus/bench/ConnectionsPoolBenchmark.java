@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.bench;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helenus.data.connection.IConnection;
+import com.helenus.pool.connections.SimpleConnectionsPool;
+import com.helenus.pool.connections.ThreadAffineConnectionsPool;
+
+/**
+ * Throughput of a get and a give on the pools of connections, with an
+ * increasing number of threads.
+ * <p>
+ * With more threads than connections, the threads contend for the
+ * connections: the results show the cost of the waiting, not only of the
+ * bookkeeping.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConnectionsPoolBenchmark {
+    private static final String ADDRESS = "127.0.0.1";
+    private static final int PORT = 9160;
+    private static final long TIMEOUT = 10;
+
+    @Param({ "4", "16" })
+    private int maxConnections;
+
+    private SimpleConnectionsPool pool;
+    private ThreadAffineConnectionsPool affinePool;
+
+    @Setup
+    public void setUp() throws InterruptedException, ExecutionException {
+        pool = new SimpleConnectionsPool(ADDRESS, PORT, maxConnections, maxConnections, new NoopConnection.Factory());
+        pool.start().get();
+
+        final SimpleConnectionsPool shared = new SimpleConnectionsPool(ADDRESS, PORT, maxConnections, maxConnections,
+                new NoopConnection.Factory());
+        shared.start().get();
+        affinePool = new ThreadAffineConnectionsPool(shared);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+        affinePool.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public IConnection getGive1() {
+        return getGive();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public IConnection getGive4() {
+        return getGive();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public IConnection getGive16() {
+        return getGive();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public IConnection getAsyncGive4() throws InterruptedException, ExecutionException {
+        final IConnection connection = pool.getAsync(TIMEOUT, TimeUnit.SECONDS).get();
+        pool.give(connection);
+        return connection;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public IConnection threadAffineGetGive4() {
+        final IConnection connection = affinePool.get();
+        affinePool.give(connection);
+        return connection;
+    }
+
+    @Benchmark
+    @Threads(16)
+    public IConnection threadAffineGetGive16() {
+        final IConnection connection = affinePool.get();
+        affinePool.give(connection);
+        return connection;
+    }
+
+    private IConnection getGive() {
+        final IConnection connection = pool.get();
+        pool.give(connection);
+        return connection;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.bench;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.buffer.PooledBuffer;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.FrameCodec;
+import com.helenus.protocol.Opcode;
+
+/**
+ * Cost of encoding and decoding a frame, with a new heap buffer for each frame
+ * and with the pooled direct buffers of a {@link BufferPool}.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FrameCodecBenchmark {
+    @Param({ "100", "4000" })
+    private int size;
+
+    private BufferPool pool;
+    private Frame frame;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setUp() {
+        pool = new BufferPool(false);
+        frame = new Frame(Opcode.QUERY, ByteBuffer.allocate(size));
+        encoded = FrameCodec.encode(frame, 1);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeHeap() {
+        return FrameCodec.encode(frame, 1);
+    }
+
+    @Benchmark
+    public int encodePooled() {
+        final PooledBuffer buffer = FrameCodec.encode(frame, 1, pool);
+        final int length = buffer.buffer().remaining();
+        buffer.release();
+        return length;
+    }
+
+    @Benchmark
+    public Frame decodeHeap() throws ProtocolException {
+        return FrameCodec.decode(encoded.duplicate());
+    }
+
+    @Benchmark
+    public int decodePooled() throws ProtocolException {
+        final Frame decoded = FrameCodec.decode(encoded.duplicate(), pool);
+        final int length = decoded.getBody().remaining();
+        decoded.release();
+        return length;
+    }
+}
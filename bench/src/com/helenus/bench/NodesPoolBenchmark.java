@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.bench;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helenus.Helenus;
+import com.helenus.data.node.INode;
+import com.helenus.data.node.Node;
+import com.helenus.pool.nodes.INodesPool;
+import com.helenus.pool.nodes.NodesPoolType;
+import com.helenus.pool.nodes.TokenAwareNodesPool;
+import com.helenus.ring.Murmur3Partitioner;
+import com.helenus.ring.TokenRing;
+
+/**
+ * Cost of choosing a node, for each {@link NodesPoolType}.
+ * <p>
+ * The selection is measured with and without a partition key: only the
+ * token-aware pool uses the key, the other ones ignore it.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NodesPoolBenchmark {
+    private static final int PORT = 9160;
+    private static final int KEYS = 1024;
+
+    @Param({ "SIMPLE", "ROUNDROBIN", "LATENCY_AWARE", "TOKEN_AWARE" })
+    private NodesPoolType type;
+
+    @Param({ "3", "12" })
+    private int nodes;
+
+    private INodesPool pool;
+    private ByteBuffer[] keys;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        pool = new Helenus().withNodesPoolType(type).getConnectionPool();
+
+        final Map<String, INode> ring = new HashMap<String, INode>();
+        final BigInteger range = BigInteger.ONE.shiftLeft(64);
+
+        for (int i = 0; i < nodes; i++) {
+            final Node node = new Node("127.0.0." + (i + 1), PORT);
+            pool.give(node);
+
+            // Evenly spaced tokens over the Murmur3 range
+            final BigInteger token = range.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(nodes))
+                    .add(BigInteger.valueOf(Long.MIN_VALUE));
+            ring.put(token.toString(), node);
+        }
+
+        if (pool instanceof TokenAwareNodesPool) {
+            ((TokenAwareNodesPool) pool).setRing(TokenRing.parse(new Murmur3Partitioner(), ring, 3));
+        }
+
+        final Random random = new Random(0);
+        keys = new ByteBuffer[KEYS];
+
+        for (int i = 0; i < KEYS; i++) {
+            final byte[] key = new byte[16];
+            random.nextBytes(key);
+            keys[i] = ByteBuffer.wrap(key);
+        }
+    }
+
+    @Benchmark
+    public INode select() {
+        return pool.get();
+    }
+
+    @Benchmark
+    public INode selectWithKey() {
+        // Not thread-safe, but the benchmark runs on a single thread
+        next = (next + 1) & (KEYS - 1);
+        return pool.get(keys[next]);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.protocol.Frame;
+
+/**
+ * Connection that does not connect anywhere, used to measure the cost of the
+ * pools alone.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class NoopConnection implements IConnection {
+
+    /**
+     * Factory creating {@link NoopConnection} objects.
+     */
+    public static final class Factory implements IConnectionFactory {
+        /*
+         * (non-Javadoc)
+         * @see com.helenus.data.connection.IConnectionFactory#create(java.lang.String, int)
+         */
+        @Override
+        public IConnection create(final String address, final int port) {
+            return new NoopConnection(address, port);
+        }
+    }
+
+    private final String address;
+    private final int port;
+
+    public NoopConnection(final String address, final int port) {
+        this.address = address;
+        this.port = port;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#open()
+     */
+    @Override
+    public boolean open() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#close()
+     */
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#send(com.helenus.protocol.Frame)
+     */
+    @Override
+    public ResultFuture<Frame> send(final Frame request) {
+        return ResultFuture.completed(request);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#send(com.helenus.protocol.Frame, long,
+     * java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public ResultFuture<Frame> send(final Frame request, final long timeout, final TimeUnit unit) {
+        return ResultFuture.completed(request);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#isOpen()
+     */
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#getInFlight()
+     */
+    @Override
+    public int getInFlight() {
+        return 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#getAddress()
+     */
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#getPort()
+     */
+    @Override
+    public int getPort() {
+        return port;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.bench;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.Opcode;
+import com.helenus.result.DataType;
+import com.helenus.result.ResultSet;
+import com.helenus.result.Row;
+
+/**
+ * Cost of reading a result of 100 rows of 120 columns, reading only three
+ * columns of each row or all of them.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ResultSetBenchmark {
+    private static final int ROWS = 100;
+    private static final int COLUMNS = 120;
+
+    private Frame response;
+
+    @Setup
+    public void setUp() {
+        final Charset utf8 = Charset.forName("UTF-8");
+        final ByteBuffer body = ByteBuffer.allocate(1024 * 1024);
+
+        body.putInt(0x0002);
+        body.putInt(0x0001);
+        body.putInt(COLUMNS);
+        putString(body, "ks", utf8);
+        putString(body, "table", utf8);
+
+        for (int i = 0; i < COLUMNS; i++) {
+            putString(body, "c" + i, utf8);
+            body.putShort((short) ((i % 2 == 0) ? DataType.VARCHAR : DataType.BIGINT).getCode());
+        }
+
+        body.putInt(ROWS);
+
+        for (int j = 0; j < ROWS; j++) {
+            for (int i = 0; i < COLUMNS; i++) {
+                if (i % 2 == 0) {
+                    final byte[] bytes = ("value " + j + " " + i).getBytes(utf8);
+                    body.putInt(bytes.length).put(bytes);
+                } else {
+                    body.putInt(8).putLong(i);
+                }
+            }
+        }
+
+        body.flip();
+
+        response = new Frame(Frame.VERSION | Frame.RESPONSE, 0, 1, Opcode.RESULT, body);
+    }
+
+    @Benchmark
+    public long readThreeColumns() throws QueryException, ProtocolException {
+        long sum = 0;
+
+        for (final Row row : ResultSet.decode(response)) {
+            sum += row.getString("c0").length() + row.getLong("c61") + row.getString("c118").length();
+        }
+
+        return sum;
+    }
+
+    @Benchmark
+    public long readAllColumns() throws QueryException, ProtocolException {
+        long sum = 0;
+
+        for (final Row row : ResultSet.decode(response)) {
+            for (int i = 0; i < COLUMNS; i++) {
+                sum += (i % 2 == 0) ? row.getString(i).length() : row.getLong(i);
+            }
+        }
+
+        return sum;
+    }
+
+    private static void putString(final ByteBuffer buffer, final String string, final Charset charset) {
+        final byte[] bytes = string.getBytes(charset);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+}
@@ -15,10 +15,57 @@
 */
 package com.helenus;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import com.helenus.cache.RowCache;
+import com.helenus.cache.RowKey;
+import com.helenus.concurrent.IResultListener;
+import com.helenus.concurrent.InFlightLimiter;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.concurrent.SharedScheduler;
 import com.helenus.configuration.Configuration;
 import com.helenus.configuration.IConfigurator;
-import com.helenus.pool.connections.INodesPool;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.data.connection.nio.NioConnectionFactory;
+import com.helenus.data.node.INode;
+import com.helenus.data.node.Node;
+import com.helenus.exception.ConnectionException;
+import com.helenus.exception.OverloadedException;
+import com.helenus.metrics.MBeanRegistry;
+import com.helenus.pool.connections.MultiplexedConnectionsPool;
+import com.helenus.pool.connections.SimpleConnectionsPool;
+import com.helenus.pool.connections.ThreadAffineConnectionsPool;
+import com.helenus.pool.nodes.AbstractNodesPool;
+import com.helenus.pool.nodes.INodesPool;
+import com.helenus.pool.nodes.LatencyAwareNodesPool;
 import com.helenus.pool.nodes.NodesPoolType;
+import com.helenus.pool.nodes.RoundRobinNodesPool;
+import com.helenus.pool.nodes.SimpleNodesPool;
+import com.helenus.pool.nodes.TokenAwareNodesPool;
+import com.helenus.protocol.CompressionType;
+import com.helenus.protocol.Consistency;
+import com.helenus.result.IPageFetcher;
+import com.helenus.result.PagedIterator;
+import com.helenus.result.ResultSet;
+import com.helenus.ring.PartitionerType;
+import com.helenus.ring.TokenRing;
+import com.helenus.statement.Batch;
+import com.helenus.statement.HedgingPolicy;
+import com.helenus.statement.PreparedStatementCache;
+import com.helenus.statement.RetryPolicy;
 
 /**
  * @author Milo Casagrande
@@ -40,6 +87,68 @@ public class Helenus {
      */
     private INodesPool connectionPool;
 
+    /**
+     * The {@link IConnectionFactory} used to create the connections to the
+     * nodes.
+     */
+    private IConnectionFactory connectionFactory;
+
+    /**
+     * The number of multiplexed connections per node, <tt>0</tt> to lease the
+     * connections exclusively.
+     */
+    private int multiplexedConnections;
+
+    /**
+     * The statements prepared by this instance, and the nodes they are
+     * prepared on.
+     */
+    private PreparedStatementCache preparedStatements = new PreparedStatementCache();
+
+    /**
+     * The limiter of the requests in flight of this instance, <code>null</code>
+     * if not limited.
+     */
+    private InFlightLimiter clientLimiter;
+
+    /**
+     * The maximum number of requests in flight for each node, <tt>0</tt> if not
+     * limited.
+     */
+    private int nodeInFlight;
+
+    /**
+     * The maximum number of requests waiting for each limiter.
+     */
+    private int maxQueued;
+
+    /**
+     * The limiters of the requests in flight for each node, indexed by the ID
+     * of the node.
+     */
+    private final ConcurrentMap<String, InFlightLimiter> nodeLimiters =
+            new ConcurrentHashMap<String, InFlightLimiter>();
+
+    /**
+     * The policy of the hedged reads, <code>null</code> not to hedge them.
+     */
+    private HedgingPolicy hedgingPolicy;
+
+    /**
+     * The policy of the retries, <code>null</code> not to retry the requests.
+     */
+    private RetryPolicy retryPolicy;
+
+    /**
+     * The cache of the rows read, <code>null</code> not to cache them.
+     */
+    private RowCache rowCache;
+
+    /**
+     * The names of the MBeans registered by this instance.
+     */
+    private final List<ObjectName> mbeans = new CopyOnWriteArrayList<ObjectName>();
+
     /**
      * Get the {@link INodesPool} associated with this instance.
      * 
@@ -124,19 +233,1234 @@ public class Helenus {
     }
 
     /**
-     * Set the {@link INodesPool} to use with this instance.
+     * Set the {@link IConnectionFactory} used to create the connections to the
+     * nodes.
+     * 
+     * @param connectionFactory
+     *            the {@link IConnectionFactory} to use
+     * @return this {@link Helenus} object
+     */
+    public Helenus withConnectionFactory(final IConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+        return this;
+    }
+
+    /**
+     * Share a few multiplexed connections per node among all the requests,
+     * instead of leasing each connection to one request at a time.
+     * 
+     * @param connections
+     *            the number of connections per node, <tt>0</tt> to lease the
+     *            connections exclusively
+     * @return this {@link Helenus} object
+     * @see MultiplexedConnectionsPool
+     */
+    public Helenus withMultiplexedConnections(final int connections) {
+        multiplexedConnections = connections;
+        return this;
+    }
+
+    /**
+     * Set how many prepared statements are kept by this instance. The
+     * statements prepared so far are forgotten.
+     * 
+     * @param capacity
+     *            the maximum number of prepared statements
+     * @return this {@link Helenus} object
+     */
+    public Helenus withPreparedStatementCache(final int capacity) {
+        preparedStatements = new PreparedStatementCache(capacity);
+        return this;
+    }
+
+    /**
+     * Set how many requests can be in flight, for this instance and for each
+     * node. A request beyond the limits waits for one in flight to complete,
+     * in a queue of bounded size: if the queue is full, or if the request
+     * waits longer than its timeout, it fails with an
+     * {@link OverloadedException}.
+     * 
+     * @param perClient
+     *            the maximum number of requests in flight for this instance,
+     *            <tt>0</tt> for no limit
+     * @param perNode
+     *            the maximum number of requests in flight for each node,
+     *            <tt>0</tt> for no limit
+     * @param queued
+     *            the maximum number of requests waiting for each limit,
+     *            <tt>0</tt> to reject them at once
+     * @return this {@link Helenus} object
+     * @see InFlightLimiter
+     */
+    public Helenus withInFlightLimits(final int perClient, final int perNode, final int queued) {
+        clientLimiter = (perClient > 0) ? new InFlightLimiter("client", perClient, queued) : null;
+        nodeInFlight = Math.max(perNode, 0);
+        maxQueued = queued;
+        nodeLimiters.clear();
+        return this;
+    }
+
+    /**
+     * Get the limiter of the requests in flight of this instance.
+     * 
+     * @return the {@link InFlightLimiter}, or <code>null</code> if not limited
+     */
+    public InFlightLimiter getInFlightLimiter() {
+        return clientLimiter;
+    }
+
+    /**
+     * Get the limiter of the requests in flight to a node.
+     * 
+     * @param node
+     *            the node
+     * @return the {@link InFlightLimiter}, or <code>null</code> if not limited
+     */
+    public InFlightLimiter getInFlightLimiter(final INode node) {
+        InFlightLimiter limiter = null;
+
+        if (nodeInFlight > 0) {
+            limiter = nodeLimiters.get(node.getId());
+
+            if (limiter == null) {
+                final InFlightLimiter created = new InFlightLimiter(node.getId(), nodeInFlight, maxQueued);
+                limiter = nodeLimiters.putIfAbsent(node.getId(), created);
+
+                if (limiter == null) {
+                    limiter = created;
+                }
+            }
+        }
+
+        return limiter;
+    }
+
+    /**
+     * Set the policy to hedge the reads executed with
+     * {@link #read(String, List, ByteBuffer, Consistency, long, TimeUnit)}.
+     * 
+     * @param policy
+     *            the {@link HedgingPolicy}, <code>null</code> not to hedge the
+     *            reads
+     * @return this {@link Helenus} object
+     */
+    public Helenus withHedging(final HedgingPolicy policy) {
+        hedgingPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Get the policy of the hedged reads.
+     * 
+     * @return the {@link HedgingPolicy}, or <code>null</code> if the reads are
+     *         not hedged
+     */
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Set the policy to retry the failed requests on other nodes. The
+     * <tt>timeout</tt> of a request becomes the deadline of the request and of
+     * all its retries.
+     * 
+     * @param policy
+     *            the {@link RetryPolicy}, <code>null</code> not to retry the
+     *            requests
+     * @return this {@link Helenus} object
+     */
+    public Helenus withRetryPolicy(final RetryPolicy policy) {
+        retryPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Get the policy of the retries.
+     * 
+     * @return the {@link RetryPolicy}, or <code>null</code> if the requests
+     *         are not retried
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Set the cache of the rows read with
+     * {@link #read(RowKey, String, List, ByteBuffer, Consistency, long, TimeUnit)}
+     * . Its MBean is registered by {@link #connect()}.
      * 
-     * @param nodesPool
-     *            the {@link INodesPool} to use
+     * @param cache
+     *            the {@link RowCache}, <code>null</code> not to cache the rows
+     * @return this {@link Helenus} object
+     */
+    public Helenus withRowCache(final RowCache cache) {
+        rowCache = cache;
+        return this;
+    }
+
+    /**
+     * Get the cache of the rows read.
+     * 
+     * @return the {@link RowCache}, or <code>null</code> if the rows are not
+     *         cached
+     */
+    public RowCache getRowCache() {
+        return rowCache;
+    }
+
+    /**
+     * Get the cache of the statements prepared by this instance.
+     * 
+     * @return the {@link PreparedStatementCache}
+     */
+    public PreparedStatementCache getPreparedStatements() {
+        return preparedStatements;
+    }
+
+    /**
+     * Executes a query as a prepared statement, on a node of the
+     * {@link INodesPool}. The query is prepared on the node the first time it
+     * is executed there.
+     * 
+     * @param query
+     *            the CQL query
+     * @param values
+     *            the serialized values to bind, it can be <code>null</code>
+     * @param consistency
+     *            the consistency level
+     * @param timeout
+     *            how long to wait for each connection, and then for each
+     *            response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed with the result, or failed with an
+     *         {@link OverloadedException} if too many requests are in flight
+     * @see PreparedStatementCache#execute(INode, String, List, Consistency, long, TimeUnit)
+     * @see #withInFlightLimits(int, int, int)
+     */
+    public ResultFuture<ResultSet> execute(final String query, final List<ByteBuffer> values,
+            final Consistency consistency, final long timeout, final TimeUnit unit) {
+        return submit(null, false, timeout, unit, new IRequest() {
+            @Override
+            public ResultFuture<ResultSet> send(final INode node, final long timeout, final TimeUnit unit) {
+                return preparedStatements.execute(node, query, values, consistency, timeout, unit);
+            }
+        });
+    }
+
+    /**
+     * Executes an idempotent read as a prepared statement, on a replica of its
+     * partition key.
+     * <p>
+     * If a {@link HedgingPolicy} is set and the replica has not answered
+     * within the delay of the policy, the read is sent again to another
+     * replica, or to another node if the replicas are not known. The first
+     * response completes the read, and the other request is cancelled: its
+     * response, if any, is discarded. The read fails only if all the requests
+     * sent failed.
+     * <p>
+     * Only queries that can be safely executed more than once must be read
+     * with this method.
+     * 
+     * @param query
+     *            the CQL query
+     * @param values
+     *            the serialized values to bind, it can be <code>null</code>
+     * @param partitionKey
+     *            the serialized partition key used to choose the replicas, it
+     *            can be <code>null</code>
+     * @param consistency
+     *            the consistency level
+     * @param timeout
+     *            how long to wait for each connection, and then for each
+     *            response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed with the first result
+     * @see #withHedging(HedgingPolicy)
+     */
+    public ResultFuture<ResultSet> read(final String query, final List<ByteBuffer> values,
+            final ByteBuffer partitionKey, final Consistency consistency, final long timeout, final TimeUnit unit) {
+        final IRequest request = new IRequest() {
+            @Override
+            public ResultFuture<ResultSet> send(final INode node, final long timeout, final TimeUnit unit) {
+                return preparedStatements.execute(node, query, values, consistency, timeout, unit);
+            }
+        };
+
+        final HedgingPolicy policy = hedgingPolicy;
+        ResultFuture<ResultSet> future;
+
+        if (policy == null) {
+            future = submit(partitionKey, true, timeout, unit, request);
+        } else {
+            future = retry(partitionKey, true, timeout, unit, new IRequest() {
+                @Override
+                public ResultFuture<ResultSet> send(final INode node, final long timeout, final TimeUnit unit) {
+                    final INode first = (node == null) ? connectionPool.get(partitionKey) : node;
+
+                    if (first == null) {
+                        return ResultFuture.failed(new ConnectionException("No nodes available"));
+                    }
+
+                    final HedgedRead read = new HedgedRead(policy, partitionKey, first, timeout, unit, request);
+                    read.start(policy.requestStarted());
+                    return read.future;
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * Reads a row through the {@link RowCache}, if any: the row is read from
+     * the cache if there, otherwise it is read as with
+     * {@link #read(String, List, ByteBuffer, Consistency, long, TimeUnit)},
+     * and cached.
+     * <p>
+     * The cached rows are copies on the heap: the result does not need to be
+     * released, but releasing it is harmless.
+     * 
+     * @param row
+     *            the key of the row in the cache
+     * @param query
+     *            the CQL query reading the row
+     * @param values
+     *            the serialized values to bind, it can be <code>null</code>
+     * @param partitionKey
+     *            the serialized partition key used to choose the replicas, it
+     *            can be <code>null</code>
+     * @param consistency
+     *            the consistency level
+     * @param timeout
+     *            how long to wait for each connection, and then for each
+     *            response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed with the row
+     * @see #withRowCache(RowCache)
+     */
+    public ResultFuture<ResultSet> read(final RowKey row, final String query, final List<ByteBuffer> values,
+            final ByteBuffer partitionKey, final Consistency consistency, final long timeout, final TimeUnit unit) {
+        final RowCache cache = rowCache;
+
+        if (cache == null) {
+            return read(query, values, partitionKey, consistency, timeout, unit);
+        }
+
+        final ResultSet cached = cache.get(row, query);
+
+        if (cached != null) {
+            return ResultFuture.completed(cached);
+        }
+
+        // Taken before sending the read, not to cache a row written meanwhile
+        final long stamp = cache.stamp(row);
+        final ResultFuture<ResultSet> future = new ResultFuture<ResultSet>();
+
+        read(query, values, partitionKey, consistency, timeout, unit).addListener(new IResultListener<ResultSet>() {
+            @Override
+            public void onSuccess(final ResultSet result) {
+                final ResultSet copy = result.copy();
+                result.release();
+
+                if (!copy.hasMorePages()) {
+                    cache.put(row, query, copy, stamp);
+                }
+
+                future.complete(copy);
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                future.fail(cause);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Writes a row, removing it from the {@link RowCache}, if any, both before
+     * the write is sent and once it completes.
+     * 
+     * @param row
+     *            the key of the row in the cache
+     * @param query
+     *            the CQL query writing the row
+     * @param values
+     *            the serialized values to bind, it can be <code>null</code>
+     * @param consistency
+     *            the consistency level
+     * @param timeout
+     *            how long to wait for each connection, and then for each
+     *            response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed with the result
+     * @see #execute(String, List, Consistency, long, TimeUnit)
+     */
+    public ResultFuture<ResultSet> execute(final RowKey row, final String query, final List<ByteBuffer> values,
+            final Consistency consistency, final long timeout, final TimeUnit unit) {
+        final RowCache cache = rowCache;
+
+        if (cache == null) {
+            return execute(query, values, consistency, timeout, unit);
+        }
+
+        cache.invalidate(row);
+
+        // Also once written, for the reads sent before the write was applied
+        return invalidateOnCompletion(execute(query, values, consistency, timeout, unit), cache,
+                Collections.singletonList(row));
+    }
+
+    /**
+     * Executes a query as a prepared statement, reading its result a page at
+     * a time. Each page is fetched from a node of the {@link INodesPool}, in
+     * the background while the previous one is read.
+     * 
+     * @param query
+     *            the CQL query
+     * @param values
+     *            the serialized values to bind, it can be <code>null</code>
+     * @param consistency
+     *            the consistency level
+     * @param pageSize
+     *            the number of rows of a page
+     * @param timeout
+     *            how long to wait for each page
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return an iterator over the rows of the result, to be closed if not
+     *         read to the end
+     * @see PagedIterator
+     */
+    public PagedIterator scan(final String query, final List<ByteBuffer> values, final Consistency consistency,
+            final int pageSize, final long timeout, final TimeUnit unit) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("The page size must be positive: " + pageSize);
+        }
+
+        return new PagedIterator(new IPageFetcher() {
+            @Override
+            public ResultFuture<ResultSet> fetch(final ByteBuffer pagingState) {
+                return submit(null, false, timeout, unit, new IRequest() {
+                    @Override
+                    public ResultFuture<ResultSet> send(final INode node, final long timeout, final TimeUnit unit) {
+                        return preparedStatements.execute(node, query, values, consistency, pageSize, pagingState,
+                                timeout, unit);
+                    }
+                });
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * Executes a batch of mutations, split in one batch for each set of
+     * replicas of the partition keys, sent in parallel each to one of its
+     * replicas.
+     * <p>
+     * The batch is split only if the {@link INodesPool} is a
+     * {@link NodesPoolType#TOKEN_AWARE} one with a token ring, and if the
+     * batch is not a logged one. The batches are independent: if one fails,
+     * the others may have been applied.
+     * 
+     * @param batch
+     *            the batch
+     * @param consistency
+     *            the consistency level
+     * @param timeout
+     *            how long to wait for each connection, and then for each
+     *            response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed once all the batches have been applied, or
+     *         failed with the first failure
+     * @see Batch#split(TokenRing)
+     */
+    public ResultFuture<Void> execute(final Batch batch, final Consistency consistency, final long timeout,
+            final TimeUnit unit) {
+        if (batch.isEmpty()) {
+            return ResultFuture.completed(null);
+        }
+
+        TokenRing ring = null;
+
+        if (connectionPool instanceof TokenAwareNodesPool) {
+            ring = ((TokenAwareNodesPool) connectionPool).getRing();
+        }
+
+        final List<Batch> batches = batch.split(ring);
+        final ResultFuture<Void> future = new ResultFuture<Void>();
+        final AtomicInteger remaining = new AtomicInteger(batches.size());
+        final RowCache cache = rowCache;
+
+        if ((cache != null) && !batch.getWrittenRows().isEmpty()) {
+            for (final RowKey row : batch.getWrittenRows()) {
+                cache.invalidate(row);
+            }
+
+            invalidateOnCompletion(future, cache, batch.getWrittenRows());
+        }
+
+        for (final Batch split : batches) {
+            // All the partition keys of a split batch have the same replicas
+            submit(split.getPartitionKey(0), false, timeout, unit, new IRequest() {
+                @Override
+                public ResultFuture<ResultSet> send(final INode node, final long timeout, final TimeUnit unit) {
+                    return preparedStatements.execute(node, split, consistency, timeout, unit);
+                }
+            }).addListener(new IResultListener<ResultSet>() {
+                @Override
+                public void onSuccess(final ResultSet result) {
+                    result.release();
+
+                    if (remaining.decrementAndGet() == 0) {
+                        future.complete(null);
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    future.fail(cause);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * Set the type of {@link INodesPool} to use with this instance.
+     * 
+     * @param type
+     *            the {@link NodesPoolType} to use
      * @return this {@link Helenus} object
      */
     public Helenus withNodesPoolType(final NodesPoolType type) {
         switch (type) {
-            case SIMPLE:
+            case ROUNDROBIN:
+                setConnecionPool(new RoundRobinNodesPool());
                 break;
+            case LATENCY_AWARE:
+                setConnecionPool(new LatencyAwareNodesPool());
+                break;
+            case TOKEN_AWARE:
+                setConnecionPool(new TokenAwareNodesPool());
+                break;
+            case SIMPLE:
             default:
+                setConnecionPool(new SimpleNodesPool());
                 break;
         }
         return this;
     }
+
+    /**
+     * Fill the {@link INodesPool} with the nodes defined in the
+     * {@link Configuration}, and start their pools of connections.
+     * <p>
+     * If no {@link Configuration} has been set, it is created with the
+     * {@link IConfigurator}. If no {@link INodesPool} has been set, a
+     * {@link NodesPoolType#SIMPLE} one is used. If no
+     * {@link IConnectionFactory} has been set, the connections are
+     * {@link com.helenus.data.connection.nio.NioConnection}s driven by the
+     * shared event loops, compressing the frames as set in the
+     * {@link Configuration}.
+     * <p>
+     * Nodes that cannot be resolved, or without a port, are not added.
+     * <p>
+     * If the pool is a {@link NodesPoolType#TOKEN_AWARE} one, its token ring is
+     * built from the tokens and the partitioner of the {@link Configuration}.
+     * <p>
+     * If multiplexed connections have been requested, each node gets a
+     * {@link MultiplexedConnectionsPool}, otherwise a
+     * {@link SimpleConnectionsPool}, behind a
+     * {@link ThreadAffineConnectionsPool} if the {@link Configuration} asks
+     * for a per-thread cache of the connections.
+     * <p>
+     * An MBean is registered on the platform MBean server for the
+     * {@link INodesPool}, for each {@link SimpleConnectionsPool}, and for the
+     * event loops of a {@link NioConnectionFactory}.
+     * 
+     * @return this {@link Helenus} object
+     */
+    public Helenus connect() {
+        if (configuration == null) {
+            setConfiguration(configurator.read().config().get());
+        }
+
+        if (connectionPool == null) {
+            withNodesPoolType(NodesPoolType.SIMPLE);
+        }
+
+        if (connectionFactory == null) {
+            final CompressionType compression = CompressionType.fromName(configuration.getCompression());
+
+            connectionFactory = new NioConnectionFactory().withCompression(
+                    (compression == null) ? null : compression.create(), configuration.getCompressionThreshold());
+        }
+
+        if (connectionFactory instanceof NioConnectionFactory) {
+            addMBean(MBeanRegistry.register(((NioConnectionFactory) connectionFactory).getGroup()));
+        }
+
+        if (connectionPool instanceof AbstractNodesPool) {
+            addMBean(MBeanRegistry.register((AbstractNodesPool) connectionPool));
+        }
+
+        if (rowCache != null) {
+            addMBean(MBeanRegistry.register(rowCache));
+        }
+
+        final Map<String, INode> ring = new HashMap<String, INode>();
+
+        for (final String address : configuration.getNodes()) {
+            final Node node = new Node(address);
+
+            // The RPC port, if defined, overrides the one of the address
+            if (configuration.getRpcPort() != -1) {
+                node.setPort(configuration.getRpcPort());
+            }
+
+            if (node.isValid()) {
+                if (multiplexedConnections > 0) {
+                    final MultiplexedConnectionsPool pool = new MultiplexedConnectionsPool(node.getIpAddress(),
+                            node.getPort(), multiplexedConnections, connectionFactory);
+
+                    node.setConnectionPool(pool);
+                    pool.start();
+                } else {
+                    final SimpleConnectionsPool pool = new SimpleConnectionsPool(node.getIpAddress(),
+                            node.getPort(), configuration.getMinConnections(), configuration.getMaxConnections(),
+                            connectionFactory).withIdleTimeout(configuration.getIdleTimeout(), TimeUnit.MILLISECONDS);
+
+                    if (configuration.isThreadAffine()) {
+                        node.setConnectionPool(new ThreadAffineConnectionsPool(pool));
+                    } else {
+                        node.setConnectionPool(pool);
+                    }
+
+                    pool.start();
+                    addMBean(MBeanRegistry.register(pool));
+                }
+
+                connectionPool.give(node);
+
+                String token = configuration.getTokens().get(address);
+                if (token == null) {
+                    token = configuration.getTokens().get(node.getIpAddress());
+                }
+
+                if (token != null) {
+                    ring.put(token, node);
+                }
+            }
+        }
+
+        if ((connectionPool instanceof TokenAwareNodesPool) && !ring.isEmpty()) {
+            final PartitionerType partitioner = PartitionerType.fromName(configuration.getPartitioner());
+
+            if (partitioner != null) {
+                ((TokenAwareNodesPool) connectionPool).setRing(TokenRing.parse(partitioner.create(), ring,
+                        configuration.getReplicationFactor()));
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Unregisters the MBeans registered by {@link #connect()}.
+     * 
+     * @return this {@link Helenus} object
+     */
+    public Helenus unregisterMBeans() {
+        for (final ObjectName name : mbeans) {
+            MBeanRegistry.unregister(name);
+        }
+
+        mbeans.clear();
+        return this;
+    }
+
+    /**
+     * Sends a request to a node of the {@link INodesPool}, within the limits
+     * of the requests in flight of this instance and of the node.
+     * 
+     * @param partitionKey
+     *            the serialized partition key used to choose the node, it can
+     *            be <code>null</code>
+     * @param idempotent
+     *            <tt>true</tt> if the request can be safely executed more than
+     *            once
+     * @param timeout
+     *            how long to wait for the requests in flight to go under the
+     *            limits, and for the request and its retries
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @param request
+     *            the request to send
+     * @return a future completed with the result of the request
+     */
+    private ResultFuture<ResultSet> submit(final ByteBuffer partitionKey, final boolean idempotent,
+            final long timeout, final TimeUnit unit, final IRequest request) {
+        return retry(partitionKey, idempotent, timeout, unit, new IRequest() {
+            @Override
+            public ResultFuture<ResultSet> send(final INode node, final long timeout, final TimeUnit unit) {
+                return submit(partitionKey, node, timeout, unit, request);
+            }
+        });
+    }
+
+    /**
+     * Sends a request, and retries it on other nodes as allowed by the
+     * {@link RetryPolicy}, if any, until the <tt>timeout</tt> elapses.
+     * 
+     * @param partitionKey
+     *            the serialized partition key used to choose the nodes, it can
+     *            be <code>null</code>
+     * @param idempotent
+     *            <tt>true</tt> if the request can be safely executed more than
+     *            once
+     * @param timeout
+     *            how long to wait for the request and its retries
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @param attempt
+     *            sends the request to a node, with the time left
+     * @return a future completed with the result of the request
+     */
+    private ResultFuture<ResultSet> retry(final ByteBuffer partitionKey, final boolean idempotent,
+            final long timeout, final TimeUnit unit, final IRequest attempt) {
+        final RetryPolicy policy = retryPolicy;
+
+        if (policy == null) {
+            return attempt.send(null, timeout, unit);
+        }
+
+        final INode node = connectionPool.get(partitionKey);
+
+        if (node == null) {
+            return ResultFuture.failed(new ConnectionException("No nodes available"));
+        }
+
+        final Retry retry = new Retry(policy, partitionKey, idempotent, System.nanoTime() + unit.toNanos(timeout),
+                attempt);
+        retry.send(node);
+
+        return retry.future;
+    }
+
+    /**
+     * Sends a request to a node, within the limits of the requests in flight
+     * of this instance and of the node.
+     * 
+     * @param partitionKey
+     *            the serialized partition key used to choose the node, it can
+     *            be <code>null</code>
+     * @param node
+     *            the node to send the request to, <code>null</code> to choose
+     *            it from the {@link INodesPool} once under the limit of this
+     *            instance
+     * @param timeout
+     *            how long to wait for the requests in flight to go under the
+     *            limits
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @param request
+     *            the request to send
+     * @return a future completed with the result of the request
+     */
+    private ResultFuture<ResultSet> submit(final ByteBuffer partitionKey, final INode node, final long timeout,
+            final TimeUnit unit, final IRequest request) {
+        final InFlightLimiter limiter = clientLimiter;
+        final ResultFuture<ResultSet> future;
+
+        if (limiter == null) {
+            future = submitToNode(partitionKey, node, timeout, unit, request);
+        } else {
+            future = new ResultFuture<ResultSet>();
+
+            final ResultFuture<Void> permit = limiter.acquire(timeout, unit);
+
+            // A request cancelled while waiting, as a losing hedge, leaves the queue
+            future.cancelOnCompletion(permit);
+
+            permit.addListener(new IResultListener<Void>() {
+                @Override
+                public void onSuccess(final Void result) {
+                    if (future.isDone()) {
+                        limiter.release();
+                    } else {
+                        forward(submitToNode(partitionKey, node, timeout, unit, request), future, limiter);
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    future.fail(cause);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * Sends a request to a node, within the limit of the requests in flight of
+     * the node.
+     * 
+     * @see #submit(ByteBuffer, INode, long, TimeUnit, IRequest)
+     */
+    private ResultFuture<ResultSet> submitToNode(final ByteBuffer partitionKey, final INode chosen,
+            final long timeout, final TimeUnit unit, final IRequest request) {
+        final INode node = (chosen == null) ? connectionPool.get(partitionKey) : chosen;
+
+        if (node == null) {
+            return ResultFuture.failed(new ConnectionException("No nodes available"));
+        }
+
+        final InFlightLimiter limiter = getInFlightLimiter(node);
+        final ResultFuture<ResultSet> future;
+
+        if (limiter == null) {
+            future = request.send(node, timeout, unit);
+        } else {
+            future = new ResultFuture<ResultSet>();
+
+            final ResultFuture<Void> permit = limiter.acquire(timeout, unit);
+
+            // A request cancelled while waiting, as a losing hedge, leaves the queue
+            future.cancelOnCompletion(permit);
+
+            permit.addListener(new IResultListener<Void>() {
+                @Override
+                public void onSuccess(final Void result) {
+                    if (future.isDone()) {
+                        limiter.release();
+                    } else {
+                        forward(request.send(node, timeout, unit), future, limiter);
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    future.fail(cause);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * Removes rows from a cache once a write completes, even if it failed,
+     * since it might have been applied anyway.
+     * 
+     * @param future
+     *            the future of the write
+     * @param cache
+     *            the cache
+     * @param rows
+     *            the keys of the rows written
+     * @return the future of the write
+     */
+    private static <T> ResultFuture<T> invalidateOnCompletion(final ResultFuture<T> future, final RowCache cache,
+            final List<RowKey> rows) {
+        return future.addListener(new IResultListener<T>() {
+            @Override
+            public void onSuccess(final T result) {
+                invalidate();
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                invalidate();
+            }
+
+            private void invalidate() {
+                for (final RowKey row : rows) {
+                    cache.invalidate(row);
+                }
+            }
+        });
+    }
+
+    /**
+     * Chooses the node to hedge a read on: the replica of the partition key, or
+     * the node if the replicas are not known, with the lowest load, other than
+     * the first one.
+     * 
+     * @param first
+     *            the node the read has been sent to
+     * @param partitionKey
+     *            the serialized partition key, it can be <code>null</code>
+     * @return the node, or <code>null</code> if there is none
+     */
+    private INode alternate(final INode first, final ByteBuffer partitionKey) {
+        if (!(connectionPool instanceof AbstractNodesPool)) {
+            return null;
+        }
+
+        final AbstractNodesPool pool = (AbstractNodesPool) connectionPool;
+        INode[] candidates = pool.getAvailableNodes();
+
+        if ((partitionKey != null) && (connectionPool instanceof TokenAwareNodesPool)) {
+            final TokenRing ring = ((TokenAwareNodesPool) connectionPool).getRing();
+
+            if (ring != null) {
+                candidates = ring.getReplicas(partitionKey);
+            }
+        }
+
+        INode best = null;
+        double bestScore = Double.MAX_VALUE;
+
+        for (final INode candidate : candidates) {
+            // The ring can be older than the pool: skip the removed nodes
+            if ((candidate != first) && (pool.getNode(candidate.getId()) == candidate)
+                    && candidate.getHealth().isAvailable()) {
+                final double score = candidate.getStatistics().getScore();
+
+                if (score < bestScore) {
+                    best = candidate;
+                    bestScore = score;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Completes a future with the result of a request, giving back the permit
+     * of the request once done.
+     * 
+     * @param source
+     *            the future of the request
+     * @param target
+     *            the future to complete
+     * @param limiter
+     *            the limiter the permit has been taken from
+     */
+    private static void forward(final ResultFuture<ResultSet> source, final ResultFuture<ResultSet> target,
+            final InFlightLimiter limiter) {
+        source.addListener(new IResultListener<ResultSet>() {
+            @Override
+            public void onSuccess(final ResultSet result) {
+                limiter.release();
+
+                if (!target.complete(result)) {
+                    // Cancelled meanwhile
+                    result.release();
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                limiter.release();
+                target.fail(cause);
+            }
+        });
+    }
+
+    /**
+     * Keeps track of a registered MBean.
+     * 
+     * @param name
+     *            the name of the MBean, <code>null</code> if not registered
+     */
+    private void addMBean(final ObjectName name) {
+        if (name != null) {
+            mbeans.add(name);
+        }
+    }
+
+    /**
+     * A request to send to the chosen node.
+     */
+    private interface IRequest {
+        /**
+         * @param node
+         *            the node to send the request to, <code>null</code> to
+         *            choose it from the {@link INodesPool}
+         * @param timeout
+         *            how long to wait for each connection, and then for each
+         *            response
+         * @param unit
+         *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+         * @return a future completed with the result of the request
+         */
+        ResultFuture<ResultSet> send(INode node, long timeout, TimeUnit unit);
+    }
+
+    /**
+     * A read sent to a first node, and to a second one if the first does not
+     * answer in time. Run once the delay of the policy has elapsed.
+     */
+    private final class HedgedRead implements Runnable {
+        private final ResultFuture<ResultSet> future = new ResultFuture<ResultSet>();
+        private final HedgingPolicy policy;
+        private final ByteBuffer partitionKey;
+        private final INode first;
+        private final long timeout;
+        private final TimeUnit unit;
+        private final IRequest request;
+
+        /**
+         * The requests sent and not failed yet.
+         */
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        /**
+         * Whether a request already answered.
+         */
+        private final AtomicBoolean answered = new AtomicBoolean();
+
+        private volatile ResultFuture<ResultSet> primary;
+        private volatile ResultFuture<ResultSet> hedged;
+
+        HedgedRead(final HedgingPolicy policy, final ByteBuffer partitionKey, final INode first, final long timeout,
+                final TimeUnit unit, final IRequest request) {
+            this.policy = policy;
+            this.partitionKey = partitionKey;
+            this.first = first;
+            this.timeout = timeout;
+            this.unit = unit;
+            this.request = request;
+        }
+
+        /**
+         * Sends the read to the first node, and schedules the hedged one.
+         * 
+         * @param delay
+         *            the delay before hedging, in nanoseconds, <tt>-1</tt> not
+         *            to hedge
+         */
+        void start(final long delay) {
+            future.addListener(new IResultListener<ResultSet>() {
+                @Override
+                public void onSuccess(final ResultSet result) {
+                    cancel();
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    cancel();
+                }
+            });
+
+            send(first, false);
+
+            if ((delay >= 0) && !future.isDone()) {
+                SharedScheduler.getInstance().schedule(this, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            if (!future.isDone()) {
+                final INode second = alternate(first, partitionKey);
+
+                if ((second != null) && policy.tryHedge()) {
+                    pending.incrementAndGet();
+                    send(second, true);
+                }
+            }
+        }
+
+        /**
+         * Sends the read to a node, and completes the read with its result if
+         * it is the first one. The latency of each response is recorded, and
+         * the time waited for the first request if the hedged one won.
+         */
+        private void send(final INode node, final boolean hedge) {
+            final long start = System.nanoTime();
+            final ResultFuture<ResultSet> attempt = submit(partitionKey, node, timeout, unit, request);
+
+            if (hedge) {
+                hedged = attempt;
+            } else {
+                primary = attempt;
+            }
+
+            attempt.addListener(new IResultListener<ResultSet>() {
+                @Override
+                public void onSuccess(final ResultSet result) {
+                    policy.recordLatency(System.nanoTime() - start);
+
+                    if (!answered.compareAndSet(false, true)) {
+                        result.release();
+                        return;
+                    }
+
+                    // Counted before the caller is woken up
+                    if (hedge) {
+                        policy.hedgeWon();
+                    }
+
+                    if (!future.complete(result)) {
+                        // Cancelled meanwhile
+                        result.release();
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    if (!hedge && answered.get() && (cause instanceof CancellationException)) {
+                        // Lost to the hedged request: its latency is at least this long, and leaving it out
+                        // would drift the delay towards the fast responses
+                        policy.recordLatency(System.nanoTime() - start);
+                    }
+
+                    if (pending.decrementAndGet() == 0) {
+                        future.fail(cause);
+                    }
+                }
+            });
+
+            if (future.isDone()) {
+                // Completed while sending
+                attempt.cancel(false);
+            }
+        }
+
+        /**
+         * Cancels the requests still in flight, once the read is done.
+         */
+        private void cancel() {
+            final ResultFuture<ResultSet> current = primary;
+            final ResultFuture<ResultSet> other = hedged;
+
+            if (current != null) {
+                current.cancel(false);
+            }
+
+            if (other != null) {
+                other.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * A request retried on other nodes until it succeeds, its failure cannot
+     * be retried, or its deadline passes. Run once the backoff before a retry
+     * has elapsed.
+     */
+    private final class Retry implements IResultListener<ResultSet>, Runnable {
+        private final ResultFuture<ResultSet> future = new ResultFuture<ResultSet>();
+        private final RetryPolicy policy;
+        private final ByteBuffer partitionKey;
+        private final boolean idempotent;
+
+        /**
+         * The deadline of the request, in nanoseconds.
+         */
+        private final long deadline;
+        private final IRequest attempt;
+
+        private volatile INode last;
+        private volatile ResultFuture<ResultSet> current;
+        private volatile int retries;
+
+        Retry(final RetryPolicy policy, final ByteBuffer partitionKey, final boolean idempotent, final long deadline,
+                final IRequest attempt) {
+            this.policy = policy;
+            this.partitionKey = partitionKey;
+            this.idempotent = idempotent;
+            this.deadline = deadline;
+            this.attempt = attempt;
+
+            future.addListener(new IResultListener<ResultSet>() {
+                @Override
+                public void onSuccess(final ResultSet result) {
+                    // Nothing to cancel
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    // Cancelled by the caller
+                    final ResultFuture<ResultSet> pending = current;
+
+                    if (pending != null) {
+                        pending.cancel(false);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Sends the request to a node, with the time left before the deadline.
+         */
+        void send(final INode node) {
+            last = node;
+            current = attempt.send(node, Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            current.addListener(this);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see com.helenus.concurrent.IResultListener#onSuccess(java.lang.Object)
+         */
+        @Override
+        public void onSuccess(final ResultSet result) {
+            policy.onSuccess();
+
+            if (!future.complete(result)) {
+                result.release();
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see com.helenus.concurrent.IResultListener#onFailure(java.lang.Throwable)
+         */
+        @Override
+        public void onFailure(final Throwable cause) {
+            if (future.isDone()) {
+                return;
+            }
+
+            final long backoff = policy.getBackoff(retries + 1);
+
+            // The budget is spent last, only if the retry is going to happen
+            if ((retries >= policy.getMaxRetries()) || !policy.isRetryable(cause, idempotent)
+                    || ((System.nanoTime() + backoff) >= deadline) || !policy.tryRetry()) {
+                future.fail(cause);
+            } else {
+                retries++;
+
+                // Even without a backoff, never retry on the completing thread
+                SharedScheduler.getInstance().schedule(this, backoff, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see java.lang.Runnable#run()
+         */
+        @Override
+        public void run() {
+            if (!future.isDone()) {
+                INode node = alternate(last, partitionKey);
+
+                if (node == null) {
+                    node = connectionPool.get(partitionKey);
+                }
+
+                if (node == null) {
+                    future.fail(new ConnectionException("No nodes available"));
+                } else {
+                    send(node);
+                }
+            }
+        }
+    }
 }
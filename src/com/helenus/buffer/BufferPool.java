@@ -0,0 +1,353 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.buffer;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct {@link ByteBuffer}s, used to encode and decode the frames
+ * without allocating a new buffer for each of them, and without copying heap
+ * buffers into native memory on each socket write.
+ * <p>
+ * The buffers are grouped in size classes, powers of two from
+ * {@value #MIN_POOLED} bytes to {@value #MAX_POOLED} bytes: a request is served
+ * with a buffer of the smallest class that can hold it. Larger requests are
+ * served with a new buffer, not pooled.
+ * <p>
+ * Each thread keeps a small cache of buffers for each class, used without any
+ * synchronization. A buffer released to a full cache goes to a bounded shared
+ * cache, where the other threads find it when their own cache is empty: a
+ * buffer allocated by a request thread and released by an event loop thread
+ * goes back to the request threads this way. Buffers that do not fit in any
+ * cache are left to the garbage collector.
+ * <p>
+ * Leak detection can be enabled, typically in tests, with the
+ * {@value #LEAK_DETECTION_PROPERTY} system property: each buffer borrowed is
+ * tracked, with the stack trace of its allocation, and a buffer that is
+ * garbage collected without being released is reported. The buffers in use
+ * are counted only with leak detection enabled.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class BufferPool {
+    /**
+     * The system property enabling the leak detection of the default pool.
+     */
+    public static final String LEAK_DETECTION_PROPERTY = "helenus.buffer.leakDetection";
+
+    /**
+     * The smallest size class.
+     */
+    public static final int MIN_POOLED = 256;
+
+    /**
+     * The largest size class.
+     */
+    public static final int MAX_POOLED = 64 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED);
+    private static final int CLASSES = (Integer.numberOfTrailingZeros(MAX_POOLED) - MIN_SHIFT) + 1;
+
+    /**
+     * The buffers of each class cached by each thread.
+     */
+    private static final int THREAD_CACHE_SIZE = 16;
+
+    /**
+     * The buffers of each class in the shared cache.
+     */
+    private static final int SHARED_CACHE_SIZE = 256;
+
+    /**
+     * The pool used by the connections.
+     */
+    private static final BufferPool DEFAULT = new BufferPool(Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+
+    /**
+     * The shared cache of each class.
+     */
+    private final ConcurrentLinkedQueue<PooledBuffer>[] shared;
+
+    /**
+     * The buffers in the shared cache of each class.
+     */
+    private final AtomicIntegerArray sharedSizes;
+
+    /**
+     * The cache of the calling thread.
+     */
+    private final ThreadLocal<ThreadCache> caches;
+
+    /**
+     * How many buffers have been created.
+     */
+    private final AtomicLong created;
+
+    private final boolean leakDetection;
+
+    /**
+     * The trackers of the buffers borrowed, with leak detection enabled.
+     */
+    private final Set<LeakTracker> live;
+
+    /**
+     * The trackers of the buffers garbage collected.
+     */
+    private final ReferenceQueue<PooledBuffer> collected;
+
+    /**
+     * The buffers borrowed and not released, with leak detection enabled.
+     */
+    private final AtomicInteger inUse;
+
+    /**
+     * The buffers garbage collected without being released.
+     */
+    private final AtomicLong leaks;
+
+    /**
+     * Create a new pool.
+     * 
+     * @param leakDetection
+     *            <tt>true</tt> to track the buffers borrowed and report the
+     *            ones never released
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public BufferPool(final boolean leakDetection) {
+        this.leakDetection = leakDetection;
+
+        shared = new ConcurrentLinkedQueue[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            shared[i] = new ConcurrentLinkedQueue<PooledBuffer>();
+        }
+
+        sharedSizes = new AtomicIntegerArray(CLASSES);
+        created = new AtomicLong();
+        live = Collections.newSetFromMap(new ConcurrentHashMap<LeakTracker, Boolean>());
+        collected = new ReferenceQueue<PooledBuffer>();
+        inUse = new AtomicInteger();
+        leaks = new AtomicLong();
+        caches = new ThreadLocal<ThreadCache>() {
+            @Override
+            protected ThreadCache initialValue() {
+                return new ThreadCache();
+            }
+        };
+    }
+
+    /**
+     * Get the pool used by the connections. Its leak detection is enabled by
+     * the {@value #LEAK_DETECTION_PROPERTY} system property.
+     * 
+     * @return the default pool
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Borrows a direct buffer.
+     * 
+     * @param capacity
+     *            the bytes needed
+     * @return a buffer, cleared, whose limit is the requested capacity
+     */
+    public PooledBuffer allocate(final int capacity) {
+        if (leakDetection) {
+            reportLeaks();
+        }
+
+        final int sizeClass = sizeClassOf(capacity);
+        PooledBuffer pooled = null;
+
+        if (sizeClass == PooledBuffer.UNPOOLED) {
+            pooled = new PooledBuffer(this, PooledBuffer.UNPOOLED, ByteBuffer.allocateDirect(capacity));
+        } else {
+            pooled = caches.get().pop(sizeClass);
+
+            if (pooled == null) {
+                pooled = shared[sizeClass].poll();
+
+                if (pooled != null) {
+                    sharedSizes.decrementAndGet(sizeClass);
+                }
+            }
+
+            if (pooled == null) {
+                pooled = new PooledBuffer(this, sizeClass, ByteBuffer.allocateDirect(MIN_POOLED << sizeClass));
+                created.incrementAndGet();
+            }
+        }
+
+        LeakTracker tracker = null;
+
+        if (leakDetection) {
+            tracker = new LeakTracker(pooled, collected);
+            live.add(tracker);
+            inUse.incrementAndGet();
+        }
+
+        pooled.borrow(tracker, capacity);
+
+        return pooled;
+    }
+
+    /**
+     * @return <tt>true</tt> if leak detection is enabled
+     */
+    public boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    /**
+     * @return how many buffers have been created for the size classes
+     */
+    public long getCreated() {
+        return created.get();
+    }
+
+    /**
+     * @return the buffers borrowed and not yet released, counted only with
+     *         leak detection enabled
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * Reports the buffers garbage collected without being released, since the
+     * last check.
+     * 
+     * @return the buffers leaked so far
+     */
+    public long reportLeaks() {
+        LeakTracker tracker = (LeakTracker) collected.poll();
+
+        while (tracker != null) {
+            if (live.remove(tracker)) {
+                leaks.incrementAndGet();
+                inUse.decrementAndGet();
+
+                // TODO add logger
+                tracker.allocation.printStackTrace();
+            }
+
+            tracker = (LeakTracker) collected.poll();
+        }
+
+        return leaks.get();
+    }
+
+    /**
+     * Takes back a buffer released.
+     * 
+     * @param pooled
+     *            the buffer released
+     */
+    void recycle(final PooledBuffer pooled) {
+        final LeakTracker tracker = pooled.takeTracker();
+
+        if ((tracker != null) && live.remove(tracker)) {
+            tracker.clear();
+            inUse.decrementAndGet();
+        }
+
+        final int sizeClass = pooled.getSizeClass();
+
+        if ((sizeClass != PooledBuffer.UNPOOLED) && !caches.get().push(pooled)) {
+            if (sharedSizes.incrementAndGet(sizeClass) <= SHARED_CACHE_SIZE) {
+                shared[sizeClass].offer(pooled);
+            } else {
+                sharedSizes.decrementAndGet(sizeClass);
+            }
+        }
+    }
+
+    /**
+     * Finds the size class of a buffer.
+     * 
+     * @param capacity
+     *            the bytes needed
+     * @return the smallest class that can hold the bytes, or
+     *         {@link PooledBuffer#UNPOOLED} if too large
+     */
+    private static int sizeClassOf(final int capacity) {
+        int sizeClass = PooledBuffer.UNPOOLED;
+
+        if (capacity <= MIN_POOLED) {
+            sizeClass = 0;
+        } else if (capacity <= MAX_POOLED) {
+            sizeClass = (Integer.SIZE - Integer.numberOfLeadingZeros(capacity - 1)) - MIN_SHIFT;
+        }
+
+        return sizeClass;
+    }
+
+    /**
+     * Tracks a borrowed buffer, keeping where it has been allocated.
+     */
+    static final class LeakTracker extends WeakReference<PooledBuffer> {
+        private final Throwable allocation;
+
+        LeakTracker(final PooledBuffer referent, final ReferenceQueue<PooledBuffer> queue) {
+            super(referent, queue);
+
+            allocation = new Throwable("Buffer never released, allocated at");
+        }
+    }
+
+    /**
+     * The buffers cached by a thread, a stack for each size class.
+     */
+    private static final class ThreadCache {
+        private final PooledBuffer[][] stacks = new PooledBuffer[CLASSES][THREAD_CACHE_SIZE];
+        private final int[] sizes = new int[CLASSES];
+
+        PooledBuffer pop(final int sizeClass) {
+            PooledBuffer pooled = null;
+
+            if (sizes[sizeClass] > 0) {
+                final int top = --sizes[sizeClass];
+                pooled = stacks[sizeClass][top];
+                stacks[sizeClass][top] = null;
+            }
+
+            return pooled;
+        }
+
+        boolean push(final PooledBuffer pooled) {
+            final int sizeClass = pooled.getSizeClass();
+            boolean pushed = false;
+
+            if (sizes[sizeClass] < THREAD_CACHE_SIZE) {
+                stacks[sizeClass][sizes[sizeClass]++] = pooled;
+                pushed = true;
+            }
+
+            return pushed;
+        }
+    }
+}
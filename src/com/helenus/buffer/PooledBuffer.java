@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link ByteBuffer} borrowed from a {@link BufferPool}, to be given back
+ * with {@link #release()} once not needed anymore.
+ * <p>
+ * After being released, the buffer is reused: neither the handle nor the
+ * {@link ByteBuffer} must be used anymore.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public final class PooledBuffer {
+    /**
+     * Size class of the buffers not owned by a pool.
+     */
+    static final int UNPOOLED = -1;
+
+    /**
+     * The pool owning the buffer, <code>null</code> for wrapped buffers.
+     */
+    private final BufferPool pool;
+
+    /**
+     * The size class of the buffer in its pool.
+     */
+    private final int sizeClass;
+
+    /**
+     * The buffer.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Set while the buffer is borrowed.
+     */
+    private final AtomicBoolean borrowed;
+
+    /**
+     * The leak tracker of the current borrower, <code>null</code> if leak
+     * detection is disabled.
+     */
+    private BufferPool.LeakTracker tracker;
+
+    /**
+     * Create a new buffer handle.
+     * 
+     * @param pool
+     *            the pool owning the buffer
+     * @param sizeClass
+     *            the size class of the buffer
+     * @param buffer
+     *            the buffer
+     */
+    PooledBuffer(final BufferPool pool, final int sizeClass, final ByteBuffer buffer) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.buffer = buffer;
+
+        borrowed = new AtomicBoolean();
+    }
+
+    /**
+     * Wraps a buffer not owned by any pool: releasing it does nothing.
+     * 
+     * @param buffer
+     *            the buffer to wrap
+     * @return the handle of the buffer
+     */
+    public static PooledBuffer wrap(final ByteBuffer buffer) {
+        final PooledBuffer wrapped = new PooledBuffer(null, UNPOOLED, buffer);
+        wrapped.borrowed.set(true);
+        return wrapped;
+    }
+
+    /**
+     * @return the buffer, cleared, with its limit at the requested capacity
+     *         when borrowed
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Gives back the buffer to its pool.
+     * 
+     * @throws IllegalStateException
+     *             if the buffer has already been released
+     */
+    public void release() {
+        if (!borrowed.compareAndSet(true, false)) {
+            throw new IllegalStateException("Buffer already released");
+        }
+
+        if (pool != null) {
+            pool.recycle(this);
+        }
+    }
+
+    /**
+     * Marks the buffer as borrowed.
+     * 
+     * @param leakTracker
+     *            the leak tracker of the borrower, it can be <code>null</code>
+     * @param capacity
+     *            the capacity requested
+     */
+    void borrow(final BufferPool.LeakTracker leakTracker, final int capacity) {
+        borrowed.set(true);
+        tracker = leakTracker;
+        buffer.clear();
+        buffer.limit(capacity);
+    }
+
+    /**
+     * @return the leak tracker of the borrower, cleared
+     */
+    BufferPool.LeakTracker takeTracker() {
+        final BufferPool.LeakTracker leakTracker = tracker;
+        tracker = null;
+        return leakTracker;
+    }
+
+    /**
+     * @return the size class of the buffer in its pool
+     */
+    int getSizeClass() {
+        return sizeClass;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.cache;
+
+/**
+ * Count-min sketch estimating how often the keys of a cache are accessed,
+ * with 4-bit counters.
+ * <p>
+ * Each key is counted in four counters, one for each hash function, and its
+ * frequency is the lowest of them. The counters are packed sixteen in a
+ * <code>long</code>, so the sketch takes 8 bytes for each entry of the cache.
+ * Once the accesses counted reach ten times the capacity of the cache, all
+ * the counters are halved: the keys that used to be popular age out.
+ * <p>
+ * The sketch is not thread-safe.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+final class FrequencySketch {
+    /**
+     * The seeds of the hash functions.
+     */
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L };
+
+    /**
+     * The maximum value of a counter.
+     */
+    private static final int MAX_COUNT = 15;
+
+    /**
+     * Clears the lowest bit of each counter once shifted.
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int mask;
+
+    /**
+     * The accesses counted after which the counters are halved.
+     */
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * Create a new sketch.
+     * 
+     * @param capacity
+     *            the capacity of the cache
+     */
+    FrequencySketch(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+
+        table = new long[size];
+        mask = size - 1;
+        sampleSize = 10 * Math.max(capacity, 1);
+    }
+
+    /**
+     * Gets the estimated frequency of a key.
+     * 
+     * @param hash
+     *            the hash code of the key
+     * @return the frequency, between <tt>0</tt> and <tt>15</tt>
+     */
+    int frequency(final int hash) {
+        int frequency = MAX_COUNT;
+
+        for (int i = 0; i < SEEDS.length; i++) {
+            final long spread = spread(hash, i);
+            final int count = (int) ((table[index(spread)] >>> shift(spread)) & MAX_COUNT);
+
+            frequency = Math.min(frequency, count);
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Counts an access to a key.
+     * 
+     * @param hash
+     *            the hash code of the key
+     */
+    void increment(final int hash) {
+        boolean added = false;
+
+        for (int i = 0; i < SEEDS.length; i++) {
+            final long spread = spread(hash, i);
+            final int index = index(spread);
+            final int shift = shift(spread);
+
+            if (((table[index] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+
+        if (added && (++additions >= sampleSize)) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves all the counters.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+
+        additions /= 2;
+    }
+
+    private int index(final long spread) {
+        return (int) (spread >>> 32) & mask;
+    }
+
+    private static int shift(final long spread) {
+        return ((int) spread & 15) << 2;
+    }
+
+    private static long spread(final int hash, final int function) {
+        long spread = (hash + SEEDS[function]) * SEEDS[function];
+        spread ^= spread >>> 29;
+
+        return spread;
+    }
+}
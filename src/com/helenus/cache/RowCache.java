@@ -0,0 +1,505 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.helenus.result.ResultSet;
+
+/**
+ * In-process cache of the rows read, keyed by their table and their primary
+ * key, bounded in size and with a time to live.
+ * <p>
+ * Rows are admitted and evicted with the W-TinyLFU policy: a new row enters
+ * a small LRU window, 1% of the cache. A row leaving the window competes with
+ * the least recently used row of the main space, and only the one accessed
+ * more often, as estimated by a {@link FrequencySketch}, is kept. The main
+ * space is a segmented LRU: rows hit again move from the probation segment
+ * to the protected one, 80% of the main space. A burst of rows read once does
+ * not flush the rows read over and over.
+ * <p>
+ * The cache is split in up to {@value #MAX_SEGMENTS} segments by the hash of
+ * the keys, each with its own lock, window, main space and sketch.
+ * <p>
+ * A row is cached together with the query that read it, and is a hit only
+ * for the same query. Each segment keeps a stamp, changed whenever one of its
+ * rows is invalidated: a read takes the stamp before being sent, and its
+ * result is cached only if the stamp did not change meanwhile, so that a read
+ * racing with a write does not cache the old row.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class RowCache {
+    /**
+     * Private counter for an internal ID.
+     */
+    private static final AtomicLong COUNTER = new AtomicLong();
+
+    /**
+     * The maximum number of segments.
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * The minimum number of rows in a segment.
+     */
+    private static final int MIN_SEGMENT_CAPACITY = 128;
+
+    private final long id;
+    private final int capacity;
+
+    /**
+     * The time to live of the rows, in nanoseconds, <tt>0</tt> if they do not
+     * expire.
+     */
+    private final long ttl;
+
+    private final Segment[] segments;
+
+    /**
+     * Create a new cache.
+     * 
+     * @param capacity
+     *            the maximum number of rows
+     * @param ttl
+     *            how long a row is kept, <tt>0</tt> to keep it until evicted
+     *            or invalidated
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>ttl</tt> argument
+     */
+    public RowCache(final int capacity, final long ttl, final TimeUnit unit) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+
+        if (ttl < 0) {
+            throw new IllegalArgumentException("The time to live cannot be negative: " + ttl);
+        }
+
+        this.capacity = capacity;
+        this.ttl = unit.toNanos(ttl);
+
+        id = COUNTER.incrementAndGet();
+
+        int count = 1;
+        while ((count < MAX_SEGMENTS) && ((capacity / (count * 2)) >= MIN_SEGMENT_CAPACITY)) {
+            count *= 2;
+        }
+
+        segments = new Segment[count];
+
+        for (int i = 0; i < count; i++) {
+            // The first segments take the remainder
+            segments[i] = new Segment((capacity / count) + ((i < (capacity % count)) ? 1 : 0));
+        }
+    }
+
+    /**
+     * Gets a cached row.
+     * 
+     * @param row
+     *            the key of the row
+     * @param query
+     *            the query reading the row
+     * @return the cached result, or <code>null</code> if the row is not cached,
+     *         expired, or cached for another query
+     */
+    public ResultSet get(final RowKey row, final String query) {
+        return segmentOf(row).get(row, query, System.nanoTime());
+    }
+
+    /**
+     * Gets the stamp of the segment of a row, to be taken before the row is
+     * read and given back to {@link #put(RowKey, String, ResultSet, long)}.
+     * 
+     * @param row
+     *            the key of the row
+     * @return the stamp
+     */
+    public long stamp(final RowKey row) {
+        return segmentOf(row).stamp;
+    }
+
+    /**
+     * Caches a row, if none of the rows of its segment has been invalidated
+     * since the stamp was taken.
+     * 
+     * @param row
+     *            the key of the row
+     * @param query
+     *            the query that read the row
+     * @param result
+     *            the result of the query, not to be released; see
+     *            {@link ResultSet#copy()}
+     * @param stamp
+     *            the stamp taken with {@link #stamp(RowKey)} before the row
+     *            was read
+     * @return <tt>true</tt> if the row has been cached
+     */
+    public boolean put(final RowKey row, final String query, final ResultSet result, final long stamp) {
+        return segmentOf(row).put(row, query, result, stamp, System.nanoTime());
+    }
+
+    /**
+     * Removes a row, after it has been written.
+     * 
+     * @param row
+     *            the key of the row
+     */
+    public void invalidate(final RowKey row) {
+        segmentOf(row).invalidate(row);
+    }
+
+    /**
+     * Removes all the rows.
+     */
+    public void clear() {
+        for (final Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * @return the ID of the cache
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the maximum number of rows
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows cached, some of which may have expired
+     */
+    public int size() {
+        int size = 0;
+
+        for (final Segment segment : segments) {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * @return how many reads found their row in the cache
+     */
+    public long getHits() {
+        long hits = 0;
+
+        for (final Segment segment : segments) {
+            hits += segment.hits;
+        }
+
+        return hits;
+    }
+
+    /**
+     * @return how many reads did not find their row in the cache
+     */
+    public long getMisses() {
+        long misses = 0;
+
+        for (final Segment segment : segments) {
+            misses += segment.misses;
+        }
+
+        return misses;
+    }
+
+    /**
+     * @return the fraction of the reads that found their row in the cache,
+     *         <tt>0</tt> if there were no reads
+     */
+    public double getHitRate() {
+        final long hits = getHits();
+        final long total = hits + getMisses();
+
+        return (total == 0) ? 0 : ((double) hits / total);
+    }
+
+    /**
+     * @return how many rows have been evicted to make room for others
+     */
+    public long getEvictions() {
+        long evictions = 0;
+
+        for (final Segment segment : segments) {
+            evictions += segment.evictions;
+        }
+
+        return evictions;
+    }
+
+    /**
+     * @return how many rows have been removed because their time to live
+     *         elapsed
+     */
+    public long getExpirations() {
+        long expirations = 0;
+
+        for (final Segment segment : segments) {
+            expirations += segment.expirations;
+        }
+
+        return expirations;
+    }
+
+    private Segment segmentOf(final RowKey row) {
+        final int hash = row.hashCode();
+
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * A segment of the cache, with its own window and main space. All the
+     * methods hold the lock of the segment.
+     */
+    private final class Segment {
+        private final Map<RowKey, Node> rows;
+        private final FrequencySketch sketch;
+
+        /**
+         * The sentinels of the lists of each region, least recently used
+         * first.
+         */
+        private final Node window = new Node();
+        private final Node probation = new Node();
+        private final Node protect = new Node();
+
+        private final int windowCapacity;
+        private final int mainCapacity;
+        private final int protectedCapacity;
+
+        private int windowSize;
+        private int probationSize;
+        private int protectedSize;
+
+        private volatile long stamp;
+        private volatile long hits;
+        private volatile long misses;
+        private volatile long evictions;
+        private volatile long expirations;
+
+        Segment(final int capacity) {
+            windowCapacity = Math.max(1, capacity / 100);
+            mainCapacity = Math.max(0, capacity - windowCapacity);
+            protectedCapacity = (mainCapacity * 4) / 5;
+
+            rows = new HashMap<RowKey, Node>();
+            sketch = new FrequencySketch(capacity);
+        }
+
+        synchronized ResultSet get(final RowKey row, final String query, final long now) {
+            sketch.increment(row.hashCode());
+
+            final Node node = rows.get(row);
+            ResultSet result = null;
+
+            if (node == null) {
+                misses++;
+            } else if (isExpired(node, now)) {
+                remove(node);
+                expirations++;
+                misses++;
+            } else if (!node.query.equals(query)) {
+                misses++;
+            } else {
+                hits++;
+                touch(node);
+                result = node.result;
+            }
+
+            return result;
+        }
+
+        synchronized boolean put(final RowKey row, final String query, final ResultSet result, final long stamp,
+                final long now) {
+            if (stamp != this.stamp) {
+                return false;
+            }
+
+            Node node = rows.get(row);
+
+            if (node == null) {
+                node = new Node();
+                node.row = row;
+                rows.put(row, node);
+                link(window, node, Node.WINDOW);
+                windowSize++;
+            } else {
+                touch(node);
+            }
+
+            node.query = query;
+            node.result = result;
+            node.expires = now + ttl;
+
+            if (windowSize > windowCapacity) {
+                // The oldest row of the window competes for the main space
+                final Node candidate = window.next;
+                unlink(candidate);
+                windowSize--;
+                link(probation, candidate, Node.PROBATION);
+                probationSize++;
+
+                if ((probationSize + protectedSize) > mainCapacity) {
+                    evict(candidate, now);
+                }
+            }
+
+            return true;
+        }
+
+        synchronized void invalidate(final RowKey row) {
+            stamp++;
+
+            final Node node = rows.get(row);
+
+            if (node != null) {
+                remove(node);
+            }
+        }
+
+        synchronized void clear() {
+            stamp++;
+            rows.clear();
+
+            for (final Node sentinel : new Node[] { window, probation, protect }) {
+                sentinel.next = sentinel;
+                sentinel.previous = sentinel;
+            }
+
+            windowSize = 0;
+            probationSize = 0;
+            protectedSize = 0;
+        }
+
+        synchronized int size() {
+            return rows.size();
+        }
+
+        /**
+         * Moves a row hit again to the most recently used end of its region,
+         * promoting it to the protected segment if in probation.
+         */
+        private void touch(final Node node) {
+            unlink(node);
+
+            if (node.region == Node.WINDOW) {
+                link(window, node, Node.WINDOW);
+            } else {
+                if (node.region == Node.PROBATION) {
+                    probationSize--;
+                    protectedSize++;
+                }
+
+                link(protect, node, Node.PROTECTED);
+
+                if (protectedSize > protectedCapacity) {
+                    // The least recently used protected row gets a second chance
+                    final Node demoted = protect.next;
+                    unlink(demoted);
+                    protectedSize--;
+                    link(probation, demoted, Node.PROBATION);
+                    probationSize++;
+                }
+            }
+        }
+
+        /**
+         * Evicts either the row coming from the window or the least recently
+         * used row in probation, keeping the one accessed more often.
+         */
+        private void evict(final Node candidate, final long now) {
+            final Node victim = probation.next;
+
+            if ((victim == candidate) || isExpired(victim, now)) {
+                if (victim != candidate) {
+                    expirations++;
+                } else {
+                    evictions++;
+                }
+
+                remove(victim);
+            } else if (sketch.frequency(candidate.row.hashCode()) > sketch.frequency(victim.row.hashCode())) {
+                remove(victim);
+                evictions++;
+            } else {
+                remove(candidate);
+                evictions++;
+            }
+        }
+
+        private boolean isExpired(final Node node, final long now) {
+            return (ttl > 0) && ((now - node.expires) >= 0);
+        }
+
+        private void remove(final Node node) {
+            unlink(node);
+            rows.remove(node.row);
+
+            if (node.region == Node.WINDOW) {
+                windowSize--;
+            } else if (node.region == Node.PROBATION) {
+                probationSize--;
+            } else {
+                protectedSize--;
+            }
+        }
+
+        private void link(final Node sentinel, final Node node, final int region) {
+            node.region = region;
+            node.previous = sentinel.previous;
+            node.next = sentinel;
+            sentinel.previous.next = node;
+            sentinel.previous = node;
+        }
+
+        private void unlink(final Node node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+        }
+    }
+
+    /**
+     * A cached row, linked in the list of its region.
+     */
+    private static final class Node {
+        private static final int WINDOW = 0;
+        private static final int PROBATION = 1;
+        private static final int PROTECTED = 2;
+
+        private RowKey row;
+        private String query;
+        private ResultSet result;
+        private long expires;
+        private int region;
+        private Node previous = this;
+        private Node next = this;
+    }
+}
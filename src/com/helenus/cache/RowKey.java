@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The key of a row in a {@link RowCache}: its table and its primary key.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public final class RowKey {
+    private final String table;
+    private final ByteBuffer key;
+    private final int hash;
+
+    /**
+     * Create a new key.
+     * 
+     * @param table
+     *            the table of the row, like <tt>keyspace.table</tt>
+     * @param key
+     *            the serialized primary key of the row, from its position to
+     *            its limit; it is copied
+     */
+    public RowKey(final String table, final ByteBuffer key) {
+        final ByteBuffer copy = ByteBuffer.allocate(key.remaining());
+        copy.put(key.duplicate());
+        copy.flip();
+
+        this.table = table;
+        this.key = copy.asReadOnlyBuffer();
+
+        hash = (31 * table.hashCode()) + this.key.hashCode();
+    }
+
+    /**
+     * @return the table of the row
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return a read-only view of the serialized primary key of the row
+     */
+    public ByteBuffer getKey() {
+        return key.duplicate();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (!(obj instanceof RowKey)) {
+            return false;
+        }
+
+        final RowKey other = (RowKey) obj;
+
+        return (hash == other.hash) && table.equals(other.table) && key.equals(other.key);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return table + "[" + key.remaining() + " bytes]";
+    }
+}
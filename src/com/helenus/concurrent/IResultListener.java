@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.concurrent;
+
+/**
+ * Callback notified when a {@link ResultFuture} completes.
+ * <p>
+ * Listeners are run by the thread completing the future, they should be quick
+ * and must not block.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ * @param <T>
+ *            the type of the result
+ */
+public interface IResultListener<T> {
+    /**
+     * Called when the future completes successfully.
+     * 
+     * @param result
+     *            the result of the future
+     */
+    void onSuccess(T result);
+
+    /**
+     * Called when the future fails, is cancelled, or times out.
+     * 
+     * @param cause
+     *            the reason of the failure
+     */
+    void onFailure(Throwable cause);
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.concurrent;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.helenus.exception.OverloadedException;
+
+/**
+ * Limits the requests in flight, without blocking the calling threads.
+ * <p>
+ * A request first acquires a permit, and releases it once its response has
+ * arrived. When all the permits are taken, a request waits in a FIFO queue of
+ * bounded size, and a permit released is handed straight to the oldest
+ * waiting request. A request is rejected with an {@link OverloadedException}
+ * if the queue is full, or if no permit is handed to it before its timeout
+ * elapses: the queue never grows past its size, and an overloaded node shows
+ * up as fast failures instead of piling up requests.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class InFlightLimiter {
+    /**
+     * The name of the limiter, used in the error messages.
+     */
+    private final String name;
+
+    /**
+     * The maximum number of requests in flight.
+     */
+    private final int maxInFlight;
+
+    /**
+     * The maximum number of requests waiting for a permit.
+     */
+    private final int maxQueued;
+
+    /**
+     * The permits of the requests in flight.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The requests waiting for a permit, oldest first.
+     */
+    private final ConcurrentLinkedQueue<ResultFuture<Void>> waiters;
+
+    /**
+     * The size of the queue of the waiting requests, kept apart since the
+     * size of a {@link ConcurrentLinkedQueue} is not a constant time operation.
+     */
+    private final AtomicInteger queued;
+
+    /**
+     * The requests rejected so far.
+     */
+    private final AtomicLong rejected;
+
+    /**
+     * Create a new limiter.
+     * 
+     * @param name
+     *            the name of the limiter, like the ID of the node it limits
+     * @param maxInFlight
+     *            the maximum number of requests in flight
+     * @param maxQueued
+     *            the maximum number of requests waiting for a permit,
+     *            <tt>0</tt> to reject the requests at once when all the
+     *            permits are taken
+     */
+    public InFlightLimiter(final String name, final int maxInFlight, final int maxQueued) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("The requests in flight must be positive: " + maxInFlight);
+        }
+
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("The requests waiting cannot be negative: " + maxQueued);
+        }
+
+        this.name = name;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+
+        permits = new Semaphore(maxInFlight);
+        waiters = new ConcurrentLinkedQueue<ResultFuture<Void>>();
+        queued = new AtomicInteger();
+        rejected = new AtomicLong();
+    }
+
+    /**
+     * Acquires a permit for a request, without blocking. The returned future
+     * fails with an {@link OverloadedException} if the queue of the waiting
+     * requests is full, or if no permit is handed to the request before the
+     * <tt>timeout</tt> elapses.
+     * <p>
+     * Once the future completes, the permit must be given back with
+     * {@link #release()}.
+     * 
+     * @param timeout
+     *            how long to wait for a permit
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed once the permit has been acquired
+     */
+    public ResultFuture<Void> acquire(final long timeout, final TimeUnit unit) {
+        final ResultFuture<Void> waiter = new ResultFuture<Void>();
+
+        // Do not overtake the requests already waiting
+        if (waiters.isEmpty() && permits.tryAcquire()) {
+            waiter.complete(null);
+        } else if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            waiter.fail(new OverloadedException("Too many requests in flight for " + name));
+        } else {
+            waiters.offer(waiter);
+
+            waiter.cancelOnCompletion(SharedScheduler.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // Still in the queue: no permit has been handed to it
+                    if (waiters.remove(waiter)) {
+                        queued.decrementAndGet();
+                        rejected.incrementAndGet();
+                        waiter.fail(new OverloadedException("Timed out waiting to send a request to " + name));
+                    }
+                }
+            }, timeout, unit));
+
+            // A permit might have been released before the request was queued
+            dispatchWaiters();
+        }
+
+        return waiter;
+    }
+
+    /**
+     * Gives back the permit of a request. If there are requests waiting, the
+     * permit is handed directly to the oldest one.
+     */
+    public void release() {
+        ResultFuture<Void> waiter = poll();
+
+        while (waiter != null) {
+            if (waiter.complete(null)) {
+                return;
+            }
+
+            waiter = poll();
+        }
+
+        permits.release();
+
+        // A request might have been queued after the queue was checked
+        dispatchWaiters();
+    }
+
+    /**
+     * @return the name of the limiter
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the maximum number of requests in flight
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return the maximum number of requests waiting for a permit
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * @return the requests in flight
+     */
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * @return the requests waiting for a permit
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return the requests rejected so far, because the queue was full or
+     *         because they waited too long
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Hands the free permits to the waiting requests.
+     */
+    private void dispatchWaiters() {
+        while (!waiters.isEmpty() && permits.tryAcquire()) {
+            final ResultFuture<Void> waiter = poll();
+
+            if ((waiter == null) || !waiter.complete(null)) {
+                // Nobody to take it, or the request expired meanwhile
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest waiting request from the queue.
+     */
+    private ResultFuture<Void> poll() {
+        final ResultFuture<Void> waiter = waiters.poll();
+
+        if (waiter != null) {
+            queued.decrementAndGet();
+        }
+
+        return waiter;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.concurrent;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A {@link Future} completed explicitly by its producer, that can notify
+ * {@link IResultListener} callbacks.
+ * <p>
+ * The future can be completed only once: the first call to
+ * {@link #complete(Object)}, {@link #fail(Throwable)} or
+ * {@link #cancel(boolean)} wins, the following ones return <tt>false</tt>.
+ * This makes it usable as the arbiter between concurrent producers, like a
+ * pool handing out a connection and a timer expiring the request.
+ * <p>
+ * Callers that cannot block should register a listener with
+ * {@link #addListener(IResultListener)} instead of calling {@link #get()}.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ * @param <T>
+ *            the type of the result
+ */
+public class ResultFuture<T> implements Future<T> {
+    /**
+     * Marker for a future not yet completed.
+     */
+    private static final Object PENDING = new Object();
+
+    /**
+     * Marker for a future completed with a <code>null</code> result.
+     */
+    private static final Object NULL = new Object();
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ResultFuture, Object> RESULT_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(ResultFuture.class, Object.class, "result");
+
+    /**
+     * The result, a {@link Failure} in case of errors.
+     */
+    private volatile Object result = PENDING;
+
+    /**
+     * Released when the future completes.
+     */
+    private final CountDownLatch done;
+
+    /**
+     * The listeners still to notify.
+     */
+    private final ConcurrentLinkedQueue<IResultListener<? super T>> listeners;
+
+    /**
+     * Create a new, not completed, future.
+     */
+    public ResultFuture() {
+        done = new CountDownLatch(1);
+        listeners = new ConcurrentLinkedQueue<IResultListener<? super T>>();
+    }
+
+    /**
+     * Create a future already completed successfully.
+     * 
+     * @param result
+     *            the result of the future
+     * @return the completed future
+     */
+    public static <T> ResultFuture<T> completed(final T result) {
+        final ResultFuture<T> future = new ResultFuture<T>();
+        future.complete(result);
+        return future;
+    }
+
+    /**
+     * Create a future already failed.
+     * 
+     * @param cause
+     *            the reason of the failure
+     * @return the failed future
+     */
+    public static <T> ResultFuture<T> failed(final Throwable cause) {
+        final ResultFuture<T> future = new ResultFuture<T>();
+        future.fail(cause);
+        return future;
+    }
+
+    /**
+     * Completes the future successfully.
+     * 
+     * @param value
+     *            the result of the future
+     * @return <tt>true</tt> if the future has been completed by this call
+     */
+    public boolean complete(final T value) {
+        return set(value == null ? NULL : value);
+    }
+
+    /**
+     * Completes the future with a failure.
+     * 
+     * @param cause
+     *            the reason of the failure
+     * @return <tt>true</tt> if the future has been completed by this call
+     */
+    public boolean fail(final Throwable cause) {
+        return set(new Failure(cause));
+    }
+
+    /**
+     * Registers a listener, notified once the future completes. If the future
+     * has already completed, the listener is notified immediately by the
+     * calling thread.
+     * 
+     * @param listener
+     *            the listener to register
+     * @return this future
+     */
+    public ResultFuture<T> addListener(final IResultListener<? super T> listener) {
+        listeners.offer(listener);
+
+        if (result != PENDING) {
+            notifyListeners();
+        }
+
+        return this;
+    }
+
+    /**
+     * Cancels a task once the future completes, whatever the outcome: for
+     * example the timer that would expire the future, so that it does not
+     * stay scheduled, and keep the future reachable, until its deadline.
+     * 
+     * @param task
+     *            the task to cancel
+     * @return this future
+     */
+    public ResultFuture<T> cancelOnCompletion(final Future<?> task) {
+        return addListener(new IResultListener<Object>() {
+            @Override
+            public void onSuccess(final Object result) {
+                task.cancel(false);
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                task.cancel(false);
+            }
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.Future#cancel(boolean)
+     */
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return fail(new CancellationException());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.Future#isCancelled()
+     */
+    @Override
+    public boolean isCancelled() {
+        final Object value = result;
+        return (value instanceof Failure) && (((Failure) value).cause instanceof CancellationException);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.Future#isDone()
+     */
+    @Override
+    public boolean isDone() {
+        return result != PENDING;
+    }
+
+    /**
+     * @return <tt>true</tt> if the future completed with a failure, or has been
+     *         cancelled
+     */
+    public boolean isFailed() {
+        return result instanceof Failure;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.Future#get()
+     */
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return report();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public T get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+
+        return report();
+    }
+
+    /**
+     * Sets the result, if not already set, and notifies the waiting threads
+     * and the listeners.
+     * 
+     * @param value
+     *            the result to set
+     * @return <tt>true</tt> if the result has been set by this call
+     */
+    private boolean set(final Object value) {
+        final boolean set = RESULT_UPDATER.compareAndSet(this, PENDING, value);
+
+        if (set) {
+            done.countDown();
+            notifyListeners();
+        }
+
+        return set;
+    }
+
+    /**
+     * Notifies the registered listeners, each one exactly once.
+     */
+    @SuppressWarnings("unchecked")
+    private void notifyListeners() {
+        IResultListener<? super T> listener = listeners.poll();
+
+        while (listener != null) {
+            final Object value = result;
+
+            try {
+                if (value instanceof Failure) {
+                    listener.onFailure(((Failure) value).cause);
+                } else {
+                    listener.onSuccess(value == NULL ? null : (T) value);
+                }
+            } catch (final RuntimeException ex) {
+                // TODO add logger
+                ex.printStackTrace();
+            }
+
+            listener = listeners.poll();
+        }
+    }
+
+    /**
+     * Reports the result of a completed future.
+     * 
+     * @return the result
+     * @throws ExecutionException
+     *             if the future failed
+     */
+    @SuppressWarnings("unchecked")
+    private T report() throws ExecutionException {
+        final Object value = result;
+
+        if (value instanceof Failure) {
+            final Throwable cause = ((Failure) value).cause;
+
+            if (cause instanceof CancellationException) {
+                throw (CancellationException) cause;
+            }
+
+            throw new ExecutionException(cause);
+        }
+
+        return value == NULL ? null : (T) value;
+    }
+
+    /**
+     * Holder for the cause of a failure.
+     */
+    private static final class Failure {
+        private final Throwable cause;
+
+        Failure(final Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.concurrent;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holder of the scheduler shared by the whole library for the timed tasks,
+ * like timeouts and periodic maintenance.
+ * <p>
+ * The scheduler runs on a single daemon thread: the tasks run on it must be
+ * quick and must never block.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public final class SharedScheduler {
+
+    // The singleton instance
+    private static final ScheduledThreadPoolExecutor SCHEDULER;
+
+    static {
+        SCHEDULER = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("helenus-scheduler"));
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    // Private constructor for singleton
+    private SharedScheduler() {
+    }
+
+    /**
+     * Get the shared scheduler.
+     * 
+     * @return the singleton instance
+     */
+    public static ScheduledExecutorService getInstance() {
+        return SCHEDULER;
+    }
+
+    /**
+     * Thread factory creating named daemon threads, so that the library
+     * threads never prevent the JVM from exiting.
+     * 
+     * @author Milo Casagrande
+     */
+    public static final class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+        private final String prefix;
+
+        /**
+         * @param prefix
+         *            the prefix for the name of the threads
+         */
+        public DaemonThreadFactory(final String prefix) {
+            this.prefix = prefix;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+         */
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -18,8 +18,10 @@ package com.helenus.configuration;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -30,10 +32,23 @@ import java.util.Set;
  * <li>{@link List} of nodes</li>
  * <li>RPC port (default value is <tt>9160</tt>)</li>
  * <li>JMX port (default value is <tt>8080</tt>)</li>
+ * <li>minimum number of connections per node (default value is <tt>1</tt>)</li>
+ * <li>maximum number of connections per node (default value is <tt>12</tt>)</li>
+ * <li>idle timeout of the connections (default value is <tt>60000</tt>
+ * milliseconds)</li>
+ * <li>per-thread cache of the connections (default value is
+ * <tt>false</tt>)</li>
+ * <li>partitioner of the cluster (default value is
+ * <tt>Murmur3Partitioner</tt>)</li>
+ * <li>replication factor (default value is <tt>1</tt>)</li>
+ * <li>compression of the frames (default value is <tt>none</tt>), and the
+ * size of the body below which a request is not compressed (default value is
+ * <tt>512</tt> bytes)</li>
  * </ul>
  * Optional values are:
  * <ul>
  * <li>cluster name</li>
+ * <li>tokens of the nodes, used for token-aware routing</li>
  * </ul>
  * 
  * @author Milo Casagrande
@@ -50,6 +65,37 @@ public class Configuration implements Serializable, Cloneable {
      */
     private static final int JMX_PORT = 8080;
 
+    /**
+     * Default minimum number of connections per node.
+     */
+    private static final int MIN_CONNECTIONS = 1;
+
+    /**
+     * Default maximum number of connections per node.
+     */
+    private static final int MAX_CONNECTIONS = 12;
+
+    /**
+     * Default idle timeout of the connections, in milliseconds.
+     */
+    private static final long IDLE_TIMEOUT = 60000L;
+
+    /**
+     * Default partitioner of the cluster.
+     */
+    private static final String PARTITIONER = "Murmur3Partitioner";
+
+    /**
+     * Default compression of the frames.
+     */
+    private static final String COMPRESSION = "none";
+
+    /**
+     * Default size of the body below which a request is not compressed, in
+     * bytes.
+     */
+    private static final int COMPRESSION_THRESHOLD = 512;
+
     /**
      * Default initial capacity for the {@link Set} holding the nodes.
      */
@@ -70,6 +116,51 @@ public class Configuration implements Serializable, Cloneable {
      */
     private int jmxPort = JMX_PORT;
 
+    /**
+     * The minimum number of connections kept open per node.
+     */
+    private int minConnections = MIN_CONNECTIONS;
+
+    /**
+     * The maximum number of connections open per node.
+     */
+    private int maxConnections = MAX_CONNECTIONS;
+
+    /**
+     * How long, in milliseconds, a connection can stay idle before being closed.
+     */
+    private long idleTimeout = IDLE_TIMEOUT;
+
+    /**
+     * Whether each thread keeps the connection it gave back, to get it again.
+     */
+    private boolean threadAffine;
+
+    /**
+     * The partitioner used by the cluster.
+     */
+    private String partitioner = PARTITIONER;
+
+    /**
+     * How many replicas hold each key.
+     */
+    private int replicationFactor = 1;
+
+    /**
+     * The compression algorithm of the frames.
+     */
+    private String compression = COMPRESSION;
+
+    /**
+     * The size of the body below which a request is not compressed.
+     */
+    private int compressionThreshold = COMPRESSION_THRESHOLD;
+
+    /**
+     * The token of each node, keyed by the node address.
+     */
+    private Map<String, String> tokens;
+
     /**
      * The name of the cluster.
      */
@@ -108,6 +199,7 @@ public class Configuration implements Serializable, Cloneable {
         super();
 
         nodes = Collections.synchronizedSet(new HashSet<String>(size));
+        tokens = Collections.synchronizedMap(new HashMap<String, String>(size));
     }
 
     /**
@@ -123,6 +215,15 @@ public class Configuration implements Serializable, Cloneable {
         nodes = toClone.getNodes();
         rpcPort = toClone.getRpcPort();
         jmxPort = toClone.getJmxPort();
+        minConnections = toClone.getMinConnections();
+        maxConnections = toClone.getMaxConnections();
+        idleTimeout = toClone.getIdleTimeout();
+        threadAffine = toClone.isThreadAffine();
+        partitioner = toClone.getPartitioner();
+        replicationFactor = toClone.getReplicationFactor();
+        compression = toClone.getCompression();
+        compressionThreshold = toClone.getCompressionThreshold();
+        tokens = toClone.getTokens();
         keyspace = toClone.getKeyspace();
         clusterName = toClone.getClusterName();
         logDir = toClone.getLogDir();
@@ -140,17 +241,30 @@ public class Configuration implements Serializable, Cloneable {
     /**
      * Clear the configuration.
      * <p>
-     * Set the RPC and JMX ports to their default values, reset the cluster name
-     * and the nodes list
+     * Set the RPC and JMX ports, the connections limits, the partitioner, the
+     * replication factor and the compression to their default values, reset
+     * the cluster name, the nodes list and the tokens
      */
     public void clear() {
         jmxPort = JMX_PORT;
         rpcPort = -1;
+        minConnections = MIN_CONNECTIONS;
+        maxConnections = MAX_CONNECTIONS;
+        idleTimeout = IDLE_TIMEOUT;
+        threadAffine = false;
+        partitioner = PARTITIONER;
+        replicationFactor = 1;
+        compression = COMPRESSION;
+        compressionThreshold = COMPRESSION_THRESHOLD;
         clusterName = "";
 
         if (nodes != null) {
             nodes.clear();
         }
+
+        if (tokens != null) {
+            tokens.clear();
+        }
     }
 
     /**
@@ -226,6 +340,174 @@ public class Configuration implements Serializable, Cloneable {
         return jmxPort;
     }
 
+    /**
+     * Sets the minimum number of connections kept open per node.
+     * 
+     * @param minConnections
+     *            the minimum number of connections
+     */
+    public void setMinConnections(final int minConnections) {
+        this.minConnections = minConnections;
+    }
+
+    /**
+     * @return the minimum number of connections per node
+     */
+    public int getMinConnections() {
+        return minConnections;
+    }
+
+    /**
+     * Sets the maximum number of connections open per node.
+     * 
+     * @param maxConnections
+     *            the maximum number of connections
+     */
+    public void setMaxConnections(final int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return the maximum number of connections per node
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets how long a connection can stay idle before being closed.
+     * 
+     * @param idleTimeout
+     *            the idle timeout, in milliseconds
+     */
+    public void setIdleTimeout(final long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return the idle timeout of the connections, in milliseconds
+     */
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Sets whether each thread keeps the connection it gave back, to get it
+     * again without touching the pool shared by all the threads.
+     * 
+     * @param threadAffine
+     *            <tt>true</tt> to cache a connection per thread
+     */
+    public void setThreadAffine(final boolean threadAffine) {
+        this.threadAffine = threadAffine;
+    }
+
+    /**
+     * @return <tt>true</tt> if each thread keeps the connection it gave back
+     */
+    public boolean isThreadAffine() {
+        return threadAffine;
+    }
+
+    /**
+     * Sets the partitioner used by the cluster.
+     * 
+     * @param partitioner
+     *            the name of the partitioner, either the simple or the fully
+     *            qualified Cassandra class name
+     */
+    public void setPartitioner(final String partitioner) {
+        this.partitioner = partitioner;
+    }
+
+    /**
+     * @return the name of the partitioner used by the cluster
+     */
+    public String getPartitioner() {
+        return partitioner;
+    }
+
+    /**
+     * Sets how many replicas hold each key.
+     * 
+     * @param replicationFactor
+     *            the replication factor
+     */
+    public void setReplicationFactor(final int replicationFactor) {
+        this.replicationFactor = replicationFactor;
+    }
+
+    /**
+     * @return the replication factor
+     */
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    /**
+     * Sets the compression algorithm of the frames.
+     * 
+     * @param compression
+     *            the name of the algorithm, as <tt>lz4</tt>, or <tt>none</tt>
+     */
+    public void setCompression(final String compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @return the name of the compression algorithm of the frames
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets the size of the body below which a request is not compressed.
+     * 
+     * @param compressionThreshold
+     *            the threshold, in bytes
+     */
+    public void setCompressionThreshold(final int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * @return the size of the body below which a request is not compressed, in
+     *         bytes
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Set the tokens of the nodes.
+     * 
+     * @param tokens
+     *            {@link Map} of the tokens, keyed by the node address
+     */
+    public void setTokens(final Map<String, String> tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Sets the token of a node.
+     * 
+     * @param node
+     *            the address of the node
+     * @param token
+     *            the string representation of the token of the node
+     */
+    public void addToken(final String node, final String token) {
+        tokens.put(node, token);
+    }
+
+    /**
+     * @return {@link Map} of the tokens, keyed by the node address
+     */
+    public Map<String, String> getTokens() {
+        return tokens;
+    }
+
     /**
      * Set the cluster name associated with this configuration.
      * 
@@ -289,6 +571,15 @@ public class Configuration implements Serializable, Cloneable {
         result = (31 * result) + (nodes == null ? 0 : nodes.hashCode());
         result = (31 * result) + (rpcPort ^ (rpcPort >>> 32));
         result = (31 * result) + (jmxPort ^ (jmxPort >>> 32));
+        result = (31 * result) + minConnections;
+        result = (31 * result) + maxConnections;
+        result = (31 * result) + (int) (idleTimeout ^ (idleTimeout >>> 32));
+        result = (31 * result) + (threadAffine ? 1231 : 1237);
+        result = (31 * result) + (partitioner == null ? 0 : partitioner.hashCode());
+        result = (31 * result) + replicationFactor;
+        result = (31 * result) + (compression == null ? 0 : compression.hashCode());
+        result = (31 * result) + compressionThreshold;
+        result = (31 * result) + (tokens == null ? 0 : tokens.hashCode());
         result = (31 * result) + (clusterName == null ? 0 : clusterName.hashCode());
         result = (31 * result) + (keyspace == null ? 0 : keyspace.hashCode());
         result = (31 * result) + (logDir == null ? 0 : logDir.hashCode());
@@ -320,6 +611,33 @@ public class Configuration implements Serializable, Cloneable {
 
             equal &= rpcPort == comparable.getRpcPort();
             equal &= jmxPort == comparable.getJmxPort();
+            equal &= minConnections == comparable.getMinConnections();
+            equal &= maxConnections == comparable.getMaxConnections();
+            equal &= idleTimeout == comparable.getIdleTimeout();
+            equal &= threadAffine == comparable.isThreadAffine();
+            equal &= replicationFactor == comparable.getReplicationFactor();
+            equal &= compressionThreshold == comparable.getCompressionThreshold();
+
+            if (((compression == null) && (comparable.getCompression() != null))
+                    || ((compression != null) && (comparable.getCompression() == null))) {
+                equal &= false;
+            } else if ((compression != null) && (comparable.getCompression() != null)) {
+                equal &= compression.equals(comparable.getCompression());
+            }
+
+            if (((partitioner == null) && (comparable.getPartitioner() != null))
+                    || ((partitioner != null) && (comparable.getPartitioner() == null))) {
+                equal &= false;
+            } else if ((partitioner != null) && (comparable.getPartitioner() != null)) {
+                equal &= partitioner.equals(comparable.getPartitioner());
+            }
+
+            if (((tokens == null) && (comparable.getTokens() != null))
+                    || ((tokens != null) && (comparable.getTokens() == null))) {
+                equal &= false;
+            } else if ((tokens != null) && (comparable.getTokens() != null)) {
+                equal &= tokens.equals(comparable.getTokens());
+            }
 
             if (((clusterName == null) && (comparable.getClusterName() != null))
                     || ((clusterName != null) && (comparable.getClusterName() == null))) {
@@ -361,6 +679,23 @@ public class Configuration implements Serializable, Cloneable {
         buffer.append(jmxPort);
         buffer.append("\n\tRPC Port: ");
         buffer.append(rpcPort);
+        buffer.append("\n\tConnections: ");
+        buffer.append(minConnections);
+        buffer.append('-');
+        buffer.append(maxConnections);
+        buffer.append("\n\tIdle Timeout: ");
+        buffer.append(idleTimeout);
+        buffer.append("\n\tThread Affine: ");
+        buffer.append(threadAffine);
+        buffer.append("\n\tPartitioner: ");
+        buffer.append(partitioner);
+        buffer.append("\n\tReplication Factor: ");
+        buffer.append(replicationFactor);
+        buffer.append("\n\tCompression: ");
+        buffer.append(compression);
+        buffer.append(" (threshold ");
+        buffer.append(compressionThreshold);
+        buffer.append(')');
         buffer.append("\n\tLog Dir: ");
         buffer.append(logDir);
         if (!nodes.isEmpty()) {
@@ -371,6 +706,16 @@ public class Configuration implements Serializable, Cloneable {
                 buffer.append('\n');
             }
         }
+        if ((tokens != null) && !tokens.isEmpty()) {
+            buffer.append("\n\tTokens:\n");
+            for (final Map.Entry<String, String> token : tokens.entrySet()) {
+                buffer.append("\t\t");
+                buffer.append(token.getKey());
+                buffer.append(": ");
+                buffer.append(token.getValue());
+                buffer.append('\n');
+            }
+        }
 
         buffer.trimToSize();
         return buffer.toString();
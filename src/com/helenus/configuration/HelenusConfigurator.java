@@ -19,6 +19,8 @@ import java.io.File;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
 import com.helenus.properties.IProperties;
 import com.helenus.properties.PropType;
@@ -31,6 +33,12 @@ import com.helenus.properties.PropType;
  * <li>the nodes address</li>
  * <li>the RPC (thrift) port</li>
  * <li>the JMX port</li>
+ * <li>the minimum and maximum number of connections per node</li>
+ * <li>the idle timeout of the connections</li>
+ * <li>the per-thread cache of the connections</li>
+ * <li>the partitioner and the replication factor</li>
+ * <li>the compression of the frames, and its threshold</li>
+ * <li>the tokens of the nodes</li>
  * </ul>
  * <p>
  * 
@@ -78,6 +86,51 @@ public class HelenusConfigurator extends AbstractConfigurator {
      */
     private static final String NODES_CAPACITY = HELENUS_PROP.get("helenus.nodes.capacity");
 
+    /**
+     * The 'min_connections' parameter.
+     */
+    private static final String MIN_CONNECTIONS = HELENUS_PROP.get("helenus.connections.min");
+
+    /**
+     * The 'max_connections' parameter.
+     */
+    private static final String MAX_CONNECTIONS = HELENUS_PROP.get("helenus.connections.max");
+
+    /**
+     * The 'connections_idle_timeout' parameter.
+     */
+    private static final String IDLE_TIMEOUT = HELENUS_PROP.get("helenus.connections.idle.timeout");
+
+    /**
+     * The 'connections_thread_affine' parameter.
+     */
+    private static final String THREAD_AFFINE = HELENUS_PROP.get("helenus.connections.thread.affine");
+
+    /**
+     * The 'partitioner' parameter.
+     */
+    private static final String PARTITIONER = HELENUS_PROP.get("helenus.partitioner");
+
+    /**
+     * The 'replication_factor' parameter.
+     */
+    private static final String REPLICATION_FACTOR = HELENUS_PROP.get("helenus.replication.factor");
+
+    /**
+     * The 'compression' parameter.
+     */
+    private static final String COMPRESSION = HELENUS_PROP.get("helenus.compression");
+
+    /**
+     * The 'compression_threshold' parameter.
+     */
+    private static final String COMPRESSION_THRESHOLD = HELENUS_PROP.get("helenus.compression.threshold");
+
+    /**
+     * The 'tokens' parameter.
+     */
+    private static final String TOKENS = HELENUS_PROP.get("helenus.tokens");
+
     /**
      * Create a new configurator based on an Helenus configuration file.
      * 
@@ -114,6 +167,57 @@ public class HelenusConfigurator extends AbstractConfigurator {
             configuration.setRpcPort(rpcPort);
         }
 
+        if (yamlMap.containsKey(MIN_CONNECTIONS)) {
+            final int minConnections = ((Integer) yamlMap.get(MIN_CONNECTIONS)).intValue();
+            configuration.setMinConnections(minConnections);
+        }
+
+        if (yamlMap.containsKey(MAX_CONNECTIONS)) {
+            final int maxConnections = ((Integer) yamlMap.get(MAX_CONNECTIONS)).intValue();
+            configuration.setMaxConnections(maxConnections);
+        }
+
+        if (yamlMap.containsKey(IDLE_TIMEOUT)) {
+            final long idleTimeout = ((Number) yamlMap.get(IDLE_TIMEOUT)).longValue();
+            configuration.setIdleTimeout(idleTimeout);
+        }
+
+        if (yamlMap.containsKey(THREAD_AFFINE)) {
+            final boolean threadAffine = ((Boolean) yamlMap.get(THREAD_AFFINE)).booleanValue();
+            configuration.setThreadAffine(threadAffine);
+        }
+
+        if (yamlMap.containsKey(PARTITIONER)) {
+            final String partitioner = (String) yamlMap.get(PARTITIONER);
+            configuration.setPartitioner(partitioner);
+        }
+
+        if (yamlMap.containsKey(REPLICATION_FACTOR)) {
+            final int replicationFactor = ((Integer) yamlMap.get(REPLICATION_FACTOR)).intValue();
+            configuration.setReplicationFactor(replicationFactor);
+        }
+
+        if (yamlMap.containsKey(COMPRESSION)) {
+            final String compression = String.valueOf(yamlMap.get(COMPRESSION));
+            configuration.setCompression(compression);
+        }
+
+        if (yamlMap.containsKey(COMPRESSION_THRESHOLD)) {
+            final int compressionThreshold = ((Integer) yamlMap.get(COMPRESSION_THRESHOLD)).intValue();
+            configuration.setCompressionThreshold(compressionThreshold);
+        }
+
+        if (yamlMap.containsKey(TOKENS)) {
+            final Map<String, Object> tokens = (Map<String, Object>) yamlMap.get(TOKENS);
+
+            if (tokens != null) {
+                // Tokens are numbers, YAML parses them as Integer, Long or BigInteger
+                for (final Entry<String, Object> token : tokens.entrySet()) {
+                    configuration.addToken(token.getKey(), String.valueOf(token.getValue()));
+                }
+            }
+        }
+
         if (yamlMap.containsKey(NODES)) {
             final List<String> nodes = (List<String>) yamlMap.get(NODES);
 
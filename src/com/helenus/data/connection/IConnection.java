@@ -15,8 +15,65 @@
 */
 package com.helenus.data.connection;
 
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.protocol.Frame;
+
 public interface IConnection {
     boolean open();
 
     void close();
+
+    /**
+     * Sends a request, without waiting for the response.
+     * <p>
+     * Many requests can be in flight on the same connection at the same time:
+     * each one is tagged with its own stream ID, and the responses are matched
+     * back to the requests in whatever order they arrive.
+     * 
+     * @param request
+     *            the request to send
+     * @return a future completed with the response
+     */
+    ResultFuture<Frame> send(Frame request);
+
+    /**
+     * Sends a request, without waiting for the response. If the response does
+     * not arrive before the <tt>timeout</tt> elapses, the future fails with a
+     * {@link java.util.concurrent.TimeoutException}.
+     * 
+     * @param request
+     *            the request to send
+     * @param timeout
+     *            how long to wait for the response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed with the response
+     */
+    ResultFuture<Frame> send(Frame request, long timeout, TimeUnit unit);
+
+    /**
+     * @return <tt>true</tt> if the connection is open, and can send requests
+     */
+    boolean isOpen();
+
+    /**
+     * @return the requests sent on the connection still waiting for a response
+     */
+    int getInFlight();
+
+    /**
+     * Gets the address of the node this connection is bound to.
+     * 
+     * @return the address of the node
+     */
+    String getAddress();
+
+    /**
+     * Gets the port of the node this connection is bound to.
+     * 
+     * @return the port of the node
+     */
+    int getPort();
 }
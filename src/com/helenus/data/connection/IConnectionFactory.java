@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection;
+
+/**
+ * Factory used by the connections pools to create new {@link IConnection}
+ * objects.
+ * <p>
+ * The connections created by the factory are not opened: the pool will take
+ * care of opening them before handing them out.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface IConnectionFactory {
+    /**
+     * Creates a new, not yet opened, connection.
+     * 
+     * @param address
+     *            the address of the node to connect to
+     * @param port
+     *            the port to connect to
+     * @return a new {@link IConnection}
+     */
+    IConnection create(String address, int port);
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.helenus.metrics.LatencyHistogram;
+
+/**
+ * A single thread driving many channels through one {@link Selector}.
+ * <p>
+ * The channels are registered with an {@link ISelectionHandler}, called by the
+ * loop thread whenever the channel is ready. Other threads interact with the
+ * channels only by submitting tasks to the loop with {@link #execute(Runnable)}:
+ * the tasks run on the loop thread, between two selections, so the state of
+ * a channel is only ever touched by one thread and needs no locking.
+ * <p>
+ * Submitting a task wakes up the selector only if it is not already being
+ * woken up, so that a burst of tasks costs a single wake up.
+ * <p>
+ * The loop keeps the distribution of the bytes and of the frames written by
+ * each flush of its connections, to check how well the writes are coalesced.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class EventLoop implements Executor, Runnable {
+    /**
+     * The selector of the loop.
+     */
+    private final Selector selector;
+
+    /**
+     * The tasks to run on the loop thread.
+     */
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+
+    /**
+     * Set when the selector has been woken up, and not yet selected again.
+     */
+    private final AtomicBoolean wakenUp;
+
+    /**
+     * The loop thread.
+     */
+    private final Thread thread;
+
+    /**
+     * The bytes written by each flush.
+     */
+    private final LatencyHistogram flushBytes;
+
+    /**
+     * The frames written by each flush.
+     */
+    private final LatencyHistogram flushFrames;
+
+    private volatile boolean running;
+
+    /**
+     * Create and start a new event loop.
+     * 
+     * @param threadFactory
+     *            the factory of the loop thread
+     * @throws IOException
+     *             if the selector cannot be opened
+     */
+    public EventLoop(final ThreadFactory threadFactory) throws IOException {
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        wakenUp = new AtomicBoolean();
+        flushBytes = new LatencyHistogram();
+        flushFrames = new LatencyHistogram();
+        running = true;
+
+        thread = threadFactory.newThread(this);
+        thread.start();
+    }
+
+    /**
+     * Runs a task on the loop thread. If called from the loop thread, the task
+     * runs after the current event has been handled.
+     * 
+     * @param task
+     *            the task to run, it must never block
+     */
+    @Override
+    public void execute(final Runnable task) {
+        tasks.offer(task);
+
+        if (!inEventLoop() && wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if the calling thread is the loop thread
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Registers a channel with the selector of this loop. Must be called on
+     * the loop thread.
+     * 
+     * @param channel
+     *            the channel to register, in non-blocking mode
+     * @param ops
+     *            the operations of interest
+     * @param handler
+     *            the handler of the readiness events
+     * @return the selection key of the channel
+     * @throws ClosedChannelException
+     *             if the channel is closed
+     */
+    public SelectionKey register(final SelectableChannel channel, final int ops, final ISelectionHandler handler)
+            throws ClosedChannelException {
+        if (!inEventLoop()) {
+            throw new IllegalStateException("Channels must be registered on the loop thread");
+        }
+
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * Records the size of a flush of one of the connections of the loop.
+     * 
+     * @param bytes
+     *            the bytes written
+     * @param frames
+     *            the frames, or buffers, written
+     */
+    public void recordFlush(final long bytes, final int frames) {
+        flushBytes.record(bytes);
+        flushFrames.record(frames);
+    }
+
+    /**
+     * @return the bytes written by each flush
+     */
+    public LatencyHistogram getFlushBytes() {
+        return flushBytes;
+    }
+
+    /**
+     * @return the frames written by each flush
+     */
+    public LatencyHistogram getFlushFrames() {
+        return flushFrames;
+    }
+
+    /**
+     * Stops the loop. The handlers of the channels still registered are
+     * notified, and the selector is closed.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * @return <tt>true</tt> if the loop has not been shut down
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                // A wake up requested before this point makes select() return at once
+                wakenUp.set(false);
+
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+
+                processSelectedKeys();
+                runTasks();
+            } catch (final IOException ex) {
+                // TODO add logger
+                ex.printStackTrace();
+            }
+        }
+
+        closeAll();
+    }
+
+    /**
+     * Dispatches the readiness events to the handlers.
+     */
+    private void processSelectedKeys() {
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+        while (keys.hasNext()) {
+            final SelectionKey key = keys.next();
+            keys.remove();
+
+            final ISelectionHandler handler = (ISelectionHandler) key.attachment();
+
+            try {
+                if (key.isValid()) {
+                    handler.ready(key);
+                }
+            } catch (final CancelledKeyException ex) {
+                // The channel has been closed while handling the event
+                handler.closed(ex);
+            } catch (final RuntimeException ex) {
+                // TODO add logger
+                ex.printStackTrace();
+                key.cancel();
+                handler.closed(ex);
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks submitted so far. Tasks submitted while running are left
+     * for the next iteration, so that the selector is not starved.
+     */
+    private void runTasks() {
+        int pending = tasks.size();
+        Runnable task = tasks.poll();
+
+        while (task != null) {
+            try {
+                task.run();
+            } catch (final RuntimeException ex) {
+                // TODO add logger
+                ex.printStackTrace();
+            }
+
+            if (--pending <= 0) {
+                break;
+            }
+
+            task = tasks.poll();
+        }
+    }
+
+    /**
+     * Closes the selector, notifying the handlers of the channels still
+     * registered.
+     */
+    private void closeAll() {
+        final IOException cause = new ClosedChannelException();
+
+        for (final SelectionKey key : selector.keys()) {
+            key.cancel();
+            ((ISelectionHandler) key.attachment()).closed(cause);
+        }
+
+        try {
+            selector.close();
+        } catch (final IOException ex) {
+            // TODO add logger
+            ex.printStackTrace();
+        }
+    }
+}
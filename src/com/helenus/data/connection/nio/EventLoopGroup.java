@@ -0,0 +1,173 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection.nio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.helenus.concurrent.SharedScheduler.DaemonThreadFactory;
+import com.helenus.metrics.LatencyHistogram;
+
+/**
+ * A fixed set of {@link EventLoop} threads, shared by all the connections.
+ * <p>
+ * Each new connection is bound to one of the loops, chosen in round-robin
+ * order, and stays on it for its whole life. The number of threads does not
+ * depend on the number of nodes or connections, nor on the threads issuing
+ * the requests.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class EventLoopGroup {
+    /**
+     * Default number of loops: half of the processors, at least one and at
+     * most four. A single loop can drive thousands of channels.
+     */
+    public static final int DEFAULT_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    /**
+     * Shared atomic COUNTER to provide a unique ID number for each group.
+     */
+    private static final AtomicLong COUNTER = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * The group shared by the connections created without an explicit one.
+     */
+    private static EventLoopGroup shared;
+
+    /**
+     * The ID of the group.
+     */
+    private final long id;
+
+    /**
+     * The loops of the group.
+     */
+    private final EventLoop[] loops;
+
+    /**
+     * Round-robin counter to choose the next loop.
+     */
+    private final AtomicInteger next;
+
+    /**
+     * Create a new group with the default number of loops.
+     */
+    public EventLoopGroup() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * Create a new group, starting its loops.
+     * 
+     * @param threads
+     *            the number of loops
+     */
+    public EventLoopGroup(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1: " + threads);
+        }
+
+        final DaemonThreadFactory threadFactory = new DaemonThreadFactory("helenus-io");
+
+        id = COUNTER.incrementAndGet();
+        loops = new EventLoop[threads];
+        next = new AtomicInteger();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                loops[i] = new EventLoop(threadFactory);
+            }
+        } catch (final IOException ex) {
+            shutdown();
+            throw new IllegalStateException("Cannot open the selector of the event loop", ex);
+        }
+    }
+
+    /**
+     * Gets the group shared by the connections created without an explicit
+     * one, creating it with the default number of loops on first use.
+     * 
+     * @return the shared group
+     */
+    public static synchronized EventLoopGroup getShared() {
+        if (shared == null) {
+            shared = new EventLoopGroup();
+        }
+
+        return shared;
+    }
+
+    /**
+     * @return the loop to bind the next connection to
+     */
+    public EventLoop next() {
+        return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    /**
+     * @return the number of loops of the group
+     */
+    public int size() {
+        return loops.length;
+    }
+
+    /**
+     * @return the ID of the group
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the bytes written by each flush, on all the loops
+     */
+    public LatencyHistogram getFlushBytes() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (final EventLoop loop : loops) {
+            histogram.merge(loop.getFlushBytes());
+        }
+
+        return histogram;
+    }
+
+    /**
+     * @return the frames written by each flush, on all the loops
+     */
+    public LatencyHistogram getFlushFrames() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (final EventLoop loop : loops) {
+            histogram.merge(loop.getFlushFrames());
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Stops all the loops of the group, closing their connections.
+     */
+    public void shutdown() {
+        for (final EventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection.nio;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Handler of the data received by a {@link NioConnection}.
+ * <p>
+ * The methods are called by the event loop thread of the connection: they
+ * must never block, and should hand off any expensive work.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface IConnectionHandler {
+    /**
+     * Called when new data has been read from the connection.
+     * <p>
+     * The handler consumes the bytes it can process, advancing the position of
+     * the buffer: the bytes left are kept, and passed again together with the
+     * next data read. The buffer is owned by the connection and must not be
+     * retained.
+     * 
+     * @param connection
+     *            the connection the data has been read from
+     * @param data
+     *            the data read, from its position to its limit
+     */
+    void received(NioConnection connection, ByteBuffer data);
+
+    /**
+     * Called once, when the connection is closed.
+     * 
+     * @param connection
+     *            the closed connection
+     * @param cause
+     *            the reason of the closing, or <code>null</code> if the
+     *            connection has been closed on request
+     */
+    void closed(NioConnection connection, Throwable cause);
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection.nio;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * Handler of the readiness events of a channel registered with an
+ * {@link EventLoop}.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface ISelectionHandler {
+    /**
+     * Called by the event loop thread when the channel is ready for one or
+     * more of the operations it is registered for. It must never block.
+     * 
+     * @param key
+     *            the selection key of the channel
+     */
+    void ready(SelectionKey key);
+
+    /**
+     * Called by the event loop thread when the loop is shutting down, or when
+     * handling a readiness event failed.
+     * 
+     * @param cause
+     *            the reason of the closing
+     */
+    void closed(Throwable cause);
+}
@@ -0,0 +1,1008 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.buffer.PooledBuffer;
+import com.helenus.concurrent.IResultListener;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.concurrent.SharedScheduler;
+import com.helenus.data.connection.IConnection;
+import com.helenus.exception.ConnectionException;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.FrameCodec;
+import com.helenus.protocol.ICompressor;
+import com.helenus.protocol.Opcode;
+import com.helenus.protocol.StreamIdSet;
+
+/**
+ * Non-blocking {@link IConnection} driven by an {@link EventLoop}.
+ * <p>
+ * The socket is only ever touched by the thread of the loop the connection is
+ * bound to. Data read from the socket is passed to the
+ * {@link IConnectionHandler} of the connection, on the loop thread.
+ * <p>
+ * Writes are coalesced: they are queued, and the loop flushes all the queued
+ * buffers with a single gathering write, once per iteration, instead of a
+ * system call for each write. The flush can also be delayed, to gather more
+ * writes in a single packet: the delay is bounded by a maximum, and a flush
+ * is requested at once when the queued bytes reach a threshold. The sizes of
+ * the flushes are recorded by the {@link EventLoop}.
+ * <p>
+ * The requests are encoded in direct buffers borrowed from a
+ * {@link BufferPool}, given back once written, and the bodies of the
+ * responses are decoded in pooled buffers too: the responses must be released
+ * with {@link Frame#release()} once read. Data is read from the socket into a
+ * pooled direct buffer as well.
+ * <p>
+ * Once established, the connection is initialized with a <tt>STARTUP</tt>
+ * message, and it is only completed when the node answers <tt>READY</tt>:
+ * the requests sent before are held until then, as the node rejects them.
+ * <p>
+ * The bodies of the frames can be compressed. The compression is negotiated
+ * before the <tt>STARTUP</tt>: the node is asked for its <tt>SUPPORTED</tt>
+ * options, and if it supports the algorithm, the <tt>STARTUP</tt> message
+ * enables it; otherwise the connection is used uncompressed. Requests whose
+ * body is smaller than a threshold are sent uncompressed, as small bodies
+ * gain little and cost the same.
+ * <p>
+ * By default, the data received is decoded into {@link Frame}s, and each
+ * response is matched to the request sent with the same stream ID: requests
+ * are multiplexed on the connection, and their responses can arrive in any
+ * order. A request timed out keeps its stream ID until its response arrives,
+ * so that a late response is never matched to a newer request. The futures of
+ * the requests are completed on the loop thread: their listeners must never
+ * block.
+ * <p>
+ * {@link #open()} blocks until the connection is established, as the pools
+ * expect; {@link #connect()} is its non-blocking counterpart.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class NioConnection implements IConnection, ISelectionHandler {
+    /**
+     * Default time to wait for a connection to be established, in
+     * milliseconds.
+     */
+    public static final long DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    /**
+     * Default number of queued bytes that trigger a flush without waiting for
+     * the flush delay.
+     */
+    public static final int DEFAULT_MAX_FLUSH_BYTES = 64 * 1024;
+
+    /**
+     * Default size of the body of a request below which it is not
+     * compressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+
+    /**
+     * The version of CQL sent in the <tt>STARTUP</tt> message.
+     */
+    private static final String CQL_VERSION = "3.0.0";
+
+    /**
+     * Maximum number of buffers written by a single gathering write.
+     */
+    private static final int MAX_GATHER = 64;
+
+    /**
+     * Initial size of the buffer data is read into. It grows if the handler
+     * needs more data than it can hold.
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final String address;
+    private final int port;
+
+    /**
+     * The loop driving the connection.
+     */
+    private final EventLoop loop;
+
+    /**
+     * The buffers waiting to be written.
+     */
+    private final ConcurrentLinkedQueue<PooledBuffer> writeQueue;
+
+    /**
+     * Set while a flush task is queued on the loop.
+     */
+    private final AtomicBoolean flushScheduled;
+
+    /**
+     * Set while a delayed flush is waiting for its delay to elapse.
+     */
+    private final AtomicBoolean flushDelayed;
+
+    /**
+     * The bytes queued and not yet written.
+     */
+    private final AtomicInteger queuedBytes;
+
+    /**
+     * Set once the connection has been closed.
+     */
+    private final AtomicBoolean closed;
+
+    /**
+     * The stream IDs of the requests in flight.
+     */
+    private final StreamIdSet streams;
+
+    /**
+     * The requests waiting for a response, indexed by stream ID.
+     */
+    private final AtomicReferenceArray<ResultFuture<Frame>> pending;
+
+    /**
+     * Decodes the frames received, and completes the pending requests.
+     */
+    private final IConnectionHandler frames = new IConnectionHandler() {
+        @Override
+        public void received(final NioConnection connection, final ByteBuffer data) {
+            try {
+                Frame frame = FrameCodec.decode(data, bufferPool);
+
+                while (frame != null) {
+                    dispatch(FrameCodec.decompress(frame, compression, bufferPool));
+                    frame = FrameCodec.decode(data, bufferPool);
+                }
+            } catch (final ProtocolException ex) {
+                NioConnection.this.closed(ex);
+            }
+        }
+
+        @Override
+        public void closed(final NioConnection connection, final Throwable cause) {
+            failPending((cause == null) ? new ClosedChannelException() : cause);
+        }
+    };
+
+    /**
+     * Flushes the queued writes, on the loop thread.
+     */
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    /**
+     * Requests a flush once the flush delay elapsed.
+     */
+    private final Runnable delayedFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushDelayed.set(false);
+            scheduleFlush();
+        }
+    };
+
+    private long connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private long maxFlushDelay;
+    private int maxFlushBytes = DEFAULT_MAX_FLUSH_BYTES;
+    private BufferPool bufferPool = BufferPool.getDefault();
+    private ICompressor compressor;
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    /**
+     * The compressor negotiated with the node, <code>null</code> if none.
+     */
+    private volatile ICompressor compression;
+    private volatile IConnectionHandler handler = frames;
+    private volatile boolean open;
+
+    /**
+     * Completed when the connection is established and initialized, or
+     * failed when it closes before.
+     */
+    private final ResultFuture<Void> connected;
+
+    /**
+     * Set once connecting starts.
+     */
+    private boolean connecting;
+
+    // Owned by the loop thread
+    private SocketChannel channel;
+    private SelectionKey key;
+    private PooledBuffer readBuffer;
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    /**
+     * Create a new, not yet opened, connection bound to a loop of the shared
+     * {@link EventLoopGroup}.
+     * 
+     * @param address
+     *            the address of the node
+     * @param port
+     *            the port of the node
+     */
+    public NioConnection(final String address, final int port) {
+        this(address, port, EventLoopGroup.getShared().next());
+    }
+
+    /**
+     * Create a new, not yet opened, connection.
+     * 
+     * @param address
+     *            the address of the node
+     * @param port
+     *            the port of the node
+     * @param loop
+     *            the {@link EventLoop} driving the connection
+     */
+    public NioConnection(final String address, final int port, final EventLoop loop) {
+        this.address = address;
+        this.port = port;
+        this.loop = loop;
+
+        writeQueue = new ConcurrentLinkedQueue<PooledBuffer>();
+        flushScheduled = new AtomicBoolean();
+        flushDelayed = new AtomicBoolean();
+        queuedBytes = new AtomicInteger();
+        closed = new AtomicBoolean();
+        streams = new StreamIdSet();
+        pending = new AtomicReferenceArray<ResultFuture<Frame>>(streams.getCapacity());
+        connected = new ResultFuture<Void>();
+    }
+
+    /**
+     * Set how long {@link #open()} waits for the connection to be
+     * established.
+     * 
+     * @param timeout
+     *            the timeout
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return this {@link NioConnection} object
+     */
+    public NioConnection withConnectTimeout(final long timeout, final TimeUnit unit) {
+        connectTimeout = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Set how the writes are coalesced. By default, the writes are flushed at
+     * the next iteration of the loop, without any further delay.
+     * 
+     * @param maxDelay
+     *            the longest time a write can wait for more writes to flush
+     *            together, <tt>0</tt> to flush at the next iteration of the
+     *            loop
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>maxDelay</tt> argument
+     * @param maxBytes
+     *            the queued bytes that trigger a flush without waiting for
+     *            the delay
+     * @return this {@link NioConnection} object
+     */
+    public NioConnection withCoalescing(final long maxDelay, final TimeUnit unit, final int maxBytes) {
+        maxFlushDelay = unit.toNanos(maxDelay);
+        maxFlushBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Set the pool of the buffers used to read, encode and decode the data.
+     * By default, the {@link BufferPool#getDefault() default} pool.
+     * 
+     * @param pool
+     *            the {@link BufferPool} to use
+     * @return this {@link NioConnection} object
+     */
+    public NioConnection withBufferPool(final BufferPool pool) {
+        bufferPool = pool;
+        return this;
+    }
+
+    /**
+     * Set the compression of the frames, negotiated with the node when the
+     * connection is established.
+     * 
+     * @param compressor
+     *            the {@link ICompressor} to use, or <code>null</code> not to
+     *            compress the frames
+     * @param threshold
+     *            the size of the body of a request below which it is sent
+     *            uncompressed
+     * @return this {@link NioConnection} object
+     */
+    public NioConnection withCompression(final ICompressor compressor, final int threshold) {
+        this.compressor = compressor;
+        compressionThreshold = threshold;
+        return this;
+    }
+
+    /**
+     * Set the handler of the data received, instead of the default one
+     * decoding the responses to the requests sent. It should be set before
+     * opening the connection, not to lose any data. Requests cannot be sent on
+     * a connection with its own handler.
+     * 
+     * @param handler
+     *            the {@link IConnectionHandler} to use, or <code>null</code>
+     *            for the default one
+     * @return this {@link NioConnection} object
+     */
+    public NioConnection withHandler(final IConnectionHandler handler) {
+        this.handler = (handler == null) ? frames : handler;
+        return this;
+    }
+
+    /**
+     * Opens the connection, waiting for it to be established.
+     * 
+     * @return <tt>true</tt> if the connection has been established within the
+     *         connect timeout
+     */
+    @Override
+    public boolean open() {
+        boolean established = false;
+
+        try {
+            connect().get(connectTimeout, TimeUnit.MILLISECONDS);
+            established = true;
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException ex) {
+            // TODO add logger
+            ex.printStackTrace();
+        } catch (final TimeoutException ex) {
+            // TODO add logger
+            ex.printStackTrace();
+        }
+
+        if (!established) {
+            close();
+        }
+
+        return established;
+    }
+
+    /**
+     * Starts connecting, without blocking. Calling it again returns the same
+     * future.
+     * 
+     * @return a future completed when the connection is established
+     */
+    public synchronized ResultFuture<Void> connect() {
+        if (!connecting) {
+            connecting = true;
+
+            if (closed.get()) {
+                connected.fail(new ClosedChannelException());
+            } else {
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        doConnect();
+                    }
+                });
+            }
+        }
+
+        return connected;
+    }
+
+    /**
+     * Queues data to be written to the connection.
+     * 
+     * @param data
+     *            the data to write, from its position to its limit; it must
+     *            not be modified until written
+     * @return <tt>false</tt> if the connection is closed, and the data has
+     *         been discarded
+     */
+    public boolean write(final ByteBuffer data) {
+        return write(PooledBuffer.wrap(data));
+    }
+
+    /**
+     * Queues data to be written to the connection. The buffer is owned by the
+     * connection, and released once written, or discarded.
+     * 
+     * @param data
+     *            the data to write, from its position to its limit
+     * @return <tt>false</tt> if the connection is closed, and the data has
+     *         been discarded
+     */
+    public boolean write(final PooledBuffer data) {
+        if (closed.get()) {
+            data.release();
+            return false;
+        }
+
+        writeQueue.offer(data);
+
+        if (closed.get()) {
+            // Closed in between, the buffer might not have been discarded
+            discardWrites();
+            return false;
+        }
+
+        final int queued = queuedBytes.addAndGet(data.buffer().remaining());
+
+        if ((maxFlushDelay == 0) || (queued >= maxFlushBytes)) {
+            scheduleFlush();
+        } else if (flushDelayed.compareAndSet(false, true)) {
+            SharedScheduler.getInstance().schedule(delayedFlushTask, maxFlushDelay, TimeUnit.NANOSECONDS);
+        }
+
+        return true;
+    }
+
+    /**
+     * Sends a request. Until the connection is initialized, the request is
+     * held, and only sent once the node is ready.
+     * 
+     * @param request
+     *            the request to send
+     * @return a future completed with the response
+     */
+    @Override
+    public ResultFuture<Frame> send(final Frame request) {
+        final ResultFuture<Frame> future = new ResultFuture<Frame>();
+
+        if (handler != frames) {
+            future.fail(new IllegalStateException("The connection has its own handler"));
+        } else if (connected.isDone() && !connected.isFailed()) {
+            write(request, future);
+        } else {
+            connected.addListener(new IResultListener<Void>() {
+                @Override
+                public void onSuccess(final Void result) {
+                    // Not sent if timed out in the meantime
+                    if (!future.isDone()) {
+                        write(request, future);
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    future.fail(cause);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * Encodes a request and queues it, to be completed with its response.
+     * 
+     * @param request
+     *            the request to send
+     * @param future
+     *            the future to complete with the response
+     */
+    private void write(final Frame request, final ResultFuture<Frame> future) {
+        if (closed.get()) {
+            future.fail(new ClosedChannelException());
+        } else {
+            final int stream = streams.acquire();
+
+            if (stream < 0) {
+                future.fail(new ConnectionException("No stream IDs available on " + address + ":" + port));
+            } else {
+                pending.set(stream, future);
+
+                final ICompressor negotiated = compression;
+                final PooledBuffer encoded;
+
+                if ((negotiated != null) && (request.getBody().remaining() >= compressionThreshold)) {
+                    encoded = FrameCodec.encode(request, stream, bufferPool, negotiated);
+                } else {
+                    encoded = FrameCodec.encode(request, stream, bufferPool);
+                }
+
+                // If the connection closed in between, the request has already been failed
+                if (!write(encoded)
+                        && pending.compareAndSet(stream, future, null)) {
+                    streams.release(stream);
+                    future.fail(new ClosedChannelException());
+                }
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#send(com.helenus.protocol.Frame, long,
+     * java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public ResultFuture<Frame> send(final Frame request, final long timeout, final TimeUnit unit) {
+        final ResultFuture<Frame> future = send(request);
+
+        if (!future.isDone()) {
+            final ScheduledFuture<?> timer = SharedScheduler.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    future.fail(new TimeoutException("No response from " + address + ":" + port));
+                }
+            }, timeout, unit);
+
+            future.addListener(new IResultListener<Frame>() {
+                @Override
+                public void onSuccess(final Frame result) {
+                    timer.cancel(false);
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    timer.cancel(false);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * Closes the connection. The handler is notified on the loop thread.
+     */
+    @Override
+    public void close() {
+        if (loop.inEventLoop() || !loop.isRunning()) {
+            closed(null);
+        } else if (!closed.get()) {
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closed(null);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if the connection is established, and not closed
+     */
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#getInFlight()
+     */
+    @Override
+    public int getInFlight() {
+        return streams.getInUse();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#getAddress()
+     */
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#getPort()
+     */
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the compressor negotiated with the node, or <code>null</code>
+     *         if the frames are not compressed
+     */
+    public ICompressor getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the {@link EventLoop} driving the connection
+     */
+    public EventLoop getLoop() {
+        return loop;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.nio.ISelectionHandler#ready(java.nio.channels.SelectionKey)
+     */
+    @Override
+    public void ready(final SelectionKey readyKey) {
+        if (readyKey.isConnectable()) {
+            finishConnect();
+        }
+
+        if (readyKey.isValid() && readyKey.isReadable()) {
+            read();
+        }
+
+        if (readyKey.isValid() && readyKey.isWritable()) {
+            flush();
+        }
+    }
+
+    /**
+     * Closes the channel, discarding the queued writes. Only the first call
+     * has any effect.
+     * 
+     * @param cause
+     *            the reason of the closing, or <code>null</code> if closed on
+     *            request
+     */
+    @Override
+    public void closed(final Throwable cause) {
+        if (closed.compareAndSet(false, true)) {
+            open = false;
+
+            if (key != null) {
+                key.cancel();
+            }
+
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (final IOException ex) {
+                    // TODO add logger
+                    ex.printStackTrace();
+                }
+            }
+
+            discardWrites();
+
+            if (readBuffer != null) {
+                readBuffer.release();
+                readBuffer = null;
+            }
+
+            connected.fail((cause == null) ? new ClosedChannelException() : cause);
+
+            handler.closed(this, cause);
+        }
+    }
+
+    /**
+     * Releases the buffers queued and not written.
+     */
+    private void discardWrites() {
+        PooledBuffer data = writeQueue.poll();
+
+        while (data != null) {
+            data.release();
+            data = writeQueue.poll();
+        }
+    }
+
+    /**
+     * Completes the request waiting for a response, on the loop thread.
+     * Responses to requests not known, like the server events, and the late
+     * responses to requests already timed out or cancelled, are dropped, and
+     * their body given back to the pool.
+     * 
+     * @param response
+     *            the response received
+     */
+    private void dispatch(final Frame response) {
+        final int stream = response.getStream();
+
+        if ((stream >= 0) && (stream < pending.length())) {
+            final ResultFuture<Frame> future = pending.getAndSet(stream, null);
+
+            if (future != null) {
+                streams.release(stream);
+            }
+
+            if ((future == null) || !future.complete(response)) {
+                response.release();
+            }
+        } else {
+            response.release();
+        }
+    }
+
+    /**
+     * Fails all the requests waiting for a response.
+     * 
+     * @param cause
+     *            the reason of the failure
+     */
+    private void failPending(final Throwable cause) {
+        for (int stream = 0; stream < pending.length(); stream++) {
+            final ResultFuture<Frame> future = pending.getAndSet(stream, null);
+
+            if (future != null) {
+                streams.release(stream);
+                future.fail(cause);
+            }
+        }
+    }
+
+    /**
+     * Opens the channel and starts connecting, on the loop thread.
+     */
+    private void doConnect() {
+        if (closed.get()) {
+            return;
+        }
+
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setKeepAlive(true);
+
+            if (channel.connect(new InetSocketAddress(address, port))) {
+                key = loop.register(channel, SelectionKey.OP_READ, this);
+                established();
+            } else {
+                key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (final IOException ex) {
+            closed(ex);
+        }
+    }
+
+    /**
+     * Completes a pending connection, on the loop thread.
+     */
+    private void finishConnect() {
+        try {
+            if (channel.finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ);
+                established();
+            }
+        } catch (final IOException ex) {
+            closed(ex);
+        }
+    }
+
+    /**
+     * Marks the connection as established, and flushes the writes queued
+     * while connecting. The connection is initialized before completing it,
+     * negotiating the compression first if one is set; a connection with its
+     * own handler is completed at once.
+     */
+    private void established() {
+        readBuffer = bufferPool.allocate(READ_BUFFER_SIZE);
+        open = true;
+
+        if (handler != frames) {
+            connected.complete(null);
+        } else if (compressor == null) {
+            startup(false);
+        } else {
+            negotiate();
+        }
+
+        flush();
+    }
+
+    /**
+     * Asks the node for the compression algorithms it supports, and
+     * initializes the connection enabling the one of the connection if
+     * supported. The connection is closed if the node does not answer as
+     * expected.
+     */
+    private void negotiate() {
+        final ResultFuture<Frame> future = new ResultFuture<Frame>();
+
+        write(new Frame(Opcode.OPTIONS, null), future);
+        future.addListener(new IResultListener<Frame>() {
+            @Override
+            public void onSuccess(final Frame supported) {
+                boolean available = false;
+
+                try {
+                    if (supported.getOpcode() != Opcode.SUPPORTED) {
+                        throw new ProtocolException("Unexpected response to OPTIONS: " + supported.getOpcode());
+                    }
+
+                    final List<String> algorithms = FrameCodec.readStringMultimap(supported.getBody().duplicate())
+                            .get("COMPRESSION");
+
+                    available = (algorithms != null) && algorithms.contains(compressor.getName());
+                } catch (final ProtocolException ex) {
+                    NioConnection.this.closed(ex);
+                    return;
+                } catch (final RuntimeException ex) {
+                    NioConnection.this.closed(new ProtocolException("Malformed SUPPORTED response"));
+                    return;
+                } finally {
+                    supported.release();
+                }
+
+                startup(available);
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                NioConnection.this.closed(cause);
+            }
+        });
+    }
+
+    /**
+     * Initializes the connection with a <tt>STARTUP</tt> message, and
+     * completes it once the node is ready.
+     * 
+     * @param compress
+     *            <tt>true</tt> to enable the compression negotiated
+     */
+    private void startup(final boolean compress) {
+        final Map<String, String> options = new HashMap<String, String>();
+        options.put("CQL_VERSION", CQL_VERSION);
+
+        if (compress) {
+            options.put("COMPRESSION", compressor.getName());
+        }
+
+        final ResultFuture<Frame> future = new ResultFuture<Frame>();
+
+        write(new Frame(Opcode.STARTUP, FrameCodec.encodeStringMap(options)), future);
+        future.addListener(new IResultListener<Frame>() {
+            @Override
+            public void onSuccess(final Frame ready) {
+                ready.release();
+
+                if (ready.getOpcode() == Opcode.READY) {
+                    if (compress) {
+                        compression = compressor;
+                    }
+
+                    connected.complete(null);
+                } else {
+                    NioConnection.this.closed(new ProtocolException("Unexpected response to STARTUP: "
+                            + ready.getOpcode()));
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                NioConnection.this.closed(cause);
+            }
+        });
+    }
+
+    /**
+     * Reads the available data and passes it to the handler, on the loop
+     * thread.
+     */
+    private void read() {
+        try {
+            final ByteBuffer buffer = readBuffer.buffer();
+            final int read = channel.read(buffer);
+
+            if (read < 0) {
+                closed(new EOFException("Connection closed by " + address + ":" + port));
+            } else if (read > 0) {
+                buffer.flip();
+                handler.received(this, buffer);
+
+                if (closed.get()) {
+                    // Closed by the handler, the buffer has been released
+                    return;
+                }
+
+                buffer.compact();
+
+                // The handler needs more data than the buffer can hold
+                if (!buffer.hasRemaining()) {
+                    final PooledBuffer larger = bufferPool.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.buffer().put(buffer);
+                    readBuffer.release();
+                    readBuffer = larger;
+                }
+            }
+        } catch (final IOException ex) {
+            closed(ex);
+        }
+    }
+
+    /**
+     * Asks the loop to flush the queued writes at its next iteration, unless
+     * already asked. The writes queued in the meantime are flushed together.
+     */
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(flushTask);
+        }
+    }
+
+    /**
+     * Writes the queued data with gathering writes, on the loop thread. If the
+     * socket cannot take all of it, the rest is written when the socket
+     * becomes writable again.
+     */
+    private void flush() {
+        if (!open || writeQueue.isEmpty()) {
+            // Flushed once established
+            return;
+        }
+
+        long bytes = 0;
+        int frames = 0;
+
+        try {
+            boolean blocked = false;
+
+            while (!blocked && !writeQueue.isEmpty()) {
+                int count = 0;
+
+                for (final PooledBuffer data : writeQueue) {
+                    gather[count++] = data.buffer();
+
+                    if (count == MAX_GATHER) {
+                        break;
+                    }
+                }
+
+                final long written = channel.write(gather, 0, count);
+
+                bytes += written;
+                queuedBytes.addAndGet((int) -written);
+                blocked = gather[count - 1].hasRemaining();
+
+                for (int i = 0; (i < count) && !gather[i].hasRemaining(); i++) {
+                    writeQueue.poll().release();
+                    frames++;
+                }
+
+                Arrays.fill(gather, 0, count, null);
+            }
+
+            if (blocked) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            } else if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        } catch (final IOException ex) {
+            closed(ex);
+        }
+
+        loop.recordFlush(bytes, frames);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection.nio;
+
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.protocol.ICompressor;
+
+/**
+ * Factory of {@link NioConnection} objects, binding them to the loops of an
+ * {@link EventLoopGroup}.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class NioConnectionFactory implements IConnectionFactory {
+    /**
+     * The group driving the connections.
+     */
+    private final EventLoopGroup group;
+
+    /**
+     * How long to wait for a connection to be established, in milliseconds.
+     */
+    private long connectTimeout = NioConnection.DEFAULT_CONNECT_TIMEOUT;
+
+    /**
+     * The longest time a write waits to be flushed, in nanoseconds.
+     */
+    private long maxFlushDelay;
+
+    /**
+     * The queued bytes that trigger a flush.
+     */
+    private int maxFlushBytes = NioConnection.DEFAULT_MAX_FLUSH_BYTES;
+
+    /**
+     * The compressor of the frames, <code>null</code> if not compressed.
+     */
+    private ICompressor compressor;
+
+    /**
+     * The size of the body of a request below which it is not compressed.
+     */
+    private int compressionThreshold = NioConnection.DEFAULT_COMPRESSION_THRESHOLD;
+
+    /**
+     * Create a new factory using the shared {@link EventLoopGroup}.
+     */
+    public NioConnectionFactory() {
+        this(EventLoopGroup.getShared());
+    }
+
+    /**
+     * Create a new factory.
+     * 
+     * @param group
+     *            the {@link EventLoopGroup} driving the connections
+     */
+    public NioConnectionFactory(final EventLoopGroup group) {
+        this.group = group;
+    }
+
+    /**
+     * Set how long the connections wait to be established when opened.
+     * 
+     * @param timeout
+     *            the timeout
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return this {@link NioConnectionFactory} object
+     */
+    public NioConnectionFactory withConnectTimeout(final long timeout, final TimeUnit unit) {
+        connectTimeout = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Set how the writes of the connections are coalesced.
+     * 
+     * @param maxDelay
+     *            the longest time a write can wait for more writes to flush
+     *            together, <tt>0</tt> to flush at the next iteration of the
+     *            loop
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>maxDelay</tt> argument
+     * @param maxBytes
+     *            the queued bytes that trigger a flush without waiting for
+     *            the delay
+     * @return this {@link NioConnectionFactory} object
+     * @see NioConnection#withCoalescing(long, TimeUnit, int)
+     */
+    public NioConnectionFactory withCoalescing(final long maxDelay, final TimeUnit unit, final int maxBytes) {
+        maxFlushDelay = unit.toNanos(maxDelay);
+        maxFlushBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Set the compression of the frames of the connections.
+     * 
+     * @param compressor
+     *            the {@link ICompressor} to use, or <code>null</code> not to
+     *            compress the frames
+     * @param threshold
+     *            the size of the body of a request below which it is sent
+     *            uncompressed
+     * @return this {@link NioConnectionFactory} object
+     * @see NioConnection#withCompression(ICompressor, int)
+     */
+    public NioConnectionFactory withCompression(final ICompressor compressor, final int threshold) {
+        this.compressor = compressor;
+        compressionThreshold = threshold;
+        return this;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnectionFactory#create(java.lang.String, int)
+     */
+    @Override
+    public IConnection create(final String address, final int port) {
+        return new NioConnection(address, port, group.next())
+                .withConnectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                .withCoalescing(maxFlushDelay, TimeUnit.NANOSECONDS, maxFlushBytes)
+                .withCompression(compressor, compressionThreshold);
+    }
+
+    /**
+     * @return the {@link EventLoopGroup} driving the connections
+     */
+    public EventLoopGroup getGroup() {
+        return group;
+    }
+}
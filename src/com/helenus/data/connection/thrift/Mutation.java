@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection.thrift;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A mutation of a column of a row, as sent by a Thrift <tt>batch_mutate</tt>
+ * call: either the insertion of a column, or its deletion.
+ * <p>
+ * The name and the value are not copied: they must not be modified until the
+ * mutation has been sent.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public final class Mutation {
+    private final ByteBuffer name;
+    private final ByteBuffer value;
+    private final long timestamp;
+    private final int ttl;
+
+    private Mutation(final ByteBuffer name, final ByteBuffer value, final long timestamp, final int ttl) {
+        this.name = name;
+        this.value = value;
+        this.timestamp = timestamp;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Create the insertion of a column.
+     * 
+     * @param name
+     *            the name of the column
+     * @param value
+     *            the value of the column
+     * @param timestamp
+     *            the timestamp of the column
+     * @param ttl
+     *            the time to live of the column in seconds, <tt>0</tt> for
+     *            none
+     * @return the mutation
+     */
+    public static Mutation insert(final ByteBuffer name, final ByteBuffer value, final long timestamp,
+            final int ttl) {
+        if (value == null) {
+            throw new IllegalArgumentException("The value of an inserted column cannot be null");
+        }
+
+        return new Mutation(name, value, timestamp, ttl);
+    }
+
+    /**
+     * Create the deletion of a column.
+     * 
+     * @param name
+     *            the name of the column
+     * @param timestamp
+     *            the timestamp of the deletion
+     * @return the mutation
+     */
+    public static Mutation delete(final ByteBuffer name, final long timestamp) {
+        return new Mutation(name, null, timestamp, 0);
+    }
+
+    /**
+     * @return the name of the column
+     */
+    public ByteBuffer getName() {
+        return name.duplicate();
+    }
+
+    /**
+     * @return the value of the column, <code>null</code> for a deletion
+     */
+    public ByteBuffer getValue() {
+        return (value == null) ? null : value.duplicate();
+    }
+
+    /**
+     * @return the timestamp of the mutation
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the time to live of the column in seconds, <tt>0</tt> for none
+     */
+    public int getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @return <tt>true</tt> if this is the deletion of the column
+     */
+    public boolean isDeletion() {
+        return value == null;
+    }
+
+    /**
+     * @return the size of the encoded <tt>Mutation</tt> struct
+     */
+    int size() {
+        int size;
+
+        if (value == null) {
+            // Deletion: timestamp, predicate with a list of one name
+            size = 3 + 3 + 8 + 3 + 3 + 5 + 4 + name.remaining() + 1 + 1;
+        } else {
+            // ColumnOrSuperColumn with a Column: name, value, timestamp, TTL
+            size = 3 + 3 + 3 + 4 + name.remaining() + 3 + 4 + value.remaining() + 3 + 8 + 1 + 1;
+
+            if (ttl > 0) {
+                size += 3 + 4;
+            }
+        }
+
+        return size + 1;
+    }
+
+    /**
+     * Writes the <tt>Mutation</tt> struct.
+     * 
+     * @param buffer
+     *            the buffer to write to
+     */
+    void write(final ByteBuffer buffer) {
+        if (value == null) {
+            ThriftCodec.writeFieldHeader(buffer, ThriftCodec.STRUCT, 2);
+            ThriftCodec.writeFieldHeader(buffer, ThriftCodec.I64, 1);
+            buffer.putLong(timestamp);
+            ThriftCodec.writeFieldHeader(buffer, ThriftCodec.STRUCT, 3);
+            ThriftCodec.writeFieldHeader(buffer, ThriftCodec.LIST, 1);
+            buffer.put(ThriftCodec.STRING);
+            buffer.putInt(1);
+            ThriftCodec.writeBinary(buffer, name);
+            buffer.put(ThriftCodec.STOP);
+            buffer.put(ThriftCodec.STOP);
+        } else {
+            ThriftCodec.writeFieldHeader(buffer, ThriftCodec.STRUCT, 1);
+            ThriftCodec.writeFieldHeader(buffer, ThriftCodec.STRUCT, 1);
+            ThriftCodec.writeFieldHeader(buffer, ThriftCodec.STRING, 1);
+            ThriftCodec.writeBinary(buffer, name);
+            ThriftCodec.writeFieldHeader(buffer, ThriftCodec.STRING, 2);
+            ThriftCodec.writeBinary(buffer, value);
+            ThriftCodec.writeFieldHeader(buffer, ThriftCodec.I64, 3);
+            buffer.putLong(timestamp);
+
+            if (ttl > 0) {
+                ThriftCodec.writeFieldHeader(buffer, ThriftCodec.I32, 4);
+                buffer.putInt(ttl);
+            }
+
+            buffer.put(ThriftCodec.STOP);
+            buffer.put(ThriftCodec.STOP);
+        }
+
+        buffer.put(ThriftCodec.STOP);
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection.thrift;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.buffer.PooledBuffer;
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.Consistency;
+
+/**
+ * Encodes and decodes the Thrift calls of the Cassandra API, with the binary
+ * protocol over the framed transport: each message is preceded by its length.
+ * <p>
+ * The calls are encoded directly in pooled direct buffers, whose size is
+ * computed beforehand: no intermediate buffer is allocated. The replies are
+ * decoded in place, in the buffer they have been read into.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public final class ThriftCodec {
+    /**
+     * Maximum length of a frame, as the default of the nodes.
+     */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * The name of the <tt>batch_mutate</tt> method.
+     */
+    public static final String BATCH_MUTATE = "batch_mutate";
+
+    /**
+     * The name of the <tt>set_keyspace</tt> method.
+     */
+    public static final String SET_KEYSPACE = "set_keyspace";
+
+    /**
+     * The version of the binary protocol, in the strict message header.
+     */
+    static final int VERSION_1 = 0x80010000;
+
+    static final int VERSION_MASK = 0xFFFF0000;
+
+    // Message types
+    static final byte CALL = 1;
+    static final byte REPLY = 2;
+    static final byte EXCEPTION = 3;
+
+    // Field types
+    static final byte STOP = 0;
+    static final byte BOOL = 2;
+    static final byte BYTE = 3;
+    static final byte DOUBLE = 4;
+    static final byte I16 = 6;
+    static final byte I32 = 8;
+    static final byte I64 = 10;
+    static final byte STRING = 11;
+    static final byte STRUCT = 12;
+    static final byte MAP = 13;
+    static final byte SET = 14;
+    static final byte LIST = 15;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Private constructor for utility class
+    private ThriftCodec() {
+    }
+
+    /**
+     * Encodes a <tt>batch_mutate</tt> call.
+     * 
+     * @param seqid
+     *            the sequence ID of the call
+     * @param mutations
+     *            the mutations, by row key and then by column family
+     * @param consistency
+     *            the consistency level
+     * @param pool
+     *            the pool to borrow the buffer from
+     * @return a buffer with the frame of the call, ready to be written, to be
+     *         released once written
+     */
+    public static PooledBuffer encodeBatchMutate(final int seqid,
+            final Map<ByteBuffer, Map<String, List<Mutation>>> mutations, final Consistency consistency,
+            final BufferPool pool) {
+        int length = messageHeaderLength(BATCH_MUTATE) + 3 + 6;
+
+        for (final Map.Entry<ByteBuffer, Map<String, List<Mutation>>> row : mutations.entrySet()) {
+            length += 4 + row.getKey().remaining() + 6;
+
+            for (final Map.Entry<String, List<Mutation>> family : row.getValue().entrySet()) {
+                length += 4 + utf8Length(family.getKey()) + 5;
+
+                for (final Mutation mutation : family.getValue()) {
+                    length += mutation.size();
+                }
+            }
+        }
+
+        length += 3 + 4 + 1;
+
+        final PooledBuffer pooled = pool.allocate(4 + length);
+        final ByteBuffer buffer = pooled.buffer();
+
+        buffer.putInt(length);
+        writeMessageHeader(buffer, BATCH_MUTATE, seqid);
+        writeFieldHeader(buffer, MAP, 1);
+        buffer.put(STRING);
+        buffer.put(MAP);
+        buffer.putInt(mutations.size());
+
+        for (final Map.Entry<ByteBuffer, Map<String, List<Mutation>>> row : mutations.entrySet()) {
+            writeBinary(buffer, row.getKey());
+            buffer.put(STRING);
+            buffer.put(LIST);
+            buffer.putInt(row.getValue().size());
+
+            for (final Map.Entry<String, List<Mutation>> family : row.getValue().entrySet()) {
+                writeString(buffer, family.getKey());
+                buffer.put(STRUCT);
+                buffer.putInt(family.getValue().size());
+
+                for (final Mutation mutation : family.getValue()) {
+                    mutation.write(buffer);
+                }
+            }
+        }
+
+        writeFieldHeader(buffer, I32, 2);
+        buffer.putInt(consistencyLevel(consistency));
+        buffer.put(STOP);
+        buffer.flip();
+
+        return pooled;
+    }
+
+    /**
+     * Encodes a <tt>set_keyspace</tt> call.
+     * 
+     * @param seqid
+     *            the sequence ID of the call
+     * @param keyspace
+     *            the keyspace to use
+     * @param pool
+     *            the pool to borrow the buffer from
+     * @return a buffer with the frame of the call, ready to be written, to be
+     *         released once written
+     */
+    public static PooledBuffer encodeSetKeyspace(final int seqid, final String keyspace, final BufferPool pool) {
+        final int length = messageHeaderLength(SET_KEYSPACE) + 3 + 4 + utf8Length(keyspace) + 1;
+        final PooledBuffer pooled = pool.allocate(4 + length);
+        final ByteBuffer buffer = pooled.buffer();
+
+        buffer.putInt(length);
+        writeMessageHeader(buffer, SET_KEYSPACE, seqid);
+        writeFieldHeader(buffer, STRING, 1);
+        writeString(buffer, keyspace);
+        buffer.put(STOP);
+        buffer.flip();
+
+        return pooled;
+    }
+
+    /**
+     * Decodes the reply to a call that returns nothing, as
+     * <tt>batch_mutate</tt> and <tt>set_keyspace</tt>.
+     * <p>
+     * The exceptions declared by the Cassandra API are reported as
+     * {@link QueryException}s with the code of the matching error of the CQL
+     * native protocol.
+     * 
+     * @param message
+     *            the message, without the length of the frame
+     * @param method
+     *            the name of the method called
+     * @param seqid
+     *            the sequence ID of the call
+     * @throws QueryException
+     *             if the node answered with an exception
+     * @throws ProtocolException
+     *             if the message is not a reply to the call
+     */
+    public static void decodeVoidReply(final ByteBuffer message, final String method, final int seqid)
+            throws QueryException, ProtocolException {
+        try {
+            final int header = message.getInt();
+
+            if ((header & VERSION_MASK) != VERSION_1) {
+                throw new ProtocolException("Unsupported message header: " + Integer.toHexString(header));
+            }
+
+            final String name = readString(message);
+
+            if (!method.equals(name) || (message.getInt() != seqid)) {
+                throw new ProtocolException("Reply to " + name + " out of sequence, expected " + method);
+            }
+
+            final int type = header & 0xFF;
+
+            if (type == EXCEPTION) {
+                // TApplicationException: 1 message, 2 type
+                throw new QueryException(QueryException.SERVER_ERROR, readStringField(message, 1, name));
+            } else if (type != REPLY) {
+                throw new ProtocolException("Unexpected message type: " + type);
+            }
+
+            byte field = message.get();
+
+            while (field != STOP) {
+                final short id = message.getShort();
+
+                switch (id) {
+                    case 1:
+                        // InvalidRequestException: 1 why
+                        throw new QueryException(QueryException.INVALID, readStringField(message, 1,
+                                "Invalid request"));
+                    case 2:
+                        throw new QueryException(QueryException.UNAVAILABLE, "Not enough replicas available");
+                    case 3:
+                        throw new QueryException(QueryException.WRITE_TIMEOUT, "Timed out waiting for replicas");
+                    default:
+                        skip(message, field);
+                        break;
+                }
+
+                field = message.get();
+            }
+        } catch (final BufferUnderflowException ex) {
+            throw new ProtocolException("Truncated reply to " + method);
+        } catch (final IllegalArgumentException ex) {
+            throw new ProtocolException("Truncated reply to " + method);
+        }
+    }
+
+    /**
+     * Maps a consistency level to the <tt>ConsistencyLevel</tt> enum of the
+     * Cassandra API, whose values differ from the codes of the CQL native
+     * protocol.
+     * 
+     * @param consistency
+     *            the consistency level
+     * @return the value of the enum
+     */
+    static int consistencyLevel(final Consistency consistency) {
+        int level;
+
+        switch (consistency) {
+            case ONE:
+                level = 1;
+                break;
+            case QUORUM:
+                level = 2;
+                break;
+            case LOCAL_QUORUM:
+                level = 3;
+                break;
+            case EACH_QUORUM:
+                level = 4;
+                break;
+            case ALL:
+                level = 5;
+                break;
+            case ANY:
+                level = 6;
+                break;
+            case TWO:
+                level = 7;
+                break;
+            case THREE:
+                level = 8;
+                break;
+            case SERIAL:
+                level = 9;
+                break;
+            case LOCAL_SERIAL:
+                level = 10;
+                break;
+            case LOCAL_ONE:
+            default:
+                level = 11;
+                break;
+        }
+
+        return level;
+    }
+
+    static void writeFieldHeader(final ByteBuffer buffer, final byte type, final int id) {
+        buffer.put(type);
+        buffer.putShort((short) id);
+    }
+
+    static void writeBinary(final ByteBuffer buffer, final ByteBuffer value) {
+        buffer.putInt(value.remaining());
+        buffer.put(value.duplicate());
+    }
+
+    /**
+     * Reads a string field of a struct, skipping the others.
+     * 
+     * @param buffer
+     *            the buffer, positioned at the first field of the struct; it
+     *            is positioned after the struct
+     * @param id
+     *            the ID of the field
+     * @param missing
+     *            the value returned if the field is missing
+     * @return the value of the field
+     */
+    private static String readStringField(final ByteBuffer buffer, final int id, final String missing) {
+        String value = missing;
+        byte field = buffer.get();
+
+        while (field != STOP) {
+            if ((buffer.getShort() == id) && (field == STRING)) {
+                value = readString(buffer);
+            } else {
+                skip(buffer, field);
+            }
+
+            field = buffer.get();
+        }
+
+        return value;
+    }
+
+    /**
+     * Skips a value.
+     * 
+     * @param buffer
+     *            the buffer, positioned at the value
+     * @param type
+     *            the type of the value
+     */
+    private static void skip(final ByteBuffer buffer, final byte type) {
+        switch (type) {
+            case BOOL:
+            case BYTE:
+                buffer.get();
+                break;
+            case I16:
+                buffer.getShort();
+                break;
+            case I32:
+                buffer.getInt();
+                break;
+            case DOUBLE:
+            case I64:
+                buffer.getLong();
+                break;
+            case STRING:
+                final int length = buffer.getInt();
+                buffer.position(buffer.position() + length);
+                break;
+            case STRUCT:
+                byte field = buffer.get();
+
+                while (field != STOP) {
+                    buffer.getShort();
+                    skip(buffer, field);
+                    field = buffer.get();
+                }
+
+                break;
+            case MAP:
+                final byte key = buffer.get();
+                final byte value = buffer.get();
+                final int entries = buffer.getInt();
+
+                for (int i = 0; i < entries; i++) {
+                    skip(buffer, key);
+                    skip(buffer, value);
+                }
+
+                break;
+            case SET:
+            case LIST:
+                final byte element = buffer.get();
+                final int size = buffer.getInt();
+
+                for (int i = 0; i < size; i++) {
+                    skip(buffer, element);
+                }
+
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown type: " + type);
+        }
+    }
+
+    private static int messageHeaderLength(final String method) {
+        return 4 + 4 + method.length() + 4;
+    }
+
+    private static void writeMessageHeader(final ByteBuffer buffer, final String method, final int seqid) {
+        buffer.putInt(VERSION_1 | CALL);
+        writeString(buffer, method);
+        buffer.putInt(seqid);
+    }
+
+    private static void writeString(final ByteBuffer buffer, final String string) {
+        final byte[] bytes = string.getBytes(UTF8);
+
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        final ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(bytes.position() + length);
+        buffer.position(bytes.limit());
+
+        return UTF8.decode(bytes).toString();
+    }
+
+    private static int utf8Length(final String string) {
+        return string.getBytes(UTF8).length;
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection.thrift;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.buffer.PooledBuffer;
+import com.helenus.concurrent.IResultListener;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.concurrent.SharedScheduler;
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.nio.EventLoop;
+import com.helenus.data.connection.nio.EventLoopGroup;
+import com.helenus.data.connection.nio.IConnectionHandler;
+import com.helenus.data.connection.nio.NioConnection;
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.Consistency;
+import com.helenus.protocol.Frame;
+
+/**
+ * {@link IConnection} to the Thrift API of a node, with the framed transport
+ * and the binary protocol, on top of a {@link NioConnection}.
+ * <p>
+ * Calls are pipelined: they are written without waiting for the replies to
+ * the previous ones, and the node answers them in order. Each reply is matched
+ * to the oldest call waiting, and its sequence ID checked. A call timed out
+ * keeps its place in the sequence, and its reply is dropped when it arrives.
+ * <p>
+ * No buffer is allocated per call: the calls are encoded directly in direct
+ * buffers borrowed from a {@link BufferPool}, given back once written, and
+ * the replies are decoded in place in the read buffer of the connection.
+ * <p>
+ * The connection does not send CQL frames: {@link #send(Frame)} always fails.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class ThriftConnection implements IConnection {
+    /**
+     * The connection carrying the frames.
+     */
+    private final NioConnection connection;
+
+    /**
+     * The calls waiting for a reply, in the order they have been written.
+     */
+    private final ConcurrentLinkedQueue<Call> calls;
+
+    private final AtomicInteger sequence;
+    private final AtomicInteger inFlight;
+
+    /**
+     * Decodes the replies received, and completes the calls waiting.
+     */
+    private final IConnectionHandler replies = new IConnectionHandler() {
+        @Override
+        public void received(final NioConnection nio, final ByteBuffer data) {
+            while (data.remaining() >= 4) {
+                final int length = data.getInt(data.position());
+
+                if ((length < 0) || (length > ThriftCodec.MAX_FRAME_LENGTH)) {
+                    nio.closed(new ProtocolException("Invalid frame length: " + length));
+                    return;
+                } else if (data.remaining() < (4 + length)) {
+                    // Wait for the rest of the frame
+                    return;
+                }
+
+                final ByteBuffer message = data.duplicate();
+                message.position(data.position() + 4);
+                message.limit(message.position() + length);
+                data.position(message.limit());
+
+                final Call call = calls.poll();
+
+                if (call == null) {
+                    nio.closed(new ProtocolException("Reply without a call"));
+                    return;
+                }
+
+                inFlight.decrementAndGet();
+
+                try {
+                    ThriftCodec.decodeVoidReply(message, call.method, call.seqid);
+                    call.future.complete(null);
+                } catch (final QueryException ex) {
+                    call.future.fail(ex);
+                } catch (final ProtocolException ex) {
+                    call.future.fail(ex);
+                    nio.closed(ex);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void closed(final NioConnection nio, final Throwable cause) {
+            final Throwable reason = (cause == null) ? new ClosedChannelException() : cause;
+            Call call = calls.poll();
+
+            while (call != null) {
+                inFlight.decrementAndGet();
+                call.future.fail(reason);
+                call = calls.poll();
+            }
+        }
+    };
+
+    private BufferPool bufferPool = BufferPool.getDefault();
+    private long connectTimeout = NioConnection.DEFAULT_CONNECT_TIMEOUT;
+    private String keyspace;
+
+    /**
+     * Create a new, not yet opened, connection bound to a loop of the shared
+     * {@link EventLoopGroup}.
+     * 
+     * @param address
+     *            the address of the node
+     * @param port
+     *            the Thrift port of the node
+     */
+    public ThriftConnection(final String address, final int port) {
+        this(address, port, EventLoopGroup.getShared().next());
+    }
+
+    /**
+     * Create a new, not yet opened, connection.
+     * 
+     * @param address
+     *            the address of the node
+     * @param port
+     *            the Thrift port of the node
+     * @param loop
+     *            the {@link EventLoop} driving the connection
+     */
+    public ThriftConnection(final String address, final int port, final EventLoop loop) {
+        calls = new ConcurrentLinkedQueue<Call>();
+        sequence = new AtomicInteger();
+        inFlight = new AtomicInteger();
+        connection = new NioConnection(address, port, loop).withHandler(replies);
+    }
+
+    /**
+     * Set how long {@link #open()} waits for the connection to be
+     * established, and for the keyspace to be set.
+     * 
+     * @param timeout
+     *            the timeout
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return this {@link ThriftConnection} object
+     */
+    public ThriftConnection withConnectTimeout(final long timeout, final TimeUnit unit) {
+        connectTimeout = unit.toMillis(timeout);
+        connection.withConnectTimeout(timeout, unit);
+        return this;
+    }
+
+    /**
+     * Set how the writes are coalesced.
+     * 
+     * @param maxDelay
+     *            the longest time a write can wait for more writes to flush
+     *            together, <tt>0</tt> to flush at the next iteration of the
+     *            loop
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>maxDelay</tt> argument
+     * @param maxBytes
+     *            the queued bytes that trigger a flush without waiting for
+     *            the delay
+     * @return this {@link ThriftConnection} object
+     * @see NioConnection#withCoalescing(long, TimeUnit, int)
+     */
+    public ThriftConnection withCoalescing(final long maxDelay, final TimeUnit unit, final int maxBytes) {
+        connection.withCoalescing(maxDelay, unit, maxBytes);
+        return this;
+    }
+
+    /**
+     * Set the pool of the buffers used to read and encode the data. By
+     * default, the {@link BufferPool#getDefault() default} pool.
+     * 
+     * @param pool
+     *            the {@link BufferPool} to use
+     * @return this {@link ThriftConnection} object
+     */
+    public ThriftConnection withBufferPool(final BufferPool pool) {
+        bufferPool = pool;
+        connection.withBufferPool(pool);
+        return this;
+    }
+
+    /**
+     * Set the keyspace the connection uses, set when it is opened.
+     * 
+     * @param keyspace
+     *            the keyspace, or <code>null</code> not to set any
+     * @return this {@link ThriftConnection} object
+     */
+    public ThriftConnection withKeyspace(final String keyspace) {
+        this.keyspace = keyspace;
+        return this;
+    }
+
+    /**
+     * Opens the connection, waiting for it to be established and for its
+     * keyspace to be set.
+     * 
+     * @return <tt>true</tt> if the connection is ready within the connect
+     *         timeout
+     */
+    @Override
+    public boolean open() {
+        boolean ready = connection.open();
+
+        if (ready && (keyspace != null)) {
+            ready = false;
+
+            try {
+                setKeyspace(keyspace).get(connectTimeout, TimeUnit.MILLISECONDS);
+                ready = true;
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException ex) {
+                // TODO add logger
+                ex.printStackTrace();
+            } catch (final TimeoutException ex) {
+                // TODO add logger
+                ex.printStackTrace();
+            }
+
+            if (!ready) {
+                close();
+            }
+        }
+
+        return ready;
+    }
+
+    /**
+     * Calls <tt>batch_mutate</tt>: applies mutations to several rows and
+     * column families at once.
+     * 
+     * @param mutations
+     *            the mutations, by row key and then by column family; the
+     *            keys and the mutations must not be modified until sent
+     * @param consistency
+     *            the consistency level
+     * @return a future completed once the node applied the mutations, or
+     *         failed with a {@link QueryException} if the node answered with
+     *         an exception
+     */
+    public ResultFuture<Void> batchMutate(final Map<ByteBuffer, Map<String, List<Mutation>>> mutations,
+            final Consistency consistency) {
+        final int seqid = sequence.incrementAndGet();
+
+        return call(new Call(ThriftCodec.BATCH_MUTATE, seqid),
+                ThriftCodec.encodeBatchMutate(seqid, mutations, consistency, bufferPool));
+    }
+
+    /**
+     * Calls <tt>batch_mutate</tt>, waiting at most for a given time for the
+     * reply.
+     * 
+     * @param mutations
+     *            the mutations, by row key and then by column family
+     * @param consistency
+     *            the consistency level
+     * @param timeout
+     *            how long to wait for the reply
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed once the node applied the mutations
+     * @see #batchMutate(Map, Consistency)
+     */
+    public ResultFuture<Void> batchMutate(final Map<ByteBuffer, Map<String, List<Mutation>>> mutations,
+            final Consistency consistency, final long timeout, final TimeUnit unit) {
+        return withTimeout(batchMutate(mutations, consistency), timeout, unit);
+    }
+
+    /**
+     * Calls <tt>set_keyspace</tt>: sets the keyspace of the following calls.
+     * 
+     * @param keyspace
+     *            the keyspace to use
+     * @return a future completed once the keyspace is set
+     */
+    public ResultFuture<Void> setKeyspace(final String keyspace) {
+        final int seqid = sequence.incrementAndGet();
+
+        return call(new Call(ThriftCodec.SET_KEYSPACE, seqid),
+                ThriftCodec.encodeSetKeyspace(seqid, keyspace, bufferPool));
+    }
+
+    /**
+     * Thrift connections do not send CQL frames.
+     * 
+     * @param request
+     *            ignored
+     * @return a failed future
+     */
+    @Override
+    public ResultFuture<Frame> send(final Frame request) {
+        return ResultFuture.failed(new UnsupportedOperationException("Thrift connections do not send CQL frames"));
+    }
+
+    /**
+     * Thrift connections do not send CQL frames.
+     * 
+     * @param request
+     *            ignored
+     * @param timeout
+     *            ignored
+     * @param unit
+     *            ignored
+     * @return a failed future
+     */
+    @Override
+    public ResultFuture<Frame> send(final Frame request, final long timeout, final TimeUnit unit) {
+        return send(request);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#close()
+     */
+    @Override
+    public void close() {
+        connection.close();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#isOpen()
+     */
+    @Override
+    public boolean isOpen() {
+        return connection.isOpen();
+    }
+
+    /**
+     * @return the number of calls waiting for a reply
+     */
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#getAddress()
+     */
+    @Override
+    public String getAddress() {
+        return connection.getAddress();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnection#getPort()
+     */
+    @Override
+    public int getPort() {
+        return connection.getPort();
+    }
+
+    /**
+     * Queues a call, and writes it. The calls are queued in the same order
+     * they are written, so that the replies can be matched in order.
+     * 
+     * @param call
+     *            the call
+     * @param encoded
+     *            the encoded call, released once written
+     * @return the future of the call
+     */
+    private ResultFuture<Void> call(final Call call, final PooledBuffer encoded) {
+        synchronized (calls) {
+            calls.offer(call);
+            inFlight.incrementAndGet();
+
+            // If the connection closed in between, the call has already been failed
+            if (!connection.write(encoded) && calls.remove(call)) {
+                inFlight.decrementAndGet();
+                call.future.fail(new ClosedChannelException());
+            }
+        }
+
+        return call.future;
+    }
+
+    /**
+     * Fails a call if its reply does not arrive in time. The call keeps its
+     * place in the sequence.
+     */
+    private ResultFuture<Void> withTimeout(final ResultFuture<Void> future, final long timeout,
+            final TimeUnit unit) {
+        if (!future.isDone()) {
+            final ScheduledFuture<?> timer = SharedScheduler.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    future.fail(new TimeoutException("No reply from " + getAddress() + ":" + getPort()));
+                }
+            }, timeout, unit);
+
+            future.addListener(new IResultListener<Void>() {
+                @Override
+                public void onSuccess(final Void result) {
+                    timer.cancel(false);
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    timer.cancel(false);
+                }
+            });
+        }
+
+        return future;
+    }
+
+    /**
+     * A call waiting for its reply.
+     */
+    private static final class Call {
+        private final String method;
+        private final int seqid;
+        private final ResultFuture<Void> future;
+
+        Call(final String method, final int seqid) {
+            this.method = method;
+            this.seqid = seqid;
+
+            future = new ResultFuture<Void>();
+        }
+    }
+}
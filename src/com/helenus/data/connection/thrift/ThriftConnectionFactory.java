@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.connection.thrift;
+
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.data.connection.nio.EventLoopGroup;
+import com.helenus.data.connection.nio.NioConnection;
+
+/**
+ * Factory of {@link ThriftConnection} objects, binding them to the loops of
+ * an {@link EventLoopGroup}.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class ThriftConnectionFactory implements IConnectionFactory {
+    /**
+     * The group driving the connections.
+     */
+    private final EventLoopGroup group;
+
+    /**
+     * How long to wait for a connection to be ready, in milliseconds.
+     */
+    private long connectTimeout = NioConnection.DEFAULT_CONNECT_TIMEOUT;
+
+    /**
+     * The keyspace of the connections, <code>null</code> if not set.
+     */
+    private String keyspace;
+
+    /**
+     * Create a new factory using the shared {@link EventLoopGroup}.
+     */
+    public ThriftConnectionFactory() {
+        this(EventLoopGroup.getShared());
+    }
+
+    /**
+     * Create a new factory.
+     * 
+     * @param group
+     *            the {@link EventLoopGroup} driving the connections
+     */
+    public ThriftConnectionFactory(final EventLoopGroup group) {
+        this.group = group;
+    }
+
+    /**
+     * Set how long the connections wait to be ready when opened.
+     * 
+     * @param timeout
+     *            the timeout
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return this {@link ThriftConnectionFactory} object
+     */
+    public ThriftConnectionFactory withConnectTimeout(final long timeout, final TimeUnit unit) {
+        connectTimeout = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Set the keyspace of the connections, set when they are opened.
+     * 
+     * @param keyspace
+     *            the keyspace, or <code>null</code> not to set any
+     * @return this {@link ThriftConnectionFactory} object
+     */
+    public ThriftConnectionFactory withKeyspace(final String keyspace) {
+        this.keyspace = keyspace;
+        return this;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.connection.IConnectionFactory#create(java.lang.String, int)
+     */
+    @Override
+    public IConnection create(final String address, final int port) {
+        return new ThriftConnection(address, port, group.next())
+                .withConnectTimeout(connectTimeout, TimeUnit.MILLISECONDS)
+                .withKeyspace(keyspace);
+    }
+
+    /**
+     * @return the {@link EventLoopGroup} driving the connections
+     */
+    public EventLoopGroup getGroup() {
+        return group;
+    }
+}
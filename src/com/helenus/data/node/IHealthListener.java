@@ -0,0 +1,35 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.node;
+
+/**
+ * Listener notified when the health state of a node changes.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface IHealthListener {
+    /**
+     * Called after the state of a node has changed. It should be quick, as it
+     * is called by the thread reporting the request that caused the change.
+     * 
+     * @param previous
+     *            the previous state of the node
+     * @param current
+     *            the new state of the node
+     */
+    void stateChanged(NodeState previous, NodeState current);
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.node;
+
+/**
+ * Check of the health of a node, run in the background while the circuit of
+ * the node is open.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface IHealthProbe {
+    /**
+     * Checks if the node is reachable again.
+     * <p>
+     * The check runs on a dedicated thread, it can block for a reasonable
+     * time.
+     * 
+     * @return <tt>true</tt> if the node can receive requests again
+     */
+    boolean probe();
+}
@@ -15,7 +15,11 @@
 */
 package com.helenus.data.node;
 
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.concurrent.ResultFuture;
 import com.helenus.data.connection.IConnection;
+import com.helenus.protocol.Frame;
 
 /**
  * Basic interface for a node in a Cassandra ring.
@@ -68,4 +72,68 @@ public interface INode {
      * @return an open connection to this node
      */
     IConnection getConnection();
+
+    /**
+     * Gets a connection from this node connections pool, without blocking the
+     * calling thread.
+     * 
+     * @param timeout
+     *            how long to wait for a connection
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future holding an open connection to this node
+     */
+    ResultFuture<IConnection> getConnectionAsync(long timeout, TimeUnit unit);
+
+    /**
+     * Sends a request on a connection of this node, giving the connection back
+     * once the response arrives. The latency and the outcome of the request
+     * are recorded in the {@link NodeStatistics} and the {@link NodeHealth} of
+     * this node, even if the connection is shared by other requests.
+     * 
+     * @param request
+     *            the request to send
+     * @param timeout
+     *            how long to wait for a connection, and then for the response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future holding the response
+     */
+    ResultFuture<Frame> send(Frame request, long timeout, TimeUnit unit);
+
+    /**
+     * Gives back a connection to this node connections pool.
+     * 
+     * @param connection
+     *            the connection to give back
+     */
+    void giveConnection(IConnection connection);
+
+    /**
+     * Gives back a connection whose request failed or timed out. The failure
+     * is reported to the {@link NodeHealth} of this node, and the connection
+     * is discarded.
+     * 
+     * @param connection
+     *            the connection to give back
+     * @param cause
+     *            the reason of the failure
+     */
+    void failConnection(IConnection connection, Throwable cause);
+
+    /**
+     * Gets the runtime statistics of this node, like the requests in flight
+     * and their latency.
+     * 
+     * @return the statistics of this node
+     */
+    NodeStatistics getStatistics();
+
+    /**
+     * Gets the runtime health of this node. A node whose circuit is open
+     * should not receive requests.
+     * 
+     * @return the health of this node
+     */
+    NodeHealth getHealth();
 }
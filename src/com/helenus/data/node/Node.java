@@ -16,9 +16,19 @@
 package com.helenus.data.node;
 
 import java.net.InetAddress;
-
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.helenus.concurrent.IResultListener;
+import com.helenus.concurrent.ResultFuture;
 import com.helenus.data.connection.IConnection;
-import com.helenus.pool.connections.INodesPool;
+import com.helenus.exception.QueryException;
+import com.helenus.pool.IPool;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.Opcode;
 
 /**
  * A node is a host in a Cassandra ring.
@@ -40,6 +50,12 @@ public class Node extends AbstractNode {
      */
     private static final long serialVersionUID = 6793165454651678042L;
 
+    /**
+     * How long, in milliseconds, a health probe waits for a connection, and
+     * then for the answer of the node.
+     */
+    private static final long PROBE_TIMEOUT = 2000L;
+
     /**
      * The IP address of the node.
      */
@@ -65,7 +81,22 @@ public class Node extends AbstractNode {
     /**
      * The pool of connections associated with this node.
      */
-    private INodesPool connectionPool;
+    private transient IPool<IConnection> connectionPool;
+
+    /**
+     * The runtime statistics of this node.
+     */
+    private final NodeStatistics statistics = new NodeStatistics();
+
+    /**
+     * The runtime health of this node, probed by retrieving a connection.
+     */
+    private final transient NodeHealth health = new NodeHealth(new IHealthProbe() {
+        @Override
+        public boolean probe() {
+            return probeConnection();
+        }
+    });
 
     /**
      * Create a new node based on the provided address.
@@ -209,6 +240,27 @@ public class Node extends AbstractNode {
         return this;
     }
 
+    /**
+     * Set the pool of connections associated with this node.
+     * 
+     * @param connectionPool
+     *            the pool of connections to use
+     * @return this object
+     */
+    public Node setConnectionPool(final IPool<IConnection> connectionPool) {
+        this.connectionPool = connectionPool;
+        return this;
+    }
+
+    /**
+     * Get the pool of connections associated with this node.
+     * 
+     * @return the pool of connections
+     */
+    public IPool<IConnection> getConnectionPool() {
+        return connectionPool;
+    }
+
     /*
      * (non-Javadoc)
      * @see com.helenus.pool.INode#isValid()
@@ -309,6 +361,179 @@ public class Node extends AbstractNode {
      */
     @Override
     public IConnection getConnection() {
-        return connectionPool.get();
+        final IConnection connection = connectionPool.get();
+
+        if ((connection == null) && !Thread.currentThread().isInterrupted()) {
+            health.onFailure();
+        }
+
+        return connection;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.node.INode#getConnectionAsync(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public ResultFuture<IConnection> getConnectionAsync(final long timeout, final TimeUnit unit) {
+        return connectionPool.getAsync(timeout, unit).addListener(new IResultListener<IConnection>() {
+            @Override
+            public void onSuccess(final IConnection connection) {
+                // Nothing to record
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                // Waiting too long for the pool is not a failure of the node
+                if (!(cause instanceof TimeoutException) && !(cause instanceof CancellationException)) {
+                    health.onFailure();
+                }
+            }
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.node.INode#send(com.helenus.protocol.Frame, long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public ResultFuture<Frame> send(final Frame request, final long timeout, final TimeUnit unit) {
+        final ResultFuture<Frame> future = new ResultFuture<Frame>();
+
+        getConnectionAsync(timeout, unit).addListener(new IResultListener<IConnection>() {
+            @Override
+            public void onSuccess(final IConnection connection) {
+                // Tracked per request, as a multiplexed connection carries many at once
+                final long start = System.nanoTime();
+                statistics.requestStarted();
+
+                connection.send(request, timeout, unit).addListener(new IResultListener<Frame>() {
+                    @Override
+                    public void onSuccess(final Frame response) {
+                        statistics.requestCompleted(System.nanoTime() - start);
+
+                        if (isNodeFailure(response)) {
+                            // The connection is fine, the node is not
+                            health.onFailure();
+                            connectionPool.give(connection);
+                        } else {
+                            giveConnection(connection);
+                        }
+
+                        if (!future.complete(response)) {
+                            response.release();
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable cause) {
+                        // The time spent is recorded too: a timed out request is a slow one
+                        statistics.requestCompleted(System.nanoTime() - start);
+                        failConnection(connection, cause);
+                        future.fail(cause);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                future.fail(cause);
+            }
+        });
+
+        return future;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.node.INode#giveConnection(com.helenus.data.connection.IConnection)
+     */
+    @Override
+    public void giveConnection(final IConnection connection) {
+        health.onSuccess();
+        connectionPool.give(connection);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.node.INode#failConnection(com.helenus.data.connection.IConnection, java.lang.Throwable)
+     */
+    @Override
+    public void failConnection(final IConnection connection, final Throwable cause) {
+        health.onFailure();
+        connectionPool.discard(connection);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.node.INode#getHealth()
+     */
+    @Override
+    public NodeHealth getHealth() {
+        return health;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.data.node.INode#getStatistics()
+     */
+    @Override
+    public NodeStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Checks if the node is reachable, sending an <tt>OPTIONS</tt> request on
+     * a connection of its pool: an idle connection alone does not prove that
+     * the node answers.
+     * 
+     * @return <tt>true</tt> if the node answered with its options
+     */
+    private boolean probeConnection() {
+        boolean reachable = false;
+
+        if (connectionPool != null) {
+            IConnection connection = null;
+
+            try {
+                connection = connectionPool.getAsync(PROBE_TIMEOUT, TimeUnit.MILLISECONDS).get();
+
+                if (connection != null) {
+                    final Frame response = connection.send(new Frame(Opcode.OPTIONS, ByteBuffer.allocate(0)),
+                            PROBE_TIMEOUT, TimeUnit.MILLISECONDS).get();
+
+                    reachable = response.getOpcode() == Opcode.SUPPORTED;
+                    response.release();
+                }
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (final ExecutionException ex) {
+                // The node is still not reachable
+                reachable = false;
+            } finally {
+                if (reachable) {
+                    connectionPool.give(connection);
+                } else if (connection != null) {
+                    connectionPool.discard(connection);
+                }
+            }
+        }
+
+        return reachable;
+    }
+
+    /**
+     * Checks if a response is an error of the node itself, like an overloaded
+     * or a bootstrapping node, rather than of the request.
+     * 
+     * @param response
+     *            the response, not consumed
+     * @return <tt>true</tt> if the node failed to execute the request
+     */
+    private static boolean isNodeFailure(final Frame response) {
+        final ByteBuffer body = response.getBody();
+
+        return (response.getOpcode() == Opcode.ERROR) && (body.remaining() >= 4)
+                && QueryException.isNodeFailure(body.getInt(body.position()));
     }
 }
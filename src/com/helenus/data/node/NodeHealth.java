@@ -0,0 +1,410 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.node;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.helenus.concurrent.SharedScheduler;
+import com.helenus.concurrent.SharedScheduler.DaemonThreadFactory;
+
+/**
+ * Runtime health of a node, implemented as a circuit breaker.
+ * <p>
+ * The outcome of each request is reported with {@link #onSuccess()} or
+ * {@link #onFailure()}, and drives the {@link NodeState} of the node:
+ * <ul>
+ * <li>a {@link NodeState#HEALTHY} node becomes {@link NodeState#SUSPECT}
+ * after a few consecutive failures, or when its error rate crosses the
+ * suspect threshold</li>
+ * <li>the circuit of a node opens, {@link NodeState#OPEN}, after more
+ * consecutive failures, or when its error rate crosses the open threshold</li>
+ * <li>a suspect node becomes healthy again as soon as a request succeeds with
+ * the error rate back under the suspect threshold</li>
+ * </ul>
+ * While the circuit is open, the node does not receive requests, and an
+ * {@link IHealthProbe} checks it in the background. The probes are spaced by
+ * an exponential backoff, with jitter, reset only once the node is healthy
+ * again: a flapping node is probed less and less often. When a probe succeeds
+ * the node becomes suspect, so that real requests decide if it is healthy.
+ * Without a probe, the node becomes suspect when the backoff elapses.
+ * <p>
+ * The error rate is an exponentially weighted moving average of the outcomes
+ * of the requests. All the updates are lock-free.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class NodeHealth {
+    /**
+     * Default number of consecutive failures that make a node suspect.
+     */
+    private static final int SUSPECT_FAILURES = 2;
+
+    /**
+     * Default number of consecutive failures that open the circuit.
+     */
+    private static final int OPEN_FAILURES = 5;
+
+    /**
+     * Default error rate that makes a node suspect.
+     */
+    private static final double SUSPECT_RATE = 0.2;
+
+    /**
+     * Default error rate that opens the circuit.
+     */
+    private static final double OPEN_RATE = 0.5;
+
+    /**
+     * Weight of a new outcome in the error rate.
+     */
+    private static final double ALPHA = 0.1;
+
+    /**
+     * Default delay, in milliseconds, before the first probe.
+     */
+    private static final long INITIAL_BACKOFF = 500L;
+
+    /**
+     * Default maximum delay, in milliseconds, between two probes.
+     */
+    private static final long MAX_BACKOFF = 30000L;
+
+    /**
+     * The executor running the probes, that can block.
+     */
+    private static final ExecutorService PROBE_EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory(
+            "helenus-probe"));
+
+    /**
+     * The current state.
+     */
+    private final AtomicReference<NodeState> state;
+
+    /**
+     * The number of consecutive failures.
+     */
+    private final AtomicInteger failures;
+
+    /**
+     * The moving average of the error rate, stored as the bits of a
+     * <code>double</code>.
+     */
+    private final AtomicLong errorRate;
+
+    /**
+     * The listeners of the state changes.
+     */
+    private final CopyOnWriteArrayList<IHealthListener> listeners;
+
+    /**
+     * The probe checking the node while the circuit is open.
+     */
+    private final IHealthProbe probe;
+
+    private int suspectFailures = SUSPECT_FAILURES;
+    private int openFailures = OPEN_FAILURES;
+    private double suspectRate = SUSPECT_RATE;
+    private double openRate = OPEN_RATE;
+    private long initialBackoff = TimeUnit.MILLISECONDS.toNanos(INITIAL_BACKOFF);
+    private long maxBackoff = TimeUnit.MILLISECONDS.toNanos(MAX_BACKOFF);
+
+    /**
+     * The delay, in nanoseconds, before the next probe.
+     */
+    private volatile long backoff = initialBackoff;
+
+    /**
+     * Create a new health, with the default thresholds.
+     * 
+     * @param probe
+     *            the probe checking the node while the circuit is open, it can
+     *            be <code>null</code>
+     */
+    public NodeHealth(final IHealthProbe probe) {
+        this.probe = probe;
+
+        state = new AtomicReference<NodeState>(NodeState.HEALTHY);
+        failures = new AtomicInteger();
+        errorRate = new AtomicLong(Double.doubleToRawLongBits(0));
+        listeners = new CopyOnWriteArrayList<IHealthListener>();
+    }
+
+    /**
+     * Set the thresholds of consecutive failures.
+     * 
+     * @param suspect
+     *            consecutive failures that make the node suspect
+     * @param open
+     *            consecutive failures that open the circuit
+     * @return this object
+     */
+    public NodeHealth withFailureThresholds(final int suspect, final int open) {
+        if ((suspect < 1) || (open < suspect)) {
+            throw new IllegalArgumentException("Wrong failure thresholds: " + suspect + ", " + open);
+        }
+
+        suspectFailures = suspect;
+        openFailures = open;
+        return this;
+    }
+
+    /**
+     * Set the thresholds of the error rate.
+     * 
+     * @param suspect
+     *            error rate that makes the node suspect, between <tt>0</tt> and
+     *            <tt>1</tt>
+     * @param open
+     *            error rate that opens the circuit, between <tt>0</tt> and
+     *            <tt>1</tt>
+     * @return this object
+     */
+    public NodeHealth withRateThresholds(final double suspect, final double open) {
+        if ((suspect <= 0) || (open < suspect) || (open > 1)) {
+            throw new IllegalArgumentException("Wrong error rate thresholds: " + suspect + ", " + open);
+        }
+
+        suspectRate = suspect;
+        openRate = open;
+        return this;
+    }
+
+    /**
+     * Set the delays between the probes while the circuit is open.
+     * 
+     * @param initial
+     *            the delay before the first probe
+     * @param max
+     *            the maximum delay between two probes
+     * @param unit
+     *            the {@link TimeUnit} of the delays
+     * @return this object
+     */
+    public NodeHealth withBackoff(final long initial, final long max, final TimeUnit unit) {
+        if ((initial <= 0) || (max < initial)) {
+            throw new IllegalArgumentException("Wrong backoff: " + initial + ", " + max);
+        }
+
+        initialBackoff = unit.toNanos(initial);
+        maxBackoff = unit.toNanos(max);
+        backoff = initialBackoff;
+        return this;
+    }
+
+    /**
+     * Registers a listener of the state changes.
+     * 
+     * @param listener
+     *            the listener to add
+     */
+    public void addListener(final IHealthListener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    /**
+     * Removes a listener of the state changes.
+     * 
+     * @param listener
+     *            the listener to remove
+     */
+    public void removeListener(final IHealthListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reports a successful request.
+     */
+    public void onSuccess() {
+        failures.set(0);
+
+        if (update(0) < suspectRate) {
+            transition(NodeState.SUSPECT, NodeState.HEALTHY);
+        }
+    }
+
+    /**
+     * Reports a failed request, or a request timed out.
+     */
+    public void onFailure() {
+        final int consecutive = failures.incrementAndGet();
+        final double rate = update(1);
+
+        if ((consecutive >= openFailures) || (rate >= openRate)) {
+            open();
+        } else if ((consecutive >= suspectFailures) || (rate >= suspectRate)) {
+            transition(NodeState.HEALTHY, NodeState.SUSPECT);
+        }
+    }
+
+    /**
+     * @return the current state of the node
+     */
+    public NodeState getState() {
+        return state.get();
+    }
+
+    /**
+     * @return <tt>true</tt> if the node can receive requests, that is if its
+     *         circuit is not open
+     */
+    public boolean isAvailable() {
+        return state.get() != NodeState.OPEN;
+    }
+
+    /**
+     * @return the number of consecutive failures
+     */
+    public int getConsecutiveFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the moving average of the error rate, between <tt>0</tt> and
+     *         <tt>1</tt>
+     */
+    public double getErrorRate() {
+        return Double.longBitsToDouble(errorRate.get());
+    }
+
+    /**
+     * Opens the circuit, if not already open, and schedules the first probe.
+     */
+    private void open() {
+        NodeState current = state.get();
+
+        while (current != NodeState.OPEN) {
+            if (state.compareAndSet(current, NodeState.OPEN)) {
+                fireStateChanged(current, NodeState.OPEN);
+                scheduleProbe();
+                break;
+            }
+
+            current = state.get();
+        }
+    }
+
+    /**
+     * Schedules the next probe, after the current backoff with jitter, and
+     * doubles the backoff.
+     */
+    private void scheduleProbe() {
+        final long delay = backoff;
+        backoff = Math.min(delay * 2, maxBackoff);
+
+        // Half of the delay is random, so that the clients do not probe in sync
+        final long jittered = (delay / 2) + ThreadLocalRandom.current().nextLong((delay / 2) + 1);
+
+        SharedScheduler.getInstance().schedule(new Runnable() {
+            @Override
+            public void run() {
+                PROBE_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runProbe();
+                    }
+                });
+            }
+        }, jittered, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Runs the probe: the node becomes suspect if it succeeds, otherwise the
+     * next probe is scheduled.
+     */
+    private void runProbe() {
+        boolean reachable = true;
+
+        if (probe != null) {
+            try {
+                reachable = probe.probe();
+            } catch (final RuntimeException ex) {
+                // TODO add logger
+                ex.printStackTrace();
+                reachable = false;
+            }
+        }
+
+        if (state.get() == NodeState.OPEN) {
+            if (reachable) {
+                failures.set(0);
+                errorRate.set(Double.doubleToRawLongBits(0));
+                transition(NodeState.OPEN, NodeState.SUSPECT);
+            } else {
+                scheduleProbe();
+            }
+        }
+    }
+
+    /**
+     * Changes the state, if it is the expected one.
+     * 
+     * @param expected
+     *            the expected current state
+     * @param updated
+     *            the new state
+     */
+    private void transition(final NodeState expected, final NodeState updated) {
+        if (state.compareAndSet(expected, updated)) {
+            if (updated == NodeState.HEALTHY) {
+                backoff = initialBackoff;
+            }
+
+            fireStateChanged(expected, updated);
+        }
+    }
+
+    /**
+     * Updates the moving average of the error rate.
+     * 
+     * @param outcome
+     *            <tt>1</tt> for a failure, <tt>0</tt> for a success
+     * @return the updated error rate
+     */
+    private double update(final int outcome) {
+        long current;
+        double updated;
+
+        do {
+            current = errorRate.get();
+            final double rate = Double.longBitsToDouble(current);
+            updated = rate + (ALPHA * (outcome - rate));
+        } while (!errorRate.compareAndSet(current, Double.doubleToRawLongBits(updated)));
+
+        return updated;
+    }
+
+    /**
+     * Notifies the listeners of a state change.
+     */
+    private void fireStateChanged(final NodeState previous, final NodeState current) {
+        for (final IHealthListener listener : listeners) {
+            try {
+                listener.stateChanged(previous, current);
+            } catch (final RuntimeException ex) {
+                // TODO add logger
+                ex.printStackTrace();
+            }
+        }
+    }
+}
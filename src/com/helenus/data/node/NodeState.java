@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.node;
+
+/**
+ * Enumeration of the runtime health states of a node.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public enum NodeState {
+    /**
+     * The requests to the node are succeeding.
+     */
+    HEALTHY,
+    /**
+     * Some requests to the node failed: the node still receives requests, but
+     * more failures will open its circuit.
+     */
+    SUSPECT,
+    /**
+     * Too many requests to the node failed: the circuit is open, and the node
+     * does not receive requests until a background probe succeeds.
+     */
+    OPEN;
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.data.node;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runtime statistics of a node: the requests in flight, and an exponentially
+ * weighted moving average (EWMA) of the observed response latency.
+ * <p>
+ * The average is a <i>peak</i> EWMA: a latency higher than the average is
+ * taken as the new average immediately, while lower latencies decay the
+ * average slowly. A node that starts to slow down, because of a GC pause or a
+ * compaction storm, is penalized at once, and has to prove itself again before
+ * receiving its full share of traffic.
+ * <p>
+ * The weight of the past decays with the time elapsed, not with the number of
+ * samples: the weight of the average is <tt>exp(-t / decay)</tt>, where
+ * <tt>t</tt> is the time since it was last updated. The average keeps
+ * decaying, towards zero, while no sample is recorded: a node penalized and
+ * then avoided is tried again once the penalty has faded, and recovers if it
+ * answers fast again.
+ * <p>
+ * All the updates are lock-free.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class NodeStatistics implements Serializable {
+    /**
+     * Generated serial version number.
+     */
+    private static final long serialVersionUID = -4467322359120963218L;
+
+    /**
+     * Default decay time of the moving average, in milliseconds.
+     */
+    private static final long DEFAULT_DECAY = 10000L;
+
+    /**
+     * The decay time of the moving average, in nanoseconds.
+     */
+    private final double decay;
+
+    /**
+     * The moving average of the latency, with the time it was last updated.
+     */
+    private final AtomicReference<Average> latency;
+
+    /**
+     * The requests in flight.
+     */
+    private final AtomicInteger inFlight;
+
+    /**
+     * Create new statistics with the default decay time.
+     */
+    public NodeStatistics() {
+        this(DEFAULT_DECAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create new statistics.
+     * 
+     * @param decay
+     *            the time for the weight of the past to decay to
+     *            <tt>1/e</tt>, greater than <tt>0</tt>
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>decay</tt> argument
+     */
+    public NodeStatistics(final long decay, final TimeUnit unit) {
+        if (decay <= 0) {
+            throw new IllegalArgumentException("Decay must be greater than 0: " + decay);
+        }
+
+        this.decay = unit.toNanos(decay);
+
+        latency = new AtomicReference<Average>(new Average(0, System.nanoTime()));
+        inFlight = new AtomicInteger();
+    }
+
+    /**
+     * Signals that a request has been sent to the node.
+     */
+    public void requestStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    /**
+     * Signals that a request to the node has completed.
+     * 
+     * @param nanos
+     *            the latency of the request, in nanoseconds
+     */
+    public void requestCompleted(final long nanos) {
+        inFlight.decrementAndGet();
+        recordLatency(nanos);
+    }
+
+    /**
+     * Records a latency observed on the node, without touching the requests in
+     * flight.
+     * 
+     * @param nanos
+     *            the observed latency, in nanoseconds
+     */
+    public void recordLatency(final long nanos) {
+        final double sample = nanos;
+        Average current;
+        Average updated;
+
+        do {
+            current = latency.get();
+
+            final long now = System.nanoTime();
+            final double weight = current.weight(now, decay);
+
+            if (sample > current.value) {
+                updated = new Average(sample, now);
+            } else {
+                updated = new Average((current.value * weight) + (sample * (1 - weight)), now);
+            }
+        } while (!latency.compareAndSet(current, updated));
+    }
+
+    /**
+     * @return the moving average of the latency, in nanoseconds, decayed to
+     *         the current time
+     */
+    public double getLatency() {
+        final Average current = latency.get();
+        return current.value * current.weight(System.nanoTime(), decay);
+    }
+
+    /**
+     * @return the requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Gets the load score of the node: the average latency weighted by the
+     * requests in flight. The lower, the better.
+     * <p>
+     * Counting the requests in flight makes the score grow for a node that
+     * stopped answering, even if no request completes to update the average.
+     * Nodes without samples yet count as having a latency of one nanosecond.
+     * 
+     * @return the load score of the node
+     */
+    public double getScore() {
+        return Math.max(getLatency(), 1) * (Math.max(inFlight.get(), 0) + 1);
+    }
+
+    /**
+     * A value of the moving average, and the time it was computed.
+     */
+    private static final class Average implements Serializable {
+        /**
+         * Generated serial version number.
+         */
+        private static final long serialVersionUID = 2390470731562183504L;
+
+        private final double value;
+        private final long stamp;
+
+        Average(final double value, final long stamp) {
+            this.value = value;
+            this.stamp = stamp;
+        }
+
+        /**
+         * Gets the weight left to this value at a given time.
+         * 
+         * @param now
+         *            the current time, in nanoseconds
+         * @param decay
+         *            the decay time, in nanoseconds
+         * @return the weight of this value, between <tt>0</tt> and <tt>1</tt>
+         */
+        double weight(final long now, final double decay) {
+            return Math.exp(-Math.max(now - stamp, 0) / decay);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.exception;
+
+/**
+ * Signals that a connection to a node could not be opened or used.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class ConnectionException extends Exception {
+
+    private static final long serialVersionUID = -3312859806243415772L;
+
+    /**
+     * @param message
+     *            the detail message
+     */
+    public ConnectionException(final String message) {
+        super(message);
+    }
+
+    /**
+     * @param message
+     *            the detail message
+     * @param cause
+     *            the cause of the exception
+     */
+    public ConnectionException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.exception;
+
+/**
+ * Signals that a request has been rejected without being sent, because too
+ * many requests were in flight.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class OverloadedException extends Exception {
+
+    private static final long serialVersionUID = 4108531327419086475L;
+
+    /**
+     * @param message
+     *            the detail message
+     */
+    public OverloadedException(final String message) {
+        super(message);
+    }
+}
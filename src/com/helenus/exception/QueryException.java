@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.exception;
+
+/**
+ * Signals that a node answered a request with an error.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class QueryException extends Exception {
+    /**
+     * The error code sent when the node failed for an internal error.
+     */
+    public static final int SERVER_ERROR = 0x0000;
+
+    /**
+     * The error code sent when not enough replicas are alive to satisfy the
+     * consistency level.
+     */
+    public static final int UNAVAILABLE = 0x1000;
+
+    /**
+     * The error code sent when the node is overloaded, and did not execute
+     * the request.
+     */
+    public static final int OVERLOADED = 0x1001;
+
+    /**
+     * The error code sent when the node is still bootstrapping, and did not
+     * execute the request.
+     */
+    public static final int IS_BOOTSTRAPPING = 0x1002;
+
+    /**
+     * The error code sent when the replicas did not acknowledge a write in
+     * time.
+     */
+    public static final int WRITE_TIMEOUT = 0x1100;
+
+    /**
+     * The error code sent when the replicas did not answer a read in time.
+     */
+    public static final int READ_TIMEOUT = 0x1200;
+
+    /**
+     * The error code sent when a request is not valid.
+     */
+    public static final int INVALID = 0x2200;
+
+    /**
+     * The error code sent when a prepared statement is not known by the node.
+     */
+    public static final int UNPREPARED = 0x2500;
+
+    private static final long serialVersionUID = 6217960408152135287L;
+
+    /**
+     * The error code sent by the node.
+     */
+    private final int code;
+
+    /**
+     * @param code
+     *            the error code sent by the node
+     * @param message
+     *            the error message sent by the node
+     */
+    public QueryException(final int code, final String message) {
+        super(message);
+
+        this.code = code;
+    }
+
+    /**
+     * Tells if an error code means that the node itself is failing, rather
+     * than the request: the node could not execute it, whatever it was.
+     * 
+     * @param code
+     *            the error code sent by the node
+     * @return <code>true</code> for {@link #SERVER_ERROR}, {@link #OVERLOADED}
+     *         and {@link #IS_BOOTSTRAPPING}
+     */
+    public static boolean isNodeFailure(final int code) {
+        return (code == SERVER_ERROR) || (code == OVERLOADED) || (code == IS_BOOTSTRAPPING);
+    }
+
+    /**
+     * @return the error code sent by the node, as defined by the CQL native
+     *         protocol
+     */
+    public int getCode() {
+        return code;
+    }
+}
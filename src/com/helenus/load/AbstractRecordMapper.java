@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.load;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Abstract type for the record mappers whose partition key is made of some of
+ * the values of the record.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public abstract class AbstractRecordMapper implements IRecordMapper {
+    /**
+     * The indexes of the values making the partition key, in order.
+     */
+    private final int[] keyColumns;
+
+    /**
+     * @param keyColumns
+     *            the indexes of the values making the partition key, in order
+     */
+    protected AbstractRecordMapper(final int... keyColumns) {
+        if (keyColumns.length == 0) {
+            throw new IllegalArgumentException("No partition key columns");
+        }
+
+        this.keyColumns = keyColumns.clone();
+    }
+
+    /**
+     * Builds the partition key from its values: a single value is the key,
+     * while many values are composed as the <tt>CompositeType</tt> of
+     * Cassandra, each one preceded by its length and followed by a zero byte.
+     * 
+     * @return the partition key, or <code>null</code> if one of its values is
+     *         null
+     */
+    @Override
+    public ByteBuffer getPartitionKey(final List<ByteBuffer> values) {
+        if (keyColumns.length == 1) {
+            return values.get(keyColumns[0]);
+        }
+
+        int length = 0;
+
+        for (final int column : keyColumns) {
+            final ByteBuffer value = values.get(column);
+
+            if (value == null) {
+                return null;
+            }
+
+            length += 2 + value.remaining() + 1;
+        }
+
+        final ByteBuffer key = ByteBuffer.allocate(length);
+
+        for (final int column : keyColumns) {
+            final ByteBuffer value = values.get(column);
+
+            key.putShort((short) value.remaining());
+            key.put(value.duplicate());
+            key.put((byte) 0);
+        }
+
+        key.flip();
+
+        return key;
+    }
+
+    /**
+     * @return the indexes of the values making the partition key
+     */
+    public int[] getKeyColumns() {
+        return keyColumns.clone();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.load;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Maps the records of a {@link RecordFormat#BINARY} file, made of the values
+ * already serialized as bound to the query: each one preceded by its length
+ * as a 4 bytes integer, a negative length being a null value.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class BinaryMapper extends AbstractRecordMapper {
+    private final int columns;
+
+    /**
+     * @param columns
+     *            the number of values of each record
+     * @param keyColumns
+     *            the indexes of the values making the partition key, in order
+     */
+    public BinaryMapper(final int columns, final int... keyColumns) {
+        super(keyColumns);
+        this.columns = columns;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.load.IRecordMapper#map(java.nio.ByteBuffer, java.util.List)
+     */
+    @Override
+    public boolean map(final ByteBuffer record, final List<ByteBuffer> values) {
+        final ByteBuffer buffer = record.duplicate();
+
+        for (int i = 0; i < columns; i++) {
+            if (buffer.remaining() < 4) {
+                throw new IllegalArgumentException("Expected " + columns + " values, found " + i);
+            }
+
+            final int length = buffer.getInt();
+
+            if (length < 0) {
+                values.add(null);
+            } else if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("Truncated value " + i);
+            } else {
+                // Copied, since the record is only valid during the call
+                final byte[] value = new byte[length];
+                buffer.get(value);
+                values.add(ByteBuffer.wrap(value));
+            }
+        }
+
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException("Expected " + columns + " values, found more");
+        }
+
+        return true;
+    }
+}
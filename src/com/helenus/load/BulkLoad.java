@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.load;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.Helenus;
+import com.helenus.configuration.HelenusConfigurator;
+import com.helenus.pool.nodes.NodesPoolType;
+import com.helenus.protocol.Consistency;
+import com.helenus.result.DataType;
+
+/**
+ * Command line tool loading a file with a {@link BulkLoader}, through a
+ * {@link NodesPoolType#TOKEN_AWARE} client:
+ * 
+ * <pre>
+ * BulkLoad &lt;configuration&gt; &lt;file&gt; &lt;query&gt; &lt;key columns&gt; &lt;columns&gt;
+ * </pre>
+ * 
+ * where the key columns are the comma separated indexes of the values making
+ * the partition key, and the columns are the comma separated types of the
+ * values of a CSV file, or their number for a binary file. The options are
+ * given as system properties:
+ * <ul>
+ * <li><tt>helenus.load.format</tt>: <tt>csv</tt>, by default, or
+ * <tt>binary</tt></li>
+ * <li><tt>helenus.load.header</tt>: <tt>true</tt> to skip the first record</li>
+ * <li><tt>helenus.load.parallelism</tt>: the number of threads reading the
+ * file</li>
+ * <li><tt>helenus.load.batch</tt>: the number of records of each batch</li>
+ * <li><tt>helenus.load.inflight</tt>: the maximum number of batches sent at
+ * once</li>
+ * <li><tt>helenus.load.consistency</tt>: the consistency level, <tt>ONE</tt>
+ * by default</li>
+ * </ul>
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public final class BulkLoad {
+    private static final String PREFIX = "helenus.load.";
+    private static final String USAGE = "Usage: BulkLoad <configuration> <file> <query> <key columns> <columns>";
+
+    // Private constructor for utility class
+    private BulkLoad() {
+    }
+
+    /**
+     * @param args
+     *            the configuration file of the client, the file to load, the
+     *            query, the partition key columns and the columns
+     */
+    public static void main(final String[] args) {
+        if (args.length != 5) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        final Integer parallelism;
+        final Integer batch;
+        final Integer inFlight;
+
+        try {
+            parallelism = parseOption("parallelism");
+            batch = parseOption("batch");
+            inFlight = parseOption("inflight");
+        } catch (final IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        int status = 0;
+
+        try {
+            final RecordFormat format = RecordFormat.fromName(System.getProperty(PREFIX + "format", "csv"));
+
+            if (format == null) {
+                throw new IllegalArgumentException("Unknown format: " + System.getProperty(PREFIX + "format"));
+            }
+
+            final int[] keyColumns = parseInts(args[3]);
+            final IRecordMapper mapper;
+
+            if (format == RecordFormat.BINARY) {
+                mapper = new BinaryMapper(Integer.parseInt(args[4].trim()), keyColumns);
+            } else {
+                final String[] names = args[4].split(",");
+                final DataType[] types = new DataType[names.length];
+
+                for (int i = 0; i < names.length; i++) {
+                    types[i] = DataType.valueOf(names[i].trim().toUpperCase(Locale.ENGLISH));
+                }
+
+                mapper = new CsvMapper(types, keyColumns);
+            }
+
+            final Helenus helenus = new Helenus().withConfigurator(new HelenusConfigurator(new File(args[0])))
+                    .withNodesPoolType(NodesPoolType.TOKEN_AWARE).connect();
+
+            final BulkLoader loader = new BulkLoader(helenus, args[2], mapper).withFormat(format)
+                    .withHeader(Boolean.getBoolean(PREFIX + "header"))
+                    .withConsistency(Consistency.valueOf(System.getProperty(PREFIX + "consistency", "ONE")
+                            .toUpperCase(Locale.ENGLISH)));
+
+            if (parallelism != null) {
+                loader.withParallelism(parallelism);
+            }
+
+            if (batch != null) {
+                loader.withBatchSize(batch);
+            }
+
+            if (inFlight != null) {
+                loader.withMaxInFlight(inFlight);
+            }
+
+            final long start = System.nanoTime();
+            final long records = loader.load(new File(args[1]));
+            final long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+            System.out.println("Loaded " + records + " records in " + loader.getBatches() + " batches, "
+                    + loader.getSkipped() + " skipped, in " + elapsed + " ms (" + ((records * 1000) / elapsed)
+                    + " records/s)");
+        } catch (final Exception ex) {
+            System.err.println("Load failed: " + ex);
+            // TODO add logger
+            ex.printStackTrace();
+            status = 1;
+        }
+
+        // The client has no way to be closed
+        System.exit(status);
+    }
+
+    /**
+     * Parses an option holding a positive number.
+     * 
+     * @param name
+     *            the name of the option, without its prefix
+     * @return the value of the option, or <code>null</code> if not set
+     * @throws IllegalArgumentException
+     *             if the value is not a positive number
+     */
+    private static Integer parseOption(final String name) {
+        final String value = System.getProperty(PREFIX + name);
+        Integer parsed = null;
+
+        if (value != null) {
+            try {
+                parsed = Integer.valueOf(value.trim());
+            } catch (final NumberFormatException ex) {
+                // Reported below, as any other invalid value
+            }
+
+            if ((parsed == null) || (parsed <= 0)) {
+                throw new IllegalArgumentException("Invalid " + PREFIX + name + ": " + value
+                        + ", a positive number is expected");
+            }
+        }
+
+        return parsed;
+    }
+
+    private static int[] parseInts(final String list) {
+        final String[] items = list.split(",");
+        final int[] parsed = new int[items.length];
+
+        for (int i = 0; i < items.length; i++) {
+            parsed[i] = Integer.parseInt(items[i].trim());
+        }
+
+        return parsed;
+    }
+}
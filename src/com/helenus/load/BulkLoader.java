@@ -0,0 +1,448 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.helenus.Helenus;
+import com.helenus.concurrent.IResultListener;
+import com.helenus.data.node.INode;
+import com.helenus.pool.nodes.TokenAwareNodesPool;
+import com.helenus.protocol.BatchType;
+import com.helenus.protocol.Consistency;
+import com.helenus.ring.TokenRing;
+import com.helenus.statement.Batch;
+
+/**
+ * Loads the records of a file with a query, in parallel.
+ * <p>
+ * The file is cut into chunks of about {@link #withChunkSize(int)} bytes, on
+ * the boundaries of the records, and the chunks are read and mapped by a
+ * {@link ForkJoinPool} of {@link #withParallelism(int)} threads. The records
+ * of a chunk are grouped by the node owning their partition key, when the
+ * nodes pool of the client is token aware, and sent as unlogged batches of
+ * {@link #withBatchSize(int)} records to their replicas, so that every node
+ * only writes its own rows.
+ * <p>
+ * The memory used is bounded: each thread holds a single chunk, and at most
+ * {@link #withMaxInFlight(int)} batches are sent at once, the threads waiting
+ * for a batch to complete before sending more.
+ * <p>
+ * The load stops at the first record that cannot be mapped or batch that
+ * fails, once the batches already sent complete; the client is expected to
+ * retry the failed batches with its {@link com.helenus.statement.RetryPolicy}
+ * , if any. A loader runs one load at a time.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class BulkLoader {
+    private final Helenus helenus;
+    private final String query;
+    private final IRecordMapper mapper;
+
+    private RecordFormat format = RecordFormat.CSV;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = 4 * 1024 * 1024;
+    private int batchSize = 100;
+    private int maxInFlight = 64;
+    private Consistency consistency = Consistency.ONE;
+    private long timeout = TimeUnit.SECONDS.toNanos(10);
+    private boolean header;
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * @param helenus
+     *            the connected client
+     * @param query
+     *            the CQL query writing a record
+     * @param mapper
+     *            the mapper of the records to the values bound to the query
+     */
+    public BulkLoader(final Helenus helenus, final String query, final IRecordMapper mapper) {
+        this.helenus = helenus;
+        this.query = query;
+        this.mapper = mapper;
+    }
+
+    /**
+     * @param format
+     *            the format of the records, {@link RecordFormat#CSV} by default
+     * @return this {@link BulkLoader} object
+     */
+    public BulkLoader withFormat(final RecordFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * @param parallelism
+     *            the number of threads reading the file, the number of
+     *            processors by default
+     * @return this {@link BulkLoader} object
+     */
+    public BulkLoader withParallelism(final int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("The parallelism must be positive: " + parallelism);
+        }
+
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @param chunkSize
+     *            the size of the chunks read by each thread, in bytes, 4 MiB by
+     *            default; a chunk also holds the rest of its last record
+     * @return this {@link BulkLoader} object
+     */
+    public BulkLoader withChunkSize(final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+        }
+
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @param batchSize
+     *            the number of records of each batch, 100 by default
+     * @return this {@link BulkLoader} object
+     */
+    public BulkLoader withBatchSize(final int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+        }
+
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param maxInFlight
+     *            the maximum number of batches sent at once, 64 by default
+     * @return this {@link BulkLoader} object
+     */
+    public BulkLoader withMaxInFlight(final int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("The batches in flight must be positive: " + maxInFlight);
+        }
+
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * @param consistency
+     *            the consistency level of the batches, {@link Consistency#ONE}
+     *            by default
+     * @return this {@link BulkLoader} object
+     */
+    public BulkLoader withConsistency(final Consistency consistency) {
+        this.consistency = consistency;
+        return this;
+    }
+
+    /**
+     * @param timeout
+     *            how long to wait for each connection, and then for each
+     *            batch, 10 seconds by default
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return this {@link BulkLoader} object
+     */
+    public BulkLoader withTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("The timeout must be positive: " + timeout);
+        }
+
+        this.timeout = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * @param header
+     *            <tt>true</tt> if the first record of the file is a header, to
+     *            skip; <tt>false</tt> by default
+     * @return this {@link BulkLoader} object
+     */
+    public BulkLoader withHeader(final boolean header) {
+        this.header = header;
+        return this;
+    }
+
+    /**
+     * Loads a file, blocking until all its records are written.
+     * 
+     * @param file
+     *            the file
+     * @return the number of records written
+     * @throws IOException
+     *             if the file cannot be read, or a record cannot be mapped
+     * @throws ExecutionException
+     *             if a batch failed, with the cause of the failure
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public long load(final File file) throws IOException, ExecutionException, InterruptedException {
+        records.set(0);
+        skipped.set(0);
+        batches.set(0);
+
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+
+        try {
+            final Load load = new Load(input.getChannel());
+            final ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+            try {
+                if (!load.chunks.isEmpty()) {
+                    pool.invoke(new LoadTask(load, 0, load.chunks.size()));
+                }
+            } finally {
+                pool.shutdown();
+                // The batches sent complete even if the load failed
+                load.permits.acquireUninterruptibly(maxInFlight);
+            }
+
+            final Throwable failure = load.failure.get();
+
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof InterruptedException) {
+                throw (InterruptedException) failure;
+            } else if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+        } finally {
+            input.close();
+        }
+
+        return records.get();
+    }
+
+    /**
+     * @return the number of records written by the current or last load
+     */
+    public long getRecords() {
+        return records.get();
+    }
+
+    /**
+     * @return the number of records skipped by the mapper during the current
+     *         or last load
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of batches written by the current or last load
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * The state of a load: the chunks of the file, where each one starts and
+     * ends, the ring to group the records, and the batches in flight.
+     */
+    private final class Load {
+        private final FileChannel channel;
+        private final List<long[]> chunks = new ArrayList<long[]>();
+        private final TokenRing ring;
+        private final Semaphore permits = new Semaphore(maxInFlight);
+        private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Load(final FileChannel channel) throws IOException {
+            this.channel = channel;
+
+            final long size = channel.size();
+            long start = 0;
+
+            while (start < size) {
+                final long end = format.boundary(channel, start, start + chunkSize);
+                chunks.add(new long[] { start, end });
+                start = end;
+            }
+
+            if (helenus.getConnectionPool() instanceof TokenAwareNodesPool) {
+                ring = ((TokenAwareNodesPool) helenus.getConnectionPool()).getRing();
+            } else {
+                ring = null;
+            }
+        }
+
+        /**
+         * Reads, maps and sends the records of a chunk.
+         */
+        void load(final long[] chunk) throws IOException, InterruptedException {
+            final ByteBuffer buffer = ByteBuffer.allocate((int) (chunk[1] - chunk[0]));
+            int read = 0;
+
+            while (buffer.hasRemaining() && (read >= 0)) {
+                read = channel.read(buffer, chunk[0] + buffer.position());
+            }
+
+            buffer.flip();
+
+            final Map<String, Batch> groups = new HashMap<String, Batch>();
+            boolean skip = header && (chunk[0] == 0);
+
+            while (failure.get() == null) {
+                final int offset = buffer.position();
+                final ByteBuffer record = format.next(buffer);
+
+                if (record == null) {
+                    break;
+                } else if (skip) {
+                    skip = false;
+                    continue;
+                }
+
+                final List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+
+                try {
+                    if (!mapper.map(record, values)) {
+                        skipped.incrementAndGet();
+                        continue;
+                    }
+                } catch (final IllegalArgumentException ex) {
+                    throw new IOException("Invalid record at " + (chunk[0] + offset) + ": " + ex.getMessage(), ex);
+                }
+
+                final ByteBuffer key = mapper.getPartitionKey(values);
+                final String owner = ownerOf(key);
+                Batch batch = groups.get(owner);
+
+                if (batch == null) {
+                    batch = new Batch(BatchType.UNLOGGED);
+                    groups.put(owner, batch);
+                }
+
+                batch.add(query, key, values);
+
+                if (batch.size() >= batchSize) {
+                    groups.remove(owner);
+                    send(batch);
+                }
+            }
+
+            for (final Batch batch : groups.values()) {
+                send(batch);
+            }
+        }
+
+        /**
+         * Identifies the node owning a partition key, the empty string if
+         * unknown.
+         */
+        private String ownerOf(final ByteBuffer key) {
+            String owner = "";
+
+            if ((ring != null) && (key != null)) {
+                final INode primary = ring.getPrimary(ring.getPartitioner().getToken(key));
+
+                if (primary != null) {
+                    owner = primary.getId();
+                }
+            }
+
+            return owner;
+        }
+
+        /**
+         * Sends a batch, once fewer than the maximum are in flight.
+         */
+        private void send(final Batch batch) throws InterruptedException {
+            permits.acquire();
+
+            helenus.execute(batch, consistency, timeout, TimeUnit.NANOSECONDS).addListener(
+                    new IResultListener<Void>() {
+                        @Override
+                        public void onSuccess(final Void result) {
+                            records.addAndGet(batch.size());
+                            batches.incrementAndGet();
+                            permits.release();
+                        }
+
+                        @Override
+                        public void onFailure(final Throwable cause) {
+                            failure.compareAndSet(null, cause);
+                            permits.release();
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Loads a range of the chunks, splitting it in two until a single chunk
+     * is left.
+     */
+    private static final class LoadTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Load load;
+        private final int from;
+        private final int to;
+
+        LoadTask(final Load load, final int from, final int to) {
+            this.load = load;
+            this.from = from;
+            this.to = to;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see java.util.concurrent.RecursiveAction#compute()
+         */
+        @Override
+        protected void compute() {
+            if ((to - from) > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new LoadTask(load, from, middle), new LoadTask(load, middle, to));
+            } else if (load.failure.get() == null) {
+                try {
+                    load.load(load.chunks.get(from));
+                } catch (final IOException ex) {
+                    load.failure.compareAndSet(null, ex);
+                } catch (final InterruptedException ex) {
+                    load.failure.compareAndSet(null, ex);
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
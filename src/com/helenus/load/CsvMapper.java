@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.load;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import com.helenus.result.DataType;
+
+/**
+ * Maps the lines of a {@link RecordFormat#CSV} file, one value per column of
+ * the query, in order.
+ * <p>
+ * Values can be quoted with <tt>"</tt>, a quote inside a quoted value being
+ * doubled. An empty value is a null value, unless quoted for a text column.
+ * Values are parsed as their type: numbers and booleans as in Java,
+ * <tt>timestamp</tt> as milliseconds since the epoch, <tt>blob</tt> as
+ * hexadecimal, with or without the <tt>0x</tt> prefix. Blank lines are
+ * skipped.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class CsvMapper extends AbstractRecordMapper {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final Set<DataType> SUPPORTED = EnumSet.of(DataType.ASCII, DataType.TEXT, DataType.VARCHAR,
+            DataType.INT, DataType.BIGINT, DataType.COUNTER, DataType.TIMESTAMP, DataType.FLOAT, DataType.DOUBLE,
+            DataType.BOOLEAN, DataType.UUID, DataType.TIMEUUID, DataType.BLOB, DataType.VARINT);
+
+    private final DataType[] types;
+    private char separator = ',';
+
+    /**
+     * @param types
+     *            the types of the columns
+     * @param keyColumns
+     *            the indexes of the columns making the partition key, in order
+     * @throws IllegalArgumentException
+     *             if a type is not supported
+     */
+    public CsvMapper(final DataType[] types, final int... keyColumns) {
+        super(keyColumns);
+
+        for (final DataType type : types) {
+            if (!SUPPORTED.contains(type)) {
+                throw new IllegalArgumentException("Unsupported type: " + type);
+            }
+        }
+
+        this.types = types.clone();
+    }
+
+    /**
+     * @param separator
+     *            the character separating the values, <tt>,</tt> by default
+     * @return this {@link CsvMapper} object
+     */
+    public CsvMapper withSeparator(final char separator) {
+        this.separator = separator;
+        return this;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.load.IRecordMapper#map(java.nio.ByteBuffer, java.util.List)
+     */
+    @Override
+    public boolean map(final ByteBuffer record, final List<ByteBuffer> values) {
+        if (!record.hasRemaining()) {
+            // Blank line
+            return false;
+        }
+
+        final List<String> fields = split(UTF8.decode(record).toString());
+
+        if (fields.size() != types.length) {
+            throw new IllegalArgumentException("Expected " + types.length + " values, found " + fields.size());
+        }
+
+        for (int i = 0; i < types.length; i++) {
+            values.add(serialize(types[i], fields.get(i)));
+        }
+
+        return true;
+    }
+
+    /**
+     * Splits a line in its values.
+     * 
+     * @return the values, <code>null</code> for the empty unquoted ones
+     */
+    private List<String> split(final String line) {
+        final List<String> fields = new ArrayList<String>(types.length);
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (((i + 1) < line.length()) && (line.charAt(i + 1) == '"')) {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == separator) {
+                fields.add(((field.length() == 0) && !wasQuoted) ? null : field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+            } else {
+                field.append(c);
+            }
+        }
+
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted value");
+        }
+
+        fields.add(((field.length() == 0) && !wasQuoted) ? null : field.toString());
+
+        return fields;
+    }
+
+    /**
+     * Serializes a value as its type.
+     * 
+     * @return the serialized value, or <code>null</code> for a null value
+     */
+    static ByteBuffer serialize(final DataType type, final String value) {
+        if ((value == null) || (value.isEmpty() && (type != DataType.ASCII) && (type != DataType.TEXT)
+                && (type != DataType.VARCHAR))) {
+            return null;
+        }
+
+        final ByteBuffer serialized;
+
+        switch (type) {
+        case ASCII:
+            serialized = ASCII.encode(value);
+            break;
+        case TEXT:
+        case VARCHAR:
+            serialized = UTF8.encode(value);
+            break;
+        case INT:
+            serialized = ByteBuffer.allocate(4).putInt(0, Integer.parseInt(value.trim()));
+            break;
+        case BIGINT:
+        case COUNTER:
+        case TIMESTAMP:
+            serialized = ByteBuffer.allocate(8).putLong(0, Long.parseLong(value.trim()));
+            break;
+        case FLOAT:
+            serialized = ByteBuffer.allocate(4).putFloat(0, Float.parseFloat(value));
+            break;
+        case DOUBLE:
+            serialized = ByteBuffer.allocate(8).putDouble(0, Double.parseDouble(value));
+            break;
+        case BOOLEAN:
+            serialized = ByteBuffer.allocate(1).put(0, (byte) (parseBoolean(value.trim()) ? 1 : 0));
+            break;
+        case UUID:
+        case TIMEUUID:
+            final UUID uuid = UUID.fromString(value.trim());
+            serialized = ByteBuffer.allocate(16).putLong(0, uuid.getMostSignificantBits()).putLong(8,
+                    uuid.getLeastSignificantBits());
+            break;
+        case BLOB:
+            serialized = parseHex(value.trim());
+            break;
+        case VARINT:
+            serialized = ByteBuffer.wrap(new BigInteger(value.trim()).toByteArray());
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported type: " + type);
+        }
+
+        return serialized;
+    }
+
+    private static boolean parseBoolean(final String value) {
+        if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+            throw new IllegalArgumentException("Not a boolean: " + value);
+        }
+
+        return "true".equalsIgnoreCase(value);
+    }
+
+    private static ByteBuffer parseHex(final String value) {
+        final int start = (value.startsWith("0x") || value.startsWith("0X")) ? 2 : 0;
+
+        if (((value.length() - start) % 2) != 0) {
+            throw new IllegalArgumentException("Odd number of hexadecimal digits");
+        }
+
+        final byte[] bytes = new byte[(value.length() - start) / 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            final int high = Character.digit(value.charAt(start + (i * 2)), 16);
+            final int low = Character.digit(value.charAt(start + (i * 2) + 1), 16);
+
+            if ((high < 0) || (low < 0)) {
+                throw new IllegalArgumentException("Not hexadecimal: " + value);
+            }
+
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+
+        return ByteBuffer.wrap(bytes);
+    }
+}
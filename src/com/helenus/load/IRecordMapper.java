@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.load;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Maps the records read by a {@link BulkLoader} to the values bound to its
+ * query. Mappers are called by many threads at once.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface IRecordMapper {
+    /**
+     * Maps a record to the values to bind.
+     * 
+     * @param record
+     *            the record, it is only valid during the call
+     * @param values
+     *            the empty list where the serialized values are added, a
+     *            <code>null</code> element being a null value
+     * @return <tt>false</tt> to skip the record
+     * @throws IllegalArgumentException
+     *             if the record cannot be mapped
+     */
+    boolean map(ByteBuffer record, List<ByteBuffer> values);
+
+    /**
+     * Gets the partition key of a record, to send it to its replicas.
+     * 
+     * @param values
+     *            the values of the record, as mapped by
+     *            {@link #map(ByteBuffer, List)}
+     * @return the serialized partition key, or <code>null</code> if unknown
+     */
+    ByteBuffer getPartitionKey(List<ByteBuffer> values);
+}
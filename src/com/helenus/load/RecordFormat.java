@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.load;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Enumeration of the formats of the records read by the {@link BulkLoader}:
+ * the format finds where the records start, so that a file can be cut into
+ * chunks read in parallel, and cuts a chunk into records.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public enum RecordFormat {
+    /**
+     * Text lines, ended by <tt>\n</tt> or <tt>\r\n</tt>, as comma separated
+     * values; see {@link CsvMapper}.
+     */
+    CSV {
+        @Override
+        public long boundary(final FileChannel channel, final long from, final long target) throws IOException {
+            if (target <= from) {
+                return from;
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate(8192);
+            // A line ending right before the target starts a record at the target
+            long position = target - 1;
+
+            while (true) {
+                buffer.clear();
+
+                final int read = channel.read(buffer, position);
+
+                if (read <= 0) {
+                    return channel.size();
+                }
+
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        return position + i + 1;
+                    }
+                }
+
+                position += read;
+            }
+        }
+
+        @Override
+        public ByteBuffer next(final ByteBuffer chunk) {
+            if (!chunk.hasRemaining()) {
+                return null;
+            }
+
+            final int start = chunk.position();
+            int end = start;
+
+            while ((end < chunk.limit()) && (chunk.get(end) != '\n')) {
+                end++;
+            }
+
+            chunk.position(Math.min(end + 1, chunk.limit()));
+
+            if ((end > start) && (chunk.get(end - 1) == '\r')) {
+                end--;
+            }
+
+            final ByteBuffer record = chunk.duplicate();
+            record.position(start);
+            record.limit(end);
+
+            return record.slice();
+        }
+    },
+
+    /**
+     * Binary records, each one preceded by its length as a 4 bytes integer;
+     * see {@link BinaryMapper}.
+     */
+    BINARY {
+        @Override
+        public long boundary(final FileChannel channel, final long from, final long target) throws IOException {
+            final ByteBuffer header = ByteBuffer.allocate(4);
+            final long size = channel.size();
+            long position = from;
+
+            // The lengths are the only way to find the records
+            while ((position < target) && (position < size)) {
+                header.clear();
+
+                int read = 0;
+
+                while (header.hasRemaining() && (read >= 0)) {
+                    read = channel.read(header, position + header.position());
+                }
+
+                if (header.hasRemaining()) {
+                    throw new IOException("Truncated record at " + position);
+                }
+
+                final int length = header.getInt(0);
+
+                if (length < 0) {
+                    throw new IOException("Invalid record length at " + position + ": " + length);
+                }
+
+                position += 4 + length;
+            }
+
+            return position;
+        }
+
+        @Override
+        public ByteBuffer next(final ByteBuffer chunk) throws IOException {
+            if (!chunk.hasRemaining()) {
+                return null;
+            }
+
+            final int length = (chunk.remaining() < 4) ? -1 : chunk.getInt(chunk.position());
+
+            if ((length < 0) || (length > (chunk.remaining() - 4))) {
+                throw new IOException("Truncated record");
+            }
+
+            final ByteBuffer record = chunk.duplicate();
+            record.position(chunk.position() + 4);
+            record.limit(record.position() + length);
+            chunk.position(record.limit());
+
+            return record.slice();
+        }
+    };
+
+    /**
+     * Finds where the first record at or after a position starts.
+     * 
+     * @param channel
+     *            the file
+     * @param from
+     *            a position where a record starts
+     * @param target
+     *            the position
+     * @return the position where the first record at or after the target
+     *         starts, or the size of the file if there is none
+     * @throws IOException
+     *             if the file cannot be read, or is not in this format
+     */
+    public abstract long boundary(FileChannel channel, long from, long target) throws IOException;
+
+    /**
+     * Reads the next record of a chunk.
+     * 
+     * @param chunk
+     *            the chunk, starting with a record; its position is moved
+     *            after the record
+     * @return the record, sharing the content of the chunk, or
+     *         <code>null</code> if there are no more records
+     * @throws IOException
+     *             if the chunk is not in this format
+     */
+    public abstract ByteBuffer next(ByteBuffer chunk) throws IOException;
+
+    /**
+     * Looks up a format by its name, whatever the case.
+     * 
+     * @param name
+     *            the name of the format
+     * @return the format, or <code>null</code> if unknown
+     */
+    public static RecordFormat fromName(final String name) {
+        RecordFormat found = null;
+
+        if (name != null) {
+            for (final RecordFormat format : values()) {
+                if (format.name().equalsIgnoreCase(name.trim())) {
+                    found = format;
+                    break;
+                }
+            }
+        }
+
+        return found;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.pool.connections.SimpleConnectionsPool;
+
+/**
+ * Exposes the metrics of a {@link SimpleConnectionsPool} through JMX.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class ConnectionsPoolMonitor implements IConnectionsPoolMXBean {
+    /**
+     * The monitored pool.
+     */
+    private final SimpleConnectionsPool pool;
+
+    /**
+     * Create a new monitor.
+     * 
+     * @param pool
+     *            the pool to monitor
+     */
+    public ConnectionsPoolMonitor(final SimpleConnectionsPool pool) {
+        this.pool = pool;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getNode()
+     */
+    @Override
+    public String getNode() {
+        return pool.getAddress() + ":" + pool.getPort();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getMinConnections()
+     */
+    @Override
+    public int getMinConnections() {
+        return pool.getMinConnection();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getMaxConnections()
+     */
+    @Override
+    public int getMaxConnections() {
+        return pool.getMaxConnection();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getOpenConnections()
+     */
+    @Override
+    public int getOpenConnections() {
+        return pool.getOpenConnections();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getIdleConnections()
+     */
+    @Override
+    public int getIdleConnections() {
+        return pool.getIdleConnections();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getActiveConnections()
+     */
+    @Override
+    public int getActiveConnections() {
+        return pool.getActiveConnections();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getWaiters()
+     */
+    @Override
+    public int getWaiters() {
+        return pool.getWaiters();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getTimeouts()
+     */
+    @Override
+    public long getTimeouts() {
+        return pool.getTimeouts();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getCreationFailures()
+     */
+    @Override
+    public long getCreationFailures() {
+        return pool.getCreationFailures();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getAcquireCount()
+     */
+    @Override
+    public long getAcquireCount() {
+        return pool.getAcquireLatency().getCount();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getAcquireLatencyMean()
+     */
+    @Override
+    public double getAcquireLatencyMean() {
+        return pool.getAcquireLatency().getMean() / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getAcquireLatencyP50()
+     */
+    @Override
+    public double getAcquireLatencyP50() {
+        return pool.getAcquireLatency().getPercentile(50, TimeUnit.MICROSECONDS);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getAcquireLatencyP99()
+     */
+    @Override
+    public double getAcquireLatencyP99() {
+        return pool.getAcquireLatency().getPercentile(99, TimeUnit.MICROSECONDS);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getAcquireLatencyP999()
+     */
+    @Override
+    public double getAcquireLatencyP999() {
+        return pool.getAcquireLatency().getPercentile(99.9, TimeUnit.MICROSECONDS);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IConnectionsPoolMXBean#getAcquireLatencyMax()
+     */
+    @Override
+    public double getAcquireLatencyMax() {
+        return (double) pool.getAcquireLatency().getMax() / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.metrics;
+
+import com.helenus.data.connection.nio.EventLoopGroup;
+
+/**
+ * Exposes the metrics of an {@link EventLoopGroup} through JMX.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class EventLoopGroupMonitor implements IEventLoopGroupMXBean {
+    /**
+     * The monitored group.
+     */
+    private final EventLoopGroup group;
+
+    /**
+     * Create a new monitor.
+     * 
+     * @param group
+     *            the group to monitor
+     */
+    public EventLoopGroupMonitor(final EventLoopGroup group) {
+        this.group = group;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IEventLoopGroupMXBean#getThreads()
+     */
+    @Override
+    public int getThreads() {
+        return group.size();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IEventLoopGroupMXBean#getFlushCount()
+     */
+    @Override
+    public long getFlushCount() {
+        return group.getFlushBytes().getCount();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IEventLoopGroupMXBean#getFlushBytesMean()
+     */
+    @Override
+    public double getFlushBytesMean() {
+        return group.getFlushBytes().getMean();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IEventLoopGroupMXBean#getFlushBytesP50()
+     */
+    @Override
+    public long getFlushBytesP50() {
+        return group.getFlushBytes().getPercentile(50);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IEventLoopGroupMXBean#getFlushBytesP99()
+     */
+    @Override
+    public long getFlushBytesP99() {
+        return group.getFlushBytes().getPercentile(99);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IEventLoopGroupMXBean#getFlushBytesMax()
+     */
+    @Override
+    public long getFlushBytesMax() {
+        return group.getFlushBytes().getMax();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IEventLoopGroupMXBean#getFlushFramesMean()
+     */
+    @Override
+    public double getFlushFramesMean() {
+        return group.getFlushFrames().getMean();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IEventLoopGroupMXBean#getFlushFramesP99()
+     */
+    @Override
+    public long getFlushFramesP99() {
+        return group.getFlushFrames().getPercentile(99);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.metrics;
+
+/**
+ * Management interface of a pool of connections to a node.
+ * <p>
+ * The latencies are expressed in microseconds.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface IConnectionsPoolMXBean {
+    /**
+     * @return the ID of the node, in the form of <tt>IP:PORT</tt>
+     */
+    String getNode();
+
+    /**
+     * @return the minimum number of connections
+     */
+    int getMinConnections();
+
+    /**
+     * @return the maximum number of connections
+     */
+    int getMaxConnections();
+
+    /**
+     * @return the connections currently open
+     */
+    int getOpenConnections();
+
+    /**
+     * @return the open connections not in use
+     */
+    int getIdleConnections();
+
+    /**
+     * @return the connections currently in use
+     */
+    int getActiveConnections();
+
+    /**
+     * @return the threads and asynchronous requests waiting for a connection
+     */
+    int getWaiters();
+
+    /**
+     * @return how many requests for a connection timed out
+     */
+    long getTimeouts();
+
+    /**
+     * @return how many connections could not be opened
+     */
+    long getCreationFailures();
+
+    /**
+     * @return how many connections have been acquired
+     */
+    long getAcquireCount();
+
+    /**
+     * @return the mean time to acquire a connection
+     */
+    double getAcquireLatencyMean();
+
+    /**
+     * @return the median time to acquire a connection
+     */
+    double getAcquireLatencyP50();
+
+    /**
+     * @return the 99th percentile of the time to acquire a connection
+     */
+    double getAcquireLatencyP99();
+
+    /**
+     * @return the 99.9th percentile of the time to acquire a connection
+     */
+    double getAcquireLatencyP999();
+
+    /**
+     * @return the highest time to acquire a connection
+     */
+    double getAcquireLatencyMax();
+}
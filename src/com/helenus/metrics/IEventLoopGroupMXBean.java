@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.metrics;
+
+/**
+ * Management interface of a group of event loops, driving the non-blocking
+ * connections.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface IEventLoopGroupMXBean {
+    /**
+     * @return the number of loops, and of threads, of the group
+     */
+    int getThreads();
+
+    /**
+     * @return how many flushes have been done
+     */
+    long getFlushCount();
+
+    /**
+     * @return the mean bytes written by a flush
+     */
+    double getFlushBytesMean();
+
+    /**
+     * @return the median of the bytes written by a flush
+     */
+    long getFlushBytesP50();
+
+    /**
+     * @return the 99th percentile of the bytes written by a flush
+     */
+    long getFlushBytesP99();
+
+    /**
+     * @return the highest bytes written by a flush
+     */
+    long getFlushBytesMax();
+
+    /**
+     * @return the mean frames written by a flush
+     */
+    double getFlushFramesMean();
+
+    /**
+     * @return the 99th percentile of the frames written by a flush
+     */
+    long getFlushFramesP99();
+}
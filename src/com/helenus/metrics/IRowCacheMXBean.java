@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.metrics;
+
+/**
+ * Management interface of a cache of rows.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface IRowCacheMXBean {
+    /**
+     * @return the maximum number of rows
+     */
+    int getCapacity();
+
+    /**
+     * @return the number of rows cached
+     */
+    int getSize();
+
+    /**
+     * @return how many reads found their row in the cache
+     */
+    long getHits();
+
+    /**
+     * @return how many reads did not find their row in the cache
+     */
+    long getMisses();
+
+    /**
+     * @return the fraction of the reads that found their row in the cache
+     */
+    double getHitRate();
+
+    /**
+     * @return how many rows have been evicted to make room for others
+     */
+    long getEvictions();
+
+    /**
+     * @return how many rows have been removed because their time to live
+     *         elapsed
+     */
+    long getExpirations();
+}
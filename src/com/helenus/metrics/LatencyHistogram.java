@@ -0,0 +1,261 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies, with a fixed relative precision.
+ * <p>
+ * The values are counted in log-linear buckets: each power of two is split in
+ * {@value #SUB_BUCKETS} buckets of the same width, so the error on a
+ * percentile is at most 12.5%, from one nanosecond to about 18 minutes. Higher
+ * values are counted in the last bucket. Any other non-negative quantity, as
+ * the size of a write, can be counted the same way.
+ * <p>
+ * Recording a value is lock-free and allocation-free: the bucket is found with
+ * a few bit operations, and its counter is incremented atomically. The
+ * percentiles are computed on demand, walking the buckets: they are meant to
+ * be read by a monitoring tool, not on the hot path. Since the counters are
+ * read one by one, values recorded while reading can be partially accounted.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class LatencyHistogram {
+    /**
+     * How many bits of each value, after the highest one, select the bucket.
+     */
+    private static final int SUB_BITS = 3;
+
+    /**
+     * The number of buckets for each power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * The highest power of two tracked, 2^40 nanoseconds are about 18
+     * minutes.
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * The total number of buckets.
+     */
+    private static final int BUCKETS = ((MAX_EXPONENT - SUB_BITS) + 2) * SUB_BUCKETS;
+
+    /**
+     * The count of the values of each bucket.
+     */
+    private final AtomicLongArray counts;
+
+    /**
+     * The number of values recorded.
+     */
+    private final AtomicLong count;
+
+    /**
+     * The sum of the values recorded.
+     */
+    private final AtomicLong sum;
+
+    /**
+     * The highest value recorded.
+     */
+    private final AtomicLong max;
+
+    /**
+     * Create a new, empty, histogram.
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Records a latency. Negative values are recorded as zero.
+     * 
+     * @param nanos
+     *            the latency, in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(nanos, 0);
+
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long current = max.get();
+        while ((value > current) && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Adds all the values recorded by another histogram to this one, used to
+     * aggregate the histograms of different sources.
+     * 
+     * @param other
+     *            the histogram to add
+     * @return this histogram
+     */
+    public LatencyHistogram merge(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            final long bucket = other.counts.get(i);
+
+            if (bucket > 0) {
+                counts.addAndGet(i, bucket);
+            }
+        }
+
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+
+        final long otherMax = other.max.get();
+        long current = max.get();
+        while ((otherMax > current) && !max.compareAndSet(current, otherMax)) {
+            current = max.get();
+        }
+
+        return this;
+    }
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the highest value recorded, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the values recorded, in nanoseconds
+     */
+    public double getMean() {
+        final long total = count.get();
+        return (total == 0) ? 0 : ((double) sum.get() / total);
+    }
+
+    /**
+     * Gets the value under which a given percentage of the values recorded
+     * fall.
+     * 
+     * @param percentile
+     *            the percentile, between <tt>0</tt> and <tt>100</tt>
+     * @return the upper bound of the bucket holding the percentile, in
+     *         nanoseconds, never higher than the highest value recorded
+     */
+    public long getPercentile(final double percentile) {
+        if ((percentile < 0) || (percentile > 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+
+        long value = 0;
+
+        if (total > 0) {
+            final long rank = Math.max(1, (long) Math.ceil((percentile / 100) * total));
+            long seen = 0;
+
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+
+                if (seen >= rank) {
+                    value = Math.min(lowerBound(i + 1) - 1, max.get());
+                    break;
+                }
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Gets a percentile converted to another unit.
+     * 
+     * @param percentile
+     *            the percentile, between <tt>0</tt> and <tt>100</tt>
+     * @param unit
+     *            the {@link TimeUnit} of the result
+     * @return the value of the percentile
+     * @see #getPercentile(double)
+     */
+    public double getPercentile(final double percentile, final TimeUnit unit) {
+        return (double) getPercentile(percentile) / unit.toNanos(1);
+    }
+
+    /**
+     * Finds the bucket of a value.
+     * 
+     * @param value
+     *            a positive value
+     * @return the index of the bucket
+     */
+    private static int indexOf(final long value) {
+        int index;
+
+        if (value < SUB_BUCKETS) {
+            index = (int) value;
+        } else {
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+            if (exponent > MAX_EXPONENT) {
+                index = BUCKETS - 1;
+            } else {
+                final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+                index = ((exponent - SUB_BITS) + 1) * SUB_BUCKETS + sub;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Computes the lowest value of a bucket.
+     * 
+     * @param index
+     *            the index of the bucket, it can be one past the last bucket
+     * @return the lowest value of the bucket
+     */
+    private static long lowerBound(final int index) {
+        long bound;
+
+        if (index < SUB_BUCKETS) {
+            bound = index;
+        } else {
+            final int exponent = ((index / SUB_BUCKETS) - 1) + SUB_BITS;
+            final long sub = index % SUB_BUCKETS;
+
+            bound = (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        }
+
+        return bound;
+    }
+}
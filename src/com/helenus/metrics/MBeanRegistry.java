@@ -0,0 +1,160 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.helenus.cache.RowCache;
+import com.helenus.data.connection.nio.EventLoopGroup;
+import com.helenus.pool.connections.SimpleConnectionsPool;
+import com.helenus.pool.nodes.AbstractNodesPool;
+
+/**
+ * Registers the Helenus MBeans on the platform MBean server, under the
+ * <tt>com.helenus</tt> domain.
+ * <p>
+ * The MBeans are reachable with the usual JMX tools, as <tt>jconsole</tt>,
+ * through the JMX agent of the JVM running Helenus.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public final class MBeanRegistry {
+    /**
+     * The domain of the MBeans.
+     */
+    private static final String DOMAIN = "com.helenus";
+
+    // Private constructor for utility class
+    private MBeanRegistry() {
+    }
+
+    /**
+     * Registers the MBean of a pool of connections.
+     * 
+     * @param pool
+     *            the pool to register
+     * @return the name of the MBean, or <code>null</code> if it could not be
+     *         registered
+     */
+    public static ObjectName register(final SimpleConnectionsPool pool) {
+        return register(new ConnectionsPoolMonitor(pool), "ConnectionsPool",
+                ObjectName.quote(pool.getAddress() + ":" + pool.getPort()), pool.getId());
+    }
+
+    /**
+     * Registers the MBean of a pool of nodes.
+     * 
+     * @param pool
+     *            the pool to register
+     * @return the name of the MBean, or <code>null</code> if it could not be
+     *         registered
+     */
+    public static ObjectName register(final AbstractNodesPool pool) {
+        return register(new NodesPoolMonitor(pool), "NodesPool", pool.getClass().getSimpleName(), pool.getId());
+    }
+
+    /**
+     * Registers the MBean of a cache of rows.
+     * 
+     * @param cache
+     *            the cache to register
+     * @return the name of the MBean, or <code>null</code> if it could not be
+     *         registered
+     */
+    public static ObjectName register(final RowCache cache) {
+        return register(new RowCacheMonitor(cache), "RowCache", "rows", cache.getId());
+    }
+
+    /**
+     * Registers the MBean of a group of event loops. A group shared by many
+     * clients is registered only once.
+     * 
+     * @param group
+     *            the group to register
+     * @return the name of the MBean, or <code>null</code> if it could not be
+     *         registered, or was already registered
+     */
+    public static ObjectName register(final EventLoopGroup group) {
+        ObjectName name = null;
+
+        try {
+            final ObjectName existing = new ObjectName(DOMAIN + ":type=EventLoopGroup,name=io,id=" + group.getId());
+
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(existing)) {
+                name = register(new EventLoopGroupMonitor(group), "EventLoopGroup", "io", group.getId());
+            }
+        } catch (final JMException ex) {
+            // TODO add logger
+            ex.printStackTrace();
+        }
+
+        return name;
+    }
+
+    /**
+     * Removes an MBean from the platform MBean server, if registered.
+     * 
+     * @param name
+     *            the name of the MBean
+     */
+    public static void unregister(final ObjectName name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            if ((name != null) && server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final JMException ex) {
+            // TODO add logger
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Registers an MBean on the platform MBean server.
+     * 
+     * @param mbean
+     *            the MBean
+     * @param type
+     *            the type of the MBean
+     * @param name
+     *            the name of the MBean, already quoted if needed
+     * @param id
+     *            the ID of the monitored pool, to distinguish pools with the
+     *            same name
+     * @return the name of the MBean, or <code>null</code> if it could not be
+     *         registered
+     */
+    private static ObjectName register(final Object mbean, final String type, final String name, final long id) {
+        ObjectName objectName = null;
+
+        try {
+            objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + name + ",id=" + id);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, objectName);
+        } catch (final JMException ex) {
+            // TODO add logger
+            ex.printStackTrace();
+            objectName = null;
+        }
+
+        return objectName;
+    }
+}
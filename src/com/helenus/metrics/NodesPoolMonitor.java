@@ -0,0 +1,292 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.node.INode;
+import com.helenus.data.node.Node;
+import com.helenus.pool.IPool;
+import com.helenus.pool.connections.SimpleConnectionsPool;
+import com.helenus.pool.connections.ThreadAffineConnectionsPool;
+import com.helenus.pool.nodes.AbstractNodesPool;
+
+/**
+ * Exposes the metrics of an {@link AbstractNodesPool} through JMX.
+ * <p>
+ * The connections metrics are collected, on each read, from the pools of
+ * connections of the nodes currently in the pool.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class NodesPoolMonitor implements INodesPoolMXBean {
+    /**
+     * The monitored pool.
+     */
+    private final AbstractNodesPool pool;
+
+    /**
+     * Create a new monitor.
+     * 
+     * @param pool
+     *            the pool to monitor
+     */
+    public NodesPoolMonitor(final AbstractNodesPool pool) {
+        this.pool = pool;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getType()
+     */
+    @Override
+    public String getType() {
+        return pool.getClass().getSimpleName();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getNodes()
+     */
+    @Override
+    public int getNodes() {
+        return pool.getNodes().length;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getAvailableNodes()
+     */
+    @Override
+    public int getAvailableNodes() {
+        return pool.getAvailableNodes().length;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getNodeStates()
+     */
+    @Override
+    public Map<String, String> getNodeStates() {
+        final Map<String, String> states = new TreeMap<String, String>();
+
+        for (final INode node : pool.getNodes()) {
+            states.put(node.getId(), node.getHealth().getState().name());
+        }
+
+        return states;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getOpenConnections()
+     */
+    @Override
+    public int getOpenConnections() {
+        int total = 0;
+
+        for (final SimpleConnectionsPool connections : connectionsPools()) {
+            total += connections.getOpenConnections();
+        }
+
+        return total;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getIdleConnections()
+     */
+    @Override
+    public int getIdleConnections() {
+        int total = 0;
+
+        for (final SimpleConnectionsPool connections : connectionsPools()) {
+            total += connections.getIdleConnections();
+        }
+
+        return total;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getActiveConnections()
+     */
+    @Override
+    public int getActiveConnections() {
+        int total = 0;
+
+        for (final SimpleConnectionsPool connections : connectionsPools()) {
+            total += connections.getActiveConnections();
+        }
+
+        return total;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getWaiters()
+     */
+    @Override
+    public int getWaiters() {
+        int total = 0;
+
+        for (final SimpleConnectionsPool connections : connectionsPools()) {
+            total += connections.getWaiters();
+        }
+
+        return total;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getTimeouts()
+     */
+    @Override
+    public long getTimeouts() {
+        long total = 0;
+
+        for (final SimpleConnectionsPool connections : connectionsPools()) {
+            total += connections.getTimeouts();
+        }
+
+        return total;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getCreationFailures()
+     */
+    @Override
+    public long getCreationFailures() {
+        long total = 0;
+
+        for (final SimpleConnectionsPool connections : connectionsPools()) {
+            total += connections.getCreationFailures();
+        }
+
+        return total;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getAcquireCount()
+     */
+    @Override
+    public long getAcquireCount() {
+        return acquireLatency().getCount();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getAcquireLatencyP50()
+     */
+    @Override
+    public double getAcquireLatencyP50() {
+        return acquireLatency().getPercentile(50, TimeUnit.MICROSECONDS);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getAcquireLatencyP99()
+     */
+    @Override
+    public double getAcquireLatencyP99() {
+        return acquireLatency().getPercentile(99, TimeUnit.MICROSECONDS);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getAcquireLatencyP999()
+     */
+    @Override
+    public double getAcquireLatencyP999() {
+        return acquireLatency().getPercentile(99.9, TimeUnit.MICROSECONDS);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.INodesPoolMXBean#getAcquireLatencyMax()
+     */
+    @Override
+    public double getAcquireLatencyMax() {
+        return (double) acquireLatency().getMax() / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    /**
+     * Merges the acquire latencies of the pools of connections of the nodes.
+     * 
+     * @return the merged histogram
+     */
+    private LatencyHistogram acquireLatency() {
+        final LatencyHistogram merged = new LatencyHistogram();
+
+        for (final SimpleConnectionsPool connections : connectionsPools()) {
+            merged.merge(connections.getAcquireLatency());
+        }
+
+        return merged;
+    }
+
+    /**
+     * Collects the pools of connections of the nodes currently in the pool.
+     * 
+     * @return the pools of connections
+     */
+    private List<SimpleConnectionsPool> connectionsPools() {
+        final INode[] nodes = pool.getNodes();
+        final List<SimpleConnectionsPool> pools = new ArrayList<SimpleConnectionsPool>(nodes.length);
+
+        for (final INode node : nodes) {
+            final SimpleConnectionsPool connections = connectionsPool(node);
+
+            if (connections != null) {
+                pools.add(connections);
+            }
+        }
+
+        return pools;
+    }
+
+    /**
+     * Finds the {@link SimpleConnectionsPool} of a node.
+     * 
+     * @param node
+     *            the node
+     * @return the pool of connections, or <code>null</code> if the node does
+     *         not use one
+     */
+    private static SimpleConnectionsPool connectionsPool(final INode node) {
+        SimpleConnectionsPool connections = null;
+
+        if (node instanceof Node) {
+            final IPool<IConnection> nodePool = ((Node) node).getConnectionPool();
+
+            if (nodePool instanceof SimpleConnectionsPool) {
+                connections = (SimpleConnectionsPool) nodePool;
+            } else if (nodePool instanceof ThreadAffineConnectionsPool) {
+                connections = ((ThreadAffineConnectionsPool) nodePool).getPool();
+            }
+        }
+
+        return connections;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.metrics;
+
+import com.helenus.cache.RowCache;
+
+/**
+ * Exposes the metrics of a {@link RowCache} through JMX.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class RowCacheMonitor implements IRowCacheMXBean {
+    /**
+     * The monitored cache.
+     */
+    private final RowCache cache;
+
+    /**
+     * Create a new monitor.
+     * 
+     * @param cache
+     *            the cache to monitor
+     */
+    public RowCacheMonitor(final RowCache cache) {
+        this.cache = cache;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IRowCacheMXBean#getCapacity()
+     */
+    @Override
+    public int getCapacity() {
+        return cache.getCapacity();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IRowCacheMXBean#getSize()
+     */
+    @Override
+    public int getSize() {
+        return cache.size();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IRowCacheMXBean#getHits()
+     */
+    @Override
+    public long getHits() {
+        return cache.getHits();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IRowCacheMXBean#getMisses()
+     */
+    @Override
+    public long getMisses() {
+        return cache.getMisses();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IRowCacheMXBean#getHitRate()
+     */
+    @Override
+    public double getHitRate() {
+        return cache.getHitRate();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IRowCacheMXBean#getEvictions()
+     */
+    @Override
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.metrics.IRowCacheMXBean#getExpirations()
+     */
+    @Override
+    public long getExpirations() {
+        return cache.getExpirations();
+    }
+}
@@ -15,6 +15,10 @@
 */
 package com.helenus.pool;
 
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.concurrent.ResultFuture;
+
 /**
  * Generic interface for a pool type.
  * 
@@ -31,6 +35,22 @@ public interface IPool<T> {
      */
     T get();
 
+    /**
+     * Retrieves an object of the specified type from the pool, without blocking
+     * the calling thread.
+     * <p>
+     * The returned future completes as soon as an object is available. If no
+     * object is available before the <tt>timeout</tt> elapses, the future fails
+     * with a {@link java.util.concurrent.TimeoutException}.
+     * 
+     * @param timeout
+     *            how long to wait for an object
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future holding an instance of the specified object
+     */
+    ResultFuture<T> getAsync(long timeout, TimeUnit unit);
+
     /**
      * Returns an object of the specified type to the pool.
      * 
@@ -39,6 +59,15 @@ public interface IPool<T> {
      */
     void give(T object);
 
+    /**
+     * Removes an object from the pool, because it is broken and should not be
+     * used anymore.
+     * 
+     * @param object
+     *            the object to remove
+     */
+    void discard(T object);
+
     /**
      * Retrieves a generated unique ID for the pool.
      * 
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.pool.connections;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.helenus.concurrent.IResultListener;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.concurrent.SharedScheduler;
+import com.helenus.concurrent.SharedScheduler.DaemonThreadFactory;
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.exception.ConnectionException;
+import com.helenus.pool.IPool;
+
+/**
+ * Pool of a few multiplexed connections to a single node.
+ * <p>
+ * Unlike {@link SimpleConnectionsPool}, a connection is not leased
+ * exclusively: since many requests can be in flight on the same connection,
+ * each identified by its own stream ID, the same connection is handed out to
+ * many threads at the same time. {@link #get()} returns the open connection
+ * with the fewest requests in flight, and {@link #give(IConnection)} does
+ * nothing. A slow request holds only its own stream, not a whole connection.
+ * <p>
+ * The connections are kept in a fixed number of slots. A slot whose
+ * connection has been discarded, or has been closed, is filled again in the
+ * background, while the other connections keep serving the requests.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class MultiplexedConnectionsPool implements IPool<IConnection> {
+    /**
+     * Default number of connections per node.
+     */
+    public static final int DEFAULT_CONNECTIONS = 2;
+
+    /**
+     * Executor used to open the connections for the asynchronous requests.
+     */
+    private static final ExecutorService CONNECT_EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory(
+            "helenus-connect"));
+
+    /**
+     * Shared atomic COUNTER to provide a unique ID number for each pool.
+     */
+    private static final AtomicLong COUNTER = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * The connections of the pool, <code>null</code> for the empty slots.
+     */
+    private final AtomicReferenceArray<IConnection> slots;
+
+    /**
+     * How many connections could not be opened.
+     */
+    private final AtomicLong creationFailures;
+
+    /**
+     * The refill running in the background, shared by all the asynchronous
+     * requests waiting for it; <code>null</code> if none is.
+     */
+    private final AtomicReference<ResultFuture<IConnection>> refilling;
+
+    /**
+     * The ID of the pool.
+     */
+    private final long id;
+
+    private final String address;
+    private final int port;
+    private final IConnectionFactory factory;
+
+    /**
+     * Create a new pool with the default number of connections.
+     * 
+     * @param address
+     *            the address of the node
+     * @param port
+     *            the port of the node
+     * @param factory
+     *            the factory used to create the connections
+     */
+    public MultiplexedConnectionsPool(final String address, final int port, final IConnectionFactory factory) {
+        this(address, port, DEFAULT_CONNECTIONS, factory);
+    }
+
+    /**
+     * Create a new pool.
+     * 
+     * @param address
+     *            the address of the node
+     * @param port
+     *            the port of the node
+     * @param connections
+     *            the number of connections to keep open
+     * @param factory
+     *            the factory used to create the connections
+     */
+    public MultiplexedConnectionsPool(final String address, final int port, final int connections,
+            final IConnectionFactory factory) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("Connections must be at least 1: " + connections);
+        }
+
+        this.address = address;
+        this.port = port;
+        this.factory = factory;
+
+        id = COUNTER.incrementAndGet();
+        slots = new AtomicReferenceArray<IConnection>(connections);
+        creationFailures = new AtomicLong();
+        refilling = new AtomicReference<ResultFuture<IConnection>>();
+    }
+
+    /**
+     * Opens the connections of the pool.
+     * 
+     * @return the number of open connections
+     */
+    public synchronized int start() {
+        fill();
+        return getOpenConnections();
+    }
+
+    /**
+     * Retrieves the open connection with the fewest requests in flight. The
+     * connection stays in the pool, and is shared with the other callers.
+     * <p>
+     * If no connection is open, the empty slots are filled first.
+     * 
+     * @return an instance of an {@link IConnection}, or <code>null</code> if
+     *         no connection could be opened
+     */
+    @Override
+    public IConnection get() {
+        IConnection connection = select();
+
+        if (connection == null) {
+            connection = reconnect();
+        }
+
+        return connection;
+    }
+
+    /**
+     * Retrieves the open connection with the fewest requests in flight,
+     * without blocking the calling thread. If no connection is open, the
+     * empty slots are filled in the background, and the returned future fails
+     * with a {@link TimeoutException} if none is open before the
+     * <tt>timeout</tt> elapses.
+     * 
+     * @param timeout
+     *            how long to wait for a connection
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future holding an {@link IConnection}
+     */
+    @Override
+    public ResultFuture<IConnection> getAsync(final long timeout, final TimeUnit unit) {
+        final IConnection connection = select();
+        final ResultFuture<IConnection> future;
+
+        if (connection == null) {
+            future = new ResultFuture<IConnection>();
+
+            refillAsync().addListener(new IResultListener<IConnection>() {
+                @Override
+                public void onSuccess(final IConnection opened) {
+                    future.complete(opened);
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    future.fail(cause);
+                }
+            });
+
+            future.cancelOnCompletion(SharedScheduler.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    future.fail(new TimeoutException("No connection opened to " + address + ":" + port));
+                }
+            }, timeout, unit));
+        } else {
+            future = ResultFuture.completed(connection);
+        }
+
+        return future;
+    }
+
+    /**
+     * Does nothing: the connections are shared, and are never taken out of
+     * the pool.
+     * 
+     * @param connection
+     *            the {@link IConnection} to return
+     */
+    @Override
+    public void give(final IConnection connection) {
+        // Nothing to do
+    }
+
+    /**
+     * Removes a broken connection from its slot, closing it. The slot is
+     * filled again in the background.
+     * <p>
+     * A connection still open is kept: a failed request does not mean that the
+     * connection, shared with other requests, is broken. Connections close
+     * themselves on I/O or protocol errors.
+     * 
+     * @param connection
+     *            the {@link IConnection} to discard
+     */
+    @Override
+    public void discard(final IConnection connection) {
+        if ((connection != null) && !connection.isOpen()) {
+            for (int i = 0; i < slots.length(); i++) {
+                if (slots.compareAndSet(i, connection, null)) {
+                    refillAsync();
+                    break;
+                }
+            }
+
+            connection.close();
+        }
+    }
+
+    /**
+     * Closes all the connections of the pool.
+     */
+    public synchronized void close() {
+        for (int i = 0; i < slots.length(); i++) {
+            final IConnection connection = slots.getAndSet(i, null);
+
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.pool.IPool#getId()
+     */
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the address of the node
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the port of the node
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the number of connections the pool keeps open
+     */
+    public int getMaxConnection() {
+        return slots.length();
+    }
+
+    /**
+     * @return the number of connections currently open
+     */
+    public int getOpenConnections() {
+        int open = 0;
+
+        for (int i = 0; i < slots.length(); i++) {
+            final IConnection connection = slots.get(i);
+
+            if ((connection != null) && connection.isOpen()) {
+                open++;
+            }
+        }
+
+        return open;
+    }
+
+    /**
+     * @return the requests in flight on all the connections of the pool
+     */
+    public int getInFlight() {
+        int inFlight = 0;
+
+        for (int i = 0; i < slots.length(); i++) {
+            final IConnection connection = slots.get(i);
+
+            if (connection != null) {
+                inFlight += connection.getInFlight();
+            }
+        }
+
+        return inFlight;
+    }
+
+    /**
+     * @return how many connections could not be opened
+     */
+    public long getCreationFailures() {
+        return creationFailures.get();
+    }
+
+    /**
+     * Chooses the open connection with the fewest requests in flight. A
+     * connection found closed is replaced in the background.
+     * 
+     * @return the connection, or <code>null</code> if none is open
+     */
+    private IConnection select() {
+        IConnection best = null;
+        int lowest = Integer.MAX_VALUE;
+        boolean closed = false;
+
+        for (int i = 0; i < slots.length(); i++) {
+            final IConnection connection = slots.get(i);
+
+            if (connection == null) {
+                continue;
+            }
+
+            if (connection.isOpen()) {
+                final int inFlight = connection.getInFlight();
+
+                if (inFlight < lowest) {
+                    best = connection;
+                    lowest = inFlight;
+                }
+            } else {
+                closed = true;
+            }
+        }
+
+        if (closed) {
+            refillAsync();
+        }
+
+        return best;
+    }
+
+    /**
+     * Fills the empty slots, unless another thread already did, and chooses a
+     * connection.
+     * 
+     * @return the connection, or <code>null</code> if none could be opened
+     */
+    private synchronized IConnection reconnect() {
+        IConnection connection = select();
+
+        if (connection == null) {
+            fill();
+            connection = select();
+        }
+
+        return connection;
+    }
+
+    /**
+     * Fills all the empty slots and chooses a connection.
+     * 
+     * @return the connection, or <code>null</code> if none could be opened
+     */
+    private synchronized IConnection refill() {
+        fill();
+        return select();
+    }
+
+    /**
+     * Runs {@link #refill()} in the background, unless another request already
+     * started it: all the waiting requests share the same attempt, so that
+     * they do not pile up on the lock.
+     * 
+     * @return a future holding the connection chosen once the slots are filled
+     */
+    private ResultFuture<IConnection> refillAsync() {
+        while (true) {
+            final ResultFuture<IConnection> current = refilling.get();
+
+            if (current != null) {
+                return current;
+            }
+
+            final ResultFuture<IConnection> future = new ResultFuture<IConnection>();
+
+            if (refilling.compareAndSet(null, future)) {
+                CONNECT_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        IConnection opened = null;
+
+                        try {
+                            opened = refill();
+                        } finally {
+                            refilling.compareAndSet(future, null);
+                        }
+
+                        if (opened == null) {
+                            future.fail(new ConnectionException("Cannot connect to " + address + ":" + port));
+                        } else {
+                            future.complete(opened);
+                        }
+                    }
+                });
+
+                return future;
+            }
+        }
+    }
+
+    /**
+     * Opens a new connection for each slot that is empty, or whose connection
+     * has been closed. Called with the lock held.
+     */
+    private void fill() {
+        for (int i = 0; i < slots.length(); i++) {
+            final IConnection current = slots.get(i);
+
+            if ((current == null) || !current.isOpen()) {
+                final IConnection connection = factory.create(address, port);
+
+                if (connection.open()) {
+                    slots.set(i, connection);
+                } else {
+                    creationFailures.incrementAndGet();
+                }
+
+                if (current != null) {
+                    current.close();
+                }
+            }
+        }
+    }
+}
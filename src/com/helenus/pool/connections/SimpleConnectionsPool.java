@@ -15,25 +15,158 @@
 */
 package com.helenus.pool.connections;
 
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.concurrent.SharedScheduler;
+import com.helenus.concurrent.SharedScheduler.DaemonThreadFactory;
 import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.exception.ConnectionException;
+import com.helenus.metrics.LatencyHistogram;
+import com.helenus.pool.IPool;
+
+/**
+ * Bounded pool of connections to a single node.
+ * <p>
+ * The pool does not lock on the hot path: idle connections are kept in a
+ * lock-free {@link ConcurrentLinkedDeque}, and the number of connections handed
+ * out is bounded by a permit counter. A permit is taken with a single CAS when
+ * available, a thread is parked only when all the connections are in use and
+ * no more can be created.
+ * <p>
+ * Idle connections are reused in a LIFO way, so that the most recently used
+ * connection, the one most likely to be still warm, is handed out first.
+ * <p>
+ * The size of the pool is elastic, between a minimum and a maximum number of
+ * connections: {@link #start()} opens the minimum number of connections in
+ * parallel, more connections are created on demand up to the maximum, and a
+ * background reaper closes the connections left idle for longer than the idle
+ * timeout, down to the minimum. Since idle connections are reused LIFO, the
+ * ones that are not needed anymore sink at the bottom of the deque, where the
+ * reaper finds them.
+ * <p>
+ * Connections can also be requested asynchronously with
+ * {@link #getAsync(long, TimeUnit)}: if none is available, the request is put
+ * in a FIFO queue of waiters, and a connection given back is handed straight
+ * to the oldest waiter. Waiters whose deadline passes fail with a
+ * {@link TimeoutException}, no thread is parked for them.
+ * <p>
+ * The pool keeps count of the requests timed out and of the connections that
+ * could not be opened, and records the time taken to acquire each connection
+ * in a {@link LatencyHistogram}, without locks or allocations.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class SimpleConnectionsPool implements IPool<IConnection> {
+    /**
+     * Minimum number of connections per node.
+     */
+    private static final int DEFAULT_MIN_CONN = 1;
 
-public class SimpleConnectionsPool implements INodesPool {
     /**
      * Maximum number of connections per node.
      */
     private static final int DEFAULT_MAX_CONN = 12;
 
+    /**
+     * Default idle timeout of the connections, in milliseconds.
+     */
+    private static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+
+    /**
+     * Minimum period, in milliseconds, of the reaper of the idle connections.
+     */
+    private static final long REAPER_MIN_PERIOD = 100L;
+
+    /**
+     * How long to park between two checks for a connection being opened by
+     * {@link #prewarm()}, in nanoseconds.
+     */
+    private static final long PREWARM_PARK = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Executor used to open the connections out of the calling thread: in
+     * parallel when starting a pool, and for the asynchronous requests.
+     */
+    private static final ExecutorService PREWARM_EXECUTOR = Executors.newCachedThreadPool(new DaemonThreadFactory(
+            "helenus-prewarm"));
+
     /**
      * Shared atomic COUNTER to provide a unique ID number for each pool.
      */
     private static final AtomicLong COUNTER = new AtomicLong(Long.MIN_VALUE);
 
-    private BlockingQueue<IConnection> pool;
+    /**
+     * The idle connections, ready to be handed out.
+     */
+    private final ConcurrentLinkedDeque<IdleConnection> pool;
+
+    /**
+     * Permits for the connections that can be handed out: one permit is taken
+     * for each connection in use.
+     */
+    private final Semaphore permits;
+
+    /**
+     * The asynchronous requests waiting for a connection, oldest first.
+     */
+    private final ConcurrentLinkedQueue<Waiter> waiters;
+
+    /**
+     * How many connections have been created and are still alive.
+     */
+    private final AtomicInteger created;
+
+    /**
+     * How many requests for a connection timed out.
+     */
+    private final AtomicLong timeouts;
+
+    /**
+     * How many connections could not be opened.
+     */
+    private final AtomicLong creationFailures;
+
+    /**
+     * The time taken to acquire the connections.
+     */
+    private final LatencyHistogram acquireLatency;
+
+    /**
+     * The ID of the pool.
+     */
+    private final long id;
+
+    /**
+     * The factory used to create new connections.
+     */
+    private IConnectionFactory factory;
+
+    /**
+     * How long, in nanoseconds, a connection can stay idle before being closed.
+     */
+    private long idleTimeout;
+
+    /**
+     * The periodic task closing the idle connections.
+     */
+    private ScheduledFuture<?> reaper;
+
     private final String address;
     private final int port;
+    private final int minConnection;
     private final int maxConnection;
 
     public SimpleConnectionsPool(final String address, final int port) {
@@ -41,31 +174,302 @@ public class SimpleConnectionsPool implements INodesPool {
     }
 
     public SimpleConnectionsPool(final String address, final int port, final int maxConnection) {
+        this(address, port, maxConnection, null);
+    }
+
+    /**
+     * Create a new pool of connections, with at most <tt>maxConnection</tt>
+     * connections.
+     * 
+     * @param address
+     *            the address of the node
+     * @param port
+     *            the port of the node
+     * @param maxConnection
+     *            the maximum number of connections to open
+     * @param factory
+     *            the {@link IConnectionFactory} used to create the connections
+     */
+    public SimpleConnectionsPool(final String address, final int port, final int maxConnection,
+            final IConnectionFactory factory) {
+        this(address, port, Math.min(DEFAULT_MIN_CONN, maxConnection), maxConnection, factory);
+    }
+
+    /**
+     * Create a new pool of connections.
+     * 
+     * @param address
+     *            the address of the node
+     * @param port
+     *            the port of the node
+     * @param minConnection
+     *            the minimum number of connections to keep open
+     * @param maxConnection
+     *            the maximum number of connections to open
+     * @param factory
+     *            the {@link IConnectionFactory} used to create the connections
+     */
+    public SimpleConnectionsPool(final String address, final int port, final int minConnection,
+            final int maxConnection, final IConnectionFactory factory) {
+        if (maxConnection < 1) {
+            throw new IllegalArgumentException("Maximum number of connections must be positive: " + maxConnection);
+        }
+
+        if ((minConnection < 0) || (minConnection > maxConnection)) {
+            throw new IllegalArgumentException("Minimum number of connections must be between 0 and "
+                    + maxConnection + ": " + minConnection);
+        }
+
         this.address = address;
         this.port = port;
+        this.minConnection = minConnection;
         this.maxConnection = maxConnection;
+        this.factory = factory;
+
+        idleTimeout = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_TIMEOUT);
+        pool = new ConcurrentLinkedDeque<IdleConnection>();
+        permits = new Semaphore(maxConnection);
+        waiters = new ConcurrentLinkedQueue<Waiter>();
+        created = new AtomicInteger();
+        timeouts = new AtomicLong();
+        creationFailures = new AtomicLong();
+        acquireLatency = new LatencyHistogram();
+        id = COUNTER.incrementAndGet();
+    }
+
+    /**
+     * Set the {@link IConnectionFactory} used to create new connections.
+     * 
+     * @param factory
+     *            the factory to use
+     * @return this pool
+     */
+    public SimpleConnectionsPool withConnectionFactory(final IConnectionFactory factory) {
+        this.factory = factory;
+        return this;
+    }
+
+    /**
+     * Set how long a connection can stay idle before being closed by the
+     * reaper. Must be set before the pool is {@link #start() started}.
+     * 
+     * @param timeout
+     *            the idle timeout
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return this pool
+     */
+    public SimpleConnectionsPool withIdleTimeout(final long timeout, final TimeUnit unit) {
+        idleTimeout = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Starts the pool: the minimum number of connections is opened in
+     * parallel, and the reaper of the idle connections is scheduled.
+     * <p>
+     * The method does not wait for the connections to be opened: the returned
+     * future completes, with the number of connections opened, once they all
+     * have been tried.
+     * 
+     * @return a future holding the number of connections opened
+     */
+    public synchronized ResultFuture<Integer> start() {
+        if (reaper == null) {
+            final long period = Math.max(idleTimeout / 2, TimeUnit.MILLISECONDS.toNanos(REAPER_MIN_PERIOD));
+
+            reaper = SharedScheduler.getInstance().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    reap();
+                }
+            }, period, period, TimeUnit.NANOSECONDS);
+        }
+
+        return prewarm();
     }
 
     /**
      * Retrieves a connection from the pool.
+     * <p>
+     * If all the connections are in use, the calling thread will wait until one
+     * is given back. If the thread is interrupted while waiting,
+     * <code>null</code> is returned and the interrupted status is kept.
      * 
-     * @return an instance of an {@link IConnection}
+     * @return an instance of an {@link IConnection}, or <code>null</code> if it
+     *         was not possible to retrieve one
      */
     @Override
     public IConnection get() {
-        // TODO Auto-generated method stub
-        return null;
+        final long start = System.nanoTime();
+        IConnection connection = null;
+
+        try {
+            permits.acquire();
+            connection = acquirePermitted();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (connection != null) {
+            acquireLatency.record(System.nanoTime() - start);
+        }
+
+        return connection;
+    }
+
+    /**
+     * Retrieves a connection from the pool, waiting at most the specified time.
+     * <p>
+     * With a <tt>timeout</tt> of zero or less, the pool will not wait at all.
+     * 
+     * @param timeout
+     *            how long to wait for a connection
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return an instance of an {@link IConnection}, or <code>null</code> if the
+     *         time elapsed before a connection was available
+     */
+    public IConnection get(final long timeout, final TimeUnit unit) {
+        final long start = System.nanoTime();
+        IConnection connection = null;
+
+        try {
+            if ((timeout <= 0) ? permits.tryAcquire() : permits.tryAcquire(timeout, unit)) {
+                connection = acquirePermitted();
+            } else {
+                timeouts.incrementAndGet();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (connection != null) {
+            acquireLatency.record(System.nanoTime() - start);
+        }
+
+        return connection;
+    }
+
+    /**
+     * Retrieves a connection from the pool without blocking the calling thread.
+     * <p>
+     * If no connection is available, the request waits in a FIFO queue. The
+     * returned future fails with a {@link TimeoutException} if no connection is
+     * handed to it before the <tt>timeout</tt> elapses, or with a
+     * {@link ConnectionException} if a new connection could not be opened.
+     * 
+     * @param timeout
+     *            how long to wait for a connection
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future holding an {@link IConnection}
+     */
+    @Override
+    public ResultFuture<IConnection> getAsync(final long timeout, final TimeUnit unit) {
+        final Waiter waiter = new Waiter();
+
+        // Do not overtake the requests already waiting
+        if (waiters.isEmpty() && permits.tryAcquire()) {
+            handOut(waiter);
+        } else {
+            waiters.offer(waiter);
+
+            waiter.cancelOnCompletion(SharedScheduler.getInstance().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    waiters.remove(waiter);
+
+                    if (waiter.fail(new TimeoutException("No connection available for " + address + ":" + port))) {
+                        timeouts.incrementAndGet();
+                    }
+                }
+            }, timeout, unit));
+
+            // A connection might have been given back before the request was queued
+            dispatchWaiters();
+        }
+
+        return waiter;
     }
 
     /**
      * Returns a connection to the pool.
+     * <p>
+     * If there are asynchronous requests waiting, the connection is handed
+     * directly to the oldest one.
+     * <p>
+     * Only connections retrieved from this pool should be given back, and only
+     * once for each time they have been retrieved.
      * 
      * @param connection
      *            the {@link IConnection} to return to the pool
      */
     @Override
     public void give(final IConnection connection) {
-        // TODO Auto-generated method stub
+        if (connection != null) {
+            Waiter waiter = waiters.poll();
+
+            while (waiter != null) {
+                // The permit is handed over together with the connection
+                if (waiter.complete(connection)) {
+                    acquireLatency.record(System.nanoTime() - waiter.since);
+                    return;
+                }
+
+                waiter = waiters.poll();
+            }
+
+            pool.offerFirst(new IdleConnection(connection));
+            permits.release();
+
+            // A request might have been queued after the queue was checked
+            dispatchWaiters();
+        }
+    }
+
+    /**
+     * Removes a connection from the pool, closing it.
+     * <p>
+     * To be used instead of {@link #give(IConnection)} when a connection is
+     * broken and should not be reused: its slot is freed, so that a new
+     * connection can be created in its place.
+     * 
+     * @param connection
+     *            the {@link IConnection} to discard
+     */
+    @Override
+    public void discard(final IConnection connection) {
+        if (connection != null) {
+            created.decrementAndGet();
+            connection.close();
+            permits.release();
+
+            dispatchWaiters();
+        }
+    }
+
+    /**
+     * Stops the reaper and closes all the idle connections of this pool.
+     * <p>
+     * Connections in use are not affected, and will be kept by the pool when
+     * given back.
+     */
+    public void close() {
+        synchronized (this) {
+            if (reaper != null) {
+                reaper.cancel(false);
+                reaper = null;
+            }
+        }
+
+        IdleConnection idle = pool.pollFirst();
+
+        while (idle != null) {
+            created.decrementAndGet();
+            idle.connection.close();
+            idle = pool.pollFirst();
+        }
     }
 
     /*
@@ -74,6 +478,362 @@ public class SimpleConnectionsPool implements INodesPool {
      */
     @Override
     public long getId() {
-        return COUNTER.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * @return the address of the node this pool connects to
+     */
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the port of the node this pool connects to
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the minimum number of connections of this pool
+     */
+    public int getMinConnection() {
+        return minConnection;
+    }
+
+    /**
+     * @return the maximum number of connections of this pool
+     */
+    public int getMaxConnection() {
+        return maxConnection;
+    }
+
+    /**
+     * @return how many connections are currently open
+     */
+    public int getOpenConnections() {
+        return created.get();
+    }
+
+    /**
+     * @return how many connections are currently handed out
+     */
+    public int getActiveConnections() {
+        return maxConnection - permits.availablePermits();
+    }
+
+    /**
+     * @return <tt>true</tt> if there are threads or asynchronous requests
+     *         waiting for a connection
+     */
+    public boolean hasWaiters() {
+        return permits.hasQueuedThreads() || !waiters.isEmpty();
+    }
+
+    /**
+     * @return how many connections are currently open and not in use
+     */
+    public int getIdleConnections() {
+        return pool.size();
+    }
+
+    /**
+     * @return how many threads and asynchronous requests are waiting for a
+     *         connection
+     */
+    public int getWaiters() {
+        return permits.getQueueLength() + waiters.size();
+    }
+
+    /**
+     * @return how many requests for a connection timed out
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * @return how many connections could not be opened
+     */
+    public long getCreationFailures() {
+        return creationFailures.get();
+    }
+
+    /**
+     * @return the histogram of the time taken to acquire the connections
+     */
+    public LatencyHistogram getAcquireLatency() {
+        return acquireLatency;
+    }
+
+    /**
+     * Serves the queued asynchronous requests, as long as connections can be
+     * handed out without blocking.
+     */
+    private void dispatchWaiters() {
+        while (!waiters.isEmpty() && permits.tryAcquire()) {
+            final Waiter waiter = waiters.poll();
+
+            if (waiter == null) {
+                permits.release();
+            } else {
+                handOut(waiter);
+            }
+        }
+    }
+
+    /**
+     * Completes an asynchronous request once a permit has been taken, with an
+     * idle connection if there is one. Otherwise the connection is opened by
+     * {@link #PREWARM_EXECUTOR}: opening a connection blocks, and the calling
+     * thread can be the event loop that would have to complete the connect.
+     * 
+     * @param waiter
+     *            the request to complete
+     */
+    private void handOut(final Waiter waiter) {
+        final IdleConnection idle = pool.pollFirst();
+
+        if (idle != null) {
+            complete(waiter, idle.connection);
+        } else {
+            PREWARM_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    IConnection connection = null;
+
+                    try {
+                        connection = acquirePermitted();
+                    } catch (final RuntimeException ex) {
+                        waiter.fail(ex);
+                    }
+
+                    if (connection == null) {
+                        waiter.fail(new ConnectionException("Unable to open a connection to " + address + ":"
+                                + port));
+                    } else {
+                        complete(waiter, connection);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Completes an asynchronous request with a connection. If the request has
+     * already expired, the connection goes back to the pool.
+     * 
+     * @param waiter
+     *            the request to complete
+     * @param connection
+     *            the connection, holding the permit of the request
+     */
+    private void complete(final Waiter waiter, final IConnection connection) {
+        if (waiter.complete(connection)) {
+            acquireLatency.record(System.nanoTime() - waiter.since);
+        } else {
+            give(connection);
+        }
+    }
+
+    /**
+     * Retrieves a connection once a permit has been taken: an idle connection
+     * is reused if available, otherwise a new one is created.
+     * <p>
+     * Holding a permit guarantees that, if there are no idle connections, less
+     * than {@link #maxConnection} connections are handed out. If the maximum
+     * number of connections is reached anyway, some are on their way to the
+     * idle deque, opened by {@link #prewarm()}, so we wait for them, parking
+     * the thread between two checks. The permit is released if the connection
+     * cannot be created, or if the thread is interrupted while waiting.
+     * 
+     * @return an open {@link IConnection}, or <code>null</code>
+     */
+    private IConnection acquirePermitted() {
+        IConnection connection = null;
+
+        try {
+            while (connection == null) {
+                final IdleConnection idle = pool.pollFirst();
+
+                if (idle != null) {
+                    connection = idle.connection;
+                } else if (reserve()) {
+                    connection = createConnection();
+
+                    if (connection == null) {
+                        break;
+                    }
+                } else if (Thread.currentThread().isInterrupted()) {
+                    break;
+                } else {
+                    LockSupport.parkNanos(this, PREWARM_PARK);
+                }
+            }
+        } finally {
+            if (connection == null) {
+                permits.release();
+            }
+        }
+
+        return connection;
+    }
+
+    /**
+     * Opens in parallel the connections missing to reach the minimum.
+     * 
+     * @return a future holding the number of connections opened
+     */
+    private ResultFuture<Integer> prewarm() {
+        final ResultFuture<Integer> future = new ResultFuture<Integer>();
+        final int missing = minConnection - created.get();
+
+        if (missing <= 0) {
+            future.complete(Integer.valueOf(0));
+        } else {
+            final AtomicInteger pending = new AtomicInteger(missing);
+            final AtomicInteger opened = new AtomicInteger();
+
+            for (int i = 0; i < missing; i++) {
+                PREWARM_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (reserve()) {
+                                final IConnection connection = createConnection();
+
+                                if (connection != null) {
+                                    pool.offerLast(new IdleConnection(connection));
+                                    opened.incrementAndGet();
+                                }
+                            }
+                        } catch (final RuntimeException ex) {
+                            // TODO add logger
+                            ex.printStackTrace();
+                        } finally {
+                            if (pending.decrementAndGet() == 0) {
+                                future.complete(Integer.valueOf(opened.get()));
+                                dispatchWaiters();
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        return future;
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout, keeping
+     * at least the minimum number of connections open.
+     */
+    private void reap() {
+        final long now = System.nanoTime();
+        IdleConnection oldest = pool.peekLast();
+
+        while ((oldest != null) && ((now - oldest.since) > idleTimeout) && release()) {
+            if (pool.removeLastOccurrence(oldest)) {
+                oldest.connection.close();
+            } else {
+                // Somebody took it in the meantime
+                created.incrementAndGet();
+            }
+
+            oldest = pool.peekLast();
+        }
+    }
+
+    /**
+     * Reserves the slot for a new connection, if the maximum number of
+     * connections has not been reached.
+     * 
+     * @return <tt>true</tt> if a new connection can be created
+     */
+    private boolean reserve() {
+        int current = created.get();
+
+        while (current < maxConnection) {
+            if (created.compareAndSet(current, current + 1)) {
+                return true;
+            }
+
+            current = created.get();
+        }
+
+        return false;
+    }
+
+    /**
+     * Frees the slot of a connection to close, if more than the minimum number
+     * of connections are open.
+     * 
+     * @return <tt>true</tt> if a connection can be closed
+     */
+    private boolean release() {
+        int current = created.get();
+
+        while (current > minConnection) {
+            if (created.compareAndSet(current, current - 1)) {
+                return true;
+            }
+
+            current = created.get();
+        }
+
+        return false;
+    }
+
+    /**
+     * Creates and opens a new connection, once its slot has been reserved. The
+     * slot is freed if the connection cannot be opened.
+     * 
+     * @return an open {@link IConnection}, or <code>null</code> if the
+     *         connection could not be opened
+     */
+    private IConnection createConnection() {
+        IConnection connection = null;
+
+        try {
+            if (factory == null) {
+                throw new IllegalStateException("No connection factory defined for " + address + ":" + port);
+            }
+
+            connection = factory.create(address, port);
+
+            if (!connection.open()) {
+                // TODO add logger
+                connection = null;
+            }
+        } finally {
+            if (connection == null) {
+                created.decrementAndGet();
+                creationFailures.incrementAndGet();
+            }
+        }
+
+        return connection;
+    }
+
+    /**
+     * An asynchronous request for a connection, with the time it has been
+     * made.
+     */
+    private static final class Waiter extends ResultFuture<IConnection> {
+        private final long since = System.nanoTime();
+    }
+
+    /**
+     * An idle connection, with the time it has been given back.
+     */
+    private static final class IdleConnection {
+        private final IConnection connection;
+        private final long since;
+
+        IdleConnection(final IConnection connection) {
+            this.connection = connection;
+            since = System.nanoTime();
+        }
     }
 }
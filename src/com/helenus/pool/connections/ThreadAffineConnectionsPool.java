@@ -0,0 +1,343 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.pool.connections;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.connection.IConnection;
+import com.helenus.pool.IPool;
+
+/**
+ * Pool of connections with a per-thread cache in front of a
+ * {@link SimpleConnectionsPool}.
+ * <p>
+ * A connection given back is kept in a slot owned by the calling thread: if the
+ * same thread asks again for a connection, it gets back the same one without
+ * touching the shared pool. This is the common pattern of a request thread
+ * doing a get, a query, and a give in a loop.
+ * <p>
+ * Connections parked in a slot are still accounted as in use by the shared
+ * pool. To avoid starving other threads:
+ * <ul>
+ * <li>a connection is given back to the shared pool directly, and not cached,
+ * if other threads are waiting for one</li>
+ * <li>a thread that cannot get a connection from the shared pool steals one
+ * from the slots of the other threads</li>
+ * </ul>
+ * <p>
+ * Each slot keeps count of its hits, connections served from the slot, and
+ * misses, connections retrieved from the shared pool or stolen.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class ThreadAffineConnectionsPool implements IPool<IConnection> {
+    /**
+     * How long, in milliseconds, to wait on the shared pool before trying
+     * again to steal a connection from the other threads.
+     */
+    private static final long STEAL_INTERVAL = 10;
+
+    /**
+     * The shared pool of connections.
+     */
+    private final SimpleConnectionsPool pool;
+
+    /**
+     * The slot of the calling thread.
+     */
+    private final ThreadLocal<Slot> slots;
+
+    /**
+     * All the slots, used to steal connections and to collect the counters.
+     */
+    private final CopyOnWriteArrayList<Slot> registry;
+
+    /**
+     * Hits of the slots whose thread is dead.
+     */
+    private final AtomicLong retiredHits;
+
+    /**
+     * Misses of the slots whose thread is dead.
+     */
+    private final AtomicLong retiredMisses;
+
+    /**
+     * Create a new thread-affine pool on top of a shared pool.
+     * 
+     * @param pool
+     *            the shared {@link SimpleConnectionsPool}
+     */
+    public ThreadAffineConnectionsPool(final SimpleConnectionsPool pool) {
+        this.pool = pool;
+
+        registry = new CopyOnWriteArrayList<Slot>();
+        retiredHits = new AtomicLong();
+        retiredMisses = new AtomicLong();
+        slots = new ThreadLocal<Slot>() {
+            @Override
+            protected Slot initialValue() {
+                final Slot slot = new Slot(Thread.currentThread());
+                registry.add(slot);
+                return slot;
+            }
+        };
+    }
+
+    /**
+     * Retrieves a connection, from the slot of the calling thread if possible.
+     * <p>
+     * While the shared pool has no connection available, the connections
+     * cached by the other threads are stolen. The wait ends as soon as the
+     * shared pool fails to open a new connection, as the node is then likely
+     * down.
+     * 
+     * @return an instance of an {@link IConnection}, or <code>null</code> if the
+     *         thread has been interrupted while waiting for one, or if a new
+     *         connection could not be opened
+     */
+    @Override
+    public IConnection get() {
+        final Slot slot = slots.get();
+        IConnection connection = slot.getAndSet(null);
+
+        if (connection == null) {
+            slot.misses++;
+
+            final long failures = pool.getCreationFailures();
+            connection = pool.get(0, TimeUnit.MILLISECONDS);
+
+            while ((connection == null) && !Thread.currentThread().isInterrupted()
+                    && (pool.getCreationFailures() == failures)) {
+                connection = steal(slot);
+
+                if (connection == null) {
+                    connection = pool.get(STEAL_INTERVAL, TimeUnit.MILLISECONDS);
+                }
+            }
+        } else {
+            slot.hits++;
+        }
+
+        return connection;
+    }
+
+    /**
+     * Retrieves a connection without blocking, from the slot of the calling
+     * thread if possible, otherwise from the shared pool.
+     * <p>
+     * Cached connections of other threads are not stolen by this method.
+     * 
+     * @param timeout
+     *            how long to wait for a connection
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future holding an {@link IConnection}
+     */
+    @Override
+    public ResultFuture<IConnection> getAsync(final long timeout, final TimeUnit unit) {
+        final Slot slot = slots.get();
+        final IConnection connection = slot.getAndSet(null);
+        ResultFuture<IConnection> future;
+
+        if (connection == null) {
+            slot.misses++;
+            future = pool.getAsync(timeout, unit);
+        } else {
+            slot.hits++;
+            future = ResultFuture.completed(connection);
+        }
+
+        return future;
+    }
+
+    /**
+     * Returns a connection, keeping it in the slot of the calling thread
+     * unless other threads are waiting for a connection.
+     * 
+     * @param connection
+     *            the {@link IConnection} to return
+     */
+    @Override
+    public void give(final IConnection connection) {
+        if (connection != null) {
+            if (pool.hasWaiters()) {
+                pool.give(connection);
+            } else {
+                final IConnection previous = slots.get().getAndSet(connection);
+
+                if (previous != null) {
+                    pool.give(previous);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a broken connection, closing it. The connection is never cached.
+     * 
+     * @param connection
+     *            the {@link IConnection} to discard
+     */
+    @Override
+    public void discard(final IConnection connection) {
+        pool.discard(connection);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.pool.IPool#getId()
+     */
+    @Override
+    public long getId() {
+        return pool.getId();
+    }
+
+    /**
+     * Gives back to the shared pool all the cached connections, and closes the
+     * idle ones.
+     */
+    public void close() {
+        for (final Slot slot : registry) {
+            final IConnection connection = slot.getAndSet(null);
+
+            if (connection != null) {
+                pool.give(connection);
+            }
+        }
+
+        pool.close();
+    }
+
+    /**
+     * @return the shared pool of connections
+     */
+    public SimpleConnectionsPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return how many times the calling thread got back its cached connection
+     */
+    public long getThreadHits() {
+        return slots.get().hits;
+    }
+
+    /**
+     * @return how many times the calling thread had to go to the shared pool
+     */
+    public long getThreadMisses() {
+        return slots.get().misses;
+    }
+
+    /**
+     * @return how many times a thread got back its cached connection
+     */
+    public long getHits() {
+        long hits = retiredHits.get();
+
+        for (final Slot slot : registry) {
+            hits += slot.hits;
+        }
+
+        return hits;
+    }
+
+    /**
+     * @return how many times a thread had to go to the shared pool
+     */
+    public long getMisses() {
+        long misses = retiredMisses.get();
+
+        for (final Slot slot : registry) {
+            misses += slot.misses;
+        }
+
+        return misses;
+    }
+
+    /**
+     * Steals a connection cached by another thread. The slots of the dead
+     * threads are removed while looking for a connection.
+     * 
+     * @param own
+     *            the slot of the calling thread
+     * @return a connection, or <code>null</code> if none was cached
+     */
+    private IConnection steal(final Slot own) {
+        IConnection connection = null;
+
+        for (final Slot slot : registry) {
+            if (slot != own) {
+                final Thread owner = slot.owner.get();
+
+                if ((owner == null) || !owner.isAlive()) {
+                    retire(slot);
+                }
+
+                if ((connection == null) && (slot.get() != null)) {
+                    connection = slot.getAndSet(null);
+                }
+            }
+        }
+
+        return connection;
+    }
+
+    /**
+     * Removes the slot of a dead thread, giving back its cached connection.
+     * 
+     * @param slot
+     *            the slot to remove
+     */
+    private void retire(final Slot slot) {
+        if (registry.remove(slot)) {
+            retiredHits.addAndGet(slot.hits);
+            retiredMisses.addAndGet(slot.misses);
+
+            final IConnection connection = slot.getAndSet(null);
+
+            if (connection != null) {
+                pool.give(connection);
+            }
+        }
+    }
+
+    /**
+     * The per-thread cache, holding at most one connection.
+     * <p>
+     * The counters are written only by the owner thread.
+     */
+    private static final class Slot extends AtomicReference<IConnection> {
+        private static final long serialVersionUID = 2745368237616032431L;
+
+        private final WeakReference<Thread> owner;
+        private volatile long hits;
+        private volatile long misses;
+
+        Slot(final Thread owner) {
+            super();
+
+            this.owner = new WeakReference<Thread>(owner);
+        }
+    }
+}
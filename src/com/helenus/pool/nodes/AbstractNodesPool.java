@@ -0,0 +1,394 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.pool.nodes;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.node.IHealthListener;
+import com.helenus.data.node.INode;
+import com.helenus.data.node.NodeState;
+import com.helenus.exception.ConnectionException;
+
+/**
+ * Abstract type for the different nodes pool implementations.
+ * <p>
+ * The nodes of the pool are kept in an immutable array snapshot: selecting a
+ * node only reads the current snapshot, without any synchronization, while
+ * every change to the membership of the pool publishes a new snapshot. Changes
+ * are expected to be rare compared to the selections.
+ * <p>
+ * Nodes are added to the pool with {@link #give(INode)}, and removed with
+ * {@link #remove(INode)}. Unlike other pools, a node retrieved with
+ * {@link #get()} is not removed from the pool, and does not need to be given
+ * back.
+ * <p>
+ * Nodes whose circuit is open, as reported by their
+ * {@link com.helenus.data.node.NodeHealth}, are skipped: besides the snapshot
+ * of all the nodes, the pool keeps a snapshot of the available ones, refreshed
+ * when a circuit opens or closes, and the selection is done only on it.
+ * <p>
+ * The method that a new nodes pool needs to implement is:
+ * <ul>
+ * <code>INode select(INode[])</code><br/>
+ * Choose a node from the provided, not empty, snapshot of the available nodes
+ * </ul>
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public abstract class AbstractNodesPool implements INodesPool {
+    /**
+     * Private counter for an internal ID.
+     */
+    private static final AtomicLong COUNTER = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Empty snapshot.
+     */
+    private static final INode[] EMPTY = new INode[0];
+
+    /**
+     * The nodes in the pool, indexed by their ID, used to give back the
+     * connections.
+     */
+    private final ConcurrentMap<String, INode> index;
+
+    /**
+     * The ID of the pool.
+     */
+    private final long id;
+
+    /**
+     * The current snapshot of the nodes in the pool.
+     */
+    private volatile INode[] nodes = EMPTY;
+
+    /**
+     * The current snapshot of the nodes in the pool whose circuit is not open.
+     */
+    private volatile INode[] available = EMPTY;
+
+    /**
+     * Refreshes the available nodes when a circuit opens or closes.
+     */
+    private final IHealthListener healthListener = new IHealthListener() {
+        @Override
+        public void stateChanged(final NodeState previous, final NodeState current) {
+            if ((previous == NodeState.OPEN) || (current == NodeState.OPEN)) {
+                refresh();
+            }
+        }
+    };
+
+    /**
+     * Create a new, empty, nodes pool.
+     */
+    public AbstractNodesPool() {
+        id = COUNTER.incrementAndGet();
+        index = new ConcurrentHashMap<String, INode>();
+    }
+
+    /**
+     * Chooses a node from the snapshot.
+     * 
+     * @param snapshot
+     *            the available nodes of the pool, never empty
+     * @return the chosen node
+     */
+    protected abstract INode select(INode[] snapshot);
+
+    /**
+     * Retrieves a node from the pool.
+     * 
+     * @return a node, or <code>null</code> if no node is available
+     */
+    @Override
+    public INode get() {
+        final INode[] snapshot = available;
+        INode node = null;
+
+        if (snapshot.length > 0) {
+            node = select(snapshot);
+        }
+
+        return node;
+    }
+
+    /**
+     * Retrieves a node from the pool for a partition key.
+     * <p>
+     * The default implementation ignores the key, and returns the same node
+     * {@link #get()} would.
+     * 
+     * @param partitionKey
+     *            the serialized partition key, it can be <code>null</code>
+     * @return a node, or <code>null</code> if no node is available
+     */
+    @Override
+    public INode get(final ByteBuffer partitionKey) {
+        return get();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.pool.IPool#getAsync(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public ResultFuture<INode> getAsync(final long timeout, final TimeUnit unit) {
+        return ResultFuture.completed(get());
+    }
+
+    /**
+     * Adds a node to the pool, if not already there.
+     * 
+     * @param node
+     *            the node to add
+     */
+    @Override
+    public synchronized void give(final INode node) {
+        if ((node != null) && (index.putIfAbsent(node.getId(), node) == null)) {
+            // Listen before publishing, not to miss a change in between
+            node.getHealth().addListener(healthListener);
+
+            final INode[] snapshot = Arrays.copyOf(nodes, nodes.length + 1);
+            snapshot[snapshot.length - 1] = node;
+            publish(snapshot);
+        }
+    }
+
+    /**
+     * Removes a node from the pool.
+     * 
+     * @param node
+     *            the node to remove
+     * @return <tt>true</tt> if the node was in the pool
+     */
+    public synchronized boolean remove(final INode node) {
+        boolean removed = false;
+
+        if ((node != null) && index.remove(node.getId(), node)) {
+            final INode[] snapshot = new INode[nodes.length - 1];
+            int i = 0;
+
+            for (final INode current : nodes) {
+                if (current != node) {
+                    snapshot[i++] = current;
+                }
+            }
+
+            publish(snapshot);
+            removed = true;
+
+            node.getHealth().removeListener(healthListener);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Removes a node from the pool.
+     * 
+     * @param node
+     *            the node to remove
+     * @see #remove(INode)
+     */
+    @Override
+    public void discard(final INode node) {
+        remove(node);
+    }
+
+    /**
+     * @return the current snapshot of the nodes in the pool, it must not be
+     *         modified
+     */
+    public INode[] getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the current snapshot of the nodes in the pool whose circuit is
+     *         not open, it must not be modified
+     */
+    public INode[] getAvailableNodes() {
+        return available;
+    }
+
+    /**
+     * Retrieves a node from the pool by its ID.
+     * 
+     * @param nodeId
+     *            the ID of the node, in the form of <tt>IP:PORT</tt>
+     * @return the node, or <code>null</code> if not in the pool
+     */
+    public INode getNode(final String nodeId) {
+        return index.get(nodeId);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.pool.IPool#getId()
+     */
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.pool.nodes.INodesPool#getConnection()
+     */
+    @Override
+    public IConnection getConnection() {
+        return getConnection(null);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.pool.nodes.INodesPool#getConnection(java.nio.ByteBuffer)
+     */
+    @Override
+    public IConnection getConnection(final ByteBuffer partitionKey) {
+        final INode node = get(partitionKey);
+        IConnection connection = null;
+
+        if (node != null) {
+            connection = node.getConnection();
+        }
+
+        return connection;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.pool.nodes.INodesPool#getConnectionAsync(long, java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public ResultFuture<IConnection> getConnectionAsync(final long timeout, final TimeUnit unit) {
+        return getConnectionAsync(null, timeout, unit);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.pool.nodes.INodesPool#getConnectionAsync(java.nio.ByteBuffer, long,
+     * java.util.concurrent.TimeUnit)
+     */
+    @Override
+    public ResultFuture<IConnection> getConnectionAsync(final ByteBuffer partitionKey, final long timeout,
+            final TimeUnit unit) {
+        final INode node = get(partitionKey);
+        ResultFuture<IConnection> future;
+
+        if (node == null) {
+            future = ResultFuture.failed(new ConnectionException("No nodes available"));
+        } else {
+            future = node.getConnectionAsync(timeout, unit);
+        }
+
+        return future;
+    }
+
+    /**
+     * Gives back a connection to the node it is bound to. If the node is not
+     * part of the pool anymore, the connection is closed.
+     * 
+     * @param connection
+     *            the connection to give back
+     */
+    @Override
+    public void giveConnection(final IConnection connection) {
+        if (connection != null) {
+            final INode node = index.get(connection.getAddress() + ":" + connection.getPort());
+
+            if (node == null) {
+                connection.close();
+            } else {
+                node.giveConnection(connection);
+            }
+        }
+    }
+
+    /**
+     * Gives back a connection whose request failed to the node it is bound to.
+     * If the node is not part of the pool anymore, the connection is closed.
+     * 
+     * @param connection
+     *            the connection to give back
+     * @param cause
+     *            the reason of the failure
+     */
+    @Override
+    public void failConnection(final IConnection connection, final Throwable cause) {
+        if (connection != null) {
+            final INode node = index.get(connection.getAddress() + ":" + connection.getPort());
+
+            if (node == null) {
+                connection.close();
+            } else {
+                node.failConnection(connection, cause);
+            }
+        }
+    }
+
+    /**
+     * Publishes a new snapshot of the nodes. Called with the lock held.
+     * <p>
+     * Implementations that keep data derived from the snapshot can override it
+     * to refresh their data.
+     * 
+     * @param snapshot
+     *            the new nodes of the pool
+     */
+    protected void publish(final INode[] snapshot) {
+        nodes = snapshot;
+        available = filterAvailable(snapshot);
+    }
+
+    /**
+     * Rebuilds the snapshot of the available nodes, after the circuit of a
+     * node opened or closed.
+     */
+    private synchronized void refresh() {
+        available = filterAvailable(nodes);
+    }
+
+    /**
+     * Filters out the nodes whose circuit is open. The health of each node is
+     * read only once, since it can change meanwhile.
+     * 
+     * @param snapshot
+     *            the nodes to filter
+     * @return the available nodes, the same array if all are available
+     */
+    private static INode[] filterAvailable(final INode[] snapshot) {
+        final INode[] filtered = new INode[snapshot.length];
+        int count = 0;
+
+        for (final INode node : snapshot) {
+            if (node.getHealth().isAvailable()) {
+                filtered[count++] = node;
+            }
+        }
+
+        return (count == snapshot.length) ? snapshot : Arrays.copyOf(filtered, count);
+    }
+}
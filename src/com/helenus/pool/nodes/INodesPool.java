@@ -15,6 +15,10 @@
 */
 package com.helenus.pool.nodes;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.concurrent.ResultFuture;
 import com.helenus.data.connection.IConnection;
 import com.helenus.data.node.INode;
 import com.helenus.pool.IPool;
@@ -35,6 +39,57 @@ public interface INodesPool extends IPool<INode> {
      */
     IConnection getConnection();
 
+    /**
+     * Gets a new {@link IConnection} from this node, without blocking the
+     * calling thread.
+     * 
+     * @param timeout
+     *            how long to wait for a connection
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future holding a connection to this node
+     * @see IPool#getAsync(long, TimeUnit)
+     */
+    ResultFuture<IConnection> getConnectionAsync(long timeout, TimeUnit unit);
+
+    /**
+     * Retrieves the node that should serve a request on a partition key.
+     * <p>
+     * Pools that are not aware of the data placement ignore the key.
+     * 
+     * @param partitionKey
+     *            the serialized partition key of the request, its position is
+     *            not modified
+     * @return a node, or <code>null</code> if the pool is empty
+     */
+    INode get(ByteBuffer partitionKey);
+
+    /**
+     * Gets a new {@link IConnection} to the node that should serve a request
+     * on a partition key.
+     * 
+     * @param partitionKey
+     *            the serialized partition key of the request
+     * @return a connection to the chosen node
+     * @see #get(ByteBuffer)
+     */
+    IConnection getConnection(ByteBuffer partitionKey);
+
+    /**
+     * Gets a new {@link IConnection} to the node that should serve a request
+     * on a partition key, without blocking the calling thread.
+     * 
+     * @param partitionKey
+     *            the serialized partition key of the request
+     * @param timeout
+     *            how long to wait for a connection
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future holding a connection to the chosen node
+     * @see #get(ByteBuffer)
+     */
+    ResultFuture<IConnection> getConnectionAsync(ByteBuffer partitionKey, long timeout, TimeUnit unit);
+
     /**
      * Returns back a used {@link IConnection}.
      * 
@@ -42,4 +97,15 @@ public interface INodesPool extends IPool<INode> {
      *            the connection to give back
      */
     void giveConnection(IConnection connection);
+
+    /**
+     * Returns back an {@link IConnection} whose request failed or timed out.
+     * 
+     * @param connection
+     *            the connection to give back
+     * @param cause
+     *            the reason of the failure
+     * @see INode#failConnection(IConnection, Throwable)
+     */
+    void failConnection(IConnection connection, Throwable cause);
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.pool.nodes;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.helenus.data.node.INode;
+import com.helenus.data.node.NodeStatistics;
+
+/**
+ * Nodes pool choosing the less loaded node, based on the observed latency.
+ * <p>
+ * Each node is scored through its {@link NodeStatistics}: the moving average
+ * of its latency, weighted by the requests in flight. For each selection two
+ * different nodes are sampled at random, and the one with the better score is
+ * chosen (<i>power of two choices</i>). This avoids both the cost of scanning
+ * all the nodes, and the herd behavior of always choosing the best one: a slow
+ * node quickly loses most of its traffic, but keeps receiving some, so that
+ * its recovery is noticed.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class LatencyAwareNodesPool extends AbstractNodesPool {
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.pool.nodes.AbstractNodesPool#select(com.helenus.data.node.INode[])
+     */
+    @Override
+    protected INode select(final INode[] snapshot) {
+        INode node = snapshot[0];
+
+        if (snapshot.length > 1) {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final int first = random.nextInt(snapshot.length);
+
+            // Pick a second node, different from the first one
+            int second = random.nextInt(snapshot.length - 1);
+            if (second >= first) {
+                second++;
+            }
+
+            node = better(snapshot[first], snapshot[second]);
+        }
+
+        return node;
+    }
+
+    /**
+     * Compares two nodes by their score.
+     * 
+     * @param first
+     *            the first node
+     * @param second
+     *            the second node
+     * @return the node with the lower score, the first one in case of ties
+     */
+    private static INode better(final INode first, final INode second) {
+        return (second.getStatistics().getScore() < first.getStatistics().getScore()) ? second : first;
+    }
+}
@@ -36,5 +36,19 @@ public enum NodesPoolType {
      * <p>
      * Nodes are provided in a round-robin way from the pool of nodes.
      */
-    ROUNDROBIN;
+    ROUNDROBIN,
+    /**
+     * Nodes pool backed by the observed latency of the nodes.
+     * <p>
+     * Between two nodes chosen at random, the one with the lower latency and
+     * less requests in flight is provided.
+     */
+    LATENCY_AWARE,
+    /**
+     * Nodes pool backed by the token ring of the cluster.
+     * <p>
+     * The less loaded replica of the partition key of the request is
+     * provided. Requests without a key are served in a round-robin way.
+     */
+    TOKEN_AWARE;
 }
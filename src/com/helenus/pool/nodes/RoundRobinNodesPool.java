@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.pool.nodes;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.helenus.data.node.INode;
+
+/**
+ * Nodes pool providing the nodes in a round-robin way.
+ * <p>
+ * The selection uses a single atomic counter over the snapshot of the nodes:
+ * no lock is taken, and nothing is allocated for each call.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class RoundRobinNodesPool extends AbstractNodesPool {
+    /**
+     * The position of the next node to provide.
+     */
+    private final AtomicInteger position = new AtomicInteger();
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.pool.nodes.AbstractNodesPool#select(com.helenus.data.node.INode[])
+     */
+    @Override
+    protected INode select(final INode[] snapshot) {
+        // Mask the sign bit, the counter is allowed to overflow
+        return snapshot[(position.getAndIncrement() & Integer.MAX_VALUE) % snapshot.length];
+    }
+}
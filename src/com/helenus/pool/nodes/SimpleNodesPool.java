@@ -15,58 +15,23 @@
 */
 package com.helenus.pool.nodes;
 
-import java.util.concurrent.atomic.AtomicLong;
-
-import com.helenus.data.connection.IConnection;
 import com.helenus.data.node.INode;
 
 /**
+ * Simple nodes pool, providing the nodes in a LIFO way: the last node added to
+ * the pool is the one provided.
+ * 
  * @author Milo Casagrande
  * @since 0.1
  */
-public class SimpleNodesPool implements INodesPool {
-    /**
-     * Private counter for an internal ID.
-     */
-    private static final AtomicLong COUNTER = new AtomicLong(Long.MIN_VALUE);
-
-    @Override
-    public INode get() {
-        // TODO Auto-generated method stub
-        return null;
-    }
-
-    @Override
-    public void give(final INode object) {
-        // TODO Auto-generated method stub
-    }
+public class SimpleNodesPool extends AbstractNodesPool {
 
     /*
      * (non-Javadoc)
-     * @see com.helenus.pool.IPool#getId()
+     * @see com.helenus.pool.nodes.AbstractNodesPool#select(com.helenus.data.node.INode[])
      */
     @Override
-    public long getId() {
-        return COUNTER.incrementAndGet();
-    }
-
-    /*
-     * (non-Javadoc)
-     * @see com.helenus.pool.nodes.INodesPool#getConnection()
-     */
-    @Override
-    public IConnection getConnection() {
-        // TODO Auto-generated method stub
-        return null;
-    }
-
-    /*
-     * (non-Javadoc)
-     * @see com.helenus.pool.nodes.INodesPool#giveConnection(com.helenus.data.connection.IConnection)
-     */
-    @Override
-    public void giveConnection(final IConnection connection) {
-        // TODO Auto-generated method stub
-
+    protected INode select(final INode[] snapshot) {
+        return snapshot[snapshot.length - 1];
     }
 }
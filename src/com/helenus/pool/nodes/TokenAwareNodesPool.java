@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.pool.nodes;
+
+import java.nio.ByteBuffer;
+
+import com.helenus.data.node.INode;
+import com.helenus.ring.TokenRing;
+
+/**
+ * Nodes pool sending each request directly to a replica of its partition key.
+ * <p>
+ * The replicas of a key are found on a client side {@link TokenRing}. Among
+ * the replicas still in the pool, the one with the better score, as computed
+ * by its {@link com.helenus.data.node.NodeStatistics}, is chosen: the request
+ * avoids the extra hop through a coordinator that does not own the data, and
+ * the load is still spread between the replicas.
+ * <p>
+ * Requests without a partition key, issued before a ring has been set, or
+ * whose replicas all have their circuit open, are served in a round-robin way.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class TokenAwareNodesPool extends RoundRobinNodesPool {
+    /**
+     * The current token ring, <code>null</code> if not known yet.
+     */
+    private volatile TokenRing ring;
+
+    /**
+     * Sets the token ring of the cluster. The ring replaces the previous one
+     * atomically, and can be set again when the topology changes.
+     * 
+     * @param ring
+     *            the token ring
+     */
+    public void setRing(final TokenRing ring) {
+        this.ring = ring;
+    }
+
+    /**
+     * @return the current token ring, or <code>null</code> if not set
+     */
+    public TokenRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Retrieves the less loaded replica of a partition key, falling back to a
+     * round-robin choice if no replica is in the pool and available.
+     * 
+     * @param partitionKey
+     *            the serialized partition key, it can be <code>null</code>
+     * @return a node, or <code>null</code> if the pool is empty
+     */
+    @Override
+    public INode get(final ByteBuffer partitionKey) {
+        final TokenRing current = ring;
+        INode node = null;
+
+        if ((current != null) && (partitionKey != null)) {
+            double best = Double.MAX_VALUE;
+
+            for (final INode replica : current.getReplicas(partitionKey)) {
+                // The ring can be older than the pool: skip the removed nodes
+                if ((getNode(replica.getId()) == replica) && replica.getHealth().isAvailable()) {
+                    final double score = replica.getStatistics().getScore();
+
+                    if (score < best) {
+                        best = score;
+                        node = replica;
+                    }
+                }
+            }
+        }
+
+        if (node == null) {
+            node = get();
+        }
+
+        return node;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.protocol;
+
+/**
+ * The types of the batches, as defined by version 3 of the CQL native
+ * protocol.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public enum BatchType {
+    /**
+     * The batch is written to the batch log first: it is applied entirely or
+     * not at all, at the price of an extra write.
+     */
+    LOGGED(0),
+
+    /**
+     * The statements are applied independently.
+     */
+    UNLOGGED(1),
+
+    /**
+     * The statements only update counters.
+     */
+    COUNTER(2);
+
+    private final int code;
+
+    private BatchType(final int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the code of the type on the wire
+     */
+    public int getCode() {
+        return code;
+    }
+}
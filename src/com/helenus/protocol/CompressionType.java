@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.protocol;
+
+/**
+ * Enumeration used to define the compression algorithms of the frames
+ * available on the client side.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public enum CompressionType {
+    /**
+     * LZ4, with the pure Java {@link Lz4Compressor}.
+     */
+    LZ4(Lz4Compressor.NAME) {
+        @Override
+        public ICompressor create() {
+            return new Lz4Compressor();
+        }
+    };
+
+    /**
+     * The name of the algorithm in the protocol.
+     */
+    private final String protocolName;
+
+    private CompressionType(final String protocolName) {
+        this.protocolName = protocolName;
+    }
+
+    /**
+     * @return a new instance of the compressor
+     */
+    public abstract ICompressor create();
+
+    /**
+     * @return the name of the algorithm in the protocol
+     */
+    public String getProtocolName() {
+        return protocolName;
+    }
+
+    /**
+     * Looks up a compression algorithm by its name.
+     * 
+     * @param name
+     *            the name of the algorithm
+     * @return the compression type, or <code>null</code> if not supported,
+     *         as for <tt>none</tt>
+     */
+    public static CompressionType fromName(final String name) {
+        CompressionType found = null;
+
+        if (name != null) {
+            for (final CompressionType type : values()) {
+                if (type.protocolName.equalsIgnoreCase(name.trim())) {
+                    found = type;
+                    break;
+                }
+            }
+        }
+
+        return found;
+    }
+}
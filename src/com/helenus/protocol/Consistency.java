@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.protocol;
+
+/**
+ * The consistency levels of the requests, as defined by version 3 of the CQL
+ * native protocol.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public enum Consistency {
+    ANY(0x0000),
+    ONE(0x0001),
+    TWO(0x0002),
+    THREE(0x0003),
+    QUORUM(0x0004),
+    ALL(0x0005),
+    LOCAL_QUORUM(0x0006),
+    EACH_QUORUM(0x0007),
+    SERIAL(0x0008),
+    LOCAL_SERIAL(0x0009),
+    LOCAL_ONE(0x000A);
+
+    private final int code;
+
+    private Consistency(final int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the code of the consistency level on the wire
+     */
+    public int getCode() {
+        return code;
+    }
+}
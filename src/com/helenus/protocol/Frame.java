@@ -0,0 +1,198 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.protocol;
+
+import java.nio.ByteBuffer;
+
+import com.helenus.buffer.PooledBuffer;
+
+/**
+ * A request or response frame, in the format of version 3 of the CQL native
+ * protocol: a 9 bytes header, with the version, the flags, the stream ID, the
+ * opcode and the length of the body, followed by the body.
+ * <p>
+ * The stream ID of a request is not part of the frame: it is assigned by the
+ * connection when the frame is sent, and used to match the response.
+ * <p>
+ * The body of a response can be held in a pooled buffer: the frame must then
+ * be released with {@link #release()} once its body has been read.
+ * <p>
+ * The body of a frame with the {@link #COMPRESSED} flag is compressed with
+ * the algorithm negotiated by the connection; frames are always handed out
+ * decompressed.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class Frame {
+    /**
+     * The length of the header.
+     */
+    public static final int HEADER_LENGTH = 9;
+
+    /**
+     * The version of the protocol.
+     */
+    public static final int VERSION = 0x03;
+
+    /**
+     * The bit of the version set in the responses.
+     */
+    public static final int RESPONSE = 0x80;
+
+    /**
+     * The flag set when the body is compressed.
+     */
+    public static final int COMPRESSED = 0x01;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final int version;
+    private final int flags;
+    private final int stream;
+    private final Opcode opcode;
+    private final ByteBuffer body;
+
+    /**
+     * The pooled buffer holding the body, <code>null</code> if not pooled.
+     */
+    private final PooledBuffer pooled;
+
+    /**
+     * Create a new request frame, without flags.
+     * 
+     * @param opcode
+     *            the operation
+     * @param body
+     *            the body, from its position to its limit, it can be
+     *            <code>null</code>
+     */
+    public Frame(final Opcode opcode, final ByteBuffer body) {
+        this(VERSION, 0, 0, opcode, body);
+    }
+
+    /**
+     * Create a new frame.
+     * 
+     * @param version
+     *            the version, with the {@link #RESPONSE} bit set for responses
+     * @param flags
+     *            the flags
+     * @param stream
+     *            the stream ID
+     * @param opcode
+     *            the operation
+     * @param body
+     *            the body, from its position to its limit, it can be
+     *            <code>null</code>
+     */
+    public Frame(final int version, final int flags, final int stream, final Opcode opcode, final ByteBuffer body) {
+        this.version = version;
+        this.flags = flags;
+        this.stream = stream;
+        this.opcode = opcode;
+        this.body = (body == null) ? EMPTY : body;
+
+        pooled = null;
+    }
+
+    /**
+     * Create a new frame, whose body is held in a pooled buffer.
+     * 
+     * @param version
+     *            the version, with the {@link #RESPONSE} bit set for responses
+     * @param flags
+     *            the flags
+     * @param stream
+     *            the stream ID
+     * @param opcode
+     *            the operation
+     * @param pooled
+     *            the buffer holding the body, from its position to its limit,
+     *            given back by {@link #release()}
+     */
+    public Frame(final int version, final int flags, final int stream, final Opcode opcode, final PooledBuffer pooled) {
+        this.version = version;
+        this.flags = flags;
+        this.stream = stream;
+        this.opcode = opcode;
+        this.pooled = pooled;
+
+        body = pooled.buffer();
+    }
+
+    /**
+     * @return the version, with the {@link #RESPONSE} bit set for responses
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the flags
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * @return the stream ID
+     */
+    public int getStream() {
+        return stream;
+    }
+
+    /**
+     * @return the operation
+     */
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * @return the body, it must not be modified
+     */
+    public ByteBuffer getBody() {
+        return body;
+    }
+
+    /**
+     * Gives back the pooled buffer holding the body, if any. The body must not
+     * be used anymore.
+     */
+    public void release() {
+        if (pooled != null) {
+            pooled.release();
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if the frame is a response
+     */
+    public boolean isResponse() {
+        return (version & RESPONSE) != 0;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "Frame [version=" + (version & ~RESPONSE) + ", response=" + isResponse() + ", stream=" + stream
+                + ", opcode=" + opcode + ", length=" + body.remaining() + "]";
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.buffer.PooledBuffer;
+
+/**
+ * Encodes and decodes {@link Frame}s to and from their representation on the
+ * wire, and the basic types of their bodies.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public final class FrameCodec {
+    /**
+     * The maximum length of the body of a frame, 256 MB as in Cassandra.
+     */
+    public static final int MAX_BODY_LENGTH = 256 * 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Private constructor for utility class
+    private FrameCodec() {
+    }
+
+    /**
+     * Encodes a frame.
+     * 
+     * @param frame
+     *            the frame to encode
+     * @param stream
+     *            the stream ID to use, instead of the one of the frame
+     * @return a buffer with the frame, ready to be written
+     */
+    public static ByteBuffer encode(final Frame frame, final int stream) {
+        final ByteBuffer body = frame.getBody();
+        final ByteBuffer buffer = ByteBuffer.allocate(Frame.HEADER_LENGTH + body.remaining());
+
+        writeHeader(buffer, frame, stream, body.remaining());
+        buffer.put(body.duplicate());
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Encodes a frame in a pooled direct buffer.
+     * 
+     * @param frame
+     *            the frame to encode
+     * @param stream
+     *            the stream ID to use, instead of the one of the frame
+     * @param pool
+     *            the pool to borrow the buffer from
+     * @return a buffer with the frame, ready to be written, to be released
+     *         once written
+     */
+    public static PooledBuffer encode(final Frame frame, final int stream, final BufferPool pool) {
+        return encode(frame, stream, pool, null);
+    }
+
+    /**
+     * Encodes a frame in a pooled direct buffer, compressing its body. The
+     * body is sent uncompressed if compressing does not make it smaller.
+     * 
+     * @param frame
+     *            the frame to encode
+     * @param stream
+     *            the stream ID to use, instead of the one of the frame
+     * @param pool
+     *            the pool to borrow the buffer from
+     * @param compressor
+     *            the compressor of the body, <code>null</code> not to
+     *            compress it
+     * @return a buffer with the frame, ready to be written, to be released
+     *         once written
+     */
+    public static PooledBuffer encode(final Frame frame, final int stream, final BufferPool pool,
+            final ICompressor compressor) {
+        final ByteBuffer body = frame.getBody();
+        final int length = body.remaining();
+        final PooledBuffer pooled;
+
+        if (compressor == null) {
+            pooled = pool.allocate(Frame.HEADER_LENGTH + length);
+        } else {
+            pooled = pool.allocate(Frame.HEADER_LENGTH + Math.max(length, compressor.maxCompressedLength(length)));
+        }
+
+        final ByteBuffer buffer = pooled.buffer();
+        buffer.position(Frame.HEADER_LENGTH);
+
+        if (compressor != null) {
+            compressor.compress(body, buffer);
+        }
+
+        final int compressed = buffer.position() - Frame.HEADER_LENGTH;
+
+        if ((compressor != null) && (compressed < length)) {
+            buffer.flip();
+            writeHeader(buffer, frame, stream, compressed);
+            buffer.put(1, (byte) (frame.getFlags() | Frame.COMPRESSED));
+            buffer.position(0);
+        } else {
+            buffer.position(Frame.HEADER_LENGTH);
+            buffer.put(body.duplicate());
+            buffer.flip();
+            writeHeader(buffer, frame, stream, length);
+            buffer.position(0);
+        }
+
+        return pooled;
+    }
+
+    /**
+     * Writes the header of a frame.
+     * 
+     * @param buffer
+     *            the buffer to write to, with at least
+     *            {@link Frame#HEADER_LENGTH} bytes remaining
+     * @param frame
+     *            the frame
+     * @param stream
+     *            the stream ID to use, instead of the one of the frame
+     * @param length
+     *            the length of the body
+     */
+    public static void writeHeader(final ByteBuffer buffer, final Frame frame, final int stream, final int length) {
+        buffer.put((byte) frame.getVersion());
+        buffer.put((byte) frame.getFlags());
+        buffer.putShort((short) stream);
+        buffer.put((byte) frame.getOpcode().getCode());
+        buffer.putInt(length);
+    }
+
+    /**
+     * Decodes a frame, if the buffer holds a whole one. The position of the
+     * buffer is advanced past the frame only if the frame has been decoded.
+     * 
+     * @param buffer
+     *            the buffer to read from
+     * @return the frame, or <code>null</code> if the buffer does not hold a
+     *         whole frame yet
+     * @throws ProtocolException
+     *             if the frame is not valid
+     */
+    public static Frame decode(final ByteBuffer buffer) throws ProtocolException {
+        return decode(buffer, null);
+    }
+
+    /**
+     * Decodes a frame, if the buffer holds a whole one, copying its body in a
+     * pooled buffer. The position of the buffer is advanced past the frame
+     * only if the frame has been decoded.
+     * 
+     * @param buffer
+     *            the buffer to read from
+     * @param pool
+     *            the pool to borrow the buffer of the body from,
+     *            <code>null</code> to copy the body in a new heap buffer
+     * @return the frame, to be released once read, or <code>null</code> if
+     *         the buffer does not hold a whole frame yet
+     * @throws ProtocolException
+     *             if the frame is not valid
+     */
+    public static Frame decode(final ByteBuffer buffer, final BufferPool pool) throws ProtocolException {
+        Frame frame = null;
+
+        if (buffer.remaining() >= Frame.HEADER_LENGTH) {
+            final int start = buffer.position();
+            final int length = buffer.getInt(start + 5);
+
+            if ((length < 0) || (length > MAX_BODY_LENGTH)) {
+                throw new ProtocolException("Invalid frame length: " + length);
+            }
+
+            if (buffer.remaining() >= (Frame.HEADER_LENGTH + length)) {
+                final int version = buffer.get() & 0xFF;
+                final int flags = buffer.get() & 0xFF;
+                final int stream = buffer.getShort();
+                final int code = buffer.get() & 0xFF;
+                final Opcode opcode = Opcode.fromCode(code);
+
+                if (opcode == null) {
+                    throw new ProtocolException("Unknown opcode: " + code);
+                }
+
+                // The buffer is reused for the next reads, the body is copied
+                final ByteBuffer source = buffer.duplicate();
+                source.limit(start + Frame.HEADER_LENGTH + length);
+                source.position(start + Frame.HEADER_LENGTH);
+                buffer.position(source.limit());
+
+                if (pool == null) {
+                    final ByteBuffer body = ByteBuffer.allocate(length);
+                    body.put(source);
+                    body.flip();
+
+                    frame = new Frame(version, flags, stream, opcode, body);
+                } else {
+                    final PooledBuffer body = pool.allocate(length);
+                    body.buffer().put(source);
+                    body.buffer().flip();
+
+                    frame = new Frame(version, flags, stream, opcode, body);
+                }
+            }
+        }
+
+        return frame;
+    }
+
+    /**
+     * Decompresses the body of a frame with the {@link Frame#COMPRESSED}
+     * flag, in a pooled buffer. The compressed frame is released.
+     * 
+     * @param frame
+     *            the frame
+     * @param compressor
+     *            the compressor negotiated by the connection,
+     *            <code>null</code> if none
+     * @param pool
+     *            the pool to borrow the buffer of the body from
+     * @return the frame, decompressed, to be released once read
+     * @throws ProtocolException
+     *             if the body is not valid, or no compression has been
+     *             negotiated
+     */
+    public static Frame decompress(final Frame frame, final ICompressor compressor, final BufferPool pool)
+            throws ProtocolException {
+        if ((frame.getFlags() & Frame.COMPRESSED) == 0) {
+            return frame;
+        }
+
+        PooledBuffer body = null;
+
+        try {
+            if (compressor == null) {
+                throw new ProtocolException("Compressed frame without a negotiated compression");
+            }
+
+            body = pool.allocate(compressor.decompressedLength(frame.getBody()));
+            compressor.decompress(frame.getBody(), body.buffer());
+            body.buffer().flip();
+
+            final Frame decompressed = new Frame(frame.getVersion(), frame.getFlags() & ~Frame.COMPRESSED,
+                    frame.getStream(), frame.getOpcode(), body);
+            body = null;
+
+            return decompressed;
+        } finally {
+            if (body != null) {
+                body.release();
+            }
+
+            frame.release();
+        }
+    }
+
+    /**
+     * Reads a <tt>[string]</tt>: a short length followed by the UTF-8 bytes.
+     * 
+     * @param buffer
+     *            the buffer to read from
+     * @return the string
+     */
+    public static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getShort() & 0xFFFF;
+        final ByteBuffer bytes = buffer.duplicate();
+        bytes.limit(bytes.position() + length);
+        buffer.position(bytes.limit());
+
+        return UTF8.decode(bytes).toString();
+    }
+
+    /**
+     * Writes a <tt>[string]</tt>: a short length followed by the UTF-8 bytes.
+     * 
+     * @param buffer
+     *            the buffer to write to
+     * @param string
+     *            the string
+     */
+    public static void writeString(final ByteBuffer buffer, final String string) {
+        final byte[] bytes = string.getBytes(UTF8);
+
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Encodes a <tt>[string map]</tt>, as the options of a <tt>STARTUP</tt>
+     * message.
+     * 
+     * @param map
+     *            the map to encode
+     * @return a buffer with the map, ready to be read
+     */
+    public static ByteBuffer encodeStringMap(final Map<String, String> map) {
+        int length = 2;
+
+        for (final Map.Entry<String, String> entry : map.entrySet()) {
+            length += 4 + entry.getKey().getBytes(UTF8).length + entry.getValue().getBytes(UTF8).length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putShort((short) map.size());
+
+        for (final Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(buffer, entry.getKey());
+            writeString(buffer, entry.getValue());
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Reads a <tt>[string multimap]</tt>, as the options of a
+     * <tt>SUPPORTED</tt> message.
+     * 
+     * @param buffer
+     *            the buffer to read from
+     * @return the map
+     */
+    public static Map<String, List<String>> readStringMultimap(final ByteBuffer buffer) {
+        final int size = buffer.getShort() & 0xFFFF;
+        final Map<String, List<String>> map = new HashMap<String, List<String>>(size * 2);
+
+        for (int i = 0; i < size; i++) {
+            final String key = readString(buffer);
+            final int count = buffer.getShort() & 0xFFFF;
+            final List<String> values = new ArrayList<String>(count);
+
+            for (int j = 0; j < count; j++) {
+                values.add(readString(buffer));
+            }
+
+            map.put(key, values);
+        }
+
+        return map;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses and decompresses the bodies of the frames, in the format
+ * expected by the CQL native protocol for the algorithm.
+ * <p>
+ * Implementations must be thread safe: a single instance is shared by all
+ * the connections.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface ICompressor {
+    /**
+     * @return the name of the algorithm, as sent in the <tt>STARTUP</tt>
+     *         message
+     */
+    String getName();
+
+    /**
+     * Gets the largest size that the compression of some data can take.
+     * 
+     * @param length
+     *            the length of the data to compress
+     * @return the largest length of the compressed data
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses data.
+     * 
+     * @param source
+     *            the data to compress, from its position to its limit, left
+     *            untouched
+     * @param target
+     *            the buffer to write to, from its position, with at least
+     *            {@link #maxCompressedLength(int)} bytes remaining; its
+     *            position is advanced past the compressed data
+     */
+    void compress(ByteBuffer source, ByteBuffer target);
+
+    /**
+     * Gets the length that some compressed data has once decompressed.
+     * 
+     * @param source
+     *            the compressed data, from its position to its limit, left
+     *            untouched
+     * @return the length of the decompressed data
+     * @throws ProtocolException
+     *             if the data is not valid
+     */
+    int decompressedLength(ByteBuffer source) throws ProtocolException;
+
+    /**
+     * Decompresses data.
+     * 
+     * @param source
+     *            the compressed data, from its position to its limit, left
+     *            untouched
+     * @param target
+     *            the buffer to write to, from its position, with at least
+     *            {@link #decompressedLength(ByteBuffer)} bytes remaining; its
+     *            position is advanced past the decompressed data
+     * @throws ProtocolException
+     *             if the data is not valid
+     */
+    void decompress(ByteBuffer source, ByteBuffer target) throws ProtocolException;
+}
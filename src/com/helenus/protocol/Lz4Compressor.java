@@ -0,0 +1,351 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java LZ4 compressor, writing the format of the CQL native protocol:
+ * the length of the decompressed data, as a 4 bytes integer, followed by an
+ * LZ4 block.
+ * <p>
+ * The compression is the greedy, single pass, one of the LZ4 fast mode: each
+ * 4 bytes sequence is looked up in a table of the last positions of its hash,
+ * and the scan accelerates over data that does not match. It trades some
+ * ratio for speed, and its output is read by any LZ4 decompressor.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class Lz4Compressor implements ICompressor {
+    /**
+     * The name of the algorithm in the protocol.
+     */
+    public static final String NAME = "lz4";
+
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * The last bytes of a block are always literals.
+     */
+    private static final int LAST_LITERALS = 5;
+
+    /**
+     * A match cannot start in the last bytes of a block.
+     */
+    private static final int MF_LIMIT = 12;
+
+    private static final int MAX_DISTANCE = 65535;
+
+    /**
+     * The lengths above this value are continued in the following bytes.
+     */
+    private static final int MASK = 15;
+
+    private static final int HASH_LOG = 12;
+
+    /**
+     * How fast the scan accelerates over data that does not match.
+     */
+    private static final int SKIP_STRENGTH = 6;
+
+    /**
+     * The shortest run of bytes copied in bulk instead of byte by byte.
+     */
+    private static final int BULK_COPY = 32;
+
+    /**
+     * The table of the positions of the hashes, one per thread. Its entries
+     * are not cleared between blocks: a stale position is discarded if it is
+     * out of the block, or verified by comparing the bytes like any other.
+     */
+    private static final ThreadLocal<int[]> TABLES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.protocol.ICompressor#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.protocol.ICompressor#maxCompressedLength(int)
+     */
+    @Override
+    public int maxCompressedLength(final int length) {
+        return 4 + length + (length / 255) + 16;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.protocol.ICompressor#compress(java.nio.ByteBuffer, java.nio.ByteBuffer)
+     */
+    @Override
+    public void compress(final ByteBuffer source, final ByteBuffer target) {
+        final int start = source.position();
+        final int end = source.limit();
+        int op = target.position();
+        int anchor = start;
+
+        target.putInt(op, end - start);
+        op += 4;
+
+        if ((end - start) > MF_LIMIT) {
+            final int[] table = TABLES.get();
+            final int mfLimit = end - MF_LIMIT;
+            final int matchLimit = end - LAST_LITERALS;
+            int ip = start;
+
+            while (ip < mfLimit) {
+                final int sequence = source.getInt(ip);
+                final int hash = hash(sequence);
+                int ref = table[hash];
+                table[hash] = ip;
+
+                if ((ref >= start) && (ref < ip) && ((ip - ref) <= MAX_DISTANCE) && (source.getInt(ref) == sequence)) {
+                    int match = ip;
+
+                    while ((match > anchor) && (ref > start) && (source.get(match - 1) == source.get(ref - 1))) {
+                        match--;
+                        ref--;
+                    }
+
+                    int matchEnd = ip + MIN_MATCH;
+                    int refEnd = (ref + matchEnd) - match;
+
+                    while ((matchEnd < matchLimit) && (source.get(matchEnd) == source.get(refEnd))) {
+                        matchEnd++;
+                        refEnd++;
+                    }
+
+                    op = writeSequence(source, anchor, match, target, op, match - ref, matchEnd - match - MIN_MATCH);
+                    ip = matchEnd;
+                    anchor = ip;
+
+                    if (ip < mfLimit) {
+                        table[hash(source.getInt(ip - 2))] = ip - 2;
+                    }
+                } else {
+                    ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+                }
+            }
+        }
+
+        op = writeSequence(source, anchor, end, target, op, 0, 0);
+        target.position(op);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.protocol.ICompressor#decompressedLength(java.nio.ByteBuffer)
+     */
+    @Override
+    public int decompressedLength(final ByteBuffer source) throws ProtocolException {
+        if (source.remaining() < 4) {
+            throw new ProtocolException("Truncated LZ4 data");
+        }
+
+        final int length = source.getInt(source.position());
+
+        if ((length < 0) || (length > FrameCodec.MAX_BODY_LENGTH)) {
+            throw new ProtocolException("Invalid LZ4 decompressed length: " + length);
+        }
+
+        return length;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.protocol.ICompressor#decompress(java.nio.ByteBuffer, java.nio.ByteBuffer)
+     */
+    @Override
+    public void decompress(final ByteBuffer source, final ByteBuffer target) throws ProtocolException {
+        final int length = decompressedLength(source);
+        final int end = source.limit();
+        final int start = target.position();
+        final int outEnd = start + length;
+        int ip = source.position() + 4;
+        int op = start;
+
+        try {
+            while (true) {
+                final int token = source.get(ip++) & 0xFF;
+                int literals = token >>> 4;
+
+                if (literals == MASK) {
+                    int next;
+
+                    do {
+                        next = source.get(ip++) & 0xFF;
+                        literals += next;
+                    } while (next == 255);
+                }
+
+                if (((ip + literals) > end) || ((op + literals) > outEnd)) {
+                    throw new ProtocolException("Malformed LZ4 data: literals out of bounds");
+                }
+
+                copy(source, ip, target, op, literals);
+                ip += literals;
+                op += literals;
+
+                if (ip == end) {
+                    break;
+                }
+
+                final int offset = (source.get(ip) & 0xFF) | ((source.get(ip + 1) & 0xFF) << 8);
+                ip += 2;
+
+                int matchLength = token & MASK;
+
+                if (matchLength == MASK) {
+                    int next;
+
+                    do {
+                        next = source.get(ip++) & 0xFF;
+                        matchLength += next;
+                    } while (next == 255);
+                }
+
+                matchLength += MIN_MATCH;
+
+                int ref = op - offset;
+
+                if ((offset == 0) || (ref < start) || ((op + matchLength) > outEnd)) {
+                    throw new ProtocolException("Malformed LZ4 data: match out of bounds");
+                }
+
+                if (offset >= matchLength) {
+                    copy(target, ref, target, op, matchLength);
+                    op += matchLength;
+                } else {
+                    // Byte by byte, the match overlaps the data it copies
+                    for (int i = 0; i < matchLength; i++) {
+                        target.put(op++, target.get(ref++));
+                    }
+                }
+            }
+        } catch (final IndexOutOfBoundsException ex) {
+            throw new ProtocolException("Truncated LZ4 data");
+        }
+
+        if (op != outEnd) {
+            throw new ProtocolException("Malformed LZ4 data: " + (op - start) + " bytes instead of " + length);
+        }
+
+        target.position(op);
+    }
+
+    /**
+     * Writes a sequence: a token, the literals, and the match, if any.
+     * 
+     * @param source
+     *            the data being compressed
+     * @param literalStart
+     *            the offset of the first literal
+     * @param literalEnd
+     *            the offset after the last literal
+     * @param target
+     *            the buffer to write to
+     * @param offset
+     *            where to write the sequence in the target
+     * @param distance
+     *            the distance of the match, <tt>0</tt> for the last
+     *            literals
+     * @param matchLength
+     *            the length of the match, minus the minimum match length
+     * @return the offset in the target after the sequence
+     */
+    private static int writeSequence(final ByteBuffer source, final int literalStart, final int literalEnd,
+            final ByteBuffer target, final int offset, final int distance, final int matchLength) {
+        final int literals = literalEnd - literalStart;
+        int op = offset + 1;
+        int token = Math.min(literals, MASK) << 4;
+
+        if (literals >= MASK) {
+            op = writeLength(target, op, literals - MASK);
+        }
+
+        copy(source, literalStart, target, op, literals);
+        op += literals;
+
+        if (distance > 0) {
+            target.put(op++, (byte) distance);
+            target.put(op++, (byte) (distance >>> 8));
+            token |= Math.min(matchLength, MASK);
+
+            if (matchLength >= MASK) {
+                op = writeLength(target, op, matchLength - MASK);
+            }
+        }
+
+        target.put(offset, (byte) token);
+
+        return op;
+    }
+
+    /**
+     * Copies bytes between two buffers, or two regions not overlapping of the
+     * same buffer, with absolute offsets. Long runs are copied in bulk.
+     */
+    private static void copy(final ByteBuffer source, final int sourceOffset, final ByteBuffer target,
+            final int targetOffset, final int length) {
+        if (length < BULK_COPY) {
+            for (int i = 0; i < length; i++) {
+                target.put(targetOffset + i, source.get(sourceOffset + i));
+            }
+        } else {
+            final ByteBuffer from = source.duplicate();
+            from.limit(sourceOffset + length);
+            from.position(sourceOffset);
+
+            final ByteBuffer to = target.duplicate();
+            to.limit(targetOffset + length);
+            to.position(targetOffset);
+            to.put(from);
+        }
+    }
+
+    /**
+     * Writes the rest of a length that does not fit in the token.
+     */
+    private static int writeLength(final ByteBuffer target, final int offset, final int length) {
+        int op = offset;
+        int rest = length;
+
+        while (rest >= 255) {
+            target.put(op++, (byte) 255);
+            rest -= 255;
+        }
+
+        target.put(op++, (byte) rest);
+
+        return op;
+    }
+
+    private static int hash(final int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
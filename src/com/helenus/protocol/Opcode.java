@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.protocol;
+
+/**
+ * The operations of the frames, as defined by version 3 of the CQL native
+ * protocol.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public enum Opcode {
+    ERROR(0x00),
+    STARTUP(0x01),
+    READY(0x02),
+    AUTHENTICATE(0x03),
+    OPTIONS(0x05),
+    SUPPORTED(0x06),
+    QUERY(0x07),
+    RESULT(0x08),
+    PREPARE(0x09),
+    EXECUTE(0x0A),
+    REGISTER(0x0B),
+    EVENT(0x0C),
+    BATCH(0x0D),
+    AUTH_CHALLENGE(0x0E),
+    AUTH_RESPONSE(0x0F),
+    AUTH_SUCCESS(0x10);
+
+    /**
+     * The opcodes indexed by their code.
+     */
+    private static final Opcode[] BY_CODE = new Opcode[0x11];
+
+    static {
+        for (final Opcode opcode : values()) {
+            BY_CODE[opcode.code] = opcode;
+        }
+    }
+
+    private final int code;
+
+    private Opcode(final int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the code of the operation on the wire
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Get the opcode with the given code.
+     * 
+     * @param code
+     *            the code of the operation on the wire
+     * @return the opcode, or <code>null</code> if the code is not known
+     */
+    public static Opcode fromCode(final int code) {
+        Opcode opcode = null;
+
+        if ((code >= 0) && (code < BY_CODE.length)) {
+            opcode = BY_CODE[code];
+        }
+
+        return opcode;
+    }
+}
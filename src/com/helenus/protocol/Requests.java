@@ -0,0 +1,269 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds the request frames used to run queries.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public final class Requests {
+    /**
+     * The flag of the query parameters set when values are bound.
+     */
+    private static final int VALUES = 0x01;
+
+    /**
+     * The flag of the query parameters set when the metadata of the result is
+     * not needed.
+     */
+    private static final int SKIP_METADATA = 0x02;
+
+    /**
+     * The flag of the query parameters set when the result is paged.
+     */
+    private static final int PAGE_SIZE = 0x04;
+
+    /**
+     * The flag of the query parameters set when a page after the first one is
+     * requested.
+     */
+    private static final int PAGING_STATE = 0x08;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Private constructor for utility class
+    private Requests() {
+    }
+
+    /**
+     * Builds a <tt>QUERY</tt> request, without bound values.
+     * 
+     * @param query
+     *            the CQL query
+     * @param consistency
+     *            the consistency level
+     * @return the request
+     */
+    public static Frame query(final String query, final Consistency consistency) {
+        final byte[] bytes = query.getBytes(UTF8);
+        final ByteBuffer body = ByteBuffer.allocate(4 + bytes.length + 3);
+
+        body.putInt(bytes.length);
+        body.put(bytes);
+        body.putShort((short) consistency.getCode());
+        body.put((byte) 0);
+        body.flip();
+
+        return new Frame(Opcode.QUERY, body);
+    }
+
+    /**
+     * Builds a <tt>PREPARE</tt> request.
+     * 
+     * @param query
+     *            the CQL query to prepare
+     * @return the request
+     */
+    public static Frame prepare(final String query) {
+        final byte[] bytes = query.getBytes(UTF8);
+        final ByteBuffer body = ByteBuffer.allocate(4 + bytes.length);
+
+        body.putInt(bytes.length);
+        body.put(bytes);
+        body.flip();
+
+        return new Frame(Opcode.PREPARE, body);
+    }
+
+    /**
+     * Builds an <tt>EXECUTE</tt> request of a prepared statement.
+     * 
+     * @param id
+     *            the ID of the prepared statement
+     * @param values
+     *            the serialized values to bind, a <code>null</code> element
+     *            is a null value, the list can be <code>null</code>
+     * @param consistency
+     *            the consistency level
+     * @param skipMetadata
+     *            if the node should not send the metadata of the result,
+     *            because it is already known
+     * @return the request
+     */
+    public static Frame execute(final ByteBuffer id, final List<ByteBuffer> values, final Consistency consistency,
+            final boolean skipMetadata) {
+        return execute(id, values, consistency, skipMetadata, 0, null);
+    }
+
+    /**
+     * Builds an <tt>EXECUTE</tt> request of a prepared statement, asking for
+     * a page of its result.
+     * 
+     * @param id
+     *            the ID of the prepared statement
+     * @param values
+     *            the serialized values to bind, a <code>null</code> element
+     *            is a null value, the list can be <code>null</code>
+     * @param consistency
+     *            the consistency level
+     * @param skipMetadata
+     *            if the node should not send the metadata of the result,
+     *            because it is already known
+     * @param pageSize
+     *            the number of rows of a page, <tt>0</tt> not to page the
+     *            result
+     * @param pagingState
+     *            the paging state of the previous page, <code>null</code> for
+     *            the first page
+     * @return the request
+     */
+    public static Frame execute(final ByteBuffer id, final List<ByteBuffer> values, final Consistency consistency,
+            final boolean skipMetadata, final int pageSize, final ByteBuffer pagingState) {
+        final List<ByteBuffer> bound = (values == null) ? Collections.<ByteBuffer> emptyList() : values;
+        int length = 2 + id.remaining() + 3;
+        int flags = 0;
+
+        if (!bound.isEmpty()) {
+            flags |= VALUES;
+            length += 2;
+
+            for (final ByteBuffer value : bound) {
+                length += 4 + ((value == null) ? 0 : value.remaining());
+            }
+        }
+
+        if (skipMetadata) {
+            flags |= SKIP_METADATA;
+        }
+
+        if (pageSize > 0) {
+            flags |= PAGE_SIZE;
+            length += 4;
+        }
+
+        if (pagingState != null) {
+            flags |= PAGING_STATE;
+            length += 4 + pagingState.remaining();
+        }
+
+        final ByteBuffer body = ByteBuffer.allocate(length);
+
+        body.putShort((short) id.remaining());
+        body.put(id.duplicate());
+        body.putShort((short) consistency.getCode());
+        body.put((byte) flags);
+
+        if (!bound.isEmpty()) {
+            body.putShort((short) bound.size());
+
+            for (final ByteBuffer value : bound) {
+                putValue(body, value);
+            }
+        }
+
+        if (pageSize > 0) {
+            body.putInt(pageSize);
+        }
+
+        if (pagingState != null) {
+            putValue(body, pagingState);
+        }
+
+        body.flip();
+
+        return new Frame(Opcode.EXECUTE, body);
+    }
+
+    /**
+     * Builds a <tt>BATCH</tt> request of prepared statements.
+     * 
+     * @param type
+     *            the type of the batch
+     * @param ids
+     *            the IDs of the prepared statements
+     * @param values
+     *            the serialized values to bind to each statement, a
+     *            <code>null</code> element is a null value, a list can be
+     *            <code>null</code>
+     * @param consistency
+     *            the consistency level
+     * @return the request
+     */
+    public static Frame batch(final BatchType type, final List<ByteBuffer> ids, final List<List<ByteBuffer>> values,
+            final Consistency consistency) {
+        if (ids.size() != values.size()) {
+            throw new IllegalArgumentException("Each statement of a batch needs its values");
+        }
+
+        int length = 1 + 2 + 2 + 1;
+
+        for (int i = 0; i < ids.size(); i++) {
+            length += 1 + 2 + ids.get(i).remaining() + 2;
+
+            if (values.get(i) != null) {
+                for (final ByteBuffer value : values.get(i)) {
+                    length += 4 + ((value == null) ? 0 : value.remaining());
+                }
+            }
+        }
+
+        final ByteBuffer body = ByteBuffer.allocate(length);
+
+        body.put((byte) type.getCode());
+        body.putShort((short) ids.size());
+
+        for (int i = 0; i < ids.size(); i++) {
+            final List<ByteBuffer> bound = values.get(i);
+
+            // Prepared statement
+            body.put((byte) 1);
+            body.putShort((short) ids.get(i).remaining());
+            body.put(ids.get(i).duplicate());
+            body.putShort((short) ((bound == null) ? 0 : bound.size()));
+
+            if (bound != null) {
+                for (final ByteBuffer value : bound) {
+                    putValue(body, value);
+                }
+            }
+        }
+
+        body.putShort((short) consistency.getCode());
+        body.put((byte) 0);
+        body.flip();
+
+        return new Frame(Opcode.BATCH, body);
+    }
+
+    /**
+     * Writes a <tt>[bytes]</tt> value, <code>null</code> as a negative length.
+     */
+    private static void putValue(final ByteBuffer body, final ByteBuffer value) {
+        if (value == null) {
+            body.putInt(-1);
+        } else {
+            body.putInt(value.remaining());
+            body.put(value.duplicate());
+        }
+    }
+}
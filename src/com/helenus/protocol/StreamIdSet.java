@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.protocol;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The stream IDs of a connection, allocated from a lock-free bitmap.
+ * <p>
+ * An ID is taken with a single CAS on the word holding its bit. The search
+ * starts from the word where the last ID has been found, so that concurrent
+ * threads do not all race on the first word.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class StreamIdSet {
+    /**
+     * The number of stream IDs available in version 3 of the protocol: the
+     * positive values of a short.
+     */
+    public static final int MAX_STREAMS = 32768;
+
+    private static final int WORD_BITS = 64;
+
+    /**
+     * A bit for each ID, set when the ID is in use.
+     */
+    private final AtomicLongArray bits;
+
+    /**
+     * The IDs in use.
+     */
+    private final AtomicInteger inUse;
+
+    /**
+     * The word to start the next search from.
+     */
+    private volatile int hint;
+
+    /**
+     * Create a new set with all the IDs of the protocol.
+     */
+    public StreamIdSet() {
+        this(MAX_STREAMS);
+    }
+
+    /**
+     * Create a new set.
+     * 
+     * @param capacity
+     *            the number of IDs, a positive multiple of 64
+     */
+    public StreamIdSet(final int capacity) {
+        if ((capacity <= 0) || ((capacity % WORD_BITS) != 0)) {
+            throw new IllegalArgumentException("Capacity must be a positive multiple of 64: " + capacity);
+        }
+
+        bits = new AtomicLongArray(capacity / WORD_BITS);
+        inUse = new AtomicInteger();
+    }
+
+    /**
+     * Takes a free ID.
+     * 
+     * @return the ID, or <tt>-1</tt> if all the IDs are in use
+     */
+    public int acquire() {
+        final int words = bits.length();
+        final int start = hint;
+
+        for (int i = 0; i < words; i++) {
+            final int index = (start + i) % words;
+            long word = bits.get(index);
+
+            while (word != -1L) {
+                final int bit = Long.numberOfTrailingZeros(~word);
+
+                if (bits.compareAndSet(index, word, word | (1L << bit))) {
+                    hint = index;
+                    inUse.incrementAndGet();
+                    return (index * WORD_BITS) + bit;
+                }
+
+                word = bits.get(index);
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gives back an ID taken with {@link #acquire()}.
+     * 
+     * @param id
+     *            the ID to give back
+     */
+    public void release(final int id) {
+        final int index = id / WORD_BITS;
+        final long mask = 1L << (id % WORD_BITS);
+        long word;
+
+        do {
+            word = bits.get(index);
+
+            if ((word & mask) == 0) {
+                throw new IllegalStateException("Stream ID not in use: " + id);
+            }
+        } while (!bits.compareAndSet(index, word, word & ~mask));
+
+        inUse.decrementAndGet();
+    }
+
+    /**
+     * @return the IDs in use
+     */
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    /**
+     * @return the number of IDs of the set
+     */
+    public int getCapacity() {
+        return bits.length() * WORD_BITS;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.result;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.helenus.protocol.FrameCodec;
+
+/**
+ * The columns of a {@link ResultSet}: their keyspace, table, name and type.
+ * <p>
+ * The definitions are shared by all the rows of a result, and can be reused
+ * to decode the results of a prepared statement sent without metadata.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class ColumnDefinitions {
+    /**
+     * The flag of the metadata set when all the columns belong to the same
+     * table.
+     */
+    static final int GLOBAL_TABLES_SPEC = 0x0001;
+
+    /**
+     * The flag of the metadata set when the columns are not sent.
+     */
+    static final int NO_METADATA = 0x0004;
+
+    private final String[] keyspaces;
+    private final String[] tables;
+    private final String[] names;
+    private final DataType[] types;
+
+    /**
+     * The indexes of the columns by name, built at the first lookup.
+     */
+    private volatile Map<String, Integer> index;
+
+    /**
+     * Create new column definitions.
+     * 
+     * @param keyspaces
+     *            the keyspace of each column
+     * @param tables
+     *            the table of each column
+     * @param names
+     *            the name of each column
+     * @param types
+     *            the type of each column
+     */
+    public ColumnDefinitions(final String[] keyspaces, final String[] tables, final String[] names,
+            final DataType[] types) {
+        if ((keyspaces.length != names.length) || (tables.length != names.length) || (types.length != names.length)) {
+            throw new IllegalArgumentException("All the columns must have a keyspace, a table, a name and a type");
+        }
+
+        this.keyspaces = keyspaces;
+        this.tables = tables;
+        this.names = names;
+        this.types = types;
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param column
+     *            the index of the column
+     * @return the keyspace of the column
+     */
+    public String getKeyspace(final int column) {
+        return keyspaces[column];
+    }
+
+    /**
+     * @param column
+     *            the index of the column
+     * @return the table of the column
+     */
+    public String getTable(final int column) {
+        return tables[column];
+    }
+
+    /**
+     * @param column
+     *            the index of the column
+     * @return the name of the column
+     */
+    public String getName(final int column) {
+        return names[column];
+    }
+
+    /**
+     * @param column
+     *            the index of the column
+     * @return the type of the column
+     */
+    public DataType getType(final int column) {
+        return types[column];
+    }
+
+    /**
+     * Gets the index of a column.
+     * 
+     * @param name
+     *            the name of the column
+     * @return the index of the column, or <tt>-1</tt> if there is no column
+     *         with that name
+     */
+    public int indexOf(final String name) {
+        Map<String, Integer> current = index;
+
+        if (current == null) {
+            current = new HashMap<String, Integer>(names.length * 2);
+
+            // The first column wins, as in a CQL select with duplicate names
+            for (int i = names.length - 1; i >= 0; i--) {
+                current.put(names[i], i);
+            }
+
+            index = current;
+        }
+
+        final Integer column = current.get(name);
+
+        return (column == null) ? -1 : column;
+    }
+
+    /**
+     * Reads the metadata of the bound variables, or of the result, of a
+     * prepared statement: the flags, the number of columns and their
+     * specifications.
+     * 
+     * @param buffer
+     *            the buffer, positioned at the flags, it is positioned after
+     *            the metadata
+     * @return the definitions of the columns, or <code>null</code> if the node
+     *         did not send them
+     * @throws ProtocolException
+     *             if the metadata is truncated or a column type is not known
+     */
+    public static ColumnDefinitions read(final ByteBuffer buffer) throws ProtocolException {
+        try {
+            final int flags = buffer.getInt();
+            final int count = buffer.getInt();
+            ColumnDefinitions definitions = null;
+
+            if (count < 0) {
+                throw new ProtocolException("Invalid number of columns: " + count);
+            }
+
+            if ((flags & NO_METADATA) == 0) {
+                definitions = decode(buffer, flags, count);
+            }
+
+            return definitions;
+        } catch (final BufferUnderflowException ex) {
+            throw new ProtocolException("Truncated metadata");
+        } catch (final IllegalArgumentException ex) {
+            throw new ProtocolException("Truncated metadata");
+        }
+    }
+
+    /**
+     * Decodes the definitions of the columns from the metadata of a result.
+     * 
+     * @param buffer
+     *            the buffer, positioned at the first column specification
+     * @param flags
+     *            the flags of the metadata
+     * @param count
+     *            the number of columns
+     * @return the definitions of the columns
+     * @throws ProtocolException
+     *             if a column type is not known
+     */
+    static ColumnDefinitions decode(final ByteBuffer buffer, final int flags, final int count)
+            throws ProtocolException {
+        final String[] keyspaces = new String[count];
+        final String[] tables = new String[count];
+        final String[] names = new String[count];
+        final DataType[] types = new DataType[count];
+
+        String keyspace = null;
+        String table = null;
+
+        if ((flags & GLOBAL_TABLES_SPEC) != 0) {
+            keyspace = FrameCodec.readString(buffer);
+            table = FrameCodec.readString(buffer);
+        }
+
+        for (int i = 0; i < count; i++) {
+            if ((flags & GLOBAL_TABLES_SPEC) == 0) {
+                keyspace = FrameCodec.readString(buffer);
+                table = FrameCodec.readString(buffer);
+            }
+
+            keyspaces[i] = keyspace;
+            tables[i] = table;
+            names[i] = FrameCodec.readString(buffer);
+            types[i] = readType(buffer);
+        }
+
+        return new ColumnDefinitions(keyspaces, tables, names, types);
+    }
+
+    /**
+     * Reads an <tt>[option]</tt> describing a type, skipping the types of the
+     * elements of collections, tuples and user defined types.
+     * 
+     * @param buffer
+     *            the buffer to read from
+     * @return the outer type
+     * @throws ProtocolException
+     *             if the type is not known
+     */
+    private static DataType readType(final ByteBuffer buffer) throws ProtocolException {
+        final int code = buffer.getShort() & 0xFFFF;
+        final DataType type = DataType.fromCode(code);
+
+        if (type == null) {
+            throw new ProtocolException("Unknown column type: " + code);
+        }
+
+        switch (type) {
+            case CUSTOM:
+                FrameCodec.readString(buffer);
+                break;
+            case LIST:
+            case SET:
+                readType(buffer);
+                break;
+            case MAP:
+                readType(buffer);
+                readType(buffer);
+                break;
+            case UDT:
+                FrameCodec.readString(buffer);
+                FrameCodec.readString(buffer);
+
+                for (int i = buffer.getShort() & 0xFFFF; i > 0; i--) {
+                    FrameCodec.readString(buffer);
+                    readType(buffer);
+                }
+                break;
+            case TUPLE:
+                for (int i = buffer.getShort() & 0xFFFF; i > 0; i--) {
+                    readType(buffer);
+                }
+                break;
+            default:
+                break;
+        }
+
+        return type;
+    }
+}
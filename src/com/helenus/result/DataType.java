@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.result;
+
+/**
+ * The types of the columns, as defined by version 3 of the CQL native
+ * protocol.
+ * <p>
+ * Only the outer type of a column is kept: the types of the elements of a
+ * collection, a tuple or a user defined type are not decoded.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public enum DataType {
+    CUSTOM(0x00),
+    ASCII(0x01),
+    BIGINT(0x02),
+    BLOB(0x03),
+    BOOLEAN(0x04),
+    COUNTER(0x05),
+    DECIMAL(0x06),
+    DOUBLE(0x07),
+    FLOAT(0x08),
+    INT(0x09),
+    TEXT(0x0A),
+    TIMESTAMP(0x0B),
+    UUID(0x0C),
+    VARCHAR(0x0D),
+    VARINT(0x0E),
+    TIMEUUID(0x0F),
+    INET(0x10),
+    LIST(0x20),
+    MAP(0x21),
+    SET(0x22),
+    UDT(0x30),
+    TUPLE(0x31);
+
+    /**
+     * The types indexed by their code.
+     */
+    private static final DataType[] BY_CODE = new DataType[0x32];
+
+    static {
+        for (final DataType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    private final int code;
+
+    private DataType(final int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the code of the type on the wire
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Get the type with the given code.
+     * 
+     * @param code
+     *            the code of the type on the wire
+     * @return the type, or <code>null</code> if the code is not known
+     */
+    public static DataType fromCode(final int code) {
+        DataType type = null;
+
+        if ((code >= 0) && (code < BY_CODE.length)) {
+            type = BY_CODE[code];
+        }
+
+        return type;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.result;
+
+import java.nio.ByteBuffer;
+
+import com.helenus.concurrent.ResultFuture;
+
+/**
+ * Fetches the pages of the result of a query, for a {@link PagedIterator}.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface IPageFetcher {
+    /**
+     * Fetches a page of the result, without blocking.
+     * 
+     * @param pagingState
+     *            the paging state of the previous page, or <code>null</code>
+     *            for the first page; it is not modified afterwards
+     * @return a future holding the page
+     */
+    ResultFuture<ResultSet> fetch(ByteBuffer pagingState);
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.result;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.helenus.concurrent.IResultListener;
+import com.helenus.concurrent.ResultFuture;
+
+/**
+ * Iterator over the rows of a paged result, fetching the pages as needed.
+ * <p>
+ * The next page is fetched in the background as soon as the current one
+ * arrives, while its rows are being read: when the last row of a page has
+ * been read, the next page is usually there already. At most two pages are
+ * held at any time, the current one and the next one.
+ * <p>
+ * A page is released when the iterator moves to the next one: the rows
+ * returned must not be used past the end of their page. The iterator must be
+ * closed if it is not read to the end, to release its pages.
+ * <p>
+ * The iterator is meant to be used by a single thread. A page that cannot be
+ * fetched makes {@link #hasNext()} and {@link #next()} throw an
+ * {@link IllegalStateException}, whose cause is the reason of the failure, and
+ * closes the iterator.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class PagedIterator implements Iterator<Row>, Closeable {
+    /**
+     * Releases a page arrived after the iterator has been closed.
+     */
+    private static final IResultListener<ResultSet> RELEASE = new IResultListener<ResultSet>() {
+        @Override
+        public void onSuccess(final ResultSet result) {
+            result.release();
+        }
+
+        @Override
+        public void onFailure(final Throwable cause) {
+            // Nothing to release
+        }
+    };
+
+    private final IPageFetcher fetcher;
+
+    /**
+     * How long to wait for a page, in nanoseconds.
+     */
+    private final long timeout;
+
+    /**
+     * The page being read, <code>null</code> before the first one.
+     */
+    private ResultSet page;
+    private Iterator<Row> rows;
+
+    /**
+     * The next page, <code>null</code> if the current one is the last.
+     */
+    private ResultFuture<ResultSet> next;
+    private long pages;
+
+    /**
+     * Create a new iterator, and starts fetching the first page.
+     * 
+     * @param fetcher
+     *            the {@link IPageFetcher} of the pages
+     * @param timeout
+     *            how long to wait for a page that has not arrived yet
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     */
+    public PagedIterator(final IPageFetcher fetcher, final long timeout, final TimeUnit unit) {
+        this.fetcher = fetcher;
+        this.timeout = unit.toNanos(timeout);
+
+        next = fetcher.fetch(null);
+    }
+
+    /**
+     * Checks if there are more rows, waiting for the next page if the current
+     * one has been read.
+     * 
+     * @return <tt>true</tt> if there are more rows, otherwise the iterator is
+     *         closed
+     * @throws IllegalStateException
+     *             if the next page cannot be fetched
+     */
+    @Override
+    public boolean hasNext() {
+        while (((rows == null) || !rows.hasNext()) && (next != null)) {
+            advance();
+        }
+
+        final boolean more = (rows != null) && rows.hasNext();
+
+        if (!more) {
+            // Read to the end: the last page is not needed anymore
+            close();
+        }
+
+        return more;
+    }
+
+    /**
+     * Gets the next row, waiting for the next page if the current one has been
+     * read.
+     * 
+     * @return the next row, valid until the iterator moves to the next page
+     * @throws IllegalStateException
+     *             if the next page cannot be fetched
+     */
+    @Override
+    public Row next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return rows.next();
+    }
+
+    /**
+     * Rows cannot be removed.
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Rows cannot be removed");
+    }
+
+    /**
+     * Releases the current page, and the next one once it arrives. Calling it
+     * again has no effect.
+     */
+    @Override
+    public void close() {
+        if (page != null) {
+            page.release();
+            page = null;
+        }
+
+        if (next != null) {
+            next.addListener(RELEASE);
+            next = null;
+        }
+
+        rows = null;
+    }
+
+    /**
+     * @return the number of pages read so far
+     */
+    public long getPages() {
+        return pages;
+    }
+
+    /**
+     * Moves to the next page, releasing the current one, and starts fetching
+     * the page after it.
+     */
+    private void advance() {
+        final ResultSet fetched = await(next);
+
+        if (page != null) {
+            page.release();
+        }
+
+        page = fetched;
+        rows = fetched.iterator();
+        pages++;
+        next = null;
+
+        if (fetched.hasMorePages()) {
+            // The paging state is a view of the page, released before the request might be built
+            final ByteBuffer state = fetched.getPagingState();
+            final ByteBuffer copy = ByteBuffer.allocate(state.remaining());
+            copy.put(state);
+            copy.flip();
+
+            next = fetcher.fetch(copy);
+        }
+    }
+
+    /**
+     * Waits for a page, closing the iterator if it cannot be fetched.
+     */
+    private ResultSet await(final ResultFuture<ResultSet> future) {
+        try {
+            return future.get(timeout, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Interrupted while waiting for a page", ex);
+        } catch (final ExecutionException ex) {
+            close();
+            throw new IllegalStateException("Cannot fetch the next page", ex.getCause());
+        } catch (final TimeoutException ex) {
+            close();
+            throw new IllegalStateException("Timed out waiting for a page", ex);
+        }
+    }
+}
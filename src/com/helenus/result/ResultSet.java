@@ -0,0 +1,332 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.result;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+import com.helenus.concurrent.IResultListener;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.connection.IConnection;
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.FrameCodec;
+import com.helenus.protocol.Opcode;
+
+/**
+ * The rows of a <tt>RESULT</tt> response, read in place from its body.
+ * <p>
+ * Only the metadata is decoded when the result is created: the rows are
+ * {@link Row} views over the body of the response, and each value is decoded
+ * only when read. The body is not copied, so the result must be released with
+ * {@link #release()} once its rows have been read, to give back the pooled
+ * buffer of the response; the rows and the values returned as
+ * {@link ByteBuffer} must not be used afterwards.
+ * <p>
+ * Results that are not rows, as the ones of an <tt>INSERT</tt>, have no
+ * columns and no rows.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class ResultSet implements Iterable<Row> {
+    /**
+     * The kind of a result holding rows.
+     */
+    private static final int KIND_ROWS = 0x0002;
+
+    /**
+     * The flag of the metadata set when there are more pages to fetch.
+     */
+    private static final int HAS_MORE_PAGES = 0x0002;
+
+    private static final ColumnDefinitions NO_COLUMNS = new ColumnDefinitions(new String[0], new String[0],
+            new String[0], new DataType[0]);
+
+    private final Frame response;
+    private final ByteBuffer body;
+    private final ColumnDefinitions columns;
+    private final int rows;
+
+    /**
+     * The offset in the body of the first row.
+     */
+    private final int start;
+
+    /**
+     * The paging state sent by the node, <code>null</code> if this is the last
+     * page.
+     */
+    private final ByteBuffer pagingState;
+
+    private ResultSet(final Frame response, final ByteBuffer body, final ColumnDefinitions columns, final int rows,
+            final int start, final ByteBuffer pagingState) {
+        this.response = response;
+        this.body = body;
+        this.columns = columns;
+        this.rows = rows;
+        this.start = start;
+        this.pagingState = pagingState;
+    }
+
+    /**
+     * Decodes a response.
+     * 
+     * @param response
+     *            the response, released if it cannot be decoded
+     * @return the result
+     * @throws QueryException
+     *             if the response is an error
+     * @throws ProtocolException
+     *             if the response is not a valid result
+     */
+    public static ResultSet decode(final Frame response) throws QueryException, ProtocolException {
+        return decode(response, null);
+    }
+
+    /**
+     * Decodes a response, whose columns may not have been sent, as it happens
+     * for prepared statements.
+     * 
+     * @param response
+     *            the response, released if it cannot be decoded
+     * @param definitions
+     *            the columns of the result, used if the response has none, it
+     *            can be <code>null</code>
+     * @return the result
+     * @throws QueryException
+     *             if the response is an error
+     * @throws ProtocolException
+     *             if the response is not a valid result
+     */
+    public static ResultSet decode(final Frame response, final ColumnDefinitions definitions)
+            throws QueryException, ProtocolException {
+        final ByteBuffer body = response.getBody().duplicate();
+        boolean decoded = false;
+
+        try {
+            final ResultSet result;
+
+            if (response.getOpcode() == Opcode.ERROR) {
+                final int code = body.getInt();
+                throw new QueryException(code, FrameCodec.readString(body));
+            } else if (response.getOpcode() != Opcode.RESULT) {
+                throw new ProtocolException("Unexpected response: " + response.getOpcode());
+            }
+
+            if (body.getInt() == KIND_ROWS) {
+                final int flags = body.getInt();
+                final int count = body.getInt();
+                ByteBuffer pagingState = null;
+                ColumnDefinitions columns = definitions;
+
+                if ((flags & HAS_MORE_PAGES) != 0) {
+                    final int length = body.getInt();
+
+                    if (length >= 0) {
+                        pagingState = body.slice();
+                        pagingState.limit(length);
+                        pagingState = pagingState.asReadOnlyBuffer();
+                        body.position(body.position() + length);
+                    }
+                }
+
+                if ((flags & ColumnDefinitions.NO_METADATA) == 0) {
+                    columns = ColumnDefinitions.decode(body, flags, count);
+                } else if ((columns == null) || (columns.size() != count)) {
+                    throw new ProtocolException("No column definitions for a result of " + count + " columns");
+                }
+
+                final int rows = body.getInt();
+
+                if (rows < 0) {
+                    throw new ProtocolException("Invalid number of rows: " + rows);
+                }
+
+                result = new ResultSet(response, body, columns, rows, body.position(), pagingState);
+            } else {
+                result = new ResultSet(response, body, NO_COLUMNS, 0, body.position(), null);
+            }
+
+            decoded = true;
+
+            return result;
+        } catch (final BufferUnderflowException ex) {
+            throw new ProtocolException("Truncated result");
+        } catch (final IllegalArgumentException ex) {
+            throw new ProtocolException("Truncated result");
+        } finally {
+            if (!decoded) {
+                response.release();
+            }
+        }
+    }
+
+    /**
+     * Sends a request on a connection and decodes its response.
+     * <p>
+     * The response is decoded by the thread that receives it: only the
+     * metadata is, so it is cheap enough not to need another thread.
+     * 
+     * @param connection
+     *            the connection to send the request on
+     * @param request
+     *            the request
+     * @param timeout
+     *            how long to wait for the response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed with the result, or failed with a
+     *         {@link QueryException} if the node answered with an error
+     */
+    public static ResultFuture<ResultSet> fetch(final IConnection connection, final Frame request,
+            final long timeout, final TimeUnit unit) {
+        final ResultFuture<ResultSet> future = new ResultFuture<ResultSet>();
+
+        connection.send(request, timeout, unit).addListener(new IResultListener<Frame>() {
+            @Override
+            public void onSuccess(final Frame response) {
+                try {
+                    final ResultSet result = decode(response);
+
+                    if (!future.complete(result)) {
+                        result.release();
+                    }
+                } catch (final Exception ex) {
+                    future.fail(ex);
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                future.fail(cause);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * @return the columns of the result
+     */
+    public ColumnDefinitions getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return <tt>true</tt> if there are no rows
+     */
+    public boolean isEmpty() {
+        return rows == 0;
+    }
+
+    /**
+     * @return <tt>true</tt> if there are more pages of rows to fetch
+     */
+    public boolean hasMorePages() {
+        return pagingState != null;
+    }
+
+    /**
+     * @return a read-only view of the paging state, to fetch the next page,
+     *         or <code>null</code> if this is the last page
+     */
+    public ByteBuffer getPagingState() {
+        return pagingState;
+    }
+
+    /**
+     * Iterates over the rows. Moving to the next row walks the lengths of the
+     * cells of the current one, without decoding them.
+     * 
+     * @return an iterator over the rows, from the first one
+     */
+    @Override
+    public Iterator<Row> iterator() {
+        return new Iterator<Row>() {
+            private int index = 0;
+            private Row current = null;
+
+            @Override
+            public boolean hasNext() {
+                return index < rows;
+            }
+
+            @Override
+            public Row next() {
+                if (index >= rows) {
+                    throw new NoSuchElementException();
+                }
+
+                current = new Row(body, columns, (current == null) ? start : current.end());
+                index++;
+
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Copies the rows on the heap, to keep them after this result has been
+     * released. The copy can be read by many threads at once, and does not
+     * need to be released.
+     * 
+     * @return a copy of this result
+     */
+    public ResultSet copy() {
+        final ByteBuffer source = body.duplicate();
+        source.position(start);
+
+        final ByteBuffer copy = ByteBuffer.allocate(source.remaining());
+        copy.put(source);
+        copy.flip();
+
+        ByteBuffer state = null;
+
+        if (pagingState != null) {
+            state = ByteBuffer.allocate(pagingState.remaining());
+            state.put(pagingState.duplicate());
+            state.flip();
+            state = state.asReadOnlyBuffer();
+        }
+
+        return new ResultSet(new Frame(Opcode.RESULT, copy), copy, columns, rows, 0, state);
+    }
+
+    /**
+     * Gives back the buffer of the response. The rows must not be used
+     * anymore.
+     */
+    public void release() {
+        response.release();
+    }
+}
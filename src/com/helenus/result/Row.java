@@ -0,0 +1,431 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.result;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * A row of a {@link ResultSet}, read in place from the body of the response.
+ * <p>
+ * Nothing is decoded when the row is created: the cells are located only when
+ * a column is read, walking their lengths from the last located one, and a
+ * value is decoded only by the getter that asks for it. Reading a few columns
+ * of a wide row costs a few reads of the buffer, and
+ * {@link #getBytes(int)} returns a view of the response, without copying it.
+ * <p>
+ * A row is valid until its {@link ResultSet} is released, and is not thread
+ * safe. The getters of the primitive types return <tt>0</tt> or
+ * <tt>false</tt> for a <code>null</code> value, use {@link #isNull(int)} to
+ * tell them apart.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class Row {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * The body of the response, only read with absolute gets.
+     */
+    private final ByteBuffer body;
+
+    private final ColumnDefinitions columns;
+
+    /**
+     * The offset of the first cell of the row.
+     */
+    private final int start;
+
+    /**
+     * The last located cell, where the next lookup starts from if it is for a
+     * following column.
+     */
+    private int cursorColumn;
+    private int cursorOffset;
+
+    /**
+     * Create a new row.
+     * 
+     * @param body
+     *            the body of the response
+     * @param columns
+     *            the columns of the result
+     * @param start
+     *            the offset of the first cell of the row in the body
+     */
+    Row(final ByteBuffer body, final ColumnDefinitions columns, final int start) {
+        this.body = body;
+        this.columns = columns;
+        this.start = start;
+
+        cursorColumn = 0;
+        cursorOffset = start;
+    }
+
+    /**
+     * @return the columns of the row
+     */
+    public ColumnDefinitions getColumns() {
+        return columns;
+    }
+
+    /**
+     * @param column
+     *            the index of the column
+     * @return <tt>true</tt> if the value of the column is <code>null</code>
+     */
+    public boolean isNull(final int column) {
+        return body.getInt(locate(column)) < 0;
+    }
+
+    /**
+     * @param name
+     *            the name of the column
+     * @return <tt>true</tt> if the value of the column is <code>null</code>
+     */
+    public boolean isNull(final String name) {
+        return isNull(indexOf(name));
+    }
+
+    /**
+     * Gets the serialized value of a column, of any type.
+     * 
+     * @param column
+     *            the index of the column
+     * @return a read-only view of the value in the response, or
+     *         <code>null</code>
+     */
+    public ByteBuffer getBytes(final int column) {
+        final int offset = locate(column);
+        final int length = body.getInt(offset);
+        ByteBuffer value = null;
+
+        if (length >= 0) {
+            final ByteBuffer view = body.duplicate();
+            view.limit(offset + 4 + length);
+            view.position(offset + 4);
+            value = view.slice().asReadOnlyBuffer();
+        }
+
+        return value;
+    }
+
+    /**
+     * @param name
+     *            the name of the column
+     * @return a read-only view of the value in the response, or
+     *         <code>null</code>
+     * @see #getBytes(int)
+     */
+    public ByteBuffer getBytes(final String name) {
+        return getBytes(indexOf(name));
+    }
+
+    /**
+     * @param column
+     *            the index of an <tt>ascii</tt>, <tt>text</tt> or
+     *            <tt>varchar</tt> column
+     * @return the value, or <code>null</code>
+     */
+    public String getString(final int column) {
+        final DataType type = columns.getType(column);
+
+        if ((type != DataType.ASCII) && (type != DataType.TEXT) && (type != DataType.VARCHAR)) {
+            throw mismatch(column, "String");
+        }
+
+        final ByteBuffer value = getBytes(column);
+        String string = null;
+
+        if (value != null) {
+            string = ((type == DataType.ASCII) ? ASCII : UTF8).decode(value).toString();
+        }
+
+        return string;
+    }
+
+    /**
+     * @param name
+     *            the name of the column
+     * @return the value, or <code>null</code>
+     * @see #getString(int)
+     */
+    public String getString(final String name) {
+        return getString(indexOf(name));
+    }
+
+    /**
+     * @param column
+     *            the index of an <tt>int</tt> column
+     * @return the value, or <tt>0</tt> if <code>null</code>
+     */
+    public int getInt(final int column) {
+        check(column, DataType.INT, "int");
+
+        final int offset = locate(column);
+
+        return (body.getInt(offset) < 0) ? 0 : body.getInt(offset + 4);
+    }
+
+    /**
+     * @param name
+     *            the name of the column
+     * @return the value, or <tt>0</tt> if <code>null</code>
+     * @see #getInt(int)
+     */
+    public int getInt(final String name) {
+        return getInt(indexOf(name));
+    }
+
+    /**
+     * @param column
+     *            the index of a <tt>bigint</tt>, <tt>counter</tt> or
+     *            <tt>timestamp</tt> column
+     * @return the value, or <tt>0</tt> if <code>null</code>
+     */
+    public long getLong(final int column) {
+        final DataType type = columns.getType(column);
+
+        if ((type != DataType.BIGINT) && (type != DataType.COUNTER) && (type != DataType.TIMESTAMP)) {
+            throw mismatch(column, "long");
+        }
+
+        final int offset = locate(column);
+
+        return (body.getInt(offset) < 0) ? 0 : body.getLong(offset + 4);
+    }
+
+    /**
+     * @param name
+     *            the name of the column
+     * @return the value, or <tt>0</tt> if <code>null</code>
+     * @see #getLong(int)
+     */
+    public long getLong(final String name) {
+        return getLong(indexOf(name));
+    }
+
+    /**
+     * @param column
+     *            the index of a <tt>timestamp</tt> column
+     * @return the value, or <code>null</code>
+     */
+    public Date getDate(final int column) {
+        check(column, DataType.TIMESTAMP, "Date");
+
+        final int offset = locate(column);
+
+        return (body.getInt(offset) < 0) ? null : new Date(body.getLong(offset + 4));
+    }
+
+    /**
+     * @param name
+     *            the name of the column
+     * @return the value, or <code>null</code>
+     * @see #getDate(int)
+     */
+    public Date getDate(final String name) {
+        return getDate(indexOf(name));
+    }
+
+    /**
+     * @param column
+     *            the index of a <tt>float</tt> column
+     * @return the value, or <tt>0</tt> if <code>null</code>
+     */
+    public float getFloat(final int column) {
+        check(column, DataType.FLOAT, "float");
+
+        final int offset = locate(column);
+
+        return (body.getInt(offset) < 0) ? 0 : body.getFloat(offset + 4);
+    }
+
+    /**
+     * @param name
+     *            the name of the column
+     * @return the value, or <tt>0</tt> if <code>null</code>
+     * @see #getFloat(int)
+     */
+    public float getFloat(final String name) {
+        return getFloat(indexOf(name));
+    }
+
+    /**
+     * @param column
+     *            the index of a <tt>double</tt> column
+     * @return the value, or <tt>0</tt> if <code>null</code>
+     */
+    public double getDouble(final int column) {
+        check(column, DataType.DOUBLE, "double");
+
+        final int offset = locate(column);
+
+        return (body.getInt(offset) < 0) ? 0 : body.getDouble(offset + 4);
+    }
+
+    /**
+     * @param name
+     *            the name of the column
+     * @return the value, or <tt>0</tt> if <code>null</code>
+     * @see #getDouble(int)
+     */
+    public double getDouble(final String name) {
+        return getDouble(indexOf(name));
+    }
+
+    /**
+     * @param column
+     *            the index of a <tt>boolean</tt> column
+     * @return the value, or <tt>false</tt> if <code>null</code>
+     */
+    public boolean getBool(final int column) {
+        check(column, DataType.BOOLEAN, "boolean");
+
+        final int offset = locate(column);
+
+        return (body.getInt(offset) > 0) && (body.get(offset + 4) != 0);
+    }
+
+    /**
+     * @param name
+     *            the name of the column
+     * @return the value, or <tt>false</tt> if <code>null</code>
+     * @see #getBool(int)
+     */
+    public boolean getBool(final String name) {
+        return getBool(indexOf(name));
+    }
+
+    /**
+     * @param column
+     *            the index of a <tt>uuid</tt> or <tt>timeuuid</tt> column
+     * @return the value, or <code>null</code>
+     */
+    public UUID getUUID(final int column) {
+        final DataType type = columns.getType(column);
+
+        if ((type != DataType.UUID) && (type != DataType.TIMEUUID)) {
+            throw mismatch(column, "UUID");
+        }
+
+        final int offset = locate(column);
+
+        return (body.getInt(offset) < 0) ? null : new UUID(body.getLong(offset + 4), body.getLong(offset + 12));
+    }
+
+    /**
+     * @param name
+     *            the name of the column
+     * @return the value, or <code>null</code>
+     * @see #getUUID(int)
+     */
+    public UUID getUUID(final String name) {
+        return getUUID(indexOf(name));
+    }
+
+    /**
+     * Locates the end of the row, walking all its cells.
+     * 
+     * @return the offset in the body of the first byte after the row
+     */
+    int end() {
+        return walk(columns.size());
+    }
+
+    /**
+     * Locates a cell.
+     * 
+     * @param column
+     *            the index of the column
+     * @return the offset in the body of the length of the cell
+     * @throws IndexOutOfBoundsException
+     *             if there is no such column
+     */
+    private int locate(final int column) {
+        if ((column < 0) || (column >= columns.size())) {
+            throw new IndexOutOfBoundsException("Column " + column + " of " + columns.size());
+        }
+
+        return walk(column);
+    }
+
+    /**
+     * Walks the cells up to a column, starting from the last located one if
+     * it comes before, from the start of the row otherwise.
+     * 
+     * @param column
+     *            the index of the column, or the number of columns to locate
+     *            the end of the row
+     * @return the offset in the body of the length of the cell
+     */
+    private int walk(final int column) {
+        if (column < cursorColumn) {
+            cursorColumn = 0;
+            cursorOffset = start;
+        }
+
+        while (cursorColumn < column) {
+            final int length = body.getInt(cursorOffset);
+            cursorOffset += 4 + Math.max(length, 0);
+            cursorColumn++;
+        }
+
+        return cursorOffset;
+    }
+
+    /**
+     * Gets the index of a column by name.
+     * 
+     * @param name
+     *            the name of the column
+     * @return the index of the column
+     */
+    private int indexOf(final String name) {
+        final int column = columns.indexOf(name);
+
+        if (column < 0) {
+            throw new IllegalArgumentException("Unknown column: " + name);
+        }
+
+        return column;
+    }
+
+    /**
+     * Checks that a column has the type expected by a getter.
+     * 
+     * @param column
+     *            the index of the column
+     * @param expected
+     *            the type expected
+     * @param javaType
+     *            the Java type returned by the getter
+     */
+    private void check(final int column, final DataType expected, final String javaType) {
+        if (columns.getType(column) != expected) {
+            throw mismatch(column, javaType);
+        }
+    }
+
+    private IllegalArgumentException mismatch(final int column, final String javaType) {
+        return new IllegalArgumentException("Column " + columns.getName(column) + " of type "
+                + columns.getType(column) + " cannot be read as " + javaType);
+    }
+}
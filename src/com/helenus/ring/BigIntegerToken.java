@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.ring;
+
+import java.math.BigInteger;
+
+/**
+ * Token represented by a {@link BigInteger}, as used by the
+ * {@link RandomPartitioner}.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class BigIntegerToken extends Token {
+    /**
+     * Generated serial version number.
+     */
+    private static final long serialVersionUID = 8521716342391404271L;
+
+    /**
+     * The value of the token.
+     */
+    private final BigInteger value;
+
+    /**
+     * @param value
+     *            the value of the token
+     */
+    public BigIntegerToken(final BigInteger value) {
+        super();
+
+        this.value = value;
+    }
+
+    /**
+     * @return the value of the token
+     */
+    public BigInteger getValue() {
+        return value;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    @Override
+    public int compareTo(final Token other) {
+        return value.compareTo(((BigIntegerToken) other).value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        return (obj instanceof BigIntegerToken) && ((BigIntegerToken) obj).value.equals(value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return value.toString();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.ring;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Client side version of a Cassandra partitioner: it computes the token of a
+ * partition key, as the Cassandra nodes do.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public interface IPartitioner {
+    /**
+     * Computes the token of a partition key.
+     * <p>
+     * The position and the limit of the buffer are not modified.
+     * 
+     * @param key
+     *            the serialized partition key
+     * @return the token of the key
+     */
+    Token getToken(ByteBuffer key);
+
+    /**
+     * Parses the string representation of a token, as found in the Cassandra
+     * configuration or in the output of <tt>nodetool ring</tt>.
+     * 
+     * @param token
+     *            the string representation of the token
+     * @return the token
+     */
+    Token parseToken(String token);
+}
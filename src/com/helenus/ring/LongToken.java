@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.ring;
+
+/**
+ * Token represented by a <code>long</code>, as used by the
+ * {@link Murmur3Partitioner}.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class LongToken extends Token {
+    /**
+     * Generated serial version number.
+     */
+    private static final long serialVersionUID = -6187207926310539917L;
+
+    /**
+     * The value of the token.
+     */
+    private final long value;
+
+    /**
+     * @param value
+     *            the value of the token
+     */
+    public LongToken(final long value) {
+        super();
+
+        this.value = value;
+    }
+
+    /**
+     * @return the value of the token
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    @Override
+    public int compareTo(final Token other) {
+        final long otherValue = ((LongToken) other).value;
+        return (value < otherValue) ? -1 : ((value == otherValue) ? 0 : 1);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        return (obj instanceof LongToken) && (((LongToken) obj).value == value);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return Long.toString(value);
+    }
+}
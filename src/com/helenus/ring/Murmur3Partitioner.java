@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.ring;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Client side version of the Cassandra <tt>Murmur3Partitioner</tt>: the token
+ * of a key is the first half of its 128 bit MurmurHash3 (x64 variant, seed
+ * <tt>0</tt>).
+ * <p>
+ * The hash replicates the Cassandra implementation, quirks included: the bytes
+ * of the tail of the key are sign extended, so the result differs from the
+ * reference MurmurHash3 for keys whose tail has bytes greater than
+ * <tt>0x7f</tt>.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class Murmur3Partitioner implements IPartitioner {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.ring.IPartitioner#getToken(java.nio.ByteBuffer)
+     */
+    @Override
+    public Token getToken(final ByteBuffer key) {
+        long hash = hash(key, key.position(), key.remaining());
+
+        // Long.MIN_VALUE is reserved by Cassandra as the minimum token
+        if (hash == Long.MIN_VALUE) {
+            hash = Long.MAX_VALUE;
+        }
+
+        return new LongToken(hash);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.ring.IPartitioner#parseToken(java.lang.String)
+     */
+    @Override
+    public Token parseToken(final String token) {
+        return new LongToken(Long.parseLong(token));
+    }
+
+    /**
+     * Computes the first half of the 128 bit MurmurHash3 of a key.
+     * 
+     * @param key
+     *            the buffer holding the key
+     * @param start
+     *            the position of the first byte of the key
+     * @param length
+     *            the length of the key
+     * @return the first 64 bits of the hash
+     */
+    @SuppressWarnings("fallthrough")
+    public static long hash(final ByteBuffer key, final int start, final int length) {
+        final int blocks = length >> 4;
+        long h1 = 0;
+        long h2 = 0;
+        int offset = start;
+
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getBlock(key, offset);
+            long k2 = getBlock(key, offset + 8);
+            offset += 16;
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = (h1 * 5) + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = (h2 * 5) + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+
+        switch (length & 15) {
+            case 15:
+                k2 ^= ((long) key.get(offset + 14)) << 48;
+            case 14:
+                k2 ^= ((long) key.get(offset + 13)) << 40;
+            case 13:
+                k2 ^= ((long) key.get(offset + 12)) << 32;
+            case 12:
+                k2 ^= ((long) key.get(offset + 11)) << 24;
+            case 11:
+                k2 ^= ((long) key.get(offset + 10)) << 16;
+            case 10:
+                k2 ^= ((long) key.get(offset + 9)) << 8;
+            case 9:
+                k2 ^= key.get(offset + 8);
+                k2 *= C2;
+                k2 = Long.rotateLeft(k2, 33);
+                k2 *= C1;
+                h2 ^= k2;
+            case 8:
+                k1 ^= ((long) key.get(offset + 7)) << 56;
+            case 7:
+                k1 ^= ((long) key.get(offset + 6)) << 48;
+            case 6:
+                k1 ^= ((long) key.get(offset + 5)) << 40;
+            case 5:
+                k1 ^= ((long) key.get(offset + 4)) << 32;
+            case 4:
+                k1 ^= ((long) key.get(offset + 3)) << 24;
+            case 3:
+                k1 ^= ((long) key.get(offset + 2)) << 16;
+            case 2:
+                k1 ^= ((long) key.get(offset + 1)) << 8;
+            case 1:
+                k1 ^= key.get(offset);
+                k1 *= C1;
+                k1 = Long.rotateLeft(k1, 31);
+                k1 *= C2;
+                h1 ^= k1;
+            default:
+                break;
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+
+        h1 += h2;
+
+        return h1;
+    }
+
+    /**
+     * Reads a little endian block of 8 bytes.
+     */
+    private static long getBlock(final ByteBuffer key, final int offset) {
+        return (key.get(offset) & 0xffL) | ((key.get(offset + 1) & 0xffL) << 8)
+                | ((key.get(offset + 2) & 0xffL) << 16) | ((key.get(offset + 3) & 0xffL) << 24)
+                | ((key.get(offset + 4) & 0xffL) << 32) | ((key.get(offset + 5) & 0xffL) << 40)
+                | ((key.get(offset + 6) & 0xffL) << 48) | ((key.get(offset + 7) & 0xffL) << 56);
+    }
+
+    /**
+     * Final mix of the hash.
+     */
+    private static long fmix(final long value) {
+        long k = value;
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.ring;
+
+/**
+ * Enumeration used to define the partitioners available on the client side.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public enum PartitionerType {
+    /**
+     * The <tt>Murmur3Partitioner</tt>, default since Cassandra 1.2.
+     */
+    MURMUR3("Murmur3Partitioner") {
+        @Override
+        public IPartitioner create() {
+            return new Murmur3Partitioner();
+        }
+    },
+    /**
+     * The <tt>RandomPartitioner</tt>, based on MD5.
+     */
+    RANDOM("RandomPartitioner") {
+        @Override
+        public IPartitioner create() {
+            return new RandomPartitioner();
+        }
+    };
+
+    /**
+     * The simple class name of the partitioner in Cassandra.
+     */
+    private final String className;
+
+    private PartitionerType(final String className) {
+        this.className = className;
+    }
+
+    /**
+     * @return a new instance of the partitioner
+     */
+    public abstract IPartitioner create();
+
+    /**
+     * @return the simple class name of the partitioner in Cassandra
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Looks up a partitioner by its Cassandra name, either the simple or the
+     * fully qualified class name.
+     * 
+     * @param name
+     *            the name of the partitioner
+     * @return the partitioner type, or <code>null</code> if not supported
+     */
+    public static PartitionerType fromName(final String name) {
+        PartitionerType found = null;
+
+        if (name != null) {
+            final String simpleName = name.substring(name.lastIndexOf('.') + 1);
+
+            for (final PartitionerType type : values()) {
+                if (type.className.equalsIgnoreCase(simpleName) || type.name().equalsIgnoreCase(simpleName)) {
+                    found = type;
+                    break;
+                }
+            }
+        }
+
+        return found;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.ring;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Client side version of the Cassandra <tt>RandomPartitioner</tt>: the token
+ * of a key is the absolute value of its MD5 digest.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class RandomPartitioner implements IPartitioner {
+    /**
+     * A {@link MessageDigest} is not thread safe, keep one per thread.
+     */
+    private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (final NoSuchAlgorithmException ex) {
+                // MD5 is available on every JVM
+                throw new IllegalStateException(ex);
+            }
+        }
+    };
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.ring.IPartitioner#getToken(java.nio.ByteBuffer)
+     */
+    @Override
+    public Token getToken(final ByteBuffer key) {
+        final MessageDigest digest = MD5.get();
+        digest.reset();
+        digest.update(key.duplicate());
+
+        return new BigIntegerToken(new BigInteger(digest.digest()).abs());
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see com.helenus.ring.IPartitioner#parseToken(java.lang.String)
+     */
+    @Override
+    public Token parseToken(final String token) {
+        return new BigIntegerToken(new BigInteger(token));
+    }
+}
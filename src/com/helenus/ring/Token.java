@@ -0,0 +1,35 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.ring;
+
+import java.io.Serializable;
+
+/**
+ * A token of the Cassandra ring: the position of a partition, or of a node, on
+ * the ring.
+ * <p>
+ * Tokens are only comparable with tokens of the same type, created by the same
+ * {@link IPartitioner}.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public abstract class Token implements Comparable<Token>, Serializable {
+    /**
+     * Generated serial version number.
+     */
+    private static final long serialVersionUID = 2304128513745021826L;
+}
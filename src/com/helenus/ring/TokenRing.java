@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.ring;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.helenus.data.node.INode;
+
+/**
+ * Client side view of the token ring of a cluster, used to route a request
+ * directly to the nodes owning its partition key.
+ * <p>
+ * The ring is immutable: the tokens are kept in a sorted array, and the
+ * replicas of each range are computed once at construction. Looking up the
+ * replicas of a key costs one hash of the key and one binary search, without
+ * locks. A change in the topology is handled by building a new ring.
+ * <p>
+ * A node owns the range of tokens going from the token of the previous node,
+ * excluded, to its own token, included. The replicas of a range are chosen as
+ * Cassandra <tt>SimpleStrategy</tt> does: the owner, followed by the next
+ * distinct nodes walking the ring clockwise.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class TokenRing {
+    /**
+     * The partitioner used to compute the tokens of the keys.
+     */
+    private final IPartitioner partitioner;
+
+    /**
+     * The tokens of the ring, sorted.
+     */
+    private final Token[] tokens;
+
+    /**
+     * The replicas of the range ending at the token with the same index.
+     */
+    private final INode[][] replicas;
+
+    /**
+     * Create a new token ring.
+     * 
+     * @param partitioner
+     *            the partitioner used by the cluster
+     * @param ring
+     *            the tokens of the ring, with the node owning each one; a node
+     *            can own more than one token
+     * @param replicationFactor
+     *            how many replicas hold each key
+     */
+    public TokenRing(final IPartitioner partitioner, final Map<Token, INode> ring, final int replicationFactor) {
+        if (replicationFactor < 1) {
+            throw new IllegalArgumentException("Replication factor must be at least 1: " + replicationFactor);
+        }
+
+        this.partitioner = partitioner;
+
+        tokens = ring.keySet().toArray(new Token[ring.size()]);
+        Arrays.sort(tokens);
+
+        final INode[] owners = new INode[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            owners[i] = ring.get(tokens[i]);
+        }
+
+        replicas = new INode[tokens.length][];
+        for (int i = 0; i < tokens.length; i++) {
+            final List<INode> nodes = new ArrayList<INode>(replicationFactor);
+
+            for (int j = 0; (j < owners.length) && (nodes.size() < replicationFactor); j++) {
+                final INode owner = owners[(i + j) % owners.length];
+
+                if (!nodes.contains(owner)) {
+                    nodes.add(owner);
+                }
+            }
+
+            replicas[i] = nodes.toArray(new INode[nodes.size()]);
+        }
+    }
+
+    /**
+     * Create a new token ring from the string representation of the tokens.
+     * 
+     * @param partitioner
+     *            the partitioner used by the cluster
+     * @param ring
+     *            the tokens of the ring, with the node owning each one
+     * @param replicationFactor
+     *            how many replicas hold each key
+     * @return the token ring
+     */
+    public static TokenRing parse(final IPartitioner partitioner, final Map<String, INode> ring,
+            final int replicationFactor) {
+        final Map<Token, INode> parsed = new HashMap<Token, INode>();
+
+        for (final Entry<String, INode> entry : ring.entrySet()) {
+            parsed.put(partitioner.parseToken(entry.getKey()), entry.getValue());
+        }
+
+        return new TokenRing(partitioner, parsed, replicationFactor);
+    }
+
+    /**
+     * Gets the replicas of a partition key.
+     * 
+     * @param key
+     *            the serialized partition key, its position is not modified
+     * @return the replicas of the key, the primary one first, it must not be
+     *         modified; empty if the ring is empty
+     */
+    public INode[] getReplicas(final ByteBuffer key) {
+        return getReplicas(partitioner.getToken(key));
+    }
+
+    /**
+     * Gets the replicas of a token.
+     * 
+     * @param token
+     *            the token
+     * @return the replicas of the token, the primary one first, it must not be
+     *         modified; empty if the ring is empty
+     */
+    public INode[] getReplicas(final Token token) {
+        INode[] found = new INode[0];
+
+        if (tokens.length > 0) {
+            found = replicas[indexOf(token)];
+        }
+
+        return found;
+    }
+
+    /**
+     * Gets the node owning a token.
+     * 
+     * @param token
+     *            the token
+     * @return the node owning the token, or <code>null</code> if the ring is
+     *         empty
+     */
+    public INode getPrimary(final Token token) {
+        INode found = null;
+
+        if (tokens.length > 0) {
+            found = replicas[indexOf(token)][0];
+        }
+
+        return found;
+    }
+
+    /**
+     * @return the partitioner used to compute the tokens of the keys
+     */
+    public IPartitioner getPartitioner() {
+        return partitioner;
+    }
+
+    /**
+     * @return how many tokens are in the ring
+     */
+    public int size() {
+        return tokens.length;
+    }
+
+    /**
+     * Finds the index of the first token greater than or equal to the
+     * provided one, wrapping around to the first token of the ring.
+     * 
+     * @param token
+     *            the token to look for
+     * @return the index of the range holding the token
+     */
+    private int indexOf(final Token token) {
+        int index = Arrays.binarySearch(tokens, token);
+
+        if (index < 0) {
+            index = -index - 1;
+
+            if (index == tokens.length) {
+                index = 0;
+            }
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.statement;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.helenus.cache.RowKey;
+import com.helenus.data.node.INode;
+import com.helenus.protocol.BatchType;
+import com.helenus.ring.TokenRing;
+
+/**
+ * A batch of mutations, each one a statement executed as a prepared statement
+ * with its values, and the partition key it writes to.
+ * <p>
+ * A batch spanning several partitions makes the coordinator forward each
+ * mutation to its replicas: the batch is rather split with
+ * {@link #split(TokenRing)} into smaller batches, one for each set of
+ * replicas, each sent directly to one of its replicas. This works for the
+ * unlogged and the counter batches only: a logged batch would not be atomic
+ * anymore once split.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class Batch {
+    private final BatchType type;
+    private final List<String> queries;
+    private final List<ByteBuffer> partitionKeys;
+    private final List<List<ByteBuffer>> values;
+
+    /**
+     * The cached rows written by the batch.
+     */
+    private final List<RowKey> written;
+
+    /**
+     * Create a new, empty, unlogged batch.
+     */
+    public Batch() {
+        this(BatchType.UNLOGGED);
+    }
+
+    /**
+     * Create a new, empty, batch.
+     * 
+     * @param type
+     *            the type of the batch
+     */
+    public Batch(final BatchType type) {
+        this.type = type;
+
+        queries = new ArrayList<String>();
+        partitionKeys = new ArrayList<ByteBuffer>();
+        values = new ArrayList<List<ByteBuffer>>();
+        written = new ArrayList<RowKey>();
+    }
+
+    /**
+     * Adds a mutation to the batch.
+     * 
+     * @param query
+     *            the CQL query of the mutation
+     * @param partitionKey
+     *            the serialized partition key the mutation writes to, it can
+     *            be <code>null</code> if not known
+     * @param bound
+     *            the serialized values to bind, a <code>null</code> element
+     *            is a null value
+     * @return this {@link Batch} object
+     */
+    public Batch add(final String query, final ByteBuffer partitionKey, final ByteBuffer... bound) {
+        return add(query, partitionKey, Arrays.asList(bound));
+    }
+
+    /**
+     * Adds a mutation to the batch.
+     * 
+     * @param query
+     *            the CQL query of the mutation
+     * @param partitionKey
+     *            the serialized partition key the mutation writes to, it can
+     *            be <code>null</code> if not known
+     * @param bound
+     *            the serialized values to bind, a <code>null</code> element
+     *            is a null value, it can be <code>null</code>
+     * @return this {@link Batch} object
+     */
+    public Batch add(final String query, final ByteBuffer partitionKey, final List<ByteBuffer> bound) {
+        queries.add(query);
+        partitionKeys.add(partitionKey);
+        values.add((bound == null) ? Collections.<ByteBuffer> emptyList() : bound);
+        return this;
+    }
+
+    /**
+     * Marks a row as written by the batch, to be removed from the
+     * {@link com.helenus.cache.RowCache} once the batch is executed.
+     * 
+     * @param row
+     *            the key of the row
+     * @return this {@link Batch} object
+     */
+    public Batch invalidates(final RowKey row) {
+        written.add(row);
+        return this;
+    }
+
+    /**
+     * @return the rows written by the batch, as marked with
+     *         {@link #invalidates(RowKey)}
+     */
+    public List<RowKey> getWrittenRows() {
+        return Collections.unmodifiableList(written);
+    }
+
+    /**
+     * Splits the batch in smaller batches of the same type, one for each set
+     * of replicas of the partition keys of the mutations, keeping the order of
+     * the mutations.
+     * <p>
+     * The mutations whose partition key is not known are kept together in
+     * their own batch.
+     * 
+     * @param ring
+     *            the token ring of the cluster, or <code>null</code> if not
+     *            known
+     * @return the batches, this one if it cannot be split
+     */
+    public List<Batch> split(final TokenRing ring) {
+        if ((ring == null) || (ring.size() == 0) || (type == BatchType.LOGGED) || (size() < 2)) {
+            return Collections.singletonList(this);
+        }
+
+        final Map<String, Batch> groups = new LinkedHashMap<String, Batch>();
+
+        for (int i = 0; i < queries.size(); i++) {
+            final ByteBuffer key = partitionKeys.get(i);
+            final String replicas = (key == null) ? "" : replicaSet(ring.getReplicas(key));
+            Batch group = groups.get(replicas);
+
+            if (group == null) {
+                group = new Batch(type);
+                groups.put(replicas, group);
+            }
+
+            group.add(queries.get(i), key, values.get(i));
+        }
+
+        return new ArrayList<Batch>(groups.values());
+    }
+
+    /**
+     * @return the type of the batch
+     */
+    public BatchType getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of mutations in the batch
+     */
+    public int size() {
+        return queries.size();
+    }
+
+    /**
+     * @return <tt>true</tt> if the batch has no mutations
+     */
+    public boolean isEmpty() {
+        return queries.isEmpty();
+    }
+
+    /**
+     * @param index
+     *            the index of the mutation
+     * @return the CQL query of the mutation
+     */
+    public String getQuery(final int index) {
+        return queries.get(index);
+    }
+
+    /**
+     * @param index
+     *            the index of the mutation
+     * @return the partition key of the mutation, <code>null</code> if not
+     *         known
+     */
+    public ByteBuffer getPartitionKey(final int index) {
+        return partitionKeys.get(index);
+    }
+
+    /**
+     * @param index
+     *            the index of the mutation
+     * @return the values bound to the mutation
+     */
+    public List<ByteBuffer> getValues(final int index) {
+        return values.get(index);
+    }
+
+    /**
+     * Identifies a set of replicas, whatever their order: the ranges of the
+     * ring owned by the same nodes share the same identifier.
+     */
+    private static String replicaSet(final INode[] replicas) {
+        final String[] ids = new String[replicas.length];
+
+        for (int i = 0; i < replicas.length; i++) {
+            ids[i] = replicas[i].getId();
+        }
+
+        Arrays.sort(ids);
+
+        final StringBuilder builder = new StringBuilder();
+
+        for (final String id : ids) {
+            builder.append(id).append(',');
+        }
+
+        return builder.toString();
+    }
+}
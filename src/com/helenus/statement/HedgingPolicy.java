@@ -0,0 +1,300 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.statement;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.helenus.metrics.LatencyHistogram;
+
+/**
+ * Policy for the speculative, or <i>hedged</i>, execution of idempotent
+ * reads: if a replica has not answered within a delay, the same request is
+ * sent to another replica, and the first response wins.
+ * <p>
+ * The delay is either fixed, or derived from a percentile of the latencies
+ * observed: with the 95th percentile, only the slowest 5% of the requests are
+ * hedged. The percentile is computed over a sliding window of
+ * {@value #WINDOW} milliseconds, and no request is hedged before
+ * {@value #MIN_SAMPLES} latencies have been observed.
+ * <p>
+ * The extra load is capped by a budget: each request earns the given
+ * fraction of a hedge, and each hedge spends a whole one. At most
+ * {@value #MAX_BALANCE} hedges can be saved, so that a long healthy period
+ * does not build a reserve that would hedge every read of the next slowdown,
+ * doubling the load when the cluster is struggling.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class HedgingPolicy {
+    /**
+     * How long, in milliseconds, the latencies are collected before computing
+     * again the delay.
+     */
+    private static final long WINDOW = 1000;
+
+    /**
+     * The minimum number of latencies to compute the delay from.
+     */
+    private static final int MIN_SAMPLES = 100;
+
+    /**
+     * The maximum number of hedges that can be saved in the budget.
+     */
+    private static final int MAX_BALANCE = 10;
+
+    /**
+     * The cost of a hedge in the budget.
+     */
+    private static final long HEDGE_COST = 1000000;
+
+    /**
+     * The fixed delay, in nanoseconds, or <tt>-1</tt> if derived from the
+     * latencies.
+     */
+    private final long fixedDelay;
+
+    /**
+     * The percentile of the latencies used as delay.
+     */
+    private final double percentile;
+
+    /**
+     * The maximum fraction of the requests that can be hedged.
+     */
+    private final double budget;
+
+    /**
+     * The fraction of a hedge earned by a request, in units of the budget.
+     */
+    private final long earned;
+
+    /**
+     * The hedges that can be done now, in units of the budget; it starts
+     * empty.
+     */
+    private final AtomicLong balance;
+
+    /**
+     * The latencies observed in the current window.
+     */
+    private volatile LatencyHistogram window;
+
+    /**
+     * When the current window started, in nanoseconds.
+     */
+    private volatile long windowStart;
+
+    /**
+     * The delay computed from the last window, <tt>-1</tt> if none yet.
+     */
+    private volatile long derivedDelay = -1;
+
+    private final AtomicLong requests;
+    private final AtomicLong hedges;
+    private final AtomicLong hedgesWon;
+
+    /**
+     * Create a new policy, hedging after a fixed delay.
+     * 
+     * @param delay
+     *            how long to wait for the first replica
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>delay</tt> argument
+     * @param budget
+     *            the maximum fraction of the requests that can be hedged,
+     *            like <tt>0.05</tt> for 5% of extra load
+     */
+    public HedgingPolicy(final long delay, final TimeUnit unit, final double budget) {
+        this(unit.toNanos(delay), 0, budget);
+
+        if (delay < 0) {
+            throw new IllegalArgumentException("The delay cannot be negative: " + delay);
+        }
+    }
+
+    /**
+     * Create a new policy, hedging after a percentile of the latencies
+     * observed.
+     * 
+     * @param percentile
+     *            the percentile, between <tt>0</tt> and <tt>100</tt>, like
+     *            <tt>95</tt>
+     * @param budget
+     *            the maximum fraction of the requests that can be hedged,
+     *            like <tt>0.05</tt> for 5% of extra load
+     */
+    public HedgingPolicy(final double percentile, final double budget) {
+        this(-1, percentile, budget);
+
+        if ((percentile <= 0) || (percentile > 100)) {
+            throw new IllegalArgumentException("Percentile must be in (0, 100]: " + percentile);
+        }
+    }
+
+    private HedgingPolicy(final long fixedDelay, final double percentile, final double budget) {
+        if ((budget < 0) || (budget > 1)) {
+            throw new IllegalArgumentException("The budget must be between 0 and 1: " + budget);
+        }
+
+        this.fixedDelay = fixedDelay;
+        this.percentile = percentile;
+        this.budget = budget;
+
+        earned = (long) (budget * HEDGE_COST);
+        balance = new AtomicLong();
+        window = new LatencyHistogram();
+        windowStart = System.nanoTime();
+        requests = new AtomicLong();
+        hedges = new AtomicLong();
+        hedgesWon = new AtomicLong();
+    }
+
+    /**
+     * Signals that a request has been sent, and gets how long to wait for its
+     * response before hedging it.
+     * 
+     * @return the delay, in nanoseconds, or <tt>-1</tt> if the request should
+     *         not be hedged
+     */
+    public long requestStarted() {
+        requests.incrementAndGet();
+        earn();
+
+        return (fixedDelay >= 0) ? fixedDelay : refresh();
+    }
+
+    /**
+     * Records the latency of a response.
+     * 
+     * @param nanos
+     *            the latency, in nanoseconds
+     */
+    public void recordLatency(final long nanos) {
+        window.record(nanos);
+    }
+
+    /**
+     * Asks to hedge a request, within the budget.
+     * 
+     * @return <tt>true</tt> if the request can be hedged, and has been counted
+     *         as such
+     */
+    public boolean tryHedge() {
+        long current;
+
+        do {
+            current = balance.get();
+
+            if (current < HEDGE_COST) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - HEDGE_COST));
+
+        hedges.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Signals that a hedged request answered before the first one.
+     */
+    public void hedgeWon() {
+        hedgesWon.incrementAndGet();
+    }
+
+    /**
+     * @return the delay after which the requests are hedged, in nanoseconds, or
+     *         <tt>-1</tt> if not known yet
+     */
+    public long getDelay() {
+        return (fixedDelay >= 0) ? fixedDelay : derivedDelay;
+    }
+
+    /**
+     * @return the maximum fraction of the requests that can be hedged
+     */
+    public double getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the hedges that can be done now
+     */
+    public double getBalance() {
+        return (double) balance.get() / HEDGE_COST;
+    }
+
+    /**
+     * @return the requests sent so far
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the requests hedged so far
+     */
+    public long getHedges() {
+        return hedges.get();
+    }
+
+    /**
+     * @return the hedged requests that answered before the first ones
+     */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /**
+     * Earns the fraction of a hedge of a request, up to the maximum balance.
+     */
+    private void earn() {
+        long current;
+
+        do {
+            current = balance.get();
+
+            if ((earned == 0) || (current >= (MAX_BALANCE * HEDGE_COST))) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(current + earned, MAX_BALANCE * HEDGE_COST)));
+    }
+
+    /**
+     * Computes again the delay from the latencies of the current window, once
+     * the window is over, and starts a new window.
+     * 
+     * @return the current delay
+     */
+    private long refresh() {
+        final long now = System.nanoTime();
+        final LatencyHistogram current = window;
+
+        if (((now - windowStart) >= TimeUnit.MILLISECONDS.toNanos(WINDOW)) && (current.getCount() >= MIN_SAMPLES)) {
+            synchronized (this) {
+                // Only one thread closes the window
+                if (window == current) {
+                    derivedDelay = current.getPercentile(percentile);
+                    window = new LatencyHistogram();
+                    windowStart = now;
+                }
+            }
+        }
+
+        return derivedDelay;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.statement;
+
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.FrameCodec;
+import com.helenus.protocol.Opcode;
+import com.helenus.result.ColumnDefinitions;
+
+/**
+ * A statement prepared by the nodes: the ID the nodes know it by, and the
+ * definitions of its bound variables and of its result.
+ * <p>
+ * The ID is derived by the nodes from the query and the keyspace, so the same
+ * statement has the same ID on all the nodes it is prepared on.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class PreparedStatement {
+    /**
+     * The kind of the result holding a prepared statement.
+     */
+    private static final int KIND_PREPARED = 0x0004;
+
+    private final String query;
+    private final ByteBuffer id;
+    private final ColumnDefinitions variables;
+    private final ColumnDefinitions resultColumns;
+
+    /**
+     * Create a new prepared statement.
+     * 
+     * @param query
+     *            the CQL query
+     * @param id
+     *            the ID of the statement, it must not be modified afterwards
+     * @param variables
+     *            the bound variables, it can be <code>null</code>
+     * @param resultColumns
+     *            the columns of the result, <code>null</code> if not known
+     */
+    public PreparedStatement(final String query, final ByteBuffer id, final ColumnDefinitions variables,
+            final ColumnDefinitions resultColumns) {
+        this.query = query;
+        this.id = id.asReadOnlyBuffer();
+        this.variables = variables;
+        this.resultColumns = resultColumns;
+    }
+
+    /**
+     * Decodes the response to a <tt>PREPARE</tt> request. The response is
+     * always released: nothing of its body is kept.
+     * 
+     * @param query
+     *            the prepared CQL query
+     * @param response
+     *            the response
+     * @return the prepared statement
+     * @throws QueryException
+     *             if the response is an error
+     * @throws ProtocolException
+     *             if the response is not a prepared statement
+     */
+    public static PreparedStatement decode(final String query, final Frame response) throws QueryException,
+            ProtocolException {
+        final ByteBuffer body = response.getBody().duplicate();
+
+        try {
+            if (response.getOpcode() == Opcode.ERROR) {
+                final int code = body.getInt();
+                throw new QueryException(code, FrameCodec.readString(body));
+            } else if ((response.getOpcode() != Opcode.RESULT) || (body.getInt() != KIND_PREPARED)) {
+                throw new ProtocolException("Unexpected response to a prepare request: " + response.getOpcode());
+            }
+
+            final byte[] id = new byte[body.getShort() & 0xFFFF];
+            body.get(id);
+
+            final ColumnDefinitions variables = ColumnDefinitions.read(body);
+
+            return new PreparedStatement(query, ByteBuffer.wrap(id), variables, ColumnDefinitions.read(body));
+        } catch (final BufferUnderflowException ex) {
+            throw new ProtocolException("Truncated prepared statement");
+        } finally {
+            response.release();
+        }
+    }
+
+    /**
+     * @return the CQL query
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return a read-only view of the ID of the statement
+     */
+    public ByteBuffer getId() {
+        return id.duplicate();
+    }
+
+    /**
+     * @return the bound variables, <code>null</code> if not known
+     */
+    public ColumnDefinitions getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return the columns of the result, <code>null</code> if not known: in
+     *         that case the node has to send them with each result
+     */
+    public ColumnDefinitions getResultColumns() {
+        return resultColumns;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "PreparedStatement [query=" + query + "]";
+    }
+}
@@ -0,0 +1,614 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.statement;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.helenus.concurrent.IResultListener;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.node.IHealthListener;
+import com.helenus.data.node.INode;
+import com.helenus.data.node.NodeState;
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.BatchType;
+import com.helenus.protocol.Consistency;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.Requests;
+import com.helenus.result.ColumnDefinitions;
+import com.helenus.result.ResultSet;
+
+/**
+ * Cache of the prepared statements, by query, keeping track of the nodes each
+ * statement has been prepared on.
+ * <p>
+ * A query is prepared on a node the first time it is executed there, and then
+ * only executed by ID, without sending the metadata of the result again. The
+ * cache holds at most a given number of queries, the least recently used ones
+ * are evicted.
+ * <p>
+ * The preparation of a query on a node is done once: the requests that need
+ * it while it is in flight wait for the same preparation, instead of sending
+ * their own. The same holds when the node answers that it does not know a
+ * statement anymore: the statement is prepared again once, and the requests
+ * are retried.
+ * <p>
+ * A node that has been restarted has lost its prepared statements: when the
+ * circuit of a node closes again, as reported by its
+ * {@link com.helenus.data.node.NodeHealth}, the cache forgets all the
+ * statements prepared on it.
+ * <p>
+ * The statements are identified by their query only: the queries should
+ * qualify their tables with the keyspace, unless all the connections use the
+ * same one.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class PreparedStatementCache {
+    /**
+     * The default number of queries kept in the cache.
+     */
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final int capacity;
+
+    /**
+     * The cached queries, in access order. Guarded by itself.
+     */
+    private final Map<String, CachedQuery> entries;
+
+    /**
+     * The IDs of the nodes whose health is listened to.
+     */
+    private final ConcurrentMap<String, INode> watched;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * Create a new cache, with the default capacity.
+     */
+    public PreparedStatementCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new cache.
+     * 
+     * @param capacity
+     *            the maximum number of queries kept in the cache
+     */
+    public PreparedStatementCache(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+
+        watched = new ConcurrentHashMap<String, INode>();
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        entries = new LinkedHashMap<String, CachedQuery>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2871095530291733126L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedQuery> eldest) {
+                return size() > PreparedStatementCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Prepares a query on a node, unless already prepared or being prepared.
+     * 
+     * @param node
+     *            the node to prepare the query on
+     * @param query
+     *            the CQL query
+     * @param timeout
+     *            how long to wait for a connection, and then for the response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed with the prepared statement, or failed with a
+     *         {@link QueryException} if the node cannot prepare the query
+     */
+    public ResultFuture<PreparedStatement> prepare(final INode node, final String query, final long timeout,
+            final TimeUnit unit) {
+        watch(node);
+
+        final CachedQuery entry = entry(query);
+        final String nodeId = node.getId();
+        ResultFuture<PreparedStatement> future = entry.nodes.get(nodeId);
+
+        if (future == null) {
+            final ResultFuture<PreparedStatement> created = new ResultFuture<PreparedStatement>();
+            future = entry.nodes.putIfAbsent(nodeId, created);
+
+            if (future == null) {
+                future = created;
+                misses.incrementAndGet();
+                prepare(node, entry, created, timeout, unit);
+            } else {
+                hits.incrementAndGet();
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+
+        return future;
+    }
+
+    /**
+     * Executes a query as a prepared statement on a node, preparing it first
+     * if needed.
+     * <p>
+     * If the node does not know the statement anymore, it is prepared again
+     * and the execution is retried once.
+     * 
+     * @param node
+     *            the node to execute the query on
+     * @param query
+     *            the CQL query
+     * @param values
+     *            the serialized values to bind, it can be <code>null</code>
+     * @param consistency
+     *            the consistency level
+     * @param timeout
+     *            how long to wait for each connection, and then for each
+     *            response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed with the result, or failed with a
+     *         {@link QueryException} if the node answered with an error
+     */
+    public ResultFuture<ResultSet> execute(final INode node, final String query, final List<ByteBuffer> values,
+            final Consistency consistency, final long timeout, final TimeUnit unit) {
+        return execute(node, query, values, consistency, 0, null, timeout, unit);
+    }
+
+    /**
+     * Executes a query as a prepared statement on a node, asking for a page of
+     * its result.
+     * 
+     * @param node
+     *            the node to execute the query on
+     * @param query
+     *            the CQL query
+     * @param values
+     *            the serialized values to bind, it can be <code>null</code>
+     * @param consistency
+     *            the consistency level
+     * @param pageSize
+     *            the number of rows of a page, <tt>0</tt> not to page the
+     *            result
+     * @param pagingState
+     *            the paging state of the previous page, <code>null</code> for
+     *            the first page; it must not be modified until the request
+     *            has been sent
+     * @param timeout
+     *            how long to wait for each connection, and then for each
+     *            response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed with the page, or failed with a
+     *         {@link QueryException} if the node answered with an error
+     * @see #execute(INode, String, List, Consistency, long, TimeUnit)
+     */
+    public ResultFuture<ResultSet> execute(final INode node, final String query, final List<ByteBuffer> values,
+            final Consistency consistency, final int pageSize, final ByteBuffer pagingState, final long timeout,
+            final TimeUnit unit) {
+        final ResultFuture<ResultSet> result = new ResultFuture<ResultSet>();
+
+        execute(node, query, new Parameters(values, consistency, pageSize, pagingState), timeout, unit, result, true);
+
+        return result;
+    }
+
+    /**
+     * Executes a batch of prepared statements on a node, preparing them first
+     * if needed. The statements are prepared in parallel.
+     * <p>
+     * If the node does not know a statement anymore, the statements are
+     * prepared again and the batch is retried once.
+     * 
+     * @param node
+     *            the node to execute the batch on
+     * @param batch
+     *            the batch, not empty
+     * @param consistency
+     *            the consistency level
+     * @param timeout
+     *            how long to wait for each connection, and then for each
+     *            response
+     * @param unit
+     *            the {@link TimeUnit} of the <tt>timeout</tt> argument
+     * @return a future completed with the result, or failed with a
+     *         {@link QueryException} if the node answered with an error
+     * @see BatchType
+     */
+    public ResultFuture<ResultSet> execute(final INode node, final Batch batch, final Consistency consistency,
+            final long timeout, final TimeUnit unit) {
+        if (batch.isEmpty()) {
+            throw new IllegalArgumentException("The batch is empty");
+        }
+
+        final ResultFuture<ResultSet> result = new ResultFuture<ResultSet>();
+
+        execute(node, batch, consistency, timeout, unit, result, true);
+
+        return result;
+    }
+
+    /**
+     * Retrieves a prepared statement from the cache.
+     * 
+     * @param query
+     *            the CQL query
+     * @return the statement, or <code>null</code> if it has not been prepared
+     *         yet on any node
+     */
+    public PreparedStatement get(final String query) {
+        final CachedQuery entry;
+
+        synchronized (entries) {
+            entry = entries.get(query);
+        }
+
+        return (entry == null) ? null : entry.statement;
+    }
+
+    /**
+     * Checks if a query has been prepared on a node.
+     * 
+     * @param query
+     *            the CQL query
+     * @param node
+     *            the node
+     * @return <tt>true</tt> if the query is in the cache and has been prepared
+     *         on the node
+     */
+    public boolean isPrepared(final String query, final INode node) {
+        final CachedQuery entry;
+
+        synchronized (entries) {
+            entry = entries.get(query);
+        }
+
+        boolean prepared = false;
+
+        if (entry != null) {
+            final ResultFuture<PreparedStatement> future = entry.nodes.get(node.getId());
+            prepared = (future != null) && future.isDone() && !future.isFailed();
+        }
+
+        return prepared;
+    }
+
+    /**
+     * Forgets all the statements prepared on a node: they will be prepared
+     * again the next time they are executed there.
+     * 
+     * @param node
+     *            the node
+     */
+    public void forget(final INode node) {
+        final List<CachedQuery> snapshot;
+
+        synchronized (entries) {
+            snapshot = new ArrayList<CachedQuery>(entries.values());
+        }
+
+        for (final CachedQuery entry : snapshot) {
+            entry.nodes.remove(node.getId());
+        }
+    }
+
+    /**
+     * Removes all the queries from the cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of queries in the cache
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return the maximum number of queries kept in the cache
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return how many times a query was already prepared, or being prepared,
+     *         on the node
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return how many times a query had to be prepared on a node
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Executes a prepared statement, preparing it again once if the node does
+     * not know it.
+     */
+    private void execute(final INode node, final String query, final Parameters parameters, final long timeout,
+            final TimeUnit unit, final ResultFuture<ResultSet> result, final boolean retry) {
+        final ResultFuture<PreparedStatement> prepared = prepare(node, query, timeout, unit);
+
+        prepared.addListener(new IResultListener<PreparedStatement>() {
+            @Override
+            public void onSuccess(final PreparedStatement statement) {
+                final ColumnDefinitions columns = statement.getResultColumns();
+                final Frame request = Requests.execute(statement.getId(), parameters.values, parameters.consistency,
+                        columns != null, parameters.pageSize, parameters.pagingState);
+
+                node.send(request, timeout, unit).addListener(new IResultListener<Frame>() {
+                    @Override
+                    public void onSuccess(final Frame response) {
+                        try {
+                            final ResultSet set = ResultSet.decode(response, columns);
+
+                            if (!result.complete(set)) {
+                                set.release();
+                            }
+                        } catch (final QueryException ex) {
+                            if (retry && (ex.getCode() == QueryException.UNPREPARED)) {
+                                // Only the first request to fail drops the preparation, the others join the new one
+                                unprepared(query, node, prepared);
+                                execute(node, query, parameters, timeout, unit, result, false);
+                            } else {
+                                result.fail(ex);
+                            }
+                        } catch (final Exception ex) {
+                            result.fail(ex);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable cause) {
+                        result.fail(cause);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                result.fail(cause);
+            }
+        });
+    }
+
+    /**
+     * Prepares all the statements of a batch, and then executes it, preparing
+     * them again once if the node does not know one of them.
+     */
+    private void execute(final INode node, final Batch batch, final Consistency consistency, final long timeout,
+            final TimeUnit unit, final ResultFuture<ResultSet> result, final boolean retry) {
+        final int size = batch.size();
+        final List<ResultFuture<PreparedStatement>> prepared = new ArrayList<ResultFuture<PreparedStatement>>(size);
+        final List<ByteBuffer> ids = new ArrayList<ByteBuffer>(size);
+        final AtomicInteger remaining = new AtomicInteger(size);
+
+        for (int i = 0; i < size; i++) {
+            prepared.add(prepare(node, batch.getQuery(i), timeout, unit));
+            ids.add(null);
+        }
+
+        for (int i = 0; i < size; i++) {
+            final int index = i;
+
+            prepared.get(i).addListener(new IResultListener<PreparedStatement>() {
+                @Override
+                public void onSuccess(final PreparedStatement statement) {
+                    ids.set(index, statement.getId());
+
+                    // The last one to be prepared sends the batch
+                    if (remaining.decrementAndGet() == 0) {
+                        send(node, batch, ids, prepared, consistency, timeout, unit, result, retry);
+                    }
+                }
+
+                @Override
+                public void onFailure(final Throwable cause) {
+                    result.fail(cause);
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends a batch whose statements have all been prepared.
+     */
+    private void send(final INode node, final Batch batch, final List<ByteBuffer> ids,
+            final List<ResultFuture<PreparedStatement>> prepared, final Consistency consistency,
+            final long timeout, final TimeUnit unit, final ResultFuture<ResultSet> result, final boolean retry) {
+        final List<List<ByteBuffer>> values = new ArrayList<List<ByteBuffer>>(batch.size());
+
+        for (int i = 0; i < batch.size(); i++) {
+            values.add(batch.getValues(i));
+        }
+
+        final Frame request = Requests.batch(batch.getType(), ids, values, consistency);
+
+        node.send(request, timeout, unit).addListener(new IResultListener<Frame>() {
+            @Override
+            public void onSuccess(final Frame response) {
+                try {
+                    final ResultSet set = ResultSet.decode(response);
+
+                    if (!result.complete(set)) {
+                        set.release();
+                    }
+                } catch (final QueryException ex) {
+                    if (retry && (ex.getCode() == QueryException.UNPREPARED)) {
+                        for (int i = 0; i < batch.size(); i++) {
+                            unprepared(batch.getQuery(i), node, prepared.get(i));
+                        }
+
+                        execute(node, batch, consistency, timeout, unit, result, false);
+                    } else {
+                        result.fail(ex);
+                    }
+                } catch (final Exception ex) {
+                    result.fail(ex);
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                result.fail(cause);
+            }
+        });
+    }
+
+    /**
+     * Sends the <tt>PREPARE</tt> request of a query to a node. A failed
+     * preparation is removed, so that the next request tries again.
+     */
+    private void prepare(final INode node, final CachedQuery entry, final ResultFuture<PreparedStatement> future,
+            final long timeout, final TimeUnit unit) {
+        final String nodeId = node.getId();
+
+        node.send(Requests.prepare(entry.query), timeout, unit).addListener(new IResultListener<Frame>() {
+            @Override
+            public void onSuccess(final Frame response) {
+                try {
+                    final PreparedStatement statement = PreparedStatement.decode(entry.query, response);
+
+                    entry.statement = statement;
+                    future.complete(statement);
+                } catch (final Exception ex) {
+                    entry.nodes.remove(nodeId, future);
+                    future.fail(ex);
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable cause) {
+                entry.nodes.remove(nodeId, future);
+                future.fail(cause);
+            }
+        });
+    }
+
+    /**
+     * Drops a preparation the node does not know anymore, if it is still the
+     * current one.
+     */
+    private void unprepared(final String query, final INode node, final ResultFuture<PreparedStatement> prepared) {
+        final CachedQuery entry;
+
+        synchronized (entries) {
+            entry = entries.get(query);
+        }
+
+        if (entry != null) {
+            entry.nodes.remove(node.getId(), prepared);
+        }
+    }
+
+    /**
+     * Retrieves the entry of a query, adding it if not in the cache.
+     */
+    private CachedQuery entry(final String query) {
+        synchronized (entries) {
+            CachedQuery entry = entries.get(query);
+
+            if (entry == null) {
+                entry = new CachedQuery(query);
+                entries.put(query, entry);
+            }
+
+            return entry;
+        }
+    }
+
+    /**
+     * Listens to the health of a node, the first time it is seen, to forget
+     * its statements when it comes back after its circuit opened.
+     */
+    private void watch(final INode node) {
+        if (watched.putIfAbsent(node.getId(), node) == null) {
+            node.getHealth().addListener(new IHealthListener() {
+                @Override
+                public void stateChanged(final NodeState previous, final NodeState current) {
+                    if ((previous == NodeState.OPEN) && (current != NodeState.OPEN)) {
+                        forget(node);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * The parameters of the execution of a statement.
+     */
+    private static final class Parameters {
+        private final List<ByteBuffer> values;
+        private final Consistency consistency;
+        private final int pageSize;
+        private final ByteBuffer pagingState;
+
+        Parameters(final List<ByteBuffer> values, final Consistency consistency, final int pageSize,
+                final ByteBuffer pagingState) {
+            this.values = values;
+            this.consistency = consistency;
+            this.pageSize = pageSize;
+            this.pagingState = pagingState;
+        }
+    }
+
+    /**
+     * A cached query: its statement, once prepared, and its preparation on
+     * each node, by node ID.
+     */
+    private static final class CachedQuery {
+        private final String query;
+        private final ConcurrentMap<String, ResultFuture<PreparedStatement>> nodes;
+        private volatile PreparedStatement statement;
+
+        CachedQuery(final String query) {
+            this.query = query;
+
+            nodes = new ConcurrentHashMap<String, ResultFuture<PreparedStatement>>();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package com.helenus.statement;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.helenus.exception.ConnectionException;
+import com.helenus.exception.QueryException;
+
+/**
+ * Policy for retrying the failed requests on another node.
+ * <p>
+ * Only the failures that another node might not have are retried:
+ * <ul>
+ * <li>the requests that surely were not executed, because no connection
+ * could be used, or because the node answered that it is overloaded,
+ * bootstrapping, or without enough live replicas, are always retried</li>
+ * <li>the requests whose outcome is not known, because they timed out or
+ * their connection broke, are retried only if idempotent</li>
+ * </ul>
+ * Requests rejected by the limits of the requests in flight of the client are
+ * never retried.
+ * <p>
+ * Before each retry, the policy waits for a random backoff, up to a delay
+ * doubling at each attempt ("full jitter"), so that the retries of many
+ * clients do not hit the nodes all at once. A request is not retried if the
+ * backoff would go past its deadline.
+ * <p>
+ * The retries are capped by a budget shared by all the requests: each
+ * successful request earns a fraction of a retry, and each retry spends a
+ * whole one. At most {@value #MAX_BALANCE} retries can be saved, which is
+ * also the balance the policy starts with. When the cluster is failing, the
+ * retries soon stop, instead of multiplying the load on the nodes.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class RetryPolicy {
+    /**
+     * The maximum number of retries that can be saved in the budget.
+     */
+    private static final int MAX_BALANCE = 10;
+
+    /**
+     * The cost of a retry in the budget.
+     */
+    private static final long RETRY_COST = 1000000;
+
+    /**
+     * The maximum number of retries of a request.
+     */
+    private final int maxRetries;
+
+    /**
+     * The upper bound of the backoff of the first retry, in nanoseconds.
+     */
+    private final long baseDelay;
+
+    /**
+     * The upper bound of the backoff of any retry, in nanoseconds.
+     */
+    private final long maxDelay;
+
+    /**
+     * The fraction of a retry earned by a successful request, in units of the
+     * budget.
+     */
+    private final long earned;
+
+    /**
+     * The retries that can be done, in units of the budget.
+     */
+    private final AtomicLong balance;
+
+    private final AtomicLong retries;
+    private final AtomicLong exhausted;
+
+    /**
+     * Create a new policy.
+     * 
+     * @param maxRetries
+     *            the maximum number of retries of a request
+     * @param baseDelay
+     *            the upper bound of the backoff of the first retry
+     * @param maxDelay
+     *            the upper bound of the backoff of any retry
+     * @param unit
+     *            the {@link TimeUnit} of the delays
+     * @param ratio
+     *            the retries allowed for each successful request, like
+     *            <tt>0.1</tt> for at most 10% of extra load
+     */
+    public RetryPolicy(final int maxRetries, final long baseDelay, final long maxDelay, final TimeUnit unit,
+            final double ratio) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("The retries cannot be negative: " + maxRetries);
+        }
+
+        if ((baseDelay < 0) || (maxDelay < baseDelay)) {
+            throw new IllegalArgumentException("Invalid delays: " + baseDelay + ", " + maxDelay);
+        }
+
+        if ((ratio < 0) || (ratio > 1)) {
+            throw new IllegalArgumentException("The ratio must be between 0 and 1: " + ratio);
+        }
+
+        this.maxRetries = maxRetries;
+        this.baseDelay = unit.toNanos(baseDelay);
+        this.maxDelay = unit.toNanos(maxDelay);
+
+        earned = (long) (ratio * RETRY_COST);
+        balance = new AtomicLong(MAX_BALANCE * RETRY_COST);
+        retries = new AtomicLong();
+        exhausted = new AtomicLong();
+    }
+
+    /**
+     * Checks if a failure can be retried on another node.
+     * 
+     * @param cause
+     *            the reason of the failure
+     * @param idempotent
+     *            <tt>true</tt> if the request can be safely executed more than
+     *            once
+     * @return <tt>true</tt> if the request can be retried
+     */
+    public boolean isRetryable(final Throwable cause, final boolean idempotent) {
+        boolean retryable = false;
+
+        if (cause instanceof ConnectionException) {
+            retryable = true;
+        } else if (cause instanceof QueryException) {
+            switch (((QueryException) cause).getCode()) {
+                case QueryException.UNAVAILABLE:
+                case QueryException.OVERLOADED:
+                case QueryException.IS_BOOTSTRAPPING:
+                    retryable = true;
+                    break;
+                case QueryException.SERVER_ERROR:
+                case QueryException.READ_TIMEOUT:
+                case QueryException.WRITE_TIMEOUT:
+                    retryable = idempotent;
+                    break;
+                default:
+                    break;
+            }
+        } else if ((cause instanceof TimeoutException) || (cause instanceof IOException)) {
+            retryable = idempotent;
+        }
+
+        return retryable;
+    }
+
+    /**
+     * Gets a random backoff before a retry.
+     * 
+     * @param attempt
+     *            the number of the retry, starting from <tt>1</tt>
+     * @return the backoff, in nanoseconds
+     */
+    public long getBackoff(final int attempt) {
+        final int shift = Math.min(Math.max(attempt - 1, 0), 30);
+        // Clamped before shifting, so that a long base delay cannot overflow
+        final long bound = (baseDelay > (maxDelay >> shift)) ? maxDelay : (baseDelay << shift);
+
+        return (bound > 0) ? ThreadLocalRandom.current().nextLong(bound + 1) : 0;
+    }
+
+    /**
+     * Signals that a request succeeded, earning a fraction of a retry.
+     */
+    public void onSuccess() {
+        long current;
+
+        do {
+            current = balance.get();
+
+            if ((earned == 0) || (current >= (MAX_BALANCE * RETRY_COST))) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(current + earned, MAX_BALANCE * RETRY_COST)));
+    }
+
+    /**
+     * Asks to retry a request, within the budget.
+     * 
+     * @return <tt>true</tt> if the request can be retried, and the retry has
+     *         been spent
+     */
+    public boolean tryRetry() {
+        long current;
+
+        do {
+            current = balance.get();
+
+            if (current < RETRY_COST) {
+                exhausted.incrementAndGet();
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - RETRY_COST));
+
+        retries.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return the maximum number of retries of a request
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * @return the retries that can be done now
+     */
+    public double getBalance() {
+        return (double) balance.get() / RETRY_COST;
+    }
+
+    /**
+     * @return the retries done so far
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * @return the retries not done because the budget was exhausted
+     */
+    public long getExhausted() {
+        return exhausted.get();
+    }
+}
@@ -19,14 +19,44 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import test.buffer.BufferPoolTest;
+import test.cache.RowCacheTest;
+import test.concurrent.InFlightLimiterTest;
 import test.configuration.CassandraConfiguratorTest;
 import test.configuration.HelenusConfiguratorTest;
+import test.connection.NioConnectionTest;
+import test.connection.ThriftConnectionTest;
+import test.load.BulkLoaderTest;
+import test.load.CsvMapperTest;
+import test.load.RecordFormatTest;
+import test.metrics.MetricsTest;
+import test.pool.MultiplexedConnectionsPoolTest;
+import test.pool.NodeHealthTest;
 import test.pool.NodeTest;
+import test.pool.NodesPoolTest;
 import test.pool.SimpleConnectionPoolTest;
+import test.protocol.ProtocolTest;
+import test.result.PagedIteratorTest;
+import test.result.ResultSetTest;
+import test.ring.TokenRingTest;
+import test.statement.BatchTest;
+import test.statement.HedgingPolicyTest;
+import test.statement.HelenusHedgingTest;
+import test.statement.PreparedStatementCacheTest;
+import test.statement.RetryPolicyTest;
+import test.statement.RetryTest;
 
 @RunWith(Suite.class)
 @SuiteClasses({ CassandraConfiguratorTest.class, HelenusConfiguratorTest.class, NodeTest.class,
-                SimpleConnectionPoolTest.class })
+                SimpleConnectionPoolTest.class, NodesPoolTest.class, TokenRingTest.class,
+                NodeHealthTest.class, MetricsTest.class, NioConnectionTest.class,
+                ProtocolTest.class, MultiplexedConnectionsPoolTest.class, BufferPoolTest.class,
+                ResultSetTest.class, PreparedStatementCacheTest.class,
+                ThriftConnectionTest.class, BatchTest.class, PagedIteratorTest.class,
+                InFlightLimiterTest.class, HedgingPolicyTest.class, HelenusHedgingTest.class,
+                RetryPolicyTest.class, RetryTest.class,
+                RowCacheTest.class, RecordFormatTest.class,
+                CsvMapperTest.class, BulkLoaderTest.class })
 public class AllTestsSuite {
     // NOPMD
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.buffer.PooledBuffer;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class BufferPoolTest {
+    /**
+     * A buffer released is handed out again to the same thread.
+     */
+    @Test
+    public void testReuse() {
+        final BufferPool pool = new BufferPool(false);
+        final PooledBuffer first = pool.allocate(100);
+
+        assertTrue(first.buffer().isDirect());
+        assertEquals(256, first.buffer().capacity());
+        assertEquals(100, first.buffer().limit());
+
+        first.buffer().putInt(42);
+        first.release();
+
+        final PooledBuffer second = pool.allocate(200);
+
+        assertSame(first, second);
+        assertEquals(0, second.buffer().position());
+        assertEquals(200, second.buffer().limit());
+        assertEquals(1, pool.getCreated());
+    }
+
+    /**
+     * Requests are served by the smallest class that can hold them, larger
+     * ones are not pooled.
+     */
+    @Test
+    public void testSizeClasses() {
+        final BufferPool pool = new BufferPool(false);
+
+        assertEquals(256, pool.allocate(1).buffer().capacity());
+        assertEquals(512, pool.allocate(257).buffer().capacity());
+        assertEquals(BufferPool.MAX_POOLED, pool.allocate(BufferPool.MAX_POOLED).buffer().capacity());
+        assertEquals(3, pool.getCreated());
+
+        final PooledBuffer large = pool.allocate(BufferPool.MAX_POOLED + 1);
+
+        assertEquals(BufferPool.MAX_POOLED + 1, large.buffer().capacity());
+        assertTrue(large.buffer().isDirect());
+        assertEquals(3, pool.getCreated());
+
+        large.release();
+    }
+
+    /**
+     * Buffers released by a thread whose cache is full go to the shared cache.
+     */
+    @Test
+    public void testSharedCache() throws InterruptedException {
+        final BufferPool pool = new BufferPool(false);
+        final List<PooledBuffer> buffers = new ArrayList<PooledBuffer>();
+
+        for (int i = 0; i < 17; i++) {
+            buffers.add(pool.allocate(1024));
+        }
+
+        final Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (final PooledBuffer buffer : buffers) {
+                    buffer.release();
+                }
+            }
+        });
+
+        releaser.start();
+        releaser.join();
+
+        assertTrue(buffers.contains(pool.allocate(1024)));
+        assertEquals(17, pool.getCreated());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDoubleRelease() {
+        final PooledBuffer buffer = new BufferPool(false).allocate(10);
+
+        buffer.release();
+        buffer.release();
+    }
+
+    /**
+     * With leak detection, the buffers in use are counted, and the buffers
+     * never released are reported.
+     */
+    @Test
+    public void testLeakDetection() throws InterruptedException {
+        final BufferPool pool = new BufferPool(true);
+
+        assertTrue(pool.isLeakDetection());
+
+        pool.allocate(10).release();
+
+        assertEquals(0, pool.getInUse());
+        assertEquals(0, pool.reportLeaks());
+
+        pool.allocate(10);
+
+        assertEquals(1, pool.getInUse());
+
+        final long deadline = System.currentTimeMillis() + 10000;
+
+        while ((pool.reportLeaks() == 0) && (System.currentTimeMillis() < deadline)) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, pool.reportLeaks());
+        assertEquals(0, pool.getInUse());
+    }
+
+    /**
+     * Without leak detection, the buffers in use are not counted.
+     */
+    @Test
+    public void testNoLeakDetection() {
+        final BufferPool pool = new BufferPool(false);
+
+        pool.allocate(10);
+
+        assertFalse(pool.isLeakDetection());
+        assertEquals(0, pool.getInUse());
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.helenus.Helenus;
+import com.helenus.cache.RowCache;
+import com.helenus.cache.RowKey;
+import com.helenus.protocol.Consistency;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.Opcode;
+import com.helenus.result.ColumnDefinitions;
+import com.helenus.result.DataType;
+import com.helenus.result.ResultSet;
+
+import test.statement.FakeServer;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class RowCacheTest {
+    private static final ColumnDefinitions COLUMNS = new ColumnDefinitions(new String[] { "ks" },
+            new String[] { "table" }, new String[] { "id" }, new DataType[] { DataType.INT });
+
+    private static final String QUERY = "SELECT id FROM ks.table WHERE id = ?";
+
+    /**
+     * A cached row is read back only for the same query.
+     */
+    @Test
+    public void testGet() throws Exception {
+        final RowCache cache = new RowCache(100, 0, TimeUnit.SECONDS);
+        final RowKey row = key(1);
+        final ResultSet result = result(1);
+
+        assertNull(cache.get(row, QUERY));
+        assertTrue(cache.put(row, QUERY, result, cache.stamp(row)));
+        assertSame(result, cache.get(key(1), QUERY));
+        assertNull(cache.get(row, "SELECT * FROM ks.table WHERE id = ?"));
+        assertNull(cache.get(new RowKey("other", ByteBuffer.allocate(4).putInt(0, 1)), QUERY));
+
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(0.25, cache.getHitRate(), 0.001);
+    }
+
+    /**
+     * An expired row is not read, and is removed.
+     */
+    @Test
+    public void testExpire() throws Exception {
+        final RowCache cache = new RowCache(100, 50, TimeUnit.MILLISECONDS);
+        final RowKey row = key(1);
+
+        assertTrue(cache.put(row, QUERY, result(1), cache.stamp(row)));
+        assertNotNull(cache.get(row, QUERY));
+
+        Thread.sleep(100);
+
+        assertNull(cache.get(row, QUERY));
+        assertEquals("Wrong expirations", 1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * A row read before it has been written is not cached after the write.
+     */
+    @Test
+    public void testInvalidate() throws Exception {
+        final RowCache cache = new RowCache(100, 0, TimeUnit.SECONDS);
+        final RowKey row = key(1);
+
+        assertTrue(cache.put(row, QUERY, result(1), cache.stamp(row)));
+        cache.invalidate(row);
+        assertNull(cache.get(row, QUERY));
+
+        // Read started before the write, answered after it
+        final long stamp = cache.stamp(row);
+        cache.invalidate(row);
+
+        assertFalse(cache.put(row, QUERY, result(1), stamp));
+        assertNull(cache.get(row, QUERY));
+        assertTrue(cache.put(row, QUERY, result(2), cache.stamp(row)));
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * The rows read often are kept while a scan reads many other rows only
+     * once, and the cache never holds more rows than its capacity.
+     */
+    @Test
+    public void testAdmission() throws Exception {
+        final RowCache cache = new RowCache(100, 0, TimeUnit.SECONDS);
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                read(cache, i);
+            }
+        }
+
+        for (int i = 1000; i < 3000; i++) {
+            read(cache, i);
+            read(cache, i % 50);
+            assertTrue("Over capacity", cache.size() <= 100);
+        }
+
+        int kept = 0;
+
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(key(i), QUERY) != null) {
+                kept++;
+            }
+        }
+
+        assertEquals("Wrong frequent rows kept", 50, kept);
+        assertEquals(100, cache.size());
+        assertEquals("Wrong evictions", 2050 - 100, cache.getEvictions());
+    }
+
+    /**
+     * A cached row is read once, until it is written through the client.
+     */
+    @Test
+    public void testCachedRead() throws Exception {
+        final FakeServer server = new FakeServer();
+        final Helenus helenus = server.client().withRowCache(new RowCache(100, 0, TimeUnit.SECONDS));
+        final RowKey row = new RowKey("ks.t", ByteBuffer.wrap(new byte[] { 1 }));
+        final String query = FakeServer.QUERY;
+
+        for (int i = 0; i < 2; i++) {
+            final ResultSet result = helenus.read(row, query, null, null, Consistency.ONE, 1, TimeUnit.SECONDS).get(
+                    1, TimeUnit.SECONDS);
+
+            assertEquals("value", result.iterator().next().getString(0));
+        }
+
+        assertEquals("Wrong executions", 1, server.getExecutions());
+        assertEquals("Wrong hits", 1, helenus.getRowCache().getHits());
+
+        helenus.execute(row, query, null, Consistency.ONE, 1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS).release();
+        helenus.read(row, query, null, null, Consistency.ONE, 1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS);
+
+        assertEquals("Wrong executions", 3, server.getExecutions());
+    }
+
+    /**
+     * Reads a row through the cache, caching it on a miss.
+     */
+    private static void read(final RowCache cache, final int id) throws Exception {
+        final RowKey row = key(id);
+
+        if (cache.get(row, QUERY) == null) {
+            cache.put(row, QUERY, result(id), cache.stamp(row));
+        }
+    }
+
+    private static RowKey key(final int id) {
+        final ByteBuffer key = ByteBuffer.allocate(4);
+        key.putInt(0, id);
+
+        return new RowKey("ks.table", key);
+    }
+
+    /**
+     * A result with a single row, on the heap.
+     */
+    private static ResultSet result(final int id) throws Exception {
+        final ByteBuffer body = ByteBuffer.allocate(32);
+
+        body.putInt(0x0002).putInt(0x0004).putInt(1).putInt(1).putInt(4).putInt(id);
+        body.flip();
+
+        return ResultSet.decode(new Frame(Opcode.RESULT, body), COLUMNS);
+    }
+}
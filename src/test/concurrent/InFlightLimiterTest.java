@@ -0,0 +1,233 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.helenus.Helenus;
+import com.helenus.concurrent.InFlightLimiter;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.concurrent.SharedScheduler;
+import com.helenus.exception.OverloadedException;
+import com.helenus.protocol.Consistency;
+import com.helenus.result.ResultSet;
+
+import test.statement.FakeServer;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class InFlightLimiterTest {
+    /**
+     * Without a queue, the requests beyond the limit are rejected at once.
+     */
+    @Test
+    public void testReject() throws Exception {
+        final InFlightLimiter limiter = new InFlightLimiter("node", 2, 0);
+
+        assertTrue(limiter.acquire(1, TimeUnit.SECONDS).isDone());
+        assertTrue(limiter.acquire(1, TimeUnit.SECONDS).isDone());
+        assertEquals(2, limiter.getInFlight());
+
+        assertOverloaded(limiter.acquire(1, TimeUnit.SECONDS));
+        assertEquals(1, limiter.getRejected());
+
+        limiter.release();
+
+        assertEquals(1, limiter.getInFlight());
+        assertTrue(limiter.acquire(1, TimeUnit.SECONDS).isDone());
+    }
+
+    /**
+     * A permit released is handed to the oldest waiting request, and the queue
+     * does not grow past its size.
+     */
+    @Test
+    public void testQueue() throws Exception {
+        final InFlightLimiter limiter = new InFlightLimiter("node", 1, 2);
+
+        assertTrue(limiter.acquire(1, TimeUnit.SECONDS).isDone());
+
+        final ResultFuture<Void> first = limiter.acquire(1, TimeUnit.SECONDS);
+        final ResultFuture<Void> second = limiter.acquire(1, TimeUnit.SECONDS);
+
+        assertFalse(first.isDone());
+        assertEquals(2, limiter.getQueued());
+        assertOverloaded(limiter.acquire(1, TimeUnit.SECONDS));
+
+        limiter.release();
+
+        assertTrue(first.isDone() && !first.isFailed());
+        assertFalse(second.isDone());
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(1, limiter.getQueued());
+
+        limiter.release();
+        limiter.release();
+
+        assertTrue(second.isDone() && !second.isFailed());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    /**
+     * A request waiting longer than its timeout is rejected, and leaves the
+     * queue.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        final InFlightLimiter limiter = new InFlightLimiter("node", 1, 1);
+
+        assertTrue(limiter.acquire(1, TimeUnit.SECONDS).isDone());
+
+        final ResultFuture<Void> waiter = limiter.acquire(20, TimeUnit.MILLISECONDS);
+
+        assertOverloaded(waiter);
+        assertEquals(0, limiter.getQueued());
+        assertEquals(1, limiter.getRejected());
+
+        // The permit is not lost to the expired request
+        limiter.release();
+
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    /**
+     * The timeout of a request handed a permit does not stay scheduled until
+     * its deadline.
+     */
+    @Test
+    public void testTimeoutCancelled() throws Exception {
+        final InFlightLimiter limiter = new InFlightLimiter("node", 1, 1);
+        final ScheduledThreadPoolExecutor scheduler = (ScheduledThreadPoolExecutor) SharedScheduler.getInstance();
+
+        assertTrue(limiter.acquire(1, TimeUnit.SECONDS).isDone());
+
+        final int scheduled = scheduler.getQueue().size();
+
+        for (int i = 0; i < 100; i++) {
+            final ResultFuture<Void> waiter = limiter.acquire(1, TimeUnit.HOURS);
+
+            limiter.release();
+            assertTrue(waiter.isDone());
+        }
+
+        // One more for a periodic task rescheduled meanwhile
+        assertTrue("Timeouts still scheduled", scheduler.getQueue().size() <= (scheduled + 1));
+    }
+
+    /**
+     * A request cancelled while waiting for a permit is not sent once the
+     * permit is available.
+     */
+    @Test
+    public void testCancelledRequest() throws Exception {
+        final FakeServer server = new FakeServer();
+        final Helenus helenus = server.client().withInFlightLimits(1, 0, 10);
+
+        server.slow(FakeServer.FIRST);
+
+        final ResultFuture<ResultSet> sent = helenus.execute(FakeServer.QUERY, null, Consistency.ONE, 1,
+                TimeUnit.SECONDS);
+        final ResultFuture<ResultSet> queued = helenus.execute(FakeServer.QUERY, null, Consistency.ONE, 1,
+                TimeUnit.SECONDS);
+
+        assertEquals(1, helenus.getInFlightLimiter().getQueued());
+        assertTrue(queued.cancel(false));
+
+        server.release();
+        sent.get(1, TimeUnit.SECONDS).release();
+
+        assertEquals("Cancelled request sent", 1, server.getExecutions());
+        assertEquals(0, helenus.getInFlightLimiter().getInFlight());
+    }
+
+    /**
+     * The limit holds with many threads acquiring and releasing permits.
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        final int threads = 8;
+        final int requests = 2000;
+        final InFlightLimiter limiter = new InFlightLimiter("node", 3, threads);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < requests; j++) {
+                            limiter.acquire(5, TimeUnit.SECONDS).get();
+
+                            final int current = inFlight.incrementAndGet();
+                            int previous = peak.get();
+
+                            while ((current > previous) && !peak.compareAndSet(previous, current)) {
+                                previous = peak.get();
+                            }
+
+                            completed.incrementAndGet();
+                            inFlight.decrementAndGet();
+                            limiter.release();
+                        }
+                    } catch (final Exception ex) {
+                        failure.compareAndSet(null, ex);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        assertTrue(peak.get() <= 3);
+        assertEquals(threads * requests, completed.get());
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    private static void assertOverloaded(final ResultFuture<Void> future) throws InterruptedException {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            fail("Acquired a permit over the limit");
+        } catch (final ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof OverloadedException);
+        } catch (final TimeoutException ex) {
+            fail("Request neither admitted nor rejected");
+        }
+    }
+}
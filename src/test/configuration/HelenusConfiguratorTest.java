@@ -58,6 +58,17 @@ public class HelenusConfiguratorTest {
         configuration = new Configuration();
         configuration.setRpcPort(4201);
         configuration.setJmxPort(8080);
+        configuration.setMinConnections(2);
+        configuration.setMaxConnections(24);
+        configuration.setIdleTimeout(30000);
+        configuration.setThreadAffine(true);
+        configuration.setPartitioner("org.apache.cassandra.dht.Murmur3Partitioner");
+        configuration.setReplicationFactor(3);
+        configuration.setCompression("lz4");
+        configuration.setCompressionThreshold(1024);
+        configuration.addToken("127.0.0.1", "-9223372036854775808"); // NOPMD
+        configuration.addToken("127.0.1.1", "-3074457345618258603"); // NOPMD
+        configuration.addToken("127.0.1.2", "3074457345618258602"); // NOPMD
         configuration.setNodes(nodes);
         configuration.setClusterName("Test cluster");
         configuration.setKeyspace("Keyspace");
@@ -0,0 +1,813 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.connection.nio.EventLoop;
+import com.helenus.data.connection.nio.EventLoopGroup;
+import com.helenus.data.connection.nio.IConnectionHandler;
+import com.helenus.data.connection.nio.NioConnection;
+import com.helenus.data.connection.nio.NioConnectionFactory;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.FrameCodec;
+import com.helenus.protocol.Lz4Compressor;
+import com.helenus.protocol.Opcode;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class NioConnectionTest {
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private EventLoopGroup group;
+    private EchoServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        group = new EventLoopGroup(2);
+        server = new EchoServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        group.shutdown();
+    }
+
+    /**
+     * Data written from another thread is flushed by the loop, and the echo
+     * is passed to the handler.
+     */
+    @Test
+    public void testWriteAndReceive() throws InterruptedException {
+        final Collector collector = new Collector(10);
+        final NioConnection connection = new NioConnection(LOCALHOST, server.getPort(), group.next())
+                .withHandler(collector);
+
+        assertTrue(connection.open());
+        assertTrue(connection.isOpen());
+
+        assertTrue(connection.write(ByteBuffer.wrap("hello".getBytes(UTF8))));
+        assertTrue(connection.write(ByteBuffer.wrap("world".getBytes(UTF8))));
+
+        assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        assertEquals("helloworld", collector.getData());
+
+        connection.close();
+
+        assertTrue(collector.closed.await(5, TimeUnit.SECONDS));
+        assertFalse(connection.isOpen());
+        assertNull(collector.cause.get());
+        assertFalse(connection.write(ByteBuffer.wrap("late".getBytes(UTF8))));
+    }
+
+    /**
+     * Writes issued before the connection is established are flushed once it
+     * is.
+     */
+    @Test
+    public void testWriteWhileConnecting() throws Exception {
+        final Collector collector = new Collector(4);
+        final NioConnection connection = new NioConnection(LOCALHOST, server.getPort(), group.next())
+                .withHandler(collector);
+
+        connection.connect();
+        connection.write(ByteBuffer.wrap("ping".getBytes(UTF8)));
+        connection.connect().get(5, TimeUnit.SECONDS);
+
+        assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        assertEquals("ping", collector.getData());
+
+        connection.close();
+    }
+
+    /**
+     * Writes issued within the flush delay are flushed together, by a single
+     * gathering write.
+     */
+    @Test
+    public void testCoalescedWrites() throws InterruptedException {
+        final Collector collector = new Collector(10);
+        final NioConnection connection = new NioConnection(LOCALHOST, server.getPort(), group.next())
+                .withCoalescing(200, TimeUnit.MILLISECONDS, 1024).withHandler(collector);
+
+        assertTrue(connection.open());
+
+        for (int i = 0; i < 10; i++) {
+            connection.write(ByteBuffer.wrap(String.valueOf(i).getBytes(UTF8)));
+        }
+
+        assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        assertEquals("0123456789", collector.getData());
+        assertEquals(1, connection.getLoop().getFlushBytes().getCount());
+        assertEquals(10, connection.getLoop().getFlushFrames().getMax());
+
+        connection.close();
+    }
+
+    /**
+     * Writes reaching the bytes threshold are flushed without waiting for the
+     * flush delay.
+     */
+    @Test
+    public void testFlushOnBytes() throws InterruptedException {
+        final Collector collector = new Collector(8);
+        final NioConnection connection = new NioConnection(LOCALHOST, server.getPort(), group.next())
+                .withCoalescing(1, TimeUnit.HOURS, 8).withHandler(collector);
+
+        assertTrue(connection.open());
+
+        connection.write(ByteBuffer.wrap("1234".getBytes(UTF8)));
+        connection.write(ByteBuffer.wrap("5678".getBytes(UTF8)));
+
+        assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        assertEquals("12345678", collector.getData());
+
+        connection.close();
+    }
+
+    /**
+     * Many connections share the few threads of the group.
+     */
+    @Test
+    public void testConnectionsShareLoops() throws IOException {
+        final FrameServer frameServer = new FrameServer(1);
+        frameServer.start();
+
+        final NioConnectionFactory factory = new NioConnectionFactory(group);
+        final List<NioConnection> connections = new ArrayList<NioConnection>();
+        final Set<EventLoop> loops = new HashSet<EventLoop>();
+
+        for (int i = 0; i < 20; i++) {
+            final NioConnection connection = (NioConnection) factory.create(LOCALHOST, frameServer.getPort());
+
+            assertTrue(connection.open());
+            connections.add(connection);
+            loops.add(connection.getLoop());
+        }
+
+        assertEquals(group.size(), loops.size());
+
+        for (final NioConnection connection : connections) {
+            connection.close();
+        }
+
+        frameServer.close();
+    }
+
+    /**
+     * A connection to a closed port fails to open.
+     */
+    @Test
+    public void testOpenRefused() throws IOException, InterruptedException {
+        final ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName(LOCALHOST));
+        final int port = socket.getLocalPort();
+        socket.close();
+
+        final Collector collector = new Collector(0);
+        final NioConnection connection = new NioConnection(LOCALHOST, port, group.next()).withHandler(collector);
+
+        assertFalse(connection.open());
+        assertFalse(connection.isOpen());
+        assertTrue(collector.closed.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * The handler is notified when the node closes the connection.
+     */
+    @Test
+    public void testClosedByNode() throws Exception {
+        final Collector collector = new Collector(0);
+        final NioConnection connection = new NioConnection(LOCALHOST, server.getPort(), group.next())
+                .withHandler(collector);
+
+        assertTrue(connection.open());
+
+        server.close();
+
+        assertTrue(collector.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(collector.cause.get() instanceof IOException);
+        assertFalse(connection.isOpen());
+    }
+
+    /**
+     * The responses are matched to their requests even if they arrive in a
+     * different order.
+     */
+    @Test
+    public void testMultiplexing() throws Exception {
+        final FrameServer frameServer = new FrameServer(8);
+        frameServer.start();
+
+        final NioConnection connection = new NioConnection(LOCALHOST, frameServer.getPort(), group.next());
+        assertTrue(connection.open());
+
+        final List<ResultFuture<Frame>> futures = new ArrayList<ResultFuture<Frame>>();
+
+        for (int i = 0; i < 8; i++) {
+            final ByteBuffer body = ByteBuffer.allocate(4);
+            body.putInt(0, i);
+            futures.add(connection.send(new Frame(Opcode.QUERY, body)));
+        }
+
+        for (int i = 0; i < 8; i++) {
+            final Frame response = futures.get(i).get(5, TimeUnit.SECONDS);
+
+            assertTrue(response.isResponse());
+            assertEquals(Opcode.RESULT, response.getOpcode());
+            assertEquals(i, response.getBody().getInt(0));
+        }
+
+        assertEquals(0, connection.getInFlight());
+
+        connection.close();
+        frameServer.close();
+    }
+
+    /**
+     * The requests sent while the connection is initialized are held until
+     * the node is ready.
+     */
+    @Test
+    public void testRequestsAfterReady() throws Exception {
+        final FrameServer frameServer = new FrameServer(2, 200);
+        frameServer.start();
+
+        final NioConnection connection = new NioConnection(LOCALHOST, frameServer.getPort(), group.next());
+        final ResultFuture<Void> connected = connection.connect();
+        final ResultFuture<Frame> early = connection.send(new Frame(Opcode.QUERY, null));
+
+        assertTrue(connection.open());
+        assertTrue(connected.isDone());
+
+        final Frame response = connection.send(new Frame(Opcode.QUERY, null)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Opcode.RESULT, response.getOpcode());
+        assertEquals(Opcode.RESULT, early.get(5, TimeUnit.SECONDS).getOpcode());
+        assertEquals(0, frameServer.beforeReady.get());
+
+        connection.close();
+        frameServer.close();
+    }
+
+    /**
+     * All the buffers borrowed to encode, read and decode the frames are
+     * given back.
+     */
+    @Test
+    public void testBuffersReleased() throws Exception {
+        final FrameServer frameServer = new FrameServer(1);
+        frameServer.start();
+
+        final BufferPool pool = new BufferPool(true);
+        final NioConnection connection = new NioConnection(LOCALHOST, frameServer.getPort(), group.next())
+                .withBufferPool(pool);
+        assertTrue(connection.open());
+
+        for (int i = 0; i < 4; i++) {
+            final Frame response = connection.send(new Frame(Opcode.QUERY, ByteBuffer.allocate(1000))).get(5,
+                    TimeUnit.SECONDS);
+
+            assertEquals(1000, response.getBody().remaining());
+            assertTrue(response.getBody().isDirect());
+
+            response.release();
+        }
+
+        connection.close();
+
+        final long deadline = System.currentTimeMillis() + 5000;
+
+        while ((pool.getInUse() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, pool.getInUse());
+        assertEquals(0, pool.reportLeaks());
+
+        frameServer.close();
+    }
+
+    /**
+     * A request timed out keeps its stream ID until its response arrives.
+     */
+    @Test
+    public void testSendTimeout() throws Exception {
+        final FrameServer frameServer = new FrameServer(2);
+        frameServer.start();
+
+        final NioConnection connection = new NioConnection(LOCALHOST, frameServer.getPort(), group.next());
+        assertTrue(connection.open());
+
+        final ResultFuture<Frame> late = connection.send(new Frame(Opcode.OPTIONS, null), 50, TimeUnit.MILLISECONDS);
+
+        try {
+            late.get(5, TimeUnit.SECONDS);
+        } catch (final ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+
+        assertEquals(1, connection.getInFlight());
+
+        final Frame response = connection.send(new Frame(Opcode.QUERY, null)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(Opcode.RESULT, response.getOpcode());
+
+        // The late response is sent after the new one
+        final long deadline = System.currentTimeMillis() + 5000;
+
+        while ((connection.getInFlight() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, connection.getInFlight());
+
+        connection.close();
+        frameServer.close();
+    }
+
+    /**
+     * The late response to a request timed out is dropped, and its buffer
+     * given back.
+     */
+    @Test
+    public void testLateResponseReleased() throws Exception {
+        final FrameServer frameServer = new FrameServer(2);
+        frameServer.start();
+
+        final BufferPool pool = new BufferPool(true);
+        final NioConnection connection = new NioConnection(LOCALHOST, frameServer.getPort(), group.next())
+                .withBufferPool(pool);
+        assertTrue(connection.open());
+
+        final ResultFuture<Frame> late = connection.send(new Frame(Opcode.QUERY, ByteBuffer.allocate(1000)), 50,
+                TimeUnit.MILLISECONDS);
+
+        try {
+            late.get(5, TimeUnit.SECONDS);
+        } catch (final ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+
+        connection.send(new Frame(Opcode.QUERY, ByteBuffer.allocate(1000))).get(5, TimeUnit.SECONDS).release();
+
+        final long deadline = System.currentTimeMillis() + 5000;
+
+        while ((connection.getInFlight() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+
+        connection.close();
+
+        while ((pool.getInUse() > 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, pool.getInUse());
+        assertEquals(0, pool.reportLeaks());
+
+        frameServer.close();
+    }
+
+    /**
+     * Closing the connection fails the requests waiting for a response.
+     */
+    @Test
+    public void testCloseFailsPending() throws Exception {
+        final FrameServer frameServer = new FrameServer(100);
+        frameServer.start();
+
+        final NioConnection connection = new NioConnection(LOCALHOST, frameServer.getPort(), group.next());
+        assertTrue(connection.open());
+
+        final ResultFuture<Frame> future = connection.send(new Frame(Opcode.QUERY, null));
+        connection.close();
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (final ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+
+        assertTrue(future.isFailed());
+        assertEquals(0, connection.getInFlight());
+        assertTrue(connection.send(new Frame(Opcode.QUERY, null)).isFailed());
+
+        frameServer.close();
+    }
+
+    /**
+     * Requests cannot be sent on a connection with its own handler.
+     */
+    @Test
+    public void testSendWithOwnHandler() {
+        final Collector collector = new Collector(0);
+        final NioConnection connection = new NioConnection(LOCALHOST, server.getPort(), group.next())
+                .withHandler(collector);
+
+        assertTrue(connection.open());
+        assertTrue(connection.send(new Frame(Opcode.QUERY, null)).isFailed());
+        assertSame(connection, connection.withHandler(null));
+
+        connection.close();
+    }
+
+    /**
+     * The compression is negotiated when the connection opens, and only the
+     * requests above the threshold are compressed.
+     */
+    @Test
+    public void testCompression() throws Exception {
+        final CompressingServer compressingServer = new CompressingServer("snappy", "lz4");
+        compressingServer.start();
+
+        final NioConnection connection = new NioConnection(LOCALHOST, compressingServer.getPort(), group.next())
+                .withCompression(new Lz4Compressor(), 100);
+        assertTrue(connection.open());
+        assertEquals(Lz4Compressor.NAME, connection.getCompression().getName());
+
+        final StringBuilder json = new StringBuilder();
+
+        for (int i = 0; i < 50; i++) {
+            json.append("{\"id\": ").append(i).append(", \"name\": \"helenus\", \"tags\": [\"a\", \"b\"]}");
+        }
+
+        final byte[] large = json.toString().getBytes(UTF8);
+        Frame response = connection.send(new Frame(Opcode.QUERY, ByteBuffer.wrap(large))).get(5, TimeUnit.SECONDS);
+
+        assertEquals(ByteBuffer.wrap(large), response.getBody());
+        assertEquals(0, response.getFlags() & Frame.COMPRESSED);
+        assertEquals(1, compressingServer.compressed.get());
+
+        response.release();
+
+        final byte[] small = "{\"id\": 1}".getBytes(UTF8);
+        response = connection.send(new Frame(Opcode.QUERY, ByteBuffer.wrap(small))).get(5, TimeUnit.SECONDS);
+
+        assertEquals(ByteBuffer.wrap(small), response.getBody());
+        assertEquals(1, compressingServer.compressed.get());
+
+        response.release();
+        connection.close();
+        compressingServer.close();
+    }
+
+    /**
+     * A connection to a node not supporting the compression is used
+     * uncompressed.
+     */
+    @Test
+    public void testCompressionNotSupported() throws Exception {
+        final CompressingServer compressingServer = new CompressingServer("snappy");
+        compressingServer.start();
+
+        final NioConnection connection = new NioConnection(LOCALHOST, compressingServer.getPort(), group.next())
+                .withCompression(new Lz4Compressor(), 0);
+        assertTrue(connection.open());
+        assertNull(connection.getCompression());
+
+        final Frame response = connection.send(new Frame(Opcode.QUERY, ByteBuffer.allocate(2000))).get(5,
+                TimeUnit.SECONDS);
+
+        assertEquals(2000, response.getBody().remaining());
+        assertEquals(0, compressingServer.compressed.get());
+
+        response.release();
+        connection.close();
+        compressingServer.close();
+    }
+
+    /**
+     * Handler collecting the data received.
+     */
+    private static final class Collector implements IConnectionHandler {
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        private final AtomicReference<Throwable> cause = new AtomicReference<Throwable>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private final CountDownLatch received;
+        private final int expected;
+
+        Collector(final int expected) {
+            this.expected = expected;
+            received = new CountDownLatch(1);
+        }
+
+        @Override
+        public void received(final NioConnection connection, final ByteBuffer buffer) {
+            synchronized (data) {
+                while (buffer.hasRemaining()) {
+                    data.write(buffer.get());
+                }
+
+                if (data.size() >= expected) {
+                    received.countDown();
+                }
+            }
+        }
+
+        @Override
+        public void closed(final NioConnection connection, final Throwable throwable) {
+            cause.set(throwable);
+            closed.countDown();
+        }
+
+        String getData() {
+            synchronized (data) {
+                return new String(data.toByteArray(), UTF8);
+            }
+        }
+    }
+
+    /**
+     * Blocking echo server, with a thread per client.
+     */
+    private static class EchoServer extends Thread {
+        private final ServerSocket socket;
+        private final List<Socket> clients = new ArrayList<Socket>();
+
+        EchoServer() throws IOException {
+            super("echo-server");
+
+            socket = new ServerSocket(0, 50, InetAddress.getByName(LOCALHOST));
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket client = socket.accept();
+
+                    synchronized (clients) {
+                        clients.add(client);
+                    }
+
+                    final Thread echo = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(client);
+                        }
+                    });
+
+                    echo.setDaemon(true);
+                    echo.start();
+                }
+            } catch (final IOException ex) {
+                // Closed
+            }
+        }
+
+        void close() throws IOException {
+            socket.close();
+
+            // Wait for a client being accepted to be tracked
+            try {
+                join(1000);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            synchronized (clients) {
+                for (final Socket client : clients) {
+                    client.close();
+                }
+            }
+        }
+
+        void serve(final Socket client) {
+            try {
+                final InputStream in = client.getInputStream();
+                final OutputStream out = client.getOutputStream();
+                final byte[] buffer = new byte[1024];
+                int read = in.read(buffer);
+
+                while (read >= 0) {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                    read = in.read(buffer);
+                }
+            } catch (final IOException ex) {
+                // Closed
+            }
+        }
+    }
+
+    /**
+     * Server answering to the frames received in batches, in reverse order.
+     * The responses echo the body of the requests. The <tt>STARTUP</tt> is
+     * answered on its own, after a delay.
+     */
+    private static final class FrameServer extends EchoServer {
+        private final int batch;
+        private final long readyDelay;
+        private final AtomicInteger beforeReady = new AtomicInteger();
+
+        FrameServer(final int batch) throws IOException {
+            this(batch, 0);
+        }
+
+        FrameServer(final int batch, final long readyDelay) throws IOException {
+            super();
+
+            this.batch = batch;
+            this.readyDelay = readyDelay;
+        }
+
+        @Override
+        void serve(final Socket client) {
+            try {
+                final DataInputStream in = new DataInputStream(client.getInputStream());
+                final OutputStream out = client.getOutputStream();
+                boolean ready = false;
+
+                while (true) {
+                    final List<byte[]> responses = new ArrayList<byte[]>();
+
+                    while (responses.size() < batch) {
+                        final byte[] header = new byte[Frame.HEADER_LENGTH];
+                        in.readFully(header);
+
+                        final ByteBuffer frame = ByteBuffer.allocate(Frame.HEADER_LENGTH
+                                + ByteBuffer.wrap(header).getInt(5));
+                        frame.put(header);
+                        in.readFully(frame.array(), Frame.HEADER_LENGTH, frame.remaining());
+                        frame.put(0, (byte) (Frame.VERSION | Frame.RESPONSE));
+
+                        if (frame.get(4) == Opcode.STARTUP.getCode()) {
+                            Thread.sleep(readyDelay);
+
+                            frame.put(4, (byte) Opcode.READY.getCode());
+                            frame.putInt(5, 0);
+                            out.write(frame.array(), 0, Frame.HEADER_LENGTH);
+                            out.flush();
+                            ready = true;
+                        } else {
+                            if (!ready) {
+                                beforeReady.incrementAndGet();
+                            }
+
+                            frame.put(4, (byte) Opcode.RESULT.getCode());
+                            responses.add(0, frame.array());
+                        }
+                    }
+
+                    for (final byte[] response : responses) {
+                        out.write(response);
+                    }
+
+                    out.flush();
+                }
+            } catch (final IOException ex) {
+                // Closed
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Server negotiating the LZ4 compression, and answering with the body of
+     * the requests, compressed if negotiated.
+     */
+    private static final class CompressingServer extends EchoServer {
+        private final List<String> algorithms;
+        private final AtomicInteger compressed = new AtomicInteger();
+
+        CompressingServer(final String... algorithms) throws IOException {
+            super();
+
+            this.algorithms = Arrays.asList(algorithms);
+        }
+
+        @Override
+        void serve(final Socket client) {
+            final Lz4Compressor lz4 = new Lz4Compressor();
+            boolean compressing = false;
+
+            try {
+                final DataInputStream in = new DataInputStream(client.getInputStream());
+                final DataOutputStream out = new DataOutputStream(client.getOutputStream());
+
+                while (true) {
+                    final byte[] header = new byte[Frame.HEADER_LENGTH];
+                    in.readFully(header);
+
+                    final ByteBuffer head = ByteBuffer.wrap(header);
+                    final byte[] request = new byte[head.getInt(5)];
+                    in.readFully(request);
+
+                    ByteBuffer body = ByteBuffer.wrap(request);
+
+                    if ((head.get(1) & Frame.COMPRESSED) != 0) {
+                        compressed.incrementAndGet();
+
+                        final ByteBuffer decompressed = ByteBuffer.allocate(lz4.decompressedLength(body));
+                        lz4.decompress(body, decompressed);
+                        decompressed.flip();
+                        body = decompressed;
+                    }
+
+                    Opcode opcode = Opcode.RESULT;
+
+                    if (head.get(4) == Opcode.OPTIONS.getCode()) {
+                        opcode = Opcode.SUPPORTED;
+                        body = ByteBuffer.allocate(1024);
+                        body.putShort((short) 1);
+                        FrameCodec.writeString(body, "COMPRESSION");
+                        body.putShort((short) algorithms.size());
+
+                        for (final String algorithm : algorithms) {
+                            FrameCodec.writeString(body, algorithm);
+                        }
+
+                        body.flip();
+                    } else if (head.get(4) == Opcode.STARTUP.getCode()) {
+                        opcode = Opcode.READY;
+
+                        for (int i = body.getShort(); i > 0; i--) {
+                            final String key = FrameCodec.readString(body);
+                            final String value = FrameCodec.readString(body);
+                            compressing |= "COMPRESSION".equals(key) && Lz4Compressor.NAME.equals(value);
+                        }
+
+                        body = ByteBuffer.allocate(0);
+                    }
+
+                    int flags = 0;
+
+                    if (compressing && (opcode == Opcode.RESULT)) {
+                        final ByteBuffer response = ByteBuffer.allocate(lz4.maxCompressedLength(body.remaining()));
+                        lz4.compress(body, response);
+                        response.flip();
+                        body = response;
+                        flags = Frame.COMPRESSED;
+                    }
+
+                    out.writeByte(Frame.VERSION | Frame.RESPONSE);
+                    out.writeByte(flags);
+                    out.writeShort(head.getShort(2));
+                    out.writeByte(opcode.getCode());
+                    out.writeInt(body.remaining());
+                    out.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+                    out.flush();
+                }
+            } catch (final IOException ex) {
+                // Closed
+            }
+        }
+    }
+}
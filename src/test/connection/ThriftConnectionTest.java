@@ -0,0 +1,455 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.connection.nio.EventLoopGroup;
+import com.helenus.data.connection.thrift.Mutation;
+import com.helenus.data.connection.thrift.ThriftConnection;
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.Consistency;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.Opcode;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class ThriftConnectionTest {
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private EventLoopGroup group;
+
+    @Before
+    public void setUp() {
+        group = new EventLoopGroup(1);
+    }
+
+    @After
+    public void tearDown() {
+        group.shutdown();
+    }
+
+    /**
+     * The mutations are encoded as the node expects them.
+     */
+    @Test
+    public void testBatchMutate() throws Exception {
+        final ThriftServer server = new ThriftServer(1);
+        server.start();
+
+        final ThriftConnection connection = new ThriftConnection(LOCALHOST, server.getPort(), group.next())
+                .withKeyspace("ks");
+        assertTrue(connection.open());
+        assertEquals("Wrong keyspace", "ks", server.keyspace);
+
+        final Map<String, List<Mutation>> families = new HashMap<String, List<Mutation>>();
+        families.put("users", Arrays.asList(Mutation.insert(bytes("name"), bytes("milo"), 42L, 3600),
+                Mutation.delete(bytes("email"), 43L)));
+        families.put("logins", Arrays.asList(Mutation.insert(bytes("last"), bytes("today"), 44L, 0)));
+
+        connection.batchMutate(rows(bytes("row"), families), Consistency.QUORUM).get(5, TimeUnit.SECONDS);
+
+        assertEquals("Wrong rows", 1, server.rows.get());
+        assertEquals("Wrong mutations", 3, server.mutations.get());
+        assertEquals("Wrong consistency", 2, server.consistency);
+        assertTrue("Wrong columns: " + server.columns, server.columns.containsAll(Arrays.asList(
+                "users/name=milo@42+3600", "users/-email@43", "logins/last=today@44+0")));
+        assertEquals(0, connection.getInFlight());
+
+        connection.close();
+        server.close();
+    }
+
+    /**
+     * The calls are written without waiting for the replies: the server
+     * answers only once all of them have arrived.
+     */
+    @Test
+    public void testPipelining() throws Exception {
+        final ThriftServer server = new ThriftServer(16);
+        server.start();
+
+        final ThriftConnection connection = new ThriftConnection(LOCALHOST, server.getPort(), group.next());
+        assertTrue(connection.open());
+
+        final List<ResultFuture<Void>> futures = new ArrayList<ResultFuture<Void>>();
+
+        for (int i = 0; i < 16; i++) {
+            final Map<String, List<Mutation>> families = new HashMap<String, List<Mutation>>();
+            families.put("cf", Arrays.asList(Mutation.insert(bytes("c"), bytes("v" + i), i, 0)));
+            futures.add(connection.batchMutate(rows(bytes("row" + i), families), Consistency.ONE));
+        }
+
+        assertEquals("Not pipelined", 16, connection.getInFlight());
+
+        for (final ResultFuture<Void> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals("Wrong rows", 16, server.rows.get());
+        assertEquals(0, connection.getInFlight());
+
+        connection.close();
+        server.close();
+    }
+
+    /**
+     * The exceptions of the node fail the calls, without closing the
+     * connection.
+     */
+    @Test
+    public void testExceptions() throws Exception {
+        final ThriftServer server = new ThriftServer(1);
+        server.start();
+
+        final ThriftConnection invalid = new ThriftConnection(LOCALHOST, server.getPort(), group.next())
+                .withKeyspace(ThriftServer.MISSING);
+        assertFalse("Opened with a missing keyspace", invalid.open());
+
+        final ThriftConnection connection = new ThriftConnection(LOCALHOST, server.getPort(), group.next());
+        assertTrue(connection.open());
+
+        try {
+            connection.setKeyspace(ThriftServer.MISSING).get(5, TimeUnit.SECONDS);
+            fail("Missing keyspace set");
+        } catch (final ExecutionException ex) {
+            assertEquals(QueryException.INVALID, ((QueryException) ex.getCause()).getCode());
+            assertEquals("Keyspace missing", ex.getCause().getMessage());
+        }
+
+        final Map<String, List<Mutation>> families = new HashMap<String, List<Mutation>>();
+        families.put("cf", Arrays.asList(Mutation.delete(bytes("c"), 1L)));
+
+        try {
+            connection.batchMutate(rows(bytes("row"), families), Consistency.ALL).get(5, TimeUnit.SECONDS);
+            fail("Mutations applied");
+        } catch (final ExecutionException ex) {
+            assertEquals(QueryException.UNAVAILABLE, ((QueryException) ex.getCause()).getCode());
+        }
+
+        assertTrue("Connection closed", connection.isOpen());
+        connection.batchMutate(rows(bytes("row"), families), Consistency.ONE).get(5, TimeUnit.SECONDS);
+
+        connection.close();
+        server.close();
+    }
+
+    /**
+     * Closing the connection fails the calls waiting for a reply.
+     */
+    @Test
+    public void testCloseFailsCalls() throws Exception {
+        final ThriftServer server = new ThriftServer(100);
+        server.start();
+
+        final ThriftConnection connection = new ThriftConnection(LOCALHOST, server.getPort(), group.next());
+        assertTrue(connection.open());
+
+        final ResultFuture<Void> future = connection.setKeyspace("ks");
+        connection.close();
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Call completed");
+        } catch (final ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof ClosedChannelException);
+        }
+
+        assertEquals(0, connection.getInFlight());
+        server.close();
+    }
+
+    /**
+     * CQL frames cannot be sent on a Thrift connection.
+     */
+    @Test
+    public void testSendFrame() {
+        final ThriftConnection connection = new ThriftConnection(LOCALHOST, 9160, group.next());
+
+        assertTrue(connection.send(new Frame(Opcode.OPTIONS, null)).isFailed());
+    }
+
+    private static ByteBuffer bytes(final String value) {
+        return ByteBuffer.wrap(value.getBytes(UTF8));
+    }
+
+    private static Map<ByteBuffer, Map<String, List<Mutation>>> rows(final ByteBuffer key,
+            final Map<String, List<Mutation>> families) {
+        final Map<ByteBuffer, Map<String, List<Mutation>>> rows =
+                new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+        rows.put(key, families);
+
+        return rows;
+    }
+
+    /**
+     * Server answering the <tt>set_keyspace</tt> and <tt>batch_mutate</tt>
+     * calls in batches, once all the calls of a batch arrived. It decodes the
+     * mutations, and answers with an exception the keyspace {@link #MISSING}
+     * and the consistency level <tt>ALL</tt>.
+     */
+    private static final class ThriftServer extends Thread {
+        static final String MISSING = "missing";
+
+        private final ServerSocket socket;
+        private final int batch;
+        private final AtomicInteger rows = new AtomicInteger();
+        private final AtomicInteger mutations = new AtomicInteger();
+        private final List<String> columns = new ArrayList<String>();
+        private volatile String keyspace;
+        private volatile int consistency;
+
+        ThriftServer(final int batch) throws IOException {
+            super("thrift-server");
+
+            this.batch = batch;
+
+            socket = new ServerSocket(0, 50, InetAddress.getByName(LOCALHOST));
+            setDaemon(true);
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Socket client = socket.accept();
+                    final Thread serving = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(client);
+                        }
+                    });
+
+                    serving.setDaemon(true);
+                    serving.start();
+                }
+            } catch (final IOException ex) {
+                // Closed
+            }
+        }
+
+        private void serve(final Socket client) {
+            try {
+                final DataInputStream in = new DataInputStream(client.getInputStream());
+                final DataOutputStream out = new DataOutputStream(client.getOutputStream());
+
+                while (true) {
+                    final List<byte[]> replies = new ArrayList<byte[]>();
+
+                    for (int i = 0; i < batch; i++) {
+                        in.readInt();
+                        replies.add(answer(in));
+                    }
+
+                    for (final byte[] reply : replies) {
+                        out.writeInt(reply.length);
+                        out.write(reply);
+                    }
+
+                    out.flush();
+                }
+            } catch (final IOException ex) {
+                // Closed
+            } finally {
+                try {
+                    client.close();
+                } catch (final IOException ex) {
+                    // Closed
+                }
+            }
+        }
+
+        private byte[] answer(final DataInputStream in) throws IOException {
+            assertEquals(0x80010001, in.readInt());
+
+            final String method = readString(in);
+            final int seqid = in.readInt();
+            int exception = 0;
+            String why = null;
+
+            if ("set_keyspace".equals(method)) {
+                assertEquals(11, in.readByte());
+                assertEquals(1, in.readShort());
+                keyspace = readString(in);
+                assertEquals(0, in.readByte());
+
+                if (MISSING.equals(keyspace)) {
+                    exception = 1;
+                    why = "Keyspace missing";
+                }
+            } else {
+                readMutations(in);
+
+                if (consistency == 5) {
+                    exception = 2;
+                }
+            }
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream reply = new DataOutputStream(bytes);
+
+            reply.writeInt(0x80010002);
+            writeString(reply, method);
+            reply.writeInt(seqid);
+
+            if (exception > 0) {
+                reply.writeByte(12);
+                reply.writeShort(exception);
+
+                if (why != null) {
+                    reply.writeByte(11);
+                    reply.writeShort(1);
+                    writeString(reply, why);
+                }
+
+                reply.writeByte(0);
+            }
+
+            reply.writeByte(0);
+
+            return bytes.toByteArray();
+        }
+
+        private void readMutations(final DataInputStream in) throws IOException {
+            assertEquals(13, in.readByte());
+            assertEquals(1, in.readShort());
+            in.readShort();
+
+            for (int row = in.readInt(); row > 0; row--) {
+                readString(in);
+                rows.incrementAndGet();
+                in.readShort();
+
+                for (int family = in.readInt(); family > 0; family--) {
+                    final String name = readString(in);
+                    assertEquals(12, in.readByte());
+
+                    for (int mutation = in.readInt(); mutation > 0; mutation--) {
+                        mutations.incrementAndGet();
+
+                        final short field = field(in);
+                        final String column;
+
+                        if (field == 1) {
+                            // ColumnOrSuperColumn, Column
+                            assertEquals(1, field(in));
+                            assertEquals(1, field(in));
+                            final String key = readString(in);
+                            assertEquals(2, field(in));
+                            final String value = readString(in);
+                            assertEquals(3, field(in));
+                            final long timestamp = in.readLong();
+                            int ttl = 0;
+                            byte type = in.readByte();
+
+                            if (type != 0) {
+                                assertEquals(4, in.readShort());
+                                ttl = in.readInt();
+                                type = in.readByte();
+                            }
+
+                            assertEquals(0, type);
+                            assertEquals(0, in.readByte());
+                            column = name + "/" + key + "=" + value + "@" + timestamp + "+" + ttl;
+                        } else {
+                            // Deletion, SlicePredicate with one name
+                            assertEquals(1, field(in));
+                            final long timestamp = in.readLong();
+                            assertEquals(3, field(in));
+                            assertEquals(1, field(in));
+                            assertEquals(11, in.readByte());
+                            assertEquals(1, in.readInt());
+                            column = name + "/-" + readString(in) + "@" + timestamp;
+                            assertEquals(0, in.readByte());
+                            assertEquals(0, in.readByte());
+                        }
+
+                        assertEquals(0, in.readByte());
+
+                        synchronized (columns) {
+                            columns.add(column);
+                        }
+                    }
+                }
+            }
+
+            assertEquals(2, field(in));
+            consistency = in.readInt();
+            assertEquals(0, in.readByte());
+        }
+
+        /**
+         * Reads the header of a field, skipping its type.
+         */
+        private static short field(final DataInputStream in) throws IOException {
+            in.readByte();
+
+            return in.readShort();
+        }
+
+        private static String readString(final DataInputStream in) throws IOException {
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+
+            return new String(bytes, UTF8);
+        }
+
+        private static void writeString(final DataOutputStream out, final String string) throws IOException {
+            final byte[] bytes = string.getBytes(UTF8);
+
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
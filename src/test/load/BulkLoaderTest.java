@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.helenus.load.BulkLoader;
+import com.helenus.load.CsvMapper;
+import com.helenus.result.DataType;
+
+import test.statement.FakeServer;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class BulkLoaderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A file is loaded in parallel in batches, without a record lost.
+     */
+    @Test
+    public void testLoad() throws Exception {
+        final File file = File.createTempFile("load", ".csv");
+        final StringBuilder content = new StringBuilder("k\n");
+
+        for (int i = 0; i < 1000; i++) {
+            content.append(i).append('\n');
+        }
+
+        final FileOutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(content.append('\n').toString().getBytes(UTF8));
+        } finally {
+            output.close();
+        }
+
+        final FakeServer server = new FakeServer();
+        final BulkLoader loader = new BulkLoader(server.client(), FakeServer.QUERY, new CsvMapper(
+                new DataType[] { DataType.INT }, 0)).withHeader(true).withParallelism(4).withChunkSize(500)
+                .withBatchSize(50).withMaxInFlight(4);
+
+        try {
+            assertEquals("Wrong records", 1000, loader.load(file));
+        } finally {
+            file.delete();
+        }
+
+        assertEquals("Wrong statements", 1000, server.getBatched());
+        assertEquals("Wrong batches", server.getBatches(), loader.getBatches());
+        assertTrue("Chunks not batched apart", loader.getBatches() > 20);
+        assertEquals("Wrong skipped", 1, loader.getSkipped());
+    }
+
+    /**
+     * The settings that would stall a load are rejected.
+     */
+    @Test
+    public void testInvalidSettings() {
+        final BulkLoader loader = new BulkLoader(new FakeServer().client(), FakeServer.QUERY, new CsvMapper(
+                new DataType[] { DataType.INT }, 0));
+
+        for (final int value : new int[] { 0, -1 }) {
+            try {
+                loader.withChunkSize(value);
+                fail("Chunk size accepted: " + value);
+            } catch (final IllegalArgumentException ex) {
+                // Expected
+            }
+
+            try {
+                loader.withMaxInFlight(value);
+                fail("Batches in flight accepted: " + value);
+            } catch (final IllegalArgumentException ex) {
+                // Expected
+            }
+
+            try {
+                loader.withBatchSize(value);
+                fail("Batch size accepted: " + value);
+            } catch (final IllegalArgumentException ex) {
+                // Expected
+            }
+
+            try {
+                loader.withParallelism(value);
+                fail("Parallelism accepted: " + value);
+            } catch (final IllegalArgumentException ex) {
+                // Expected
+            }
+
+            try {
+                loader.withTimeout(value, TimeUnit.SECONDS);
+                fail("Timeout accepted: " + value);
+            } catch (final IllegalArgumentException ex) {
+                // Expected
+            }
+        }
+    }
+}
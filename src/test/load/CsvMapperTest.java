@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.helenus.load.BinaryMapper;
+import com.helenus.load.CsvMapper;
+import com.helenus.result.DataType;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class CsvMapperTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The values are serialized as their type.
+     */
+    @Test
+    public void testTypes() {
+        final CsvMapper mapper = new CsvMapper(new DataType[] { DataType.INT, DataType.BIGINT, DataType.DOUBLE,
+                DataType.BOOLEAN, DataType.UUID, DataType.BLOB, DataType.TEXT }, 0);
+        final UUID uuid = UUID.randomUUID();
+        final List<ByteBuffer> values = map(mapper, "42,-7,1.5,TRUE," + uuid + ",0x0aff,h\u00e9llo");
+
+        assertEquals(42, values.get(0).getInt(0));
+        assertEquals(-7, values.get(1).getLong(0));
+        assertEquals(1.5, values.get(2).getDouble(0), 0);
+        assertEquals(1, values.get(3).get(0));
+        assertEquals(uuid, new UUID(values.get(4).getLong(0), values.get(4).getLong(8)));
+        assertEquals(ByteBuffer.wrap(new byte[] { 0x0A, (byte) 0xFF }), values.get(5));
+        assertEquals("h\u00e9llo", UTF8.decode(values.get(6)).toString());
+        assertEquals("Wrong partition key", values.get(0), mapper.getPartitionKey(values));
+    }
+
+    /**
+     * Quoted values can hold separators and quotes, and empty values are
+     * null unless quoted text.
+     */
+    @Test
+    public void testQuotes() {
+        final CsvMapper mapper = new CsvMapper(new DataType[] { DataType.TEXT, DataType.TEXT, DataType.TEXT,
+                DataType.INT }, 0).withSeparator(';');
+        final List<ByteBuffer> values = map(mapper, "\"a;\"\"b\"\"\";\"\";;");
+
+        assertEquals("a;\"b\"", UTF8.decode(values.get(0)).toString());
+        assertEquals("Wrong quoted empty value", 0, values.get(1).remaining());
+        assertNull(values.get(2));
+        assertNull(values.get(3));
+    }
+
+    /**
+     * Blank lines are skipped, while invalid lines are rejected.
+     */
+    @Test
+    public void testInvalid() {
+        final CsvMapper mapper = new CsvMapper(new DataType[] { DataType.INT, DataType.TEXT }, 0);
+
+        assertFalse(mapper.map(ByteBuffer.allocate(0), new ArrayList<ByteBuffer>()));
+
+        for (final String line : new String[] { "1", "1,a,b", "x,a", "1,\"a" }) {
+            try {
+                map(mapper, line);
+                fail("Invalid line mapped: " + line);
+            } catch (final IllegalArgumentException ex) {
+                // Expected
+            }
+        }
+
+        try {
+            new CsvMapper(new DataType[] { DataType.MAP }, 0);
+            fail("Unsupported type accepted");
+        } catch (final IllegalArgumentException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * A partition key of many values is composed.
+     */
+    @Test
+    public void testCompositeKey() {
+        final CsvMapper mapper = new CsvMapper(new DataType[] { DataType.INT, DataType.TEXT, DataType.TEXT }, 2, 0);
+        final ByteBuffer key = mapper.getPartitionKey(map(mapper, "7,x,ab"));
+
+        final ByteBuffer expected = ByteBuffer.allocate(12);
+        expected.putShort((short) 2).put("ab".getBytes(UTF8)).put((byte) 0);
+        expected.putShort((short) 4).putInt(7).put((byte) 0);
+        expected.flip();
+
+        assertEquals(expected, key);
+        assertNull("Wrong key with a null value", mapper.getPartitionKey(map(mapper, "7,x,")));
+    }
+
+    /**
+     * The values of a binary record are read with their lengths.
+     */
+    @Test
+    public void testBinary() {
+        final BinaryMapper mapper = new BinaryMapper(2, 1);
+        final ByteBuffer record = ByteBuffer.allocate(12);
+        record.putInt(-1).putInt(4).putInt(42);
+        record.flip();
+
+        final List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+
+        assertTrue(mapper.map(record, values));
+        assertNull(values.get(0));
+        assertEquals(42, mapper.getPartitionKey(values).getInt(0));
+        assertEquals("Record modified", 0, record.position());
+    }
+
+    private static List<ByteBuffer> map(final CsvMapper mapper, final String line) {
+        final List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+
+        assertTrue(mapper.map(ByteBuffer.wrap(line.getBytes(UTF8)), values));
+
+        return values;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import com.helenus.load.RecordFormat;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class RecordFormatTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The chunks of a CSV file start after a line ending.
+     */
+    @Test
+    public void testCsvBoundary() throws Exception {
+        final File file = write("a,1\nbb,2\r\nccc,3\n".getBytes(UTF8));
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+
+        try {
+            final FileChannel channel = input.getChannel();
+
+            assertEquals(0, RecordFormat.CSV.boundary(channel, 0, 0));
+            assertEquals(4, RecordFormat.CSV.boundary(channel, 0, 1));
+            assertEquals("Wrong boundary at a record", 4, RecordFormat.CSV.boundary(channel, 0, 4));
+            assertEquals(10, RecordFormat.CSV.boundary(channel, 4, 5));
+            assertEquals("Wrong boundary past the end", 16, RecordFormat.CSV.boundary(channel, 10, 15));
+        } finally {
+            input.close();
+            file.delete();
+        }
+    }
+
+    /**
+     * The lines of a CSV chunk are read without their ending.
+     */
+    @Test
+    public void testCsvRecords() throws Exception {
+        final ByteBuffer chunk = ByteBuffer.wrap("a,1\r\n\nb,2".getBytes(UTF8));
+
+        assertEquals("a,1", UTF8.decode(RecordFormat.CSV.next(chunk)).toString());
+        assertEquals("Wrong blank line", 0, RecordFormat.CSV.next(chunk).remaining());
+        assertEquals("b,2", UTF8.decode(RecordFormat.CSV.next(chunk)).toString());
+        assertNull(RecordFormat.CSV.next(chunk));
+    }
+
+    /**
+     * The chunks of a binary file start at a record, found with the lengths.
+     */
+    @Test
+    public void testBinary() throws Exception {
+        final ByteBuffer records = ByteBuffer.allocate(23);
+        records.putInt(3).put(new byte[] { 1, 2, 3 }).putInt(0).putInt(8).putLong(42);
+        records.flip();
+
+        final File file = write(records.array());
+        final RandomAccessFile input = new RandomAccessFile(file, "r");
+
+        try {
+            final FileChannel channel = input.getChannel();
+
+            assertEquals(7, RecordFormat.BINARY.boundary(channel, 0, 1));
+            assertEquals(11, RecordFormat.BINARY.boundary(channel, 7, 9));
+            assertEquals(23, RecordFormat.BINARY.boundary(channel, 0, 12));
+        } finally {
+            input.close();
+            file.delete();
+        }
+
+        assertEquals(3, RecordFormat.BINARY.next(records).get(2));
+        assertEquals(0, RecordFormat.BINARY.next(records).remaining());
+        assertEquals(42, RecordFormat.BINARY.next(records).getLong(0));
+        assertNull(RecordFormat.BINARY.next(records));
+
+        try {
+            RecordFormat.BINARY.next(ByteBuffer.allocate(6).putInt(0, 4));
+            fail("Truncated record read");
+        } catch (final IOException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * The formats are found by their name, whatever the case.
+     */
+    @Test
+    public void testFromName() {
+        assertEquals(RecordFormat.CSV, RecordFormat.fromName("csv"));
+        assertEquals(RecordFormat.BINARY, RecordFormat.fromName(" Binary "));
+        assertNull(RecordFormat.fromName("json"));
+        assertNull(RecordFormat.fromName(null));
+    }
+
+    private static File write(final byte[] content) throws IOException {
+        final File file = File.createTempFile("records", ".dat");
+        final FileOutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+
+        return file;
+    }
+}
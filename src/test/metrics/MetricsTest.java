@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.nio.EventLoop;
+import com.helenus.data.connection.nio.EventLoopGroup;
+import com.helenus.data.node.Node;
+import com.helenus.metrics.LatencyHistogram;
+import com.helenus.metrics.MBeanRegistry;
+import com.helenus.pool.connections.SimpleConnectionsPool;
+import com.helenus.pool.nodes.RoundRobinNodesPool;
+
+import test.pool.MockConnection;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class MetricsTest {
+    private static final String ADDRESS = "127.0.0.1"; // NOPMD
+    private static final int PORT = 4201;
+
+    /**
+     * The percentiles are within the precision of the buckets.
+     */
+    @Test
+    public final void percentilesTest() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals("Wrong empty percentile", 0, histogram.getPercentile(99));
+
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        assertEquals("Wrong count", 1000, histogram.getCount());
+        assertEquals("Wrong max", TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMax());
+        assertPercentile(500, histogram.getPercentile(50, TimeUnit.MICROSECONDS));
+        assertPercentile(990, histogram.getPercentile(99, TimeUnit.MICROSECONDS));
+        assertPercentile(999, histogram.getPercentile(99.9, TimeUnit.MICROSECONDS));
+        assertEquals("Wrong top percentile", 1000, histogram.getPercentile(100, TimeUnit.MICROSECONDS), 0);
+
+        final LatencyHistogram merged = new LatencyHistogram().merge(histogram).merge(histogram);
+        assertEquals("Wrong merged count", 2000, merged.getCount());
+        assertPercentile(500, merged.getPercentile(50, TimeUnit.MICROSECONDS));
+    }
+
+    /**
+     * The pool counters are exposed through its MBean.
+     * 
+     * @throws JMException
+     */
+    @Test
+    public final void connectionsPoolMBeanTest() throws JMException {
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool(ADDRESS, PORT, 0, 1, new MockConnection.Factory());
+        final ObjectName name = MBeanRegistry.register(pool);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            assertNotNull("MBean not registered", name);
+
+            final IConnection connection = pool.get();
+            assertNull("Connection provided from an exhausted pool", pool.get(0, TimeUnit.MILLISECONDS));
+
+            assertEquals("Wrong active connections", 1, server.getAttribute(name, "ActiveConnections"));
+            assertEquals("Wrong timeouts", 1L, server.getAttribute(name, "Timeouts"));
+            assertEquals("Wrong acquire count", 1L, server.getAttribute(name, "AcquireCount"));
+
+            pool.give(connection);
+            assertEquals("Wrong idle connections", 1, server.getAttribute(name, "IdleConnections"));
+            assertTrue("Wrong latency", ((Double) server.getAttribute(name, "AcquireLatencyP999")).doubleValue() >= 0);
+        } finally {
+            MBeanRegistry.unregister(name);
+        }
+
+        assertFalse("MBean still registered", server.isRegistered(name));
+    }
+
+    /**
+     * The nodes pool MBean aggregates the pools of connections of its nodes.
+     * 
+     * @throws JMException
+     */
+    @Test
+    public final void nodesPoolMBeanTest() throws JMException {
+        final Node node = new Node(ADDRESS, PORT);
+        final SimpleConnectionsPool connections = new SimpleConnectionsPool(ADDRESS, PORT, 0, 2,
+                new MockConnection.Factory());
+        node.setConnectionPool(connections);
+
+        final RoundRobinNodesPool pool = new RoundRobinNodesPool();
+        pool.give(node);
+
+        final ObjectName name = MBeanRegistry.register(pool);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            assertNotNull("MBean not registered", name);
+
+            pool.getConnection();
+            assertEquals("Wrong nodes", 1, server.getAttribute(name, "AvailableNodes"));
+            assertEquals("Wrong active connections", 1, server.getAttribute(name, "ActiveConnections"));
+            assertEquals("Wrong acquire count", 1L, server.getAttribute(name, "AcquireCount"));
+            assertNotNull("No node states", server.getAttribute(name, "NodeStates"));
+        } finally {
+            MBeanRegistry.unregister(name);
+        }
+    }
+
+    private static void assertPercentile(final double expected, final double actual) {
+        assertTrue("Percentile out of precision: " + actual, Math.abs(actual - expected) <= (expected / 8));
+    }
+
+    /**
+     * The MBean of an event loop group aggregates the flushes of its loops,
+     * and is registered only once.
+     */
+    @Test
+    public void testEventLoopGroupMBean() throws JMException {
+        final EventLoopGroup group = new EventLoopGroup(2);
+        final EventLoop first = group.next();
+        final EventLoop second = group.next();
+
+        first.recordFlush(100, 2);
+        second.recordFlush(300, 5);
+
+        final ObjectName name = MBeanRegistry.register(group);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            assertNotNull("MBean not registered", name);
+            assertNull("MBean registered twice", MBeanRegistry.register(group));
+
+            assertEquals("Wrong threads", 2, server.getAttribute(name, "Threads"));
+            assertEquals("Wrong flush count", 2L, server.getAttribute(name, "FlushCount"));
+            assertEquals("Wrong flush bytes", 300L, server.getAttribute(name, "FlushBytesMax"));
+            assertEquals("Wrong flush frames", 3.5, (Double) server.getAttribute(name, "FlushFramesMean"), 0.001);
+        } finally {
+            MBeanRegistry.unregister(name);
+            group.shutdown();
+        }
+    }
+}
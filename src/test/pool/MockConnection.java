@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.pool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.protocol.Frame;
+
+/**
+ * Fake connection used to test the pools, it does not connect anywhere. The
+ * requests sent are echoed back as responses.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class MockConnection implements IConnection {
+
+    /**
+     * Factory creating {@link MockConnection} objects, counting them.
+     */
+    public static final class Factory implements IConnectionFactory {
+        private final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        public IConnection create(final String address, final int port) {
+            created.incrementAndGet();
+            return new MockConnection(address, port);
+        }
+
+        public int getCreated() {
+            return created.get();
+        }
+    }
+
+    private final String address;
+    private final int port;
+    private volatile boolean open;
+    private volatile int inFlight;
+
+    public MockConnection(final String address, final int port) {
+        this.address = address;
+        this.port = port;
+    }
+
+    @Override
+    public boolean open() {
+        open = true;
+        return true;
+    }
+
+    @Override
+    public void close() {
+        open = false;
+    }
+
+    @Override
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public ResultFuture<Frame> send(final Frame request) {
+        return ResultFuture.completed(new Frame(request.getVersion() | Frame.RESPONSE, request.getFlags(), 0,
+                request.getOpcode(), request.getBody()));
+    }
+
+    @Override
+    public ResultFuture<Frame> send(final Frame request, final long timeout, final TimeUnit unit) {
+        return send(request);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public void setInFlight(final int inFlight) {
+        this.inFlight = inFlight;
+    }
+}
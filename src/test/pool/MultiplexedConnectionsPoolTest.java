@@ -0,0 +1,328 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.data.node.Node;
+import com.helenus.pool.connections.MultiplexedConnectionsPool;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.Opcode;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class MultiplexedConnectionsPoolTest {
+    private static final String ADDRESS = "127.0.0.1";
+    private static final int PORT = 9042;
+
+    private MockConnection.Factory factory;
+    private MultiplexedConnectionsPool pool;
+
+    @Before
+    public void setUp() {
+        factory = new MockConnection.Factory();
+        pool = new MultiplexedConnectionsPool(ADDRESS, PORT, 2, factory);
+
+        assertEquals(2, pool.start());
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    /**
+     * The connections are shared, and the least loaded one is handed out.
+     */
+    @Test
+    public void testLeastInFlight() throws Exception {
+        final MockConnection first = (MockConnection) pool.get();
+        first.setInFlight(10);
+
+        final IConnection second = pool.get();
+
+        assertNotSame(first, second);
+        assertSame(second, pool.get());
+        assertSame(second, pool.getAsync(1, TimeUnit.SECONDS).get());
+
+        pool.give(second);
+
+        assertSame(second, pool.get());
+        assertEquals(10, pool.getInFlight());
+        assertEquals(2, factory.getCreated());
+    }
+
+    /**
+     * A connection still open is not discarded, a closed one is replaced.
+     */
+    @Test
+    public void testDiscard() {
+        final IConnection connection = pool.get();
+
+        pool.discard(connection);
+
+        assertTrue(connection.isOpen());
+        assertEquals(2, pool.getOpenConnections());
+
+        pool.close();
+
+        assertEquals(0, pool.getOpenConnections());
+        assertTrue(pool.get().isOpen());
+        assertEquals(2, pool.getOpenConnections());
+        assertEquals(4, factory.getCreated());
+    }
+
+    /**
+     * A dead slot is filled again in the background, while the other
+     * connection is still open.
+     */
+    @Test
+    public void testRefill() throws Exception {
+        final IConnection discarded = pool.get();
+        discarded.close();
+        pool.discard(discarded);
+
+        waitForOpenConnections(2);
+        assertEquals("Discarded slot not filled", 2, pool.getOpenConnections());
+        assertEquals(3, factory.getCreated());
+
+        pool.get().close();
+        assertTrue(pool.get().isOpen());
+
+        waitForOpenConnections(2);
+        assertEquals("Closed slot not filled", 2, pool.getOpenConnections());
+        assertEquals(4, factory.getCreated());
+    }
+
+    /**
+     * An asynchronous request fails once its timeout elapses, while the
+     * connections are still being opened.
+     */
+    @Test
+    public void testAsyncTimeout() throws Exception {
+        final CountDownLatch connected = new CountDownLatch(1);
+        final MultiplexedConnectionsPool slow = new MultiplexedConnectionsPool(ADDRESS, PORT, 2,
+                new IConnectionFactory() {
+                    @Override
+                    public IConnection create(final String address, final int port) {
+                        return new MockConnection(address, port) {
+                            @Override
+                            public boolean open() {
+                                try {
+                                    connected.await();
+                                } catch (final InterruptedException ex) {
+                                    Thread.currentThread().interrupt();
+                                }
+
+                                return super.open();
+                            }
+                        };
+                    }
+                });
+
+        final long start = System.nanoTime();
+
+        try {
+            slow.getAsync(50, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+            fail("Connection retrieved");
+        } catch (final ExecutionException ex) {
+            assertTrue("Wrong cause: " + ex.getCause(), ex.getCause() instanceof TimeoutException);
+        }
+
+        assertFalse("Timeout not honored", (System.nanoTime() - start) > TimeUnit.SECONDS.toNanos(1));
+
+        connected.countDown();
+        slow.close();
+    }
+
+    /**
+     * The asynchronous requests waiting for the connections to be opened
+     * share a single reconnection, instead of each parking a thread on it.
+     */
+    @Test
+    public void testAsyncSharedReconnect() throws Exception {
+        final int requests = 16;
+        final CountDownLatch connected = new CountDownLatch(1);
+        final MultiplexedConnectionsPool slow = new MultiplexedConnectionsPool(ADDRESS, PORT, 2,
+                new IConnectionFactory() {
+                    @Override
+                    public IConnection create(final String address, final int port) {
+                        return new MockConnection(address, port) {
+                            @Override
+                            public boolean open() {
+                                try {
+                                    connected.await();
+                                } catch (final InterruptedException ex) {
+                                    Thread.currentThread().interrupt();
+                                }
+
+                                return super.open();
+                            }
+                        };
+                    }
+                });
+
+        final List<ResultFuture<IConnection>> futures = new ArrayList<ResultFuture<IConnection>>();
+        for (int i = 0; i < requests; i++) {
+            futures.add(slow.getAsync(5, TimeUnit.SECONDS));
+        }
+
+        Thread.sleep(100);
+        assertEquals("Threads parked on the reconnection", 0, countBlocked("helenus-connect"));
+
+        connected.countDown();
+
+        for (final ResultFuture<IConnection> future : futures) {
+            assertTrue("No connection retrieved", future.get(5, TimeUnit.SECONDS).isOpen());
+        }
+
+        slow.close();
+    }
+
+    /**
+     * The requests sharing a connection are tracked one by one by the node.
+     */
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        final int requests = 8;
+        final HoldingConnection connection = new HoldingConnection();
+        final MultiplexedConnectionsPool shared = new MultiplexedConnectionsPool(ADDRESS, PORT, 1,
+                new IConnectionFactory() {
+                    @Override
+                    public IConnection create(final String address, final int port) {
+                        return connection;
+                    }
+                });
+        final Node node = new Node(ADDRESS, PORT); // NOPMD
+        node.setConnectionPool(shared);
+        shared.start();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<ResultFuture<Frame>> futures = Collections
+                .synchronizedList(new ArrayList<ResultFuture<Frame>>());
+        final List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < requests; i++) {
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        futures.add(node.send(new Frame(Opcode.QUERY, ByteBuffer.allocate(0)), 1,
+                                TimeUnit.SECONDS));
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        start.countDown();
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals("Wrong requests in flight", requests, node.getStatistics().getInFlight());
+
+        connection.answer();
+
+        for (final ResultFuture<Frame> future : futures) {
+            assertEquals("Wrong response", Opcode.RESULT, future.get(1, TimeUnit.SECONDS).getOpcode());
+        }
+
+        assertEquals("Wrong requests in flight", 0, node.getStatistics().getInFlight());
+        assertEquals("Wrong connections created", 1, shared.getOpenConnections());
+
+        shared.close();
+    }
+
+    private void waitForOpenConnections(final int expected) throws InterruptedException {
+        for (int i = 0; (i < 100) && (pool.getOpenConnections() < expected); i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static int countBlocked(final String prefix) {
+        int blocked = 0;
+
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix) && (thread.getState() == Thread.State.BLOCKED)) {
+                blocked++;
+            }
+        }
+
+        return blocked;
+    }
+
+    /**
+     * Connection holding the requests until asked to answer them, in reverse
+     * order.
+     */
+    private static final class HoldingConnection extends MockConnection {
+        private final List<ResultFuture<Frame>> held = new ArrayList<ResultFuture<Frame>>();
+
+        HoldingConnection() {
+            super(ADDRESS, PORT);
+        }
+
+        @Override
+        public ResultFuture<Frame> send(final Frame request) {
+            final ResultFuture<Frame> future = new ResultFuture<Frame>();
+
+            synchronized (held) {
+                held.add(future);
+            }
+
+            return future;
+        }
+
+        void answer() {
+            synchronized (held) {
+                for (int i = held.size() - 1; i >= 0; i--) {
+                    held.get(i).complete(new Frame(Frame.VERSION | Frame.RESPONSE, 0, 0, Opcode.RESULT,
+                            ByteBuffer.allocate(0)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.data.node.IHealthProbe;
+import com.helenus.data.node.Node;
+import com.helenus.data.node.NodeHealth;
+import com.helenus.data.node.NodeState;
+import com.helenus.exception.QueryException;
+import com.helenus.pool.connections.SimpleConnectionsPool;
+import com.helenus.pool.nodes.RoundRobinNodesPool;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.Opcode;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class NodeHealthTest {
+    private static final int PORT = 9160;
+    private static final long TIMEOUT = 5000;
+
+    /**
+     * Consecutive failures make the node suspect, then open its circuit, and a
+     * success brings a suspect node back.
+     */
+    @Test
+    public final void thresholdsTest() {
+        final NodeHealth health = new NodeHealth(null).withFailureThresholds(2, 4).withBackoff(1, 1,
+                TimeUnit.HOURS);
+
+        health.onFailure();
+        assertEquals("Wrong state", NodeState.HEALTHY, health.getState());
+        health.onFailure();
+        assertEquals("Wrong state", NodeState.SUSPECT, health.getState());
+        health.onSuccess();
+        assertEquals("Wrong state", NodeState.HEALTHY, health.getState());
+
+        for (int i = 0; i < 4; i++) {
+            health.onFailure();
+        }
+
+        assertEquals("Wrong state", NodeState.OPEN, health.getState());
+        assertFalse("Wrong availability", health.isAvailable());
+
+        // Requests started before the circuit opened do not close it
+        health.onSuccess();
+        assertEquals("Wrong state", NodeState.OPEN, health.getState());
+    }
+
+    /**
+     * The circuit opens when the error rate is too high, even without many
+     * consecutive failures.
+     */
+    @Test
+    public final void errorRateTest() {
+        final NodeHealth health = new NodeHealth(null).withFailureThresholds(3, 100).withRateThresholds(0.2, 0.4)
+                .withBackoff(1, 1, TimeUnit.HOURS);
+
+        for (int i = 0; (i < 100) && health.isAvailable(); i++) {
+            health.onFailure();
+            health.onSuccess();
+        }
+
+        assertEquals("Wrong state", NodeState.OPEN, health.getState());
+    }
+
+    /**
+     * The probes back off until one succeeds, then the node is suspect.
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public final void probeTest() throws InterruptedException {
+        final AtomicInteger probes = new AtomicInteger();
+        final AtomicBoolean reachable = new AtomicBoolean();
+        final NodeHealth health = new NodeHealth(new IHealthProbe() {
+            @Override
+            public boolean probe() {
+                probes.incrementAndGet();
+                return reachable.get();
+            }
+        }).withFailureThresholds(1, 1).withBackoff(5, 20, TimeUnit.MILLISECONDS);
+
+        health.onFailure();
+        assertEquals("Wrong state", NodeState.OPEN, health.getState());
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ((probes.get() < 3) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(5);
+        }
+
+        assertEquals("Wrong state", NodeState.OPEN, health.getState());
+
+        reachable.set(true);
+        while ((health.getState() == NodeState.OPEN) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(5);
+        }
+
+        assertEquals("Wrong state", NodeState.SUSPECT, health.getState());
+        health.onSuccess();
+        assertEquals("Wrong state", NodeState.HEALTHY, health.getState());
+    }
+
+    /**
+     * Nodes with an open circuit are skipped by the nodes pool.
+     */
+    @Test
+    public final void poolSkipTest() {
+        final Node node1 = new Node("127.0.0.1", PORT); // NOPMD
+        final Node node2 = new Node("127.0.0.2", PORT); // NOPMD
+        node1.getHealth().withFailureThresholds(1, 1).withBackoff(1, 1, TimeUnit.HOURS);
+        node2.getHealth().withFailureThresholds(1, 1).withBackoff(1, 1, TimeUnit.HOURS);
+
+        final RoundRobinNodesPool pool = new RoundRobinNodesPool();
+        pool.give(node1);
+        pool.give(node2);
+
+        node1.getHealth().onFailure();
+
+        for (int i = 0; i < 10; i++) {
+            assertSame("Node with open circuit provided", node2, pool.get());
+        }
+
+        node2.getHealth().onFailure();
+        assertNull("Node with open circuit provided", pool.get());
+        assertEquals("Nodes removed from the pool", 2, pool.getNodes().length);
+    }
+
+    /**
+     * A node whose health changes while the pool filters the available nodes
+     * is either in or out, never half way.
+     */
+    @Test
+    public final void poolFlappingTest() {
+        final Node stable = new Node("127.0.0.1", PORT); // NOPMD
+        final Node flapping = new Node("127.0.0.2", PORT) { // NOPMD
+            private final NodeHealth health = new NodeHealth(null) {
+                private boolean available;
+
+                @Override
+                public boolean isAvailable() {
+                    available = !available;
+                    return !available;
+                }
+            };
+
+            @Override
+            public NodeHealth getHealth() {
+                return health;
+            }
+        };
+
+        final RoundRobinNodesPool pool = new RoundRobinNodesPool();
+        pool.give(stable);
+        pool.give(flapping);
+
+        for (int i = 0; i < 10; i++) {
+            assertNotNull("No node provided", pool.get());
+        }
+    }
+
+    /**
+     * An error of the node itself, like an overloaded node, counts as a
+     * failure of the node, while an error of the request does not. The
+     * connection goes back to the pool in both cases.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public final void nodeErrorTest() throws Exception {
+        final AtomicInteger code = new AtomicInteger(QueryException.OVERLOADED);
+        final Node node = new Node("127.0.0.1", PORT); // NOPMD
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool("127.0.0.1", PORT, 1, 1,
+                new IConnectionFactory() {
+                    @Override
+                    public IConnection create(final String address, final int port) {
+                        return new MockConnection(address, port) {
+                            @Override
+                            public ResultFuture<Frame> send(final Frame request) {
+                                final ByteBuffer body = ByteBuffer.allocate(6);
+                                body.putInt(code.get()).putShort((short) 0).flip();
+
+                                return ResultFuture.completed(new Frame(Frame.VERSION | Frame.RESPONSE, 0, 0,
+                                        Opcode.ERROR, body));
+                            }
+                        };
+                    }
+                });
+
+        node.setConnectionPool(pool);
+        node.getHealth().withFailureThresholds(1, 100).withBackoff(1, 1, TimeUnit.HOURS);
+
+        node.send(new Frame(Opcode.QUERY, ByteBuffer.allocate(0)), 1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS)
+                .release();
+        assertEquals("Overloaded node not failed", NodeState.SUSPECT, node.getHealth().getState());
+
+        code.set(QueryException.INVALID);
+        node.send(new Frame(Opcode.QUERY, ByteBuffer.allocate(0)), 1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS)
+                .release();
+        assertEquals("Invalid request failed the node", NodeState.HEALTHY, node.getHealth().getState());
+
+        assertEquals("Connection not given back", 1, pool.getOpenConnections());
+        assertEquals("Connection not given back", 0, pool.getActiveConnections());
+    }
+
+    /**
+     * The probe of a node asks the node itself: a connection idle in the pool
+     * does not close the circuit while the node does not answer.
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public final void nodeProbeTest() throws InterruptedException {
+        final AtomicBoolean answering = new AtomicBoolean();
+        final Node node = new Node("127.0.0.1", PORT); // NOPMD
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool("127.0.0.1", PORT, 1, 1,
+                new IConnectionFactory() {
+                    @Override
+                    public IConnection create(final String address, final int port) {
+                        return new MockConnection(address, port) {
+                            @Override
+                            public ResultFuture<Frame> send(final Frame request) {
+                                if (!answering.get()) {
+                                    return ResultFuture.failed(new TimeoutException());
+                                }
+
+                                return ResultFuture.completed(new Frame(Frame.VERSION | Frame.RESPONSE, 0, 0,
+                                        Opcode.SUPPORTED, ByteBuffer.allocate(2)));
+                            }
+                        };
+                    }
+                });
+
+        node.setConnectionPool(pool);
+        pool.start();
+        node.getHealth().withFailureThresholds(1, 1).withBackoff(5, 20, TimeUnit.MILLISECONDS);
+        node.getHealth().onFailure();
+
+        Thread.sleep(100);
+        assertEquals("Circuit closed by an idle connection", NodeState.OPEN, node.getHealth().getState());
+
+        answering.set(true);
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ((node.getHealth().getState() == NodeState.OPEN) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(5);
+        }
+
+        assertEquals("Wrong state", NodeState.SUSPECT, node.getHealth().getState());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helenus.data.node.INode;
+import com.helenus.data.node.Node;
+import com.helenus.pool.nodes.LatencyAwareNodesPool;
+import com.helenus.pool.nodes.RoundRobinNodesPool;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class NodesPoolTest {
+    private static final int PORT = 9160;
+    private static final int ROUNDS = 100;
+
+    private Node node1;
+    private Node node2;
+    private Node node3;
+
+    @Before
+    public void setUp() {
+        node1 = new Node("127.0.0.1", PORT); // NOPMD
+        node2 = new Node("127.0.0.2", PORT); // NOPMD
+        node3 = new Node("127.0.0.3", PORT); // NOPMD
+    }
+
+    /**
+     * An empty pool does not provide nodes.
+     */
+    @Test
+    public final void emptyPoolTest() {
+        final RoundRobinNodesPool pool = new RoundRobinNodesPool();
+
+        assertNull("Node provided from an empty pool", pool.get());
+        assertNull("Connection provided from an empty pool", pool.getConnection());
+    }
+
+    /**
+     * Each node is provided the same number of times.
+     */
+    @Test
+    public final void roundRobinTest() {
+        final RoundRobinNodesPool pool = new RoundRobinNodesPool();
+        pool.give(node1);
+        pool.give(node2);
+        pool.give(node3);
+        pool.give(node3);
+
+        final Map<INode, Integer> counts = new HashMap<INode, Integer>();
+
+        for (int i = 0; i < (3 * ROUNDS); i++) {
+            final INode node = pool.get();
+            final Integer count = counts.get(node);
+            counts.put(node, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+        }
+
+        assertEquals("Wrong number of nodes provided", 3, counts.size());
+        assertEquals("Nodes not provided in a round-robin way", Integer.valueOf(ROUNDS), counts.get(node1));
+        assertEquals("Nodes not provided in a round-robin way", Integer.valueOf(ROUNDS), counts.get(node2));
+        assertEquals("Nodes not provided in a round-robin way", Integer.valueOf(ROUNDS), counts.get(node3));
+    }
+
+    /**
+     * A removed node is not provided anymore.
+     */
+    @Test
+    public final void removeTest() {
+        final RoundRobinNodesPool pool = new RoundRobinNodesPool();
+        pool.give(node1);
+        pool.give(node2);
+
+        assertTrue("Node not removed", pool.remove(node1));
+        assertFalse("Node removed twice", pool.remove(node1));
+
+        for (int i = 0; i < ROUNDS; i++) {
+            assertSame("Removed node provided", node2, pool.get());
+        }
+    }
+
+    /**
+     * The slower node is avoided, and a node with many requests in flight too.
+     */
+    @Test
+    public final void latencyAwareTest() {
+        final LatencyAwareNodesPool pool = new LatencyAwareNodesPool();
+        pool.give(node1);
+        pool.give(node2);
+
+        node1.getStatistics().recordLatency(50000000L);
+        node2.getStatistics().recordLatency(1000000L);
+
+        for (int i = 0; i < ROUNDS; i++) {
+            assertSame("Slower node provided", node2, pool.get());
+        }
+
+        for (int i = 0; i < ROUNDS; i++) {
+            node2.getStatistics().requestStarted();
+        }
+
+        assertSame("Overloaded node provided", node1, pool.get());
+    }
+}
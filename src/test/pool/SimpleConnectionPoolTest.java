@@ -15,19 +15,50 @@
 */
 package test.pool;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
-import com.helenus.pool.connections.INodesPool;
+import com.helenus.Helenus;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.concurrent.SharedScheduler;
+import com.helenus.configuration.Configuration;
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.data.node.Node;
+import com.helenus.pool.IPool;
 import com.helenus.pool.connections.SimpleConnectionsPool;
+import com.helenus.pool.connections.ThreadAffineConnectionsPool;
 
 public class SimpleConnectionPoolTest {
 
+    private static final String ADDRESS = "127.0.0.1"; // NOPMD
+    private static final int PORT = 4201;
+    private static final int MAX_CONN = 4;
+    private static final int THREADS = 32;
+    private static final int ITERATIONS = 20000;
+
+    private MockConnection.Factory factory;
+
     @BeforeClass
     public static void setUpBeforeClass() {
     }
@@ -38,6 +69,7 @@ public class SimpleConnectionPoolTest {
 
     @Before
     public void setUp() {
+        factory = new MockConnection.Factory();
     }
 
     @After
@@ -46,13 +78,355 @@ public class SimpleConnectionPoolTest {
 
     @Test
     public final void test() {
-        final INodesPool pool1 = new SimpleConnectionsPool("127.0.0.1", 4201);
-        final INodesPool pool2 = new SimpleConnectionsPool("127.0.0.1", 4201);
-        final INodesPool pool3 = new SimpleConnectionsPool("127.0.0.1", 4201);
+        final IPool<IConnection> pool1 = new SimpleConnectionsPool(ADDRESS, PORT);
+        final IPool<IConnection> pool2 = new SimpleConnectionsPool(ADDRESS, PORT);
+        final IPool<IConnection> pool3 = new SimpleConnectionsPool(ADDRESS, PORT);
 
         assertTrue(pool1.getId() != pool2.getId());
         assertTrue(pool2.getId() != pool3.getId());
         assertTrue(pool3.getId() != pool1.getId());
     }
 
+    /**
+     * A given back connection is the first one to be reused.
+     */
+    @Test
+    public final void reuseTest() {
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool(ADDRESS, PORT, MAX_CONN, factory);
+
+        final IConnection connection = pool.get();
+        assertNotNull("No connection retrieved", connection);
+
+        pool.give(connection);
+        assertSame("Connection not reused", connection, pool.get());
+        assertEquals("Wrong number of connections created", 1, factory.getCreated());
+    }
+
+    /**
+     * An exhausted pool does not create more connections than allowed.
+     */
+    @Test
+    public final void exhaustedTest() {
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool(ADDRESS, PORT, MAX_CONN, factory);
+
+        for (int i = 0; i < MAX_CONN; i++) {
+            assertNotNull("No connection retrieved", pool.get(0, TimeUnit.MILLISECONDS));
+        }
+
+        assertNull("Pool is not bounded", pool.get(0, TimeUnit.MILLISECONDS));
+        assertNull("Pool is not bounded", pool.get(10, TimeUnit.MILLISECONDS));
+        assertEquals("Wrong number of connections created", MAX_CONN, factory.getCreated());
+    }
+
+    /**
+     * Stress the pool with concurrent get/give: a connection must never be held
+     * by two threads at the same time, and no connection must be lost.
+     */
+    @Test
+    public final void concurrentStressTest() throws InterruptedException {
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool(ADDRESS, PORT, MAX_CONN, factory);
+        final Set<IConnection> inUse = Collections.synchronizedSet(Collections
+                .newSetFromMap(new IdentityHashMap<IConnection, Boolean>()));
+        final AtomicInteger duplicated = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+
+        for (int i = 0; i < THREADS; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+
+                        for (int j = 0; j < ITERATIONS; j++) {
+                            final IConnection connection = pool.get();
+
+                            if (connection == null) {
+                                failed.incrementAndGet();
+                                continue;
+                            }
+
+                            if (!inUse.add(connection)) {
+                                duplicated.incrementAndGet();
+                            }
+
+                            Thread.yield();
+                            inUse.remove(connection);
+                            pool.give(connection);
+                        }
+                    } catch (final InterruptedException ex) {
+                        failed.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        start.countDown();
+        assertTrue("Stress test did not complete", done.await(60, TimeUnit.SECONDS));
+
+        assertEquals("Connections handed out twice", 0, duplicated.get());
+        assertEquals("Connections not retrieved", 0, failed.get());
+        assertTrue("Too many connections created", factory.getCreated() <= MAX_CONN);
+        assertEquals("Connections leaked", factory.getCreated(), pool.getOpenConnections());
+        assertEquals("Connections still in use", 0, pool.getActiveConnections());
+
+        for (int i = 0; i < MAX_CONN; i++) {
+            assertNotNull("Connection lost", pool.get(0, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * A thread asking again for a connection gets back the one it gave.
+     */
+    @Test
+    public final void threadAffineHitTest() {
+        final ThreadAffineConnectionsPool pool = new ThreadAffineConnectionsPool(new SimpleConnectionsPool(ADDRESS,
+                PORT, MAX_CONN, factory));
+
+        final IConnection connection = pool.get();
+        pool.give(connection);
+
+        assertSame("Connection not reused", connection, pool.get());
+        assertEquals("Wrong number of hits", 1, pool.getThreadHits());
+        assertEquals("Wrong number of misses", 1, pool.getThreadMisses());
+    }
+
+    /**
+     * A connection cached by a thread is stolen when the pool is exhausted.
+     */
+    @Test
+    public final void threadAffineStealTest() throws InterruptedException {
+        final ThreadAffineConnectionsPool pool = new ThreadAffineConnectionsPool(new SimpleConnectionsPool(ADDRESS,
+                PORT, 1, factory));
+
+        final Thread owner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.give(pool.get());
+            }
+        });
+        owner.start();
+        owner.join();
+
+        assertNotNull("Cached connection not stolen", pool.get());
+        assertEquals("Wrong number of connections created", 1, factory.getCreated());
+        assertEquals("Wrong number of hits", 0, pool.getHits());
+    }
+
+    /**
+     * No connection is retrieved, and the thread does not wait forever, when
+     * no connection can be opened.
+     */
+    @Test(timeout = 5000)
+    public final void threadAffineCreationFailureTest() {
+        final ThreadAffineConnectionsPool pool = new ThreadAffineConnectionsPool(new SimpleConnectionsPool(ADDRESS,
+                PORT, MAX_CONN, new IConnectionFactory() {
+                    @Override
+                    public IConnection create(final String address, final int port) {
+                        return new MockConnection(address, port) {
+                            @Override
+                            public boolean open() {
+                                return false;
+                            }
+                        };
+                    }
+                }));
+
+        assertNull("Connection retrieved", pool.get());
+        assertNull("Connection retrieved", pool.get());
+    }
+
+    /**
+     * The nodes get a thread-affine pool when the configuration asks for it.
+     */
+    @Test
+    public final void threadAffineConfigurationTest() {
+        final Configuration configuration = new Configuration();
+        configuration.addNode(ADDRESS + ":" + PORT);
+        configuration.setThreadAffine(true);
+
+        final Helenus helenus = new Helenus().withConfiguration(configuration).withConnectionFactory(factory)
+                .connect();
+        final Node node = (Node) helenus.getConnectionPool().get();
+
+        assertTrue("No thread-affine pool", node.getConnectionPool() instanceof ThreadAffineConnectionsPool);
+        assertNotNull("No connection retrieved", node.getConnection());
+    }
+
+    /**
+     * A connection given back is handed to the oldest asynchronous waiter.
+     */
+    @Test
+    public final void asyncHandOffTest() throws InterruptedException, ExecutionException {
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool(ADDRESS, PORT, 1, factory);
+
+        final IConnection connection = pool.getAsync(1, TimeUnit.SECONDS).get();
+        final ResultFuture<IConnection> first = pool.getAsync(10, TimeUnit.SECONDS);
+        final ResultFuture<IConnection> second = pool.getAsync(10, TimeUnit.SECONDS);
+
+        assertFalse("Waiter completed with the pool exhausted", first.isDone());
+
+        pool.give(connection);
+
+        assertSame("Connection not handed to the oldest waiter", connection, first.get());
+        assertFalse("Waiter completed with the pool exhausted", second.isDone());
+    }
+
+    /**
+     * An asynchronous request does not open the connection on the calling
+     * thread, which can be an event loop.
+     */
+    @Test
+    public final void asyncOpenTest() throws InterruptedException, ExecutionException {
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger openedByCaller = new AtomicInteger();
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool(ADDRESS, PORT, 1, new IConnectionFactory() {
+            @Override
+            public IConnection create(final String address, final int port) {
+                return new MockConnection(address, port) {
+                    @Override
+                    public boolean open() {
+                        if (Thread.currentThread() == caller) {
+                            openedByCaller.incrementAndGet();
+                        }
+
+                        return super.open();
+                    }
+                };
+            }
+        });
+
+        assertNotNull("No connection retrieved", pool.getAsync(1, TimeUnit.SECONDS).get());
+        assertEquals("Connection opened on the calling thread", 0, openedByCaller.get());
+    }
+
+    /**
+     * The timeout of a served asynchronous waiter does not stay scheduled
+     * until its deadline.
+     */
+    @Test
+    public final void asyncTimeoutCancelledTest() throws InterruptedException, ExecutionException {
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool(ADDRESS, PORT, 1, factory);
+        final ScheduledThreadPoolExecutor scheduler = (ScheduledThreadPoolExecutor) SharedScheduler.getInstance();
+        final IConnection connection = pool.get();
+        final int scheduled = scheduler.getQueue().size();
+
+        for (int i = 0; i < 100; i++) {
+            final ResultFuture<IConnection> waiter = pool.getAsync(1, TimeUnit.HOURS);
+
+            pool.give(connection);
+            assertSame("Connection not handed to the waiter", connection, waiter.get());
+        }
+
+        // One more for a periodic task rescheduled meanwhile
+        assertTrue("Timeouts still scheduled", scheduler.getQueue().size() <= (scheduled + 1));
+    }
+
+    /**
+     * An asynchronous waiter fails once its deadline passes.
+     */
+    @Test(expected = TimeoutException.class)
+    public final void asyncTimeoutTest() throws Throwable {
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool(ADDRESS, PORT, 1, factory);
+
+        assertNotNull("No connection retrieved", pool.get());
+
+        try {
+            pool.getAsync(10, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+        } catch (final ExecutionException ex) {
+            assertFalse("Expired waiter still queued", pool.hasWaiters());
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * A thread waiting for a connection still being opened by the start of
+     * the pool parks instead of spinning.
+     */
+    @Test(timeout = 5000)
+    public final void prewarmWaitTest() throws InterruptedException, ExecutionException {
+        final CountDownLatch opened = new CountDownLatch(1);
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool(ADDRESS, PORT, 1, 1, new IConnectionFactory() {
+            @Override
+            public IConnection create(final String address, final int port) {
+                return new MockConnection(address, port) {
+                    @Override
+                    public boolean open() {
+                        try {
+                            opened.await();
+                        } catch (final InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+
+                        return super.open();
+                    }
+                };
+            }
+        });
+        final ResultFuture<Integer> started = pool.start();
+        final AtomicInteger retrieved = new AtomicInteger();
+
+        // The connection is reserved by the start before being opened
+        for (int i = 0; (i < 100) && (pool.getOpenConnections() == 0); i++) {
+            Thread.sleep(5);
+        }
+
+        final Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (pool.get() != null) {
+                    retrieved.incrementAndGet();
+                }
+            }
+        });
+        waiting.start();
+
+        boolean parked = false;
+        for (int i = 0; (i < 100) && !parked; i++) {
+            Thread.sleep(5);
+            parked = waiting.getState() == Thread.State.TIMED_WAITING;
+        }
+
+        opened.countDown();
+        waiting.join();
+
+        assertTrue("Waiting thread not parked", parked);
+        assertEquals("No connection retrieved", 1, retrieved.get());
+        assertEquals("Wrong number of connections pre-opened", Integer.valueOf(1), started.get());
+        pool.close();
+    }
+
+    /**
+     * Starting the pool opens the minimum number of connections, and the idle
+     * ones above the minimum are closed by the reaper.
+     */
+    @Test
+    public final void elasticSizeTest() throws InterruptedException, ExecutionException {
+        final SimpleConnectionsPool pool = new SimpleConnectionsPool(ADDRESS, PORT, 2, MAX_CONN, factory)
+                .withIdleTimeout(50, TimeUnit.MILLISECONDS);
+
+        assertEquals("Wrong number of connections pre-opened", Integer.valueOf(2), pool.start().get());
+        assertEquals("Wrong number of connections open", 2, pool.getOpenConnections());
+
+        final IConnection[] connections = new IConnection[MAX_CONN];
+        for (int i = 0; i < MAX_CONN; i++) {
+            connections[i] = pool.get();
+        }
+
+        assertEquals("Pool did not grow", MAX_CONN, pool.getOpenConnections());
+
+        for (final IConnection connection : connections) {
+            pool.give(connection);
+        }
+
+        for (int i = 0; (i < 50) && (pool.getOpenConnections() > 2); i++) {
+            Thread.sleep(50);
+        }
+
+        assertEquals("Idle connections not closed", 2, pool.getOpenConnections());
+        pool.close();
+    }
 }
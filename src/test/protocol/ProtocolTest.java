@@ -0,0 +1,283 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.buffer.PooledBuffer;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.FrameCodec;
+import com.helenus.protocol.Lz4Compressor;
+import com.helenus.protocol.Opcode;
+import com.helenus.protocol.StreamIdSet;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class ProtocolTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A frame is decoded only once it has been received whole.
+     */
+    @Test
+    public void testEncodeDecode() throws ProtocolException {
+        final Frame request = new Frame(Opcode.QUERY, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        final ByteBuffer encoded = FrameCodec.encode(request, 1234);
+
+        assertEquals(Frame.HEADER_LENGTH + 3, encoded.remaining());
+
+        final ByteBuffer partial = encoded.duplicate();
+        partial.limit(partial.limit() - 1);
+
+        assertNull(FrameCodec.decode(partial));
+        assertEquals(0, partial.position());
+
+        final Frame decoded = FrameCodec.decode(encoded);
+
+        assertEquals(Frame.VERSION, decoded.getVersion());
+        assertFalse(decoded.isResponse());
+        assertEquals(1234, decoded.getStream());
+        assertEquals(Opcode.QUERY, decoded.getOpcode());
+        assertEquals(ByteBuffer.wrap(new byte[] { 1, 2, 3 }), decoded.getBody());
+        assertFalse(encoded.hasRemaining());
+    }
+
+    /**
+     * Frames with an unknown opcode or a bad length are rejected.
+     */
+    @Test(expected = ProtocolException.class)
+    public void testDecodeUnknownOpcode() throws ProtocolException {
+        final ByteBuffer encoded = FrameCodec.encode(new Frame(Opcode.QUERY, null), 1);
+        encoded.put(4, (byte) 0x7F);
+
+        FrameCodec.decode(encoded);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testDecodeBadLength() throws ProtocolException {
+        final ByteBuffer encoded = FrameCodec.encode(new Frame(Opcode.QUERY, null), 1);
+        encoded.putInt(5, -1);
+
+        FrameCodec.decode(encoded);
+    }
+
+    /**
+     * Data of any size and kind is decompressed as it was, from and to buffers
+     * of any kind.
+     */
+    @Test
+    public void testLz4RoundTrip() throws ProtocolException {
+        final Lz4Compressor lz4 = new Lz4Compressor();
+        final Random random = new Random(42);
+        final List<byte[]> inputs = new ArrayList<byte[]>();
+
+        inputs.add(new byte[0]);
+        inputs.add(new byte[] { 1, 2, 3, 4, 5 });
+        inputs.add("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes(UTF8));
+        inputs.add(json(2000).getBytes(UTF8));
+
+        final byte[] noise = new byte[10000];
+        random.nextBytes(noise);
+        inputs.add(noise);
+
+        // Repetitions farther apart than the maximum distance of a match
+        final byte[] far = new byte[200000];
+        random.nextBytes(far);
+        System.arraycopy(far, 0, far, 100000, 1000);
+        inputs.add(far);
+
+        for (final byte[] input : inputs) {
+            for (final boolean direct : new boolean[] { false, true }) {
+                final ByteBuffer source = allocate(input.length + 3, direct);
+                source.position(3);
+                source.put(input);
+                source.position(3);
+
+                final ByteBuffer compressed = allocate(lz4.maxCompressedLength(input.length) + 7, direct);
+                compressed.position(7);
+                lz4.compress(source, compressed);
+                compressed.flip();
+                compressed.position(7);
+
+                assertEquals(3, source.position());
+                assertEquals(input.length, lz4.decompressedLength(compressed));
+
+                final ByteBuffer decompressed = allocate(input.length + 2, !direct);
+                decompressed.position(2);
+                lz4.decompress(compressed, decompressed);
+                decompressed.flip();
+                decompressed.position(2);
+
+                assertEquals(ByteBuffer.wrap(input), decompressed);
+            }
+        }
+    }
+
+    /**
+     * Compressible data gets smaller.
+     */
+    @Test
+    public void testLz4Ratio() {
+        final Lz4Compressor lz4 = new Lz4Compressor();
+        final byte[] input = json(500).getBytes(UTF8);
+        final ByteBuffer compressed = ByteBuffer.allocate(lz4.maxCompressedLength(input.length));
+
+        lz4.compress(ByteBuffer.wrap(input), compressed);
+
+        assertTrue(compressed.position() < (input.length / 4));
+    }
+
+    /**
+     * A block written by hand, with overlapping matches, as any LZ4 compressor
+     * could produce.
+     */
+    @Test
+    public void testLz4Block() throws ProtocolException {
+        final ByteBuffer block = ByteBuffer.wrap(new byte[] { 0, 0, 0, 20, 0x38, 'a', 'b', 'c', 3, 0, 0x50, 'a', 'b',
+                'c', 'a', 'b' });
+        final ByteBuffer decompressed = ByteBuffer.allocate(20);
+
+        new Lz4Compressor().decompress(block, decompressed);
+
+        assertEquals(ByteBuffer.wrap("abcabcabcabcabcabcab".getBytes(UTF8)), decompressed.flip());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testLz4Truncated() throws ProtocolException {
+        final Lz4Compressor lz4 = new Lz4Compressor();
+        final byte[] input = json(100).getBytes(UTF8);
+        final ByteBuffer compressed = ByteBuffer.allocate(lz4.maxCompressedLength(input.length));
+
+        lz4.compress(ByteBuffer.wrap(input), compressed);
+        compressed.flip();
+        compressed.limit(compressed.limit() - 3);
+
+        lz4.decompress(compressed, ByteBuffer.allocate(input.length));
+    }
+
+    /**
+     * A frame is compressed only if it gets smaller, and decompressed back.
+     */
+    @Test
+    public void testCompressedFrame() throws ProtocolException {
+        final BufferPool pool = new BufferPool(true);
+        final Lz4Compressor lz4 = new Lz4Compressor();
+        final byte[] json = json(100).getBytes(UTF8);
+
+        PooledBuffer encoded = FrameCodec.encode(new Frame(Opcode.QUERY, ByteBuffer.wrap(json)), 7, pool, lz4);
+        Frame decoded = FrameCodec.decode(encoded.buffer(), pool);
+        encoded.release();
+
+        assertEquals(Frame.COMPRESSED, decoded.getFlags());
+        assertTrue(decoded.getBody().remaining() < json.length);
+
+        decoded = FrameCodec.decompress(decoded, lz4, pool);
+
+        assertEquals(0, decoded.getFlags());
+        assertEquals(7, decoded.getStream());
+        assertEquals(ByteBuffer.wrap(json), decoded.getBody());
+
+        decoded.release();
+
+        final byte[] noise = new byte[1000];
+        new Random(42).nextBytes(noise);
+
+        encoded = FrameCodec.encode(new Frame(Opcode.QUERY, ByteBuffer.wrap(noise)), 7, pool, lz4);
+        decoded = FrameCodec.decode(encoded.buffer(), pool);
+        encoded.release();
+
+        assertEquals(0, decoded.getFlags());
+        assertEquals(ByteBuffer.wrap(noise), decoded.getBody());
+
+        decoded.release();
+
+        assertEquals(0, pool.getInUse());
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void testCompressedFrameNotNegotiated() throws ProtocolException {
+        final Frame frame = new Frame(Frame.VERSION | Frame.RESPONSE, Frame.COMPRESSED, 1, Opcode.RESULT,
+                ByteBuffer.allocate(8));
+
+        FrameCodec.decompress(frame, null, new BufferPool(false));
+    }
+
+    /**
+     * All the IDs can be taken, each one once, and given back.
+     */
+    @Test
+    public void testStreamIds() {
+        final StreamIdSet streams = new StreamIdSet(128);
+        final Set<Integer> ids = new HashSet<Integer>();
+
+        for (int i = 0; i < 128; i++) {
+            final int id = streams.acquire();
+
+            assertTrue(id >= 0 && id < 128);
+            assertTrue(ids.add(id));
+        }
+
+        assertEquals(-1, streams.acquire());
+        assertEquals(128, streams.getInUse());
+
+        streams.release(77);
+
+        assertEquals(77, streams.acquire());
+
+        for (final Integer id : ids) {
+            streams.release(id);
+        }
+
+        assertEquals(0, streams.getInUse());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseNotInUse() {
+        new StreamIdSet(64).release(3);
+    }
+
+    private static ByteBuffer allocate(final int capacity, final boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static String json(final int records) {
+        final StringBuilder json = new StringBuilder("[");
+
+        for (int i = 0; i < records; i++) {
+            json.append("{\"id\": ").append(i).append(", \"name\": \"user").append(i % 17)
+                    .append("\", \"active\": ").append(i % 2 == 0).append("},");
+        }
+
+        return json.append("]").toString();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.buffer.PooledBuffer;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.Opcode;
+import com.helenus.result.ColumnDefinitions;
+import com.helenus.result.DataType;
+import com.helenus.result.IPageFetcher;
+import com.helenus.result.PagedIterator;
+import com.helenus.result.ResultSet;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class PagedIteratorTest {
+    private static final ColumnDefinitions COLUMNS = new ColumnDefinitions(new String[] { "ks" },
+            new String[] { "table" }, new String[] { "id" }, new DataType[] { DataType.INT });
+
+    /**
+     * All the rows are read in order, across the pages.
+     */
+    @Test
+    public void testIterate() throws Exception {
+        final Fetcher fetcher = new Fetcher(new BufferPool(true), 3, 2, true);
+        final PagedIterator iterator = new PagedIterator(fetcher, 1, TimeUnit.SECONDS);
+        int expected = 0;
+
+        while (iterator.hasNext()) {
+            assertEquals(expected++, iterator.next().getInt(0));
+        }
+
+        assertEquals(6, expected);
+        assertEquals(3, iterator.getPages());
+        assertEquals(3, fetcher.requests.size());
+        assertNull(fetcher.states.get(0));
+        assertEquals(1, fetcher.states.get(1).getInt(0));
+        assertEquals(2, fetcher.states.get(2).getInt(0));
+        assertEquals(0, fetcher.pool.getInUse());
+    }
+
+    /**
+     * The next page is requested as soon as the current one arrives, and no
+     * more than two pages are held.
+     */
+    @Test
+    public void testPrefetch() throws Exception {
+        final Fetcher fetcher = new Fetcher(new BufferPool(true), 3, 2, false);
+        final PagedIterator iterator = new PagedIterator(fetcher, 1, TimeUnit.SECONDS);
+
+        assertEquals(1, fetcher.requests.size());
+
+        fetcher.answer(0);
+
+        assertEquals(0, iterator.next().getInt(0));
+        assertEquals(2, fetcher.requests.size());
+
+        fetcher.answer(1);
+
+        // The first page has not been read to the end: nothing else requested
+        assertEquals(2, fetcher.requests.size());
+        assertEquals(2, fetcher.pool.getInUse());
+        assertEquals(1, iterator.next().getInt(0));
+        assertEquals(2, iterator.next().getInt(0));
+
+        // The first page is released once the second is read
+        assertEquals(1, fetcher.pool.getInUse());
+        assertEquals(3, fetcher.requests.size());
+
+        iterator.close();
+        fetcher.answer(2);
+
+        assertEquals(0, fetcher.pool.getInUse());
+        assertFalse(iterator.hasNext());
+    }
+
+    /**
+     * Closing the iterator releases the pages.
+     */
+    @Test
+    public void testClose() throws Exception {
+        final Fetcher fetcher = new Fetcher(new BufferPool(true), 2, 2, true);
+        final PagedIterator iterator = new PagedIterator(fetcher, 1, TimeUnit.SECONDS);
+
+        assertEquals(0, iterator.next().getInt(0));
+        assertEquals(2, fetcher.pool.getInUse());
+
+        iterator.close();
+        iterator.close();
+
+        assertEquals(0, fetcher.pool.getInUse());
+        assertFalse(iterator.hasNext());
+    }
+
+    /**
+     * A page that cannot be fetched fails the iteration with its cause.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        final Fetcher fetcher = new Fetcher(new BufferPool(true), 2, 1, false);
+        final PagedIterator iterator = new PagedIterator(fetcher, 1, TimeUnit.SECONDS);
+        final QueryException cause = new QueryException(0x1200, "Read timeout");
+
+        fetcher.answer(0);
+
+        assertEquals(0, iterator.next().getInt(0));
+
+        fetcher.requests.get(1).fail(cause);
+
+        try {
+            iterator.hasNext();
+            fail("Fetched a failed page");
+        } catch (final IllegalStateException ex) {
+            assertSame(cause, ex.getCause());
+        }
+
+        assertEquals(0, fetcher.pool.getInUse());
+        assertFalse(iterator.hasNext());
+    }
+
+    /**
+     * A page that does not arrive in time fails the iteration.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        final Fetcher fetcher = new Fetcher(new BufferPool(true), 1, 1, false);
+        final PagedIterator iterator = new PagedIterator(fetcher, 10, TimeUnit.MILLISECONDS);
+
+        try {
+            iterator.hasNext();
+            fail("Fetched a page never sent");
+        } catch (final IllegalStateException ex) {
+            assertTrue(ex.getMessage().startsWith("Timed out"));
+        }
+    }
+
+    /**
+     * Serves pages of consecutive integers, each with the index of the next
+     * page as its paging state.
+     */
+    private static final class Fetcher implements IPageFetcher {
+        private final BufferPool pool;
+        private final int pages;
+        private final int rows;
+        private final boolean immediate;
+        private final List<ResultFuture<ResultSet>> requests = new ArrayList<ResultFuture<ResultSet>>();
+        private final List<ByteBuffer> states = new ArrayList<ByteBuffer>();
+
+        Fetcher(final BufferPool pool, final int pages, final int rows, final boolean immediate) {
+            this.pool = pool;
+            this.pages = pages;
+            this.rows = rows;
+            this.immediate = immediate;
+        }
+
+        @Override
+        public ResultFuture<ResultSet> fetch(final ByteBuffer pagingState) {
+            final ResultFuture<ResultSet> future = new ResultFuture<ResultSet>();
+
+            requests.add(future);
+            states.add(pagingState);
+
+            if (immediate) {
+                answer(requests.size() - 1);
+            }
+
+            return future;
+        }
+
+        /**
+         * Completes the request of a page with its rows.
+         */
+        void answer(final int page) {
+            final boolean last = page == (pages - 1);
+            final PooledBuffer body = pool.allocate(1024);
+            final ByteBuffer buffer = body.buffer();
+
+            buffer.putInt(0x0002);
+            buffer.putInt(last ? 0x0004 : 0x0004 | 0x0002);
+            buffer.putInt(1);
+
+            if (!last) {
+                buffer.putInt(4).putInt(page + 1);
+            }
+
+            buffer.putInt(rows);
+
+            for (int i = 0; i < rows; i++) {
+                buffer.putInt(4).putInt((page * rows) + i);
+            }
+
+            buffer.flip();
+
+            try {
+                requests.get(page).complete(ResultSet.decode(new Frame(Frame.VERSION | Frame.RESPONSE, 0, 1,
+                        Opcode.RESULT, body), COLUMNS));
+            } catch (final Exception ex) {
+                requests.get(page).fail(ex);
+            }
+        }
+    }
+}
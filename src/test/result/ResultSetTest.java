@@ -0,0 +1,341 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.result;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.helenus.buffer.BufferPool;
+import com.helenus.buffer.PooledBuffer;
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.Opcode;
+import com.helenus.result.ColumnDefinitions;
+import com.helenus.result.DataType;
+import com.helenus.result.ResultSet;
+import com.helenus.result.Row;
+
+import test.pool.MockConnection;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class ResultSetTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Values are read in any order, by index or by name.
+     */
+    @Test
+    public void testRows() throws Exception {
+        final UUID uuid = UUID.randomUUID();
+        final ByteBuffer body = rows(0, null, new String[] { "id", "name", "ts", "ok", "score", "key" },
+                new DataType[] { DataType.INT, DataType.VARCHAR, DataType.TIMESTAMP, DataType.BOOLEAN,
+                        DataType.DOUBLE, DataType.UUID },
+                new Object[][] { { 1, "uno", 1000L, true, 0.5, uuid }, { 2, null, null, false, 1.5, null } });
+        final ResultSet result = ResultSet.decode(response(body));
+
+        assertEquals(2, result.size());
+        assertEquals(6, result.getColumns().size());
+        assertEquals(DataType.VARCHAR, result.getColumns().getType(1));
+        assertEquals("ks", result.getColumns().getKeyspace(1));
+        assertFalse(result.hasMorePages());
+
+        final Iterator<Row> rows = result.iterator();
+        Row row = rows.next();
+
+        assertEquals(uuid, row.getUUID("key"));
+        assertEquals(1, row.getInt(0));
+        assertEquals(0.5, row.getDouble("score"), 0);
+        assertEquals("uno", row.getString("name"));
+        assertEquals(1000L, row.getLong("ts"));
+        assertEquals(1000L, row.getDate(2).getTime());
+        assertTrue(row.getBool("ok"));
+
+        row = rows.next();
+
+        assertEquals(2, row.getInt("id"));
+        assertTrue(row.isNull("name"));
+        assertNull(row.getString(1));
+        assertNull(row.getBytes(1));
+        assertEquals(0, row.getLong(2));
+        assertNull(row.getDate(2));
+        assertFalse(row.getBool(3));
+        assertEquals(1.5, row.getDouble(4), 0);
+        assertNull(row.getUUID(5));
+        assertFalse(rows.hasNext());
+    }
+
+    /**
+     * The rows of a wide result are found reading only the lengths of the
+     * cells, and the values are views of the body.
+     */
+    @Test
+    public void testWideRows() throws Exception {
+        final int columns = 120;
+        final String[] names = new String[columns];
+        final DataType[] types = new DataType[columns];
+        final Object[][] values = new Object[50][columns];
+
+        for (int i = 0; i < columns; i++) {
+            names[i] = "c" + i;
+            types[i] = (i % 2 == 0) ? DataType.TEXT : DataType.BIGINT;
+
+            for (int j = 0; j < values.length; j++) {
+                values[j][i] = (i % 2 == 0) ? ("value " + j + " " + i) : Long.valueOf(j * 1000 + i);
+            }
+        }
+
+        final ByteBuffer body = rows(0, null, names, types, values);
+        final ResultSet result = ResultSet.decode(response(body));
+        int j = 0;
+
+        for (final Row row : result) {
+            assertEquals(j * 1000 + 117, row.getLong("c117"));
+            assertEquals("value " + j + " 2", row.getString(2));
+            assertEquals(j * 1000 + 61, row.getLong(61));
+
+            final ByteBuffer view = row.getBytes(2);
+
+            assertTrue(view.isReadOnly());
+            assertEquals("value " + j + " 2", UTF8.decode(view).toString());
+            j++;
+        }
+
+        assertEquals(values.length, j);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypeMismatch() throws Exception {
+        final ByteBuffer body = rows(0, null, new String[] { "name" }, new DataType[] { DataType.TEXT },
+                new Object[][] { { "uno" } });
+
+        ResultSet.decode(response(body)).iterator().next().getInt(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownColumn() throws Exception {
+        final ByteBuffer body = rows(0, null, new String[] { "name" }, new DataType[] { DataType.TEXT },
+                new Object[][] { { "uno" } });
+
+        ResultSet.decode(response(body)).iterator().next().getString("other");
+    }
+
+    /**
+     * A column past the last one is not read from the next row.
+     */
+    @Test
+    public void testColumnOutOfBounds() throws Exception {
+        final ByteBuffer body = rows(0, null, new String[] { "name" }, new DataType[] { DataType.TEXT },
+                new Object[][] { { "uno" }, { "due" } });
+        final Row row = ResultSet.decode(response(body)).iterator().next();
+
+        try {
+            row.getBytes(1);
+            fail("Column of the next row read");
+        } catch (final IndexOutOfBoundsException ex) {
+            // Expected
+        }
+
+        try {
+            row.isNull(1);
+            fail("Column of the next row read");
+        } catch (final IndexOutOfBoundsException ex) {
+            // Expected
+        }
+    }
+
+    /**
+     * A result without metadata is decoded with the definitions of the
+     * columns already known, and its paging state is kept.
+     */
+    @Test
+    public void testNoMetadata() throws Exception {
+        final byte[] state = new byte[] { 7, 8, 9 };
+        final ByteBuffer body = rows(0x0004 | 0x0002, state, new String[] { "id" },
+                new DataType[] { DataType.INT }, new Object[][] { { 42 } });
+
+        try {
+            ResultSet.decode(response(body.duplicate()));
+            fail("Decoded a result without metadata");
+        } catch (final ProtocolException ex) {
+            // Expected
+        }
+
+        final ColumnDefinitions columns = new ColumnDefinitions(new String[] { "ks" }, new String[] { "t" },
+                new String[] { "id" }, new DataType[] { DataType.INT });
+        final ResultSet result = ResultSet.decode(response(body), columns);
+
+        assertTrue(result.hasMorePages());
+        assertEquals(ByteBuffer.wrap(state), result.getPagingState());
+        assertEquals(42, result.iterator().next().getInt("id"));
+    }
+
+    /**
+     * Results that are not rows are empty.
+     */
+    @Test
+    public void testVoid() throws Exception {
+        final ByteBuffer body = ByteBuffer.allocate(4);
+        body.putInt(0, 0x0001);
+
+        final ResultSet result = ResultSet.decode(response(body));
+
+        assertTrue(result.isEmpty());
+        assertEquals(0, result.getColumns().size());
+        assertFalse(result.iterator().hasNext());
+    }
+
+    /**
+     * An error is thrown with its code, and the response is released.
+     */
+    @Test
+    public void testError() throws Exception {
+        final BufferPool pool = new BufferPool(true);
+        final PooledBuffer pooled = pool.allocate(64);
+        pooled.buffer().putInt(0x2200);
+        putString(pooled.buffer(), "Invalid query");
+        pooled.buffer().flip();
+
+        try {
+            ResultSet.decode(new Frame(Frame.VERSION | Frame.RESPONSE, 0, 1, Opcode.ERROR, pooled));
+            fail("Decoded an error");
+        } catch (final QueryException ex) {
+            assertEquals(0x2200, ex.getCode());
+            assertEquals("Invalid query", ex.getMessage());
+        }
+
+        assertEquals(0, pool.getInUse());
+    }
+
+    /**
+     * A pooled response is given back once the result is released.
+     */
+    @Test
+    public void testRelease() throws Exception {
+        final BufferPool pool = new BufferPool(true);
+        final ByteBuffer body = rows(0, null, new String[] { "id" }, new DataType[] { DataType.INT },
+                new Object[][] { { 1 } });
+        final PooledBuffer pooled = pool.allocate(body.remaining());
+        pooled.buffer().put(body);
+        pooled.buffer().flip();
+
+        final ResultSet result = ResultSet.decode(new Frame(Frame.VERSION | Frame.RESPONSE, 0, 1, Opcode.RESULT,
+                pooled));
+
+        assertEquals(1, result.iterator().next().getInt(0));
+        assertEquals(1, pool.getInUse());
+
+        result.release();
+
+        assertEquals(0, pool.getInUse());
+    }
+
+    /**
+     * A request is sent on a connection, and its response decoded.
+     */
+    @Test
+    public void testFetch() throws Exception {
+        final ByteBuffer body = rows(0, null, new String[] { "id" }, new DataType[] { DataType.INT },
+                new Object[][] { { 5 } });
+        final MockConnection connection = new MockConnection("127.0.0.1", 9042);
+        final ResultSet result = ResultSet.fetch(connection, new Frame(Opcode.RESULT, body), 1, TimeUnit.SECONDS)
+                .get();
+
+        assertEquals(5, result.iterator().next().getInt("id"));
+    }
+
+    /**
+     * Builds the body of a rows result, with the global table specification.
+     */
+    private static ByteBuffer rows(final int flags, final byte[] pagingState, final String[] names,
+            final DataType[] types, final Object[][] values) {
+        final ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+
+        buffer.putInt(0x0002);
+        buffer.putInt(flags | ((flags & 0x0004) == 0 ? 0x0001 : 0));
+        buffer.putInt(names.length);
+
+        if (pagingState != null) {
+            buffer.putInt(pagingState.length);
+            buffer.put(pagingState);
+        }
+
+        if ((flags & 0x0004) == 0) {
+            putString(buffer, "ks");
+            putString(buffer, "table");
+
+            for (int i = 0; i < names.length; i++) {
+                putString(buffer, names[i]);
+                buffer.putShort((short) types[i].getCode());
+            }
+        }
+
+        buffer.putInt(values.length);
+
+        for (final Object[] row : values) {
+            for (final Object value : row) {
+                putValue(buffer, value);
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static void putValue(final ByteBuffer buffer, final Object value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else if (value instanceof Integer) {
+            buffer.putInt(4).putInt((Integer) value);
+        } else if (value instanceof Long) {
+            buffer.putInt(8).putLong((Long) value);
+        } else if (value instanceof Double) {
+            buffer.putInt(8).putDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            buffer.putInt(1).put((byte) (((Boolean) value) ? 1 : 0));
+        } else if (value instanceof UUID) {
+            final UUID uuid = (UUID) value;
+            buffer.putInt(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        } else {
+            final byte[] bytes = value.toString().getBytes(UTF8);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static void putString(final ByteBuffer buffer, final String string) {
+        final byte[] bytes = string.getBytes(UTF8);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static Frame response(final ByteBuffer body) {
+        return new Frame(Frame.VERSION | Frame.RESPONSE, 0, 1, Opcode.RESULT, body);
+    }
+}
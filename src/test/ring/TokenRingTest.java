@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.ring;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helenus.data.node.INode;
+import com.helenus.data.node.Node;
+import com.helenus.pool.nodes.TokenAwareNodesPool;
+import com.helenus.ring.BigIntegerToken;
+import com.helenus.ring.LongToken;
+import com.helenus.ring.Murmur3Partitioner;
+import com.helenus.ring.PartitionerType;
+import com.helenus.ring.RandomPartitioner;
+import com.helenus.ring.Token;
+import com.helenus.ring.TokenRing;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class TokenRingTest {
+    private static final int PORT = 9160;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Node node1;
+    private Node node2;
+    private Node node3;
+    private TokenRing ring;
+
+    @Before
+    public void setUp() {
+        node1 = new Node("127.0.0.1", PORT); // NOPMD
+        node2 = new Node("127.0.0.2", PORT); // NOPMD
+        node3 = new Node("127.0.0.3", PORT); // NOPMD
+
+        final Map<Token, INode> tokens = new HashMap<Token, INode>();
+        tokens.put(new LongToken(100), node2);
+        tokens.put(new LongToken(-100), node1);
+        tokens.put(new LongToken(200), node3);
+
+        ring = new TokenRing(new Murmur3Partitioner(), tokens, 2);
+    }
+
+    /**
+     * A token belongs to the first node with a greater or equal token, and
+     * tokens after the last node wrap around to the first one.
+     */
+    @Test
+    public final void lookupTest() {
+        assertSame("Wrong owner", node1, ring.getPrimary(new LongToken(Long.MIN_VALUE)));
+        assertSame("Wrong owner", node1, ring.getPrimary(new LongToken(-100)));
+        assertSame("Wrong owner", node2, ring.getPrimary(new LongToken(-99)));
+        assertSame("Wrong owner", node2, ring.getPrimary(new LongToken(100)));
+        assertSame("Wrong owner", node3, ring.getPrimary(new LongToken(150)));
+        assertSame("Wrong owner", node1, ring.getPrimary(new LongToken(201)));
+        assertSame("Wrong owner", node1, ring.getPrimary(new LongToken(Long.MAX_VALUE)));
+    }
+
+    /**
+     * Replicas are the owner and the next distinct nodes on the ring.
+     */
+    @Test
+    public final void replicasTest() {
+        assertArrayEquals("Wrong replicas", new INode[] { node3, node1 }, ring.getReplicas(new LongToken(150)));
+        assertArrayEquals("Wrong replicas", new INode[] { node1, node2 }, ring.getReplicas(new LongToken(300)));
+
+        // A node owning more than one token is counted once
+        final Map<Token, INode> tokens = new HashMap<Token, INode>();
+        tokens.put(new LongToken(0), node1);
+        tokens.put(new LongToken(10), node1);
+        tokens.put(new LongToken(20), node2);
+        final TokenRing vnodes = new TokenRing(new Murmur3Partitioner(), tokens, 3);
+
+        assertArrayEquals("Wrong replicas", new INode[] { node1, node2 }, vnodes.getReplicas(new LongToken(5)));
+    }
+
+    /**
+     * The partitioners compute the same tokens as Cassandra.
+     */
+    @Test
+    public final void partitionerTest() {
+        final ByteBuffer key = ByteBuffer.wrap("hello".getBytes(UTF8));
+
+        // First half of the reference MurmurHash3_x64_128 of "hello"
+        assertEquals("Wrong Murmur3 token", new LongToken(0xcbd8a7b341bd9b02L), new Murmur3Partitioner().getToken(key));
+        // Absolute value of the MD5 of "hello"
+        assertEquals("Wrong MD5 token", new BigIntegerToken(new BigInteger("5d41402abc4b2a76b9719d911017c592", 16)),
+                new RandomPartitioner().getToken(key));
+        assertEquals("Buffer position modified", 0, key.position());
+
+        assertSame("Wrong partitioner", PartitionerType.MURMUR3,
+                PartitionerType.fromName("org.apache.cassandra.dht.Murmur3Partitioner"));
+    }
+
+    /**
+     * The token-aware pool provides a replica of the key, and falls back to the
+     * other nodes without a key.
+     */
+    @Test
+    public final void tokenAwarePoolTest() {
+        final TokenAwareNodesPool pool = new TokenAwareNodesPool();
+        pool.give(node1);
+        pool.give(node2);
+        pool.give(node3);
+
+        final Map<String, INode> tokens = new HashMap<String, INode>();
+        tokens.put("-3074457345618258603", node1);
+        tokens.put("3074457345618258602", node2);
+        tokens.put("9223372036854775807", node3);
+        pool.setRing(TokenRing.parse(new Murmur3Partitioner(), tokens, 1));
+
+        // The token of "hello" is negative, lower than the one of node1
+        final ByteBuffer key = ByteBuffer.wrap("hello".getBytes(UTF8));
+        assertSame("Not the replica of the key", node1, pool.get(key));
+
+        pool.remove(node1);
+        assertSame("Removed node provided", node2, pool.get(key));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helenus.data.node.INode;
+import com.helenus.data.node.Node;
+import com.helenus.protocol.BatchType;
+import com.helenus.ring.IPartitioner;
+import com.helenus.ring.LongToken;
+import com.helenus.ring.Token;
+import com.helenus.ring.TokenRing;
+import com.helenus.statement.Batch;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class BatchTest {
+    private static final int PORT = 9042;
+    private static final String INSERT = "INSERT INTO ks.t (k, v) VALUES (?, ?)";
+
+    private Node node1;
+    private Node node2;
+    private Node node3;
+
+    @Before
+    public void setUp() {
+        node1 = new Node("127.0.0.1", PORT); // NOPMD
+        node2 = new Node("127.0.0.2", PORT); // NOPMD
+        node3 = new Node("127.0.0.3", PORT); // NOPMD
+    }
+
+    /**
+     * The mutations are grouped by the replicas of their partition key,
+     * keeping their order.
+     */
+    @Test
+    public void testSplit() {
+        final Map<Token, INode> tokens = new HashMap<Token, INode>();
+        tokens.put(new LongToken(-100), node1);
+        tokens.put(new LongToken(100), node2);
+        tokens.put(new LongToken(200), node3);
+
+        final Batch batch = new Batch().add(INSERT, key(-500), key(-500), null)
+                .add(INSERT, key(50), key(50), null)
+                .add(INSERT, key(-200), key(-200), null)
+                .add(INSERT, key(150), key(150), null)
+                .add(INSERT, null, key(0), null);
+
+        final List<Batch> batches = batch.split(new TokenRing(new KeyPartitioner(), tokens, 1));
+
+        assertEquals("Wrong batches", 4, batches.size());
+        assertEquals("Wrong mutations", 2, batches.get(0).size());
+        assertEquals("Wrong order", key(-500), batches.get(0).getPartitionKey(0));
+        assertEquals("Wrong order", key(-200), batches.get(0).getPartitionKey(1));
+        assertEquals("Wrong values", key(-200), batches.get(0).getValues(1).get(0));
+        assertEquals("Wrong mutation", key(50), batches.get(1).getPartitionKey(0));
+        assertEquals("Wrong mutation", key(150), batches.get(2).getPartitionKey(0));
+        assertNull("Wrong mutation", batches.get(3).getPartitionKey(0));
+        assertEquals("Wrong type", BatchType.UNLOGGED, batches.get(3).getType());
+    }
+
+    /**
+     * Ranges owned by the same replicas, whatever the primary one, end up in
+     * the same batch.
+     */
+    @Test
+    public void testSplitByReplicaSet() {
+        final Map<Token, INode> tokens = new HashMap<Token, INode>();
+        tokens.put(new LongToken(0), node1);
+        tokens.put(new LongToken(10), node2);
+        tokens.put(new LongToken(20), node1);
+        tokens.put(new LongToken(30), node2);
+
+        final Batch batch = new Batch().add(INSERT, key(-5), key(-5), null)
+                .add(INSERT, key(5), key(5), null)
+                .add(INSERT, key(25), key(25), null);
+
+        assertEquals("Wrong batches", 1, batch.split(new TokenRing(new KeyPartitioner(), tokens, 2)).size());
+    }
+
+    /**
+     * Logged batches, and batches without a ring, are not split.
+     */
+    @Test
+    public void testNotSplit() {
+        final Map<Token, INode> tokens = new HashMap<Token, INode>();
+        tokens.put(new LongToken(-100), node1);
+        tokens.put(new LongToken(100), node2);
+
+        final TokenRing ring = new TokenRing(new KeyPartitioner(), tokens, 1);
+        final Batch logged = new Batch(BatchType.LOGGED).add(INSERT, key(-500), key(-500), null)
+                .add(INSERT, key(50), key(50), null);
+        final Batch unlogged = new Batch().add(INSERT, key(-500), key(-500), null)
+                .add(INSERT, key(50), key(50), null);
+
+        assertSame("Logged batch split", logged, logged.split(ring).get(0));
+        assertSame("Batch split without a ring", unlogged, unlogged.split(null).get(0));
+        assertEquals("Batch not split", 2, unlogged.split(ring).size());
+    }
+
+    private static ByteBuffer key(final long token) {
+        return ByteBuffer.allocate(8).putLong(0, token);
+    }
+
+    /**
+     * Partitioner whose keys are their own token.
+     */
+    private static final class KeyPartitioner implements IPartitioner {
+        @Override
+        public Token getToken(final ByteBuffer key) {
+            return new LongToken(key.getLong(key.position()));
+        }
+
+        @Override
+        public Token parseToken(final String token) {
+            return new LongToken(Long.parseLong(token));
+        }
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.statement;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.helenus.Helenus;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.connection.IConnection;
+import com.helenus.data.connection.IConnectionFactory;
+import com.helenus.data.node.Node;
+import com.helenus.exception.QueryException;
+import com.helenus.pool.connections.SimpleConnectionsPool;
+import com.helenus.pool.nodes.SimpleNodesPool;
+import com.helenus.protocol.Frame;
+import com.helenus.protocol.FrameCodec;
+import com.helenus.protocol.Opcode;
+
+/**
+ * Fake nodes answering the <tt>PREPARE</tt>, <tt>EXECUTE</tt> and
+ * <tt>BATCH</tt> requests, through connections that answer immediately. The
+ * responses to the <tt>PREPARE</tt> requests, or to the <tt>EXECUTE</tt>
+ * requests of a node, can be held, to be sent later, and a node can answer as
+ * overloaded.
+ * <p>
+ * Every statement has a single <tt>int</tt> variable, <tt>k</tt>, and every
+ * execution returns a single <tt>varchar</tt> column, <tt>v</tt>, holding
+ * <tt>"value"</tt>.
+ * 
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class FakeServer implements IConnectionFactory {
+    public static final String ADDRESS = "127.0.0.1";
+    public static final String QUERY = "SELECT v FROM ks.t WHERE k = ?";
+    public static final String INVALID = "SELECT";
+
+    /**
+     * The port of the node chosen first by {@link #client()}.
+     */
+    public static final int FIRST = 9042;
+
+    /**
+     * The port of the other node of {@link #client()}.
+     */
+    public static final int SECOND = 9043;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final AtomicInteger preparations = new AtomicInteger();
+    private final AtomicInteger executions = new AtomicInteger();
+    private final AtomicInteger batches = new AtomicInteger();
+    private final AtomicInteger batched = new AtomicInteger();
+    private final Set<ByteBuffer> prepared = Collections.synchronizedSet(new HashSet<ByteBuffer>());
+    private final List<Runnable> held = Collections.synchronizedList(new ArrayList<Runnable>());
+    private volatile boolean hold;
+
+    /**
+     * The port of the node whose <tt>EXECUTE</tt> responses are held.
+     */
+    private volatile int slow;
+
+    /**
+     * The port of the node answering the <tt>EXECUTE</tt> requests as
+     * overloaded.
+     */
+    private volatile int overloaded;
+
+    @Override
+    public IConnection create(final String address, final int port) {
+        return new Connection(this, address, port);
+    }
+
+    /**
+     * Forgets all the prepared statements, as a restarted node.
+     */
+    public void restart() {
+        prepared.clear();
+    }
+
+    /**
+     * Sends the held responses.
+     */
+    public void release() {
+        hold = false;
+        slow = 0;
+
+        final List<Runnable> responses;
+
+        synchronized (held) {
+            responses = new ArrayList<Runnable>(held);
+            held.clear();
+        }
+
+        for (final Runnable response : responses) {
+            response.run();
+        }
+    }
+
+    Frame answer(final Frame request) {
+        final ByteBuffer body = request.getBody().duplicate();
+        final ByteBuffer response = ByteBuffer.allocate(256);
+
+        if (request.getOpcode() == Opcode.PREPARE) {
+            final byte[] query = new byte[body.getInt()];
+            body.get(query);
+
+            if (INVALID.equals(new String(query, UTF8))) {
+                return error(response, 0x2000, "Syntax error");
+            }
+
+            final ByteBuffer id = ByteBuffer.allocate(4).putInt(0, new String(query, UTF8).hashCode());
+            prepared.add(id);
+
+            response.putInt(0x0004);
+            response.putShort((short) 4);
+            response.put(id.duplicate());
+            // The bound variables, and the columns of the result
+            response.putInt(0x0001).putInt(1);
+            putString(response, "ks");
+            putString(response, "t");
+            putString(response, "k");
+            response.putShort((short) 0x0009);
+            response.putInt(0x0001).putInt(1);
+            putString(response, "ks");
+            putString(response, "t");
+            putString(response, "v");
+            response.putShort((short) 0x000D);
+        } else if (request.getOpcode() == Opcode.BATCH) {
+            // Type, statements: kind, ID, values
+            body.get();
+
+            for (int i = body.getShort(); i > 0; i--) {
+                assertEquals("Not a prepared statement", 1, body.get());
+
+                final int length = body.getShort() & 0xFFFF;
+                final ByteBuffer id = body.slice();
+                id.limit(length);
+
+                if (!prepared.contains(id)) {
+                    return error(response, QueryException.UNPREPARED, "Unknown prepared statement");
+                }
+
+                body.position(body.position() + length);
+
+                for (int j = body.getShort(); j > 0; j--) {
+                    final int value = body.getInt();
+                    body.position(body.position() + Math.max(value, 0));
+                }
+
+                batched.incrementAndGet();
+            }
+
+            batches.incrementAndGet();
+
+            // Void
+            response.putInt(0x0001);
+        } else {
+            final int length = body.getShort() & 0xFFFF;
+            final ByteBuffer id = body.slice();
+            id.limit(length);
+
+            if (!prepared.contains(id)) {
+                return error(response, QueryException.UNPREPARED, "Unknown prepared statement");
+            }
+
+            executions.incrementAndGet();
+
+            final byte[] value = "value".getBytes(UTF8);
+
+            // The metadata has been skipped
+            response.putInt(0x0002);
+            response.putInt(0x0004).putInt(1);
+            response.putInt(1);
+            response.putInt(value.length).put(value);
+        }
+
+        response.flip();
+
+        return new Frame(Frame.VERSION | Frame.RESPONSE, 0, 0, Opcode.RESULT, response);
+    }
+
+    private static Frame error(final ByteBuffer response, final int code, final String message) {
+        response.putInt(code);
+        putString(response, message);
+        response.flip();
+
+        return new Frame(Frame.VERSION | Frame.RESPONSE, 0, 0, Opcode.ERROR, response);
+    }
+
+    /**
+     * Holds the responses to the <tt>PREPARE</tt> requests, until
+     * {@link #release()}.
+     */
+    public void hold() {
+        hold = true;
+    }
+
+    /**
+     * Holds the responses to the <tt>EXECUTE</tt> requests of a node, until
+     * {@link #release()}.
+     * 
+     * @param port
+     *            the port of the node, <tt>0</tt> for none
+     */
+    public void slow(final int port) {
+        slow = port;
+    }
+
+    /**
+     * Answers the <tt>EXECUTE</tt> requests of a node as overloaded.
+     * 
+     * @param port
+     *            the port of the node, <tt>0</tt> for none
+     */
+    public void overload(final int port) {
+        overloaded = port;
+    }
+
+    public int getPreparations() {
+        return preparations.get();
+    }
+
+    public int getExecutions() {
+        return executions.get();
+    }
+
+    public int getBatches() {
+        return batches.get();
+    }
+
+    public int getBatched() {
+        return batched.get();
+    }
+
+    /**
+     * Creates a node whose connections are opened by this server.
+     * 
+     * @param port
+     *            the port of the node
+     * @return the node
+     */
+    public Node node(final int port) {
+        final Node created = new Node(ADDRESS, port);
+        created.setConnectionPool(new SimpleConnectionsPool(ADDRESS, port, 0, 4, this));
+
+        return created;
+    }
+
+    /**
+     * Creates a client whose requests go first to the {@link #FIRST} node,
+     * and then to the {@link #SECOND} one.
+     * 
+     * @return the client, not connected
+     */
+    public Helenus client() {
+        final SimpleNodesPool pool = new SimpleNodesPool();
+
+        // The last node given is chosen first
+        pool.give(node(SECOND));
+        pool.give(node(FIRST));
+
+        final Helenus helenus = new Helenus();
+        helenus.setConnecionPool(pool);
+
+        return helenus;
+    }
+
+    private static void putString(final ByteBuffer buffer, final String string) {
+        FrameCodec.writeString(buffer, string);
+    }
+
+    private static final class Connection implements IConnection {
+        private final FakeServer server;
+        private final String address;
+        private final int port;
+        private volatile boolean open;
+
+        Connection(final FakeServer server, final String address, final int port) {
+            this.server = server;
+            this.address = address;
+            this.port = port;
+        }
+
+        @Override
+        public boolean open() {
+            open = true;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+
+        @Override
+        public ResultFuture<Frame> send(final Frame request) {
+            final ResultFuture<Frame> future = new ResultFuture<Frame>();
+
+            if (request.getOpcode() == Opcode.PREPARE) {
+                server.preparations.incrementAndGet();
+            }
+
+            if ((server.overloaded == port) && (request.getOpcode() == Opcode.EXECUTE)) {
+                future.complete(FakeServer.error(ByteBuffer.allocate(256), QueryException.OVERLOADED, "Overloaded"));
+            } else if ((server.hold && (request.getOpcode() == Opcode.PREPARE))
+                    || ((server.slow == port) && (request.getOpcode() == Opcode.EXECUTE))) {
+                server.held.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        future.complete(server.answer(request));
+                    }
+                });
+            } else {
+                future.complete(server.answer(request));
+            }
+
+            return future;
+        }
+
+        @Override
+        public ResultFuture<Frame> send(final Frame request, final long timeout, final TimeUnit unit) {
+            return send(request);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public int getInFlight() {
+            return 0;
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.helenus.statement.HedgingPolicy;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class HedgingPolicyTest {
+    /**
+     * The hedged requests never exceed the budget.
+     */
+    @Test
+    public void testBudget() {
+        final HedgingPolicy policy = new HedgingPolicy(5, TimeUnit.MILLISECONDS, 0.05);
+
+        for (int i = 0; i < 19; i++) {
+            assertEquals(TimeUnit.MILLISECONDS.toNanos(5), policy.requestStarted());
+        }
+
+        assertFalse(policy.tryHedge());
+
+        policy.requestStarted();
+
+        assertTrue(policy.tryHedge());
+        assertFalse(policy.tryHedge());
+        assertEquals(1, policy.getHedges());
+    }
+
+    /**
+     * A long period without hedges does not save more than a few of them for
+     * the next slowdown.
+     */
+    @Test
+    public void testBudgetCapped() {
+        final HedgingPolicy policy = new HedgingPolicy(5, TimeUnit.MILLISECONDS, 0.05);
+
+        for (int i = 0; i < 100000; i++) {
+            policy.requestStarted();
+        }
+
+        int hedged = 0;
+
+        for (int i = 0; i < 100; i++) {
+            policy.requestStarted();
+
+            if (policy.tryHedge()) {
+                hedged++;
+            }
+        }
+
+        // The saved hedges, and the ones earned by the last requests
+        assertEquals("Wrong hedges", 14, hedged);
+        assertTrue(policy.getBalance() < 1);
+    }
+
+    /**
+     * The delay follows the percentile of the latencies of the last window,
+     * and nothing is hedged before enough latencies have been observed.
+     */
+    @Test
+    public void testPercentile() throws Exception {
+        final HedgingPolicy policy = new HedgingPolicy(95, 0.05);
+
+        for (int i = 1; i <= 100; i++) {
+            assertEquals(-1, policy.requestStarted());
+            policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        Thread.sleep(1100);
+
+        final long delay = policy.requestStarted();
+
+        // Within the precision of the histogram
+        assertTrue("Wrong delay: " + delay, delay >= TimeUnit.MILLISECONDS.toNanos(95));
+        assertTrue("Wrong delay: " + delay, delay <= TimeUnit.MILLISECONDS.toNanos(107));
+        assertEquals(delay, policy.getDelay());
+
+        // A new window has started: the delay is kept until it is over
+        policy.recordLatency(TimeUnit.SECONDS.toNanos(1));
+
+        assertEquals(delay, policy.requestStarted());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helenus.Helenus;
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.protocol.Consistency;
+import com.helenus.result.ResultSet;
+import com.helenus.statement.HedgingPolicy;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class HelenusHedgingTest {
+    private static final String QUERY = FakeServer.QUERY;
+
+    private FakeServer server;
+
+    @Before
+    public void setUp() {
+        server = new FakeServer();
+        server.slow(FakeServer.FIRST);
+    }
+
+    /**
+     * A read not answered in time is sent to another node, and the first
+     * response wins.
+     */
+    @Test
+    public void testHedgedRead() throws Exception {
+        final HedgingPolicy policy = new HedgingPolicy(10, TimeUnit.MILLISECONDS, 1);
+        final Helenus helenus = server.client().withHedging(policy);
+
+        final ResultSet result = helenus.read(QUERY, null, null, Consistency.ONE, 1, TimeUnit.SECONDS).get(1,
+                TimeUnit.SECONDS);
+
+        assertEquals("value", result.iterator().next().getString(0));
+        result.release();
+
+        assertEquals("Wrong hedges", 1, policy.getHedges());
+        assertEquals("Wrong hedges won", 1, policy.getHedgesWon());
+
+        // The slow response is discarded
+        server.release();
+
+        assertEquals("Wrong executions", 2, server.getExecutions());
+    }
+
+    /**
+     * No read is hedged beyond the budget.
+     */
+    @Test
+    public void testHedgingBudget() throws Exception {
+        final HedgingPolicy policy = new HedgingPolicy(1, TimeUnit.MILLISECONDS, 0);
+        final Helenus helenus = server.client().withHedging(policy);
+        final ResultFuture<ResultSet> future = helenus.read(QUERY, null, null, Consistency.ONE, 1, TimeUnit.SECONDS);
+
+        Thread.sleep(50);
+
+        assertFalse("Hedged", future.isDone());
+        assertEquals("Wrong hedges", 0, policy.getHedges());
+
+        server.release();
+
+        future.get(1, TimeUnit.SECONDS).release();
+        assertEquals("Wrong requests", 1, policy.getRequests());
+    }
+
+    /**
+     * The time waited for a request that lost to its hedge is recorded too,
+     * so that the delay does not drift towards the fast responses.
+     */
+    @Test
+    public void testLoserLatencyRecorded() throws Exception {
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final HedgingPolicy policy = new HedgingPolicy(10, TimeUnit.MILLISECONDS, 1) {
+            @Override
+            public void recordLatency(final long nanos) {
+                latencies.add(nanos);
+                super.recordLatency(nanos);
+            }
+        };
+        final Helenus helenus = server.client().withHedging(policy);
+
+        helenus.read(QUERY, null, null, Consistency.ONE, 1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS).release();
+
+        final long deadline = System.currentTimeMillis() + 1000;
+
+        while ((latencies.size() < 2) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+
+        assertEquals("Wrong hedges won", 1, policy.getHedgesWon());
+        assertEquals("Wrong latencies", 2, latencies.size());
+        assertTrue("Loser latency not recorded", Collections.max(latencies) >= TimeUnit.MILLISECONDS.toNanos(10));
+
+        server.release();
+    }
+}
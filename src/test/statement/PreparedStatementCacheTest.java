@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helenus.concurrent.ResultFuture;
+import com.helenus.data.node.Node;
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.Consistency;
+import com.helenus.result.ResultSet;
+import com.helenus.statement.Batch;
+import com.helenus.statement.PreparedStatementCache;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class PreparedStatementCacheTest {
+    private static final String QUERY = FakeServer.QUERY;
+    private static final String INVALID = FakeServer.INVALID;
+
+    private FakeServer server;
+    private Node node;
+
+    @Before
+    public void setUp() {
+        server = new FakeServer();
+        node = server.node(FakeServer.FIRST);
+    }
+
+    /**
+     * A query is prepared once, and then only executed.
+     */
+    @Test
+    public void testPrepareOnce() throws Exception {
+        final PreparedStatementCache cache = new PreparedStatementCache();
+
+        for (int i = 0; i < 3; i++) {
+            final ResultSet result = execute(cache, node, QUERY).get(1, TimeUnit.SECONDS);
+
+            assertEquals("Wrong rows", 1, result.size());
+            assertEquals("Wrong value", "value", result.iterator().next().getString("v"));
+            result.release();
+        }
+
+        assertEquals("Wrong preparations", 1, server.getPreparations());
+        assertEquals("Wrong executions", 3, server.getExecutions());
+        assertEquals("Wrong hits", 2, cache.getHits());
+        assertEquals("Wrong misses", 1, cache.getMisses());
+        assertTrue("Not prepared", cache.isPrepared(QUERY, node));
+        assertEquals("Wrong query", QUERY, cache.get(QUERY).getQuery());
+        assertEquals("Wrong variables", "k", cache.get(QUERY).getVariables().getName(0));
+    }
+
+    /**
+     * Concurrent requests wait for the same preparation.
+     */
+    @Test
+    public void testSingleFlight() throws Exception {
+        final PreparedStatementCache cache = new PreparedStatementCache();
+        final List<ResultFuture<ResultSet>> futures = new ArrayList<ResultFuture<ResultSet>>();
+
+        server.hold();
+
+        for (int i = 0; i < 10; i++) {
+            futures.add(execute(cache, node, QUERY));
+        }
+
+        assertEquals("Wrong preparations", 1, server.getPreparations());
+        assertFalse("Prepared too early", futures.get(0).isDone());
+
+        server.release();
+
+        for (final ResultFuture<ResultSet> future : futures) {
+            future.get(1, TimeUnit.SECONDS).release();
+        }
+
+        assertEquals("Wrong executions", 10, server.getExecutions());
+    }
+
+    /**
+     * A node that forgot its statements gets them prepared again, once.
+     */
+    @Test
+    public void testReprepare() throws Exception {
+        final PreparedStatementCache cache = new PreparedStatementCache();
+        final List<ResultFuture<ResultSet>> futures = new ArrayList<ResultFuture<ResultSet>>();
+
+        execute(cache, node, QUERY).get(1, TimeUnit.SECONDS).release();
+
+        server.restart();
+        server.hold();
+
+        for (int i = 0; i < 5; i++) {
+            futures.add(execute(cache, node, QUERY));
+        }
+
+        server.release();
+
+        for (final ResultFuture<ResultSet> future : futures) {
+            future.get(1, TimeUnit.SECONDS).release();
+        }
+
+        assertEquals("Wrong preparations", 2, server.getPreparations());
+        // The executions answered as unprepared are not counted
+        assertEquals("Wrong executions", 6, server.getExecutions());
+    }
+
+    /**
+     * Each node gets its own preparation, of the same statement.
+     */
+    @Test
+    public void testPerNode() throws Exception {
+        final PreparedStatementCache cache = new PreparedStatementCache();
+        final Node other = server.node(FakeServer.SECOND);
+
+        execute(cache, node, QUERY).get(1, TimeUnit.SECONDS).release();
+        assertFalse("Prepared on the wrong node", cache.isPrepared(QUERY, other));
+
+        execute(cache, other, QUERY).get(1, TimeUnit.SECONDS).release();
+        execute(cache, other, QUERY).get(1, TimeUnit.SECONDS).release();
+
+        assertEquals("Wrong preparations", 2, server.getPreparations());
+        assertTrue("Not prepared", cache.isPrepared(QUERY, other));
+        assertEquals("Wrong size", 1, cache.size());
+
+        cache.forget(other);
+        assertFalse("Still prepared", cache.isPrepared(QUERY, other));
+        assertTrue("Not prepared", cache.isPrepared(QUERY, node));
+    }
+
+    /**
+     * The statements of a batch are prepared once each, and sent together.
+     */
+    @Test
+    public void testBatch() throws Exception {
+        final PreparedStatementCache cache = new PreparedStatementCache();
+        final Batch batch = new Batch().add(QUERY, null, ByteBuffer.allocate(4))
+                .add("DELETE FROM ks.t WHERE k = ?", null, (ByteBuffer) null)
+                .add(QUERY, null, ByteBuffer.allocate(4));
+
+        final ResultSet result = cache.execute(node, batch, Consistency.ONE, 1, TimeUnit.SECONDS).get(1,
+                TimeUnit.SECONDS);
+
+        assertTrue("Rows returned", result.isEmpty());
+        assertEquals("Wrong preparations", 2, server.getPreparations());
+        assertEquals("Wrong batches", 1, server.getBatches());
+        assertEquals("Wrong statements", 3, server.getBatched());
+    }
+
+    /**
+     * A batch sent to a node that forgot its statements is retried once they
+     * are prepared again.
+     */
+    @Test
+    public void testBatchReprepare() throws Exception {
+        final PreparedStatementCache cache = new PreparedStatementCache();
+        final Batch batch = new Batch().add(QUERY, null, ByteBuffer.allocate(4))
+                .add("DELETE FROM ks.t WHERE k = ?", null, ByteBuffer.allocate(4));
+
+        cache.execute(node, batch, Consistency.ONE, 1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS).release();
+        server.restart();
+        cache.execute(node, batch, Consistency.ONE, 1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS).release();
+
+        assertEquals("Wrong preparations", 4, server.getPreparations());
+        assertEquals("Wrong batches", 2, server.getBatches());
+    }
+
+    /**
+     * The least recently used queries are evicted.
+     */
+    @Test
+    public void testEviction() throws Exception {
+        final PreparedStatementCache cache = new PreparedStatementCache(2);
+
+        execute(cache, node, "SELECT * FROM ks.a").get(1, TimeUnit.SECONDS).release();
+        execute(cache, node, "SELECT * FROM ks.b").get(1, TimeUnit.SECONDS).release();
+        execute(cache, node, "SELECT * FROM ks.a").get(1, TimeUnit.SECONDS).release();
+        execute(cache, node, "SELECT * FROM ks.c").get(1, TimeUnit.SECONDS).release();
+
+        assertEquals("Wrong size", 2, cache.size());
+        assertNotNull("Recently used query evicted", cache.get("SELECT * FROM ks.a"));
+        assertNull("Eldest query not evicted", cache.get("SELECT * FROM ks.b"));
+        assertEquals("Wrong preparations", 3, server.getPreparations());
+    }
+
+    /**
+     * A failed preparation is not cached.
+     */
+    @Test
+    public void testPrepareError() throws Exception {
+        final PreparedStatementCache cache = new PreparedStatementCache();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                execute(cache, node, INVALID).get(1, TimeUnit.SECONDS);
+                fail("Invalid query executed");
+            } catch (final ExecutionException ex) {
+                assertTrue("Wrong cause: " + ex.getCause(), ex.getCause() instanceof QueryException);
+            }
+        }
+
+        assertEquals("Wrong preparations", 2, server.getPreparations());
+        assertEquals("Wrong executions", 0, server.getExecutions());
+        assertFalse("Prepared", cache.isPrepared(INVALID, node));
+    }
+
+    private static ResultFuture<ResultSet> execute(final PreparedStatementCache cache, final Node node,
+            final String query) {
+        return cache.execute(node, query, Collections.singletonList(ByteBuffer.allocate(4).putInt(0, 42)),
+                Consistency.ONE, 1, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import com.helenus.exception.ConnectionException;
+import com.helenus.exception.OverloadedException;
+import com.helenus.exception.QueryException;
+import com.helenus.statement.RetryPolicy;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class RetryPolicyTest {
+    /**
+     * Requests whose outcome is not known are retried only if idempotent.
+     */
+    @Test
+    public void testRetryable() {
+        final RetryPolicy policy = new RetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS, 0.1);
+
+        assertTrue(policy.isRetryable(new ConnectionException("No nodes available"), false));
+        assertTrue(policy.isRetryable(new QueryException(QueryException.UNAVAILABLE, "Unavailable"), false));
+        assertTrue(policy.isRetryable(new QueryException(QueryException.OVERLOADED, "Overloaded"), false));
+
+        assertFalse(policy.isRetryable(new TimeoutException(), false));
+        assertTrue(policy.isRetryable(new TimeoutException(), true));
+        assertFalse(policy.isRetryable(new ClosedChannelException(), false));
+        assertTrue(policy.isRetryable(new ClosedChannelException(), true));
+        assertTrue(policy.isRetryable(new QueryException(QueryException.READ_TIMEOUT, "Timeout"), true));
+
+        assertFalse(policy.isRetryable(new QueryException(QueryException.INVALID, "Invalid"), true));
+        assertFalse(policy.isRetryable(new OverloadedException("Too many requests"), true));
+    }
+
+    /**
+     * The backoff is random, up to a bound doubling at each retry.
+     */
+    @Test
+    public void testBackoff() {
+        final RetryPolicy policy = new RetryPolicy(3, 10, 50, TimeUnit.MILLISECONDS, 0.1);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(policy.getBackoff(1) <= TimeUnit.MILLISECONDS.toNanos(10));
+            assertTrue(policy.getBackoff(2) <= TimeUnit.MILLISECONDS.toNanos(20));
+            assertTrue(policy.getBackoff(10) <= TimeUnit.MILLISECONDS.toNanos(50));
+        }
+    }
+
+    /**
+     * A long base delay does not overflow the bound of the later retries.
+     */
+    @Test
+    public void testLongBackoff() {
+        final RetryPolicy policy = new RetryPolicy(3, 1, 10, TimeUnit.HOURS, 0.1);
+
+        long longest = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            final long backoff = policy.getBackoff(30);
+
+            assertTrue(backoff <= TimeUnit.HOURS.toNanos(10));
+            longest = Math.max(longest, backoff);
+        }
+
+        assertTrue(longest > TimeUnit.HOURS.toNanos(1));
+    }
+
+    /**
+     * The retries are capped by the successful requests.
+     */
+    @Test
+    public void testBudget() {
+        final RetryPolicy policy = new RetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS, 0.1);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.tryRetry());
+        }
+
+        assertFalse(policy.tryRetry());
+        assertEquals(1, policy.getExhausted());
+
+        for (int i = 0; i < 9; i++) {
+            policy.onSuccess();
+        }
+
+        assertFalse(policy.tryRetry());
+
+        policy.onSuccess();
+
+        assertTrue(policy.tryRetry());
+        assertEquals(11, policy.getRetries());
+    }
+
+    /**
+     * A ratio below a thousandth still refills the budget.
+     */
+    @Test
+    public void testSmallRatio() {
+        final RetryPolicy policy = new RetryPolicy(3, 1, 10, TimeUnit.MILLISECONDS, 0.0001);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.tryRetry());
+        }
+
+        for (int i = 0; i < 9999; i++) {
+            policy.onSuccess();
+        }
+
+        assertFalse(policy.tryRetry());
+
+        policy.onSuccess();
+
+        assertTrue(policy.tryRetry());
+    }
+}
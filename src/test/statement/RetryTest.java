@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012 Milo Casagrande milo@milo.name
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package test.statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.helenus.Helenus;
+import com.helenus.exception.QueryException;
+import com.helenus.protocol.Consistency;
+import com.helenus.result.ResultSet;
+import com.helenus.statement.RetryPolicy;
+
+/**
+ * @author Milo Casagrande
+ * @since 0.1
+ */
+public class RetryTest {
+    private static final String QUERY = FakeServer.QUERY;
+
+    private FakeServer server;
+
+    @Before
+    public void setUp() {
+        server = new FakeServer();
+        server.overload(FakeServer.FIRST);
+    }
+
+    /**
+     * A request failed by an overloaded node is retried on another node.
+     */
+    @Test
+    public void testRetry() throws Exception {
+        final RetryPolicy policy = new RetryPolicy(2, 1, 10, TimeUnit.MILLISECONDS, 0.1);
+        final Helenus helenus = server.client().withRetryPolicy(policy);
+
+        final ResultSet result = helenus.execute(QUERY, null, Consistency.ONE, 1, TimeUnit.SECONDS).get(1,
+                TimeUnit.SECONDS);
+
+        assertEquals("value", result.iterator().next().getString(0));
+        result.release();
+
+        assertEquals("Wrong retries", 1, policy.getRetries());
+        assertEquals("Wrong executions", 1, server.getExecutions());
+    }
+
+    /**
+     * A request is retried without a backoff, handed off to the scheduler.
+     */
+    @Test
+    public void testRetryWithoutBackoff() throws Exception {
+        final RetryPolicy policy = new RetryPolicy(2, 0, 0, TimeUnit.MILLISECONDS, 0.1);
+        final Helenus helenus = server.client().withRetryPolicy(policy);
+
+        final ResultSet result = helenus.execute(QUERY, null, Consistency.ONE, 1, TimeUnit.SECONDS).get(1,
+                TimeUnit.SECONDS);
+
+        assertEquals("value", result.iterator().next().getString(0));
+        result.release();
+
+        assertEquals("Wrong retries", 1, policy.getRetries());
+    }
+
+    /**
+     * A request is not retried beyond the maximum number of retries.
+     */
+    @Test
+    public void testNoRetry() throws Exception {
+        final RetryPolicy policy = new RetryPolicy(0, 1, 10, TimeUnit.MILLISECONDS, 0.1);
+        final Helenus helenus = server.client().withRetryPolicy(policy);
+
+        try {
+            helenus.execute(QUERY, null, Consistency.ONE, 1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS);
+            fail("Retried");
+        } catch (final ExecutionException ex) {
+            assertEquals(QueryException.OVERLOADED, ((QueryException) ex.getCause()).getCode());
+        }
+
+        assertEquals("Wrong retries", 0, policy.getRetries());
+    }
+}